@@ -0,0 +1,250 @@
+package com.collabboard.client;
+
+import com.collabboard.interfaces.ClientCallback;
+import com.collabboard.utils.BinaryProtocol;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.rmi.ConnectException;
+import java.rmi.RemoteException;
+import java.rmi.ServerException;
+import java.rmi.UnexpectedException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Client side of the binary transport
+ * Hands out proxies of the service interfaces that send each call as a request frame over
+ * one connection. Calls from several threads are pipelined: they are written as they are
+ * made and a reader thread completes each one when its response arrives, in any order.
+ * Callback frames from the server are delivered to the client's callback in the order
+ * they were sent, on a thread of their own, so a slow callback never stalls responses.
+ */
+public class BinaryTransportClient {
+    
+    private final SocketChannel channel;
+    private final ClientCallback callback;
+    private final Map<Integer, CompletableFuture<BinaryProtocol.Frame>> pendingCalls;
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+    private final ExecutorService callbackExecutor;
+    private final Queue<BinaryProtocol.Frame> callbackFrames = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean deliveringCallbacks = new AtomicBoolean();
+    private final Object writeLock = new Object();
+    private final Thread readerThread;
+    private volatile IOException failure; // why the connection was lost
+    
+    /**
+     * Connect to the binary transport of a server
+     * @param callback Client callback the server's callbacks go to, may be null
+     * @throws IOException if the server cannot be reached or runs another version
+     */
+    public BinaryTransportClient(String serverHost, int port, ClientCallback callback) throws IOException {
+        this.channel = SocketChannel.open(new InetSocketAddress(serverHost, port));
+        this.channel.socket().setTcpNoDelay(true);
+        this.callback = callback;
+        this.pendingCalls = new ConcurrentHashMap<>();
+        this.callbackExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "binary-transport-callbacks");
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        try {
+            write(BinaryProtocol.encodeHello());
+            BinaryProtocol.checkHello(readFrame(ByteBuffer.allocate(BinaryProtocol.LENGTH_SIZE)));
+        } catch (IOException e) {
+            channel.close();
+            callbackExecutor.shutdownNow();
+            throw e;
+        }
+        
+        this.readerThread = new Thread(this::readLoop, "binary-transport-reader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+    
+    /**
+     * Get a proxy of a service that calls it over this connection
+     * @param serviceInterface WhiteboardService, ChatService or FileService
+     */
+    public <T> T getService(Class<T> serviceInterface) {
+        return serviceInterface.cast(Proxy.newProxyInstance(serviceInterface.getClassLoader(),
+            new Class<?>[] {serviceInterface}, (proxy, method, args) -> {
+                if (method.getDeclaringClass() == Object.class) {
+                    switch (method.getName()) {
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        default:
+                            return "BinaryProxy[" + serviceInterface.getSimpleName() + "]";
+                    }
+                }
+                return call(method, args);
+            }));
+    }
+    
+    /**
+     * Send a call and wait for its response
+     */
+    private Object call(Method method, Object[] args) throws Throwable {
+        int requestId = nextRequestId.incrementAndGet();
+        CompletableFuture<BinaryProtocol.Frame> response = new CompletableFuture<>();
+        pendingCalls.put(requestId, response);
+        
+        BinaryProtocol.Frame frame;
+        try {
+            if (failure != null) {
+                throw failure;
+            }
+            write(BinaryProtocol.encodeFrame(BinaryProtocol.KIND_REQUEST, requestId,
+                                             BinaryProtocol.getOpcode(method), args));
+            frame = response.get();
+        } catch (ExecutionException e) {
+            throw new ConnectException("Connection to server lost", (Exception) e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for the server", e);
+        } catch (IOException e) {
+            throw new ConnectException("Connection to server lost", e);
+        } finally {
+            pendingCalls.remove(requestId);
+        }
+        
+        Object value = frame.readValues(1, null)[0];
+        if (frame.getKind() != BinaryProtocol.KIND_ERROR) {
+            return value;
+        }
+        
+        // Report server exceptions the way RMI does
+        if (value instanceof RemoteException) {
+            throw new ServerException("RemoteException occurred in server thread", (RemoteException) value);
+        }
+        if (value instanceof RuntimeException || value instanceof Error) {
+            throw (Throwable) value;
+        }
+        for (Class<?> declared : method.getExceptionTypes()) {
+            if (declared.isInstance(value)) {
+                throw (Throwable) value;
+            }
+        }
+        throw new UnexpectedException("unexpected exception", (Exception) value);
+    }
+    
+    private void write(ByteBuffer frame) throws IOException {
+        synchronized (writeLock) {
+            while (frame.hasRemaining()) {
+                channel.write(frame);
+            }
+        }
+    }
+    
+    /**
+     * Read one frame, blocking until it is complete
+     */
+    private BinaryProtocol.Frame readFrame(ByteBuffer lengthBuffer) throws IOException {
+        lengthBuffer.clear();
+        readFully(lengthBuffer);
+        int length = lengthBuffer.getInt(0);
+        if (length < BinaryProtocol.HEADER_SIZE) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        ByteBuffer frame = ByteBuffer.allocate(length);
+        readFully(frame);
+        return new BinaryProtocol.Frame(frame.array(), 0, length);
+    }
+    
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Server closed the connection");
+            }
+        }
+    }
+    
+    private void readLoop() {
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(BinaryProtocol.LENGTH_SIZE);
+        try {
+            while (true) {
+                BinaryProtocol.Frame frame = readFrame(lengthBuffer);
+                if (frame.getKind() == BinaryProtocol.KIND_CALLBACK) {
+                    // One delivery task per burst of callbacks rather than per callback
+                    callbackFrames.add(frame);
+                    if (deliveringCallbacks.compareAndSet(false, true)) {
+                        callbackExecutor.execute(this::deliverCallbacks);
+                    }
+                    continue;
+                }
+                CompletableFuture<BinaryProtocol.Frame> response = pendingCalls.get(frame.getRequestId());
+                if (response != null) {
+                    response.complete(frame);
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+        
+        // Fail the calls still waiting, and the ones made from now on
+        for (CompletableFuture<BinaryProtocol.Frame> response : pendingCalls.values()) {
+            response.completeExceptionally(failure);
+        }
+        callbackExecutor.shutdown();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+    
+    private void deliverCallbacks() {
+        do {
+            BinaryProtocol.Frame frame;
+            while ((frame = callbackFrames.poll()) != null) {
+                deliverCallback(frame);
+            }
+            deliveringCallbacks.set(false);
+        } while (!callbackFrames.isEmpty() && deliveringCallbacks.compareAndSet(false, true));
+    }
+    
+    private void deliverCallback(BinaryProtocol.Frame frame) {
+        Method method = BinaryProtocol.getMethod(frame.getOpcode());
+        if (callback == null || method == null) {
+            return;
+        }
+        try {
+            method.invoke(callback, frame.readValues(method.getParameterCount(), null));
+        } catch (Exception e) {
+            System.err.println("Error handling " + method.getName() + " callback: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Check if the connection is still open
+     */
+    public boolean isConnected() {
+        return failure == null && channel.isOpen();
+    }
+    
+    /**
+     * Close the connection, pending calls fail with a ConnectException
+     */
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+}
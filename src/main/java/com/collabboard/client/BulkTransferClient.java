@@ -0,0 +1,145 @@
+package com.collabboard.client;
+
+import com.collabboard.models.TransferTicket;
+import com.collabboard.utils.BulkChannel;
+import com.collabboard.utils.BulkTransferProtocol;
+import com.collabboard.utils.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * Client side of the bulk transfer channel
+ * File bytes move between the socket and the local file with transferTo/transferFrom,
+ * so they are never copied through the Java heap. A transfer fails when the server sends
+ * or accepts nothing for the I/O timeout.
+ */
+public class BulkTransferClient {
+    
+    private static final long DEFAULT_IO_TIMEOUT = 30000;
+    
+    private final String serverHost;
+    private final long ioTimeout;
+    
+    public BulkTransferClient(String serverHost) {
+        this(serverHost, DEFAULT_IO_TIMEOUT);
+    }
+    
+    public BulkTransferClient(String serverHost, long ioTimeout) {
+        this.serverHost = serverHost;
+        this.ioTimeout = ioTimeout;
+    }
+    
+    /**
+     * Download a file using a download ticket
+     * @param ticket Ticket issued by FileService.requestDownloadTicket
+     * @param target Local file to write
+     * @throws IOException if the transfer fails or the file does not match its SHA-256
+     */
+    public void download(TransferTicket ticket, File target) throws IOException {
+        try (BulkChannel socket = connect(ticket);
+             FileChannel file = FileChannel.open(target.toPath(), StandardOpenOption.CREATE, 
+                 StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = ticket.getFileSize();
+            long position = 0;
+            while (position < size) {
+                long received = socket.receiveFile(file, position, 
+                    Math.min(BulkTransferProtocol.TRANSFER_SLICE, size - position));
+                if (received <= 0) {
+                    throw new IOException("Download ended after " + position + " of " + size + " bytes");
+                }
+                position += received;
+            }
+        } catch (IOException e) {
+            target.delete();
+            throw e;
+        }
+        
+        if (ticket.getSha256() != null && 
+            !ticket.getSha256().equalsIgnoreCase(FileUtils.computeSha256(target.getAbsolutePath()))) {
+            target.delete();
+            throw new IOException("Downloaded file is corrupted (SHA-256 mismatch)");
+        }
+    }
+    
+    /**
+     * Download a ZIP archive that the server generates while sending it
+     * The archive ends when the server closes the connection, and it is only accepted
+     * if its central directory is intact
+     * @param ticket Ticket issued by FileService.requestZipDownloadTicket
+     * @param target Local file to write
+     * @throws IOException if the transfer fails or the archive is incomplete
+     */
+    public void downloadArchive(TransferTicket ticket, File target) throws IOException {
+        try (BulkChannel socket = connect(ticket);
+             FileChannel file = FileChannel.open(target.toPath(), StandardOpenOption.CREATE, 
+                 StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            long received;
+            while ((received = socket.receiveFile(file, position, BulkTransferProtocol.TRANSFER_SLICE)) > 0) {
+                position += received;
+            }
+        } catch (IOException e) {
+            target.delete();
+            throw e;
+        }
+        
+        try (ZipFile archive = new ZipFile(target)) {
+            if (archive.size() == 0) {
+                throw new ZipException("Archive is empty");
+            }
+        } catch (ZipException e) {
+            target.delete();
+            throw new IOException("Downloaded archive is incomplete: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Upload a file using an upload ticket
+     * @param ticket Ticket issued by FileService.requestUploadTicket
+     * @param source Local file to send
+     * @return The file ID assigned by the server
+     * @throws IOException if the transfer fails or the server rejects the file
+     */
+    public String upload(TransferTicket ticket, File source) throws IOException {
+        try (BulkChannel socket = connect(ticket);
+             FileChannel file = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            long size = ticket.getFileSize();
+            long position = 0;
+            while (position < size) {
+                long sent = socket.sendFile(file, position, 
+                    Math.min(BulkTransferProtocol.TRANSFER_SLICE, size - position));
+                if (sent <= 0) {
+                    throw new IOException("Upload ended after " + position + " of " + size + " bytes");
+                }
+                position += sent;
+            }
+            
+            return BulkTransferProtocol.readStatus(socket);
+        }
+    }
+    
+    private BulkChannel connect(TransferTicket ticket) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(serverHost, ticket.getPort()));
+        BulkChannel socket = null;
+        try {
+            channel.socket().setTcpNoDelay(true);
+            socket = new BulkChannel(channel, ioTimeout);
+            BulkTransferProtocol.writeToken(socket, ticket.getToken());
+            return socket;
+        } catch (IOException e) {
+            if (socket != null) {
+                socket.close();
+            } else {
+                channel.close();
+            }
+            throw e;
+        }
+    }
+}
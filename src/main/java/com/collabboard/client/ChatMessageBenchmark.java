@@ -0,0 +1,118 @@
+package com.collabboard.client;
+
+import com.collabboard.models.ChatMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmark of the memory and wire size of chat messages
+ * Reports the serialized bytes of one message sent alone, as in one RMI call, and per
+ * message in a page of history, the heap a server keeps for each message it received in
+ * a call of its own, and the time to serialize and deserialize one message. It only uses
+ * the public constructor and Java serialization, so running it on an earlier build gives
+ * the figures to compare with.
+ * Usage: ChatMessageBenchmark [retained messages]
+ * Run with a fixed heap (e.g. -Xms1g -Xmx1g) so the heap figure is not skewed by resizing.
+ */
+public class ChatMessageBenchmark {
+    
+    private static final int USERS = 20;
+    private static final int PAGE_SIZE = 1000;
+    private static final int TIMED_ROUNDS = 100_000;
+    
+    private final String[] userIds = new String[USERS];
+    
+    public ChatMessageBenchmark() {
+        // Shaped like the IDs the client generates
+        for (int i = 0; i < USERS; i++) {
+            userIds[i] = "user_" + (1760000000000L + i * 7919) + "_" + (100 + i);
+        }
+    }
+    
+    /**
+     * Measure and print the results
+     * @param retained Number of messages kept alive for the heap figure
+     */
+    public void run(int retained) throws Exception {
+        ChatMessage sample = new ChatMessage(userIds[3], "alice", "sounds good, see you at 3");
+        System.out.printf("Wire bytes, one message per call:        %d%n", serialize(sample).length);
+        
+        List<ChatMessage> page = new ArrayList<>();
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            ChatMessage message = new ChatMessage(userIds[i % USERS], "name" + (i % USERS), "message number " + i + " hi");
+            message.setSequenceNumber(i + 1);
+            page.add(message);
+        }
+        System.out.printf("Wire bytes per message, %d-message page: %.1f%n", PAGE_SIZE,
+                          serialize(new ArrayList<>(page)).length / (double) PAGE_SIZE);
+        
+        // Every retained message is read from its own stream, as the server receives them
+        List<byte[]> received = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            received.add(serialize(new ChatMessage(userIds[i], "name" + i, "message text of typical length!")));
+        }
+        Object[] kept = new Object[retained];
+        long before = usedHeap();
+        for (int i = 0; i < retained; i++) {
+            kept[i] = deserialize(received.get(i % USERS));
+        }
+        long after = usedHeap();
+        System.out.printf("Heap bytes per retained message:         %.0f%n", (after - before) / (double) retained);
+        
+        for (int i = 0; i < TIMED_ROUNDS; i++) {
+            deserialize(serialize(sample)); // warm up
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < TIMED_ROUNDS; i++) {
+            deserialize(serialize(sample));
+        }
+        System.out.printf("Serialize + deserialize, one message:    %.1f us%n",
+                          (System.nanoTime() - start) / (double) TIMED_ROUNDS / 1000);
+        
+        // Keep the messages reachable until after the heap was measured
+        System.out.println("(" + kept.length + " messages retained)");
+    }
+    
+    private static byte[] serialize(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
+    
+    private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+    
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+    
+    public static void main(String[] args) {
+        int retained = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        
+        int exitCode = 0;
+        try {
+            new ChatMessageBenchmark().run(retained);
+        } catch (Exception e) {
+            System.err.println("Chat message benchmark failed: " + e.getMessage());
+            e.printStackTrace();
+            exitCode = 1;
+        }
+        System.exit(exitCode);
+    }
+}
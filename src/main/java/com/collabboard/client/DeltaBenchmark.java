@@ -0,0 +1,187 @@
+package com.collabboard.client;
+
+import com.collabboard.models.BlockSignature;
+import com.collabboard.models.DeltaInstruction;
+import com.collabboard.models.FileTransfer;
+import com.collabboard.server.FileServerImpl;
+import com.collabboard.utils.DeltaEncoder;
+import com.collabboard.utils.FileUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark of delta uploads against uploading the whole revised file
+ * Uploads a random base file to an in-process file server, then for each kind of edit
+ * fetches the base file's block signatures, encodes the edited file against them and
+ * uploads the delta. Reports the bytes each direction would take over RMI, the time of
+ * each step, and whether the server rebuilt the edited file exactly.
+ * Usage: DeltaBenchmark [base file size in MB]
+ * Storage goes to a temporary directory that is deleted afterwards.
+ */
+public class DeltaBenchmark {
+    
+    private static final String CONFIG_FILE = "src/main/resources/config.properties";
+    private static final String[] EDITS = {
+        "overwrite 64KB mid", "insert 1KB at 1/3", "delete 4KB at 2/3", "append 50KB", "3 scattered 8KB edits"
+    };
+    
+    private final FileServerImpl fileServer;
+    private final Random random = new Random(1); // the same files on every run
+    
+    public DeltaBenchmark(Properties config) throws IOException {
+        this.fileServer = new FileServerImpl(config);
+    }
+    
+    /**
+     * Upload the base file, then each edit of it as a delta, and print the results
+     */
+    public void run(int baseSize) throws Exception {
+        byte[] base = randomBytes(baseSize); // incompressible, so only the delta saves bytes
+        String baseId = fileServer.uploadFile(newFile(base, "bench"));
+        int blockSize = DeltaEncoder.chooseBlockSize(base.length);
+        System.out.println("Base file " + FileUtils.formatFileSize(base.length) + ", block size " + blockSize);
+        System.out.printf("  %-24s %12s %12s %12s %12s %8s %8s %8s %s%n", "edit", "signatures", "delta sent",
+                          "literal", "full upload", "sig ms", "enc ms", "apply ms", "rebuilt");
+        
+        for (int edit = 0; edit < EDITS.length; edit++) {
+            byte[] revised = edit(base, edit);
+            
+            long start = System.nanoTime();
+            List<BlockSignature> signatures = fileServer.getBlockSignatures(baseId, blockSize);
+            long signed = System.nanoTime();
+            List<DeltaInstruction> delta = DeltaEncoder.encode(revised, blockSize, signatures);
+            long encoded = System.nanoTime();
+            FileTransfer metadata = newFile(null, "bench" + edit);
+            metadata.setFileSize(revised.length);
+            metadata.setSha256(FileUtils.computeSha256(revised));
+            String revisedId = fileServer.uploadDelta(metadata, baseId, blockSize, delta);
+            long applied = System.nanoTime();
+            
+            FileTransfer rebuilt = fileServer.downloadFile(revisedId);
+            boolean identical = rebuilt != null && Arrays.equals(revised, rebuilt.getData());
+            System.out.printf("  %-24s %12s %12s %12s %12s %8d %8d %8d %s%n", EDITS[edit],
+                              FileUtils.formatFileSize(serializedSize(new ArrayList<>(signatures))),
+                              FileUtils.formatFileSize(serializedSize(new ArrayList<>(delta))),
+                              FileUtils.formatFileSize(DeltaEncoder.getLiteralBytes(delta)),
+                              FileUtils.formatFileSize(serializedSize(newFile(revised, "bench" + edit))),
+                              (signed - start) / 1_000_000, (encoded - signed) / 1_000_000,
+                              (applied - encoded) / 1_000_000, identical ? "identical" : "DIFFERENT");
+        }
+    }
+    
+    /**
+     * Get a copy of the base file with one kind of edit applied
+     */
+    private byte[] edit(byte[] base, int edit) {
+        switch (edit) {
+            case 0: {
+                byte[] revised = base.clone();
+                System.arraycopy(randomBytes(64 * 1024), 0, revised, base.length / 2, 64 * 1024);
+                return revised;
+            }
+            case 1: {
+                int at = base.length / 3;
+                byte[] revised = new byte[base.length + 1024];
+                System.arraycopy(base, 0, revised, 0, at);
+                System.arraycopy(randomBytes(1024), 0, revised, at, 1024);
+                System.arraycopy(base, at, revised, at + 1024, base.length - at);
+                return revised;
+            }
+            case 2: {
+                int at = base.length / 3 * 2;
+                byte[] revised = new byte[base.length - 4096];
+                System.arraycopy(base, 0, revised, 0, at);
+                System.arraycopy(base, at + 4096, revised, at, base.length - at - 4096);
+                return revised;
+            }
+            case 3: {
+                byte[] revised = Arrays.copyOf(base, base.length + 50 * 1024);
+                System.arraycopy(randomBytes(50 * 1024), 0, revised, base.length, 50 * 1024);
+                return revised;
+            }
+            default: {
+                byte[] revised = base.clone();
+                for (int i = 1; i <= 3; i++) {
+                    System.arraycopy(randomBytes(8192), 0, revised, base.length / 4 * i, 8192);
+                }
+                return revised;
+            }
+        }
+    }
+    
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+    
+    private static FileTransfer newFile(byte[] data, String uploaderId) {
+        FileTransfer file = new FileTransfer();
+        file.setFileName("deck.pptx");
+        file.setFileType("pptx");
+        file.setUploaderId(uploaderId);
+        file.setUploaderName("Benchmark");
+        file.setData(data);
+        if (data != null) {
+            file.setFileSize(data.length);
+        }
+        return file;
+    }
+    
+    /**
+     * Get the size of a value in Java serialization, which is what RMI sends for it
+     */
+    private static long serializedSize(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        return bytes.size();
+    }
+    
+    public static void main(String[] args) {
+        Properties config = new Properties();
+        try (FileInputStream in = new FileInputStream(CONFIG_FILE)) {
+            config.load(in);
+        } catch (IOException e) {
+            System.err.println("Could not load configuration file, using defaults");
+        }
+        int baseSize = (args.length > 0 ? Integer.parseInt(args[0]) : 30) * 1024 * 1024;
+        
+        int exitCode = 0;
+        Path storage = null;
+        try {
+            storage = Files.createTempDirectory("delta-benchmark");
+            config.setProperty("file.storage.directory", storage.toString());
+            config.setProperty("ratelimit.user.rate", "0");
+            config.setProperty("file.max.size", String.valueOf(2L * baseSize));
+            new DeltaBenchmark(config).run(baseSize);
+        } catch (Exception e) {
+            System.err.println("Delta benchmark failed: " + e.getMessage());
+            e.printStackTrace();
+            exitCode = 1;
+        } finally {
+            if (storage != null) {
+                try (Stream<Path> files = Files.walk(storage)) {
+                    files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+                } catch (IOException e) {
+                    System.err.println("Could not delete " + storage + ": " + e.getMessage());
+                }
+            }
+        }
+        System.exit(exitCode);
+    }
+}
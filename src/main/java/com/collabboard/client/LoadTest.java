@@ -0,0 +1,239 @@
+package com.collabboard.client;
+
+import com.collabboard.interfaces.ChatService;
+import com.collabboard.interfaces.ClientCallback;
+import com.collabboard.interfaces.RetryLaterException;
+import com.collabboard.interfaces.WhiteboardService;
+import com.collabboard.models.ChatMessage;
+import com.collabboard.models.DrawingAction;
+import com.collabboard.models.User;
+import com.collabboard.server.LatencyStats;
+
+import java.awt.Color;
+import java.awt.Point;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load test that runs the same mix of calls over RMI or the binary transport
+ * Each simulated client registers for callbacks and loops over sending a chat message,
+ * drawing, reading recent chat history and typing notifications for the given time.
+ * Reports the latency of each operation, the call throughput and the callbacks received.
+ * Usage: LoadTest [rmi|binary] [clients] [seconds] [host]
+ * Run against a server with rate limiting off (ratelimit.user.rate=0) to measure the
+ * transport rather than the limiter.
+ */
+public class LoadTest {
+    
+    private static final String CONFIG_FILE = "src/main/resources/config.properties";
+    private static final String[] OPERATIONS = {"sendMessage", "addDrawingAction", "getMessagesAfter", "notifyTyping"};
+    
+    private final Properties config;
+    private final String transport;
+    private final String host;
+    private final int clientCount;
+    private final int seconds;
+    private final LatencyStats[] latency = new LatencyStats[OPERATIONS.length];
+    private final LongAdder callbacks = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    
+    public LoadTest(Properties config, String transport, String host, int clientCount, int seconds) {
+        this.config = config;
+        this.transport = transport;
+        this.host = host;
+        this.clientCount = clientCount;
+        this.seconds = seconds;
+        for (int i = 0; i < latency.length; i++) {
+            latency[i] = new LatencyStats();
+        }
+    }
+    
+    /**
+     * One simulated client with its own callback and, over the binary transport, its own connection
+     */
+    private class LoadClient implements Runnable {
+        final String userId;
+        final User user;
+        final ClientCallback callback;
+        ClientCallback callbackStub;
+        BinaryTransportClient binaryClient;
+        WhiteboardService whiteboardService;
+        ChatService chatService;
+        volatile long deadline;
+        
+        LoadClient(int index) {
+            this.userId = "load_" + index;
+            this.user = new User(userId, "Load " + index, "localhost");
+            this.callback = (ClientCallback) Proxy.newProxyInstance(ClientCallback.class.getClassLoader(),
+                new Class<?>[] {ClientCallback.class}, (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        switch (method.getName()) {
+                            case "equals":
+                                return proxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            default:
+                                return "LoadClient[" + userId + "]";
+                        }
+                    }
+                    callbacks.increment();
+                    return null;
+                });
+        }
+        
+        void connect() throws Exception {
+            if ("binary".equals(transport)) {
+                int port = Integer.parseInt(config.getProperty("transport.binary.port", "1101"));
+                binaryClient = new BinaryTransportClient(host, port, callback);
+                whiteboardService = binaryClient.getService(WhiteboardService.class);
+                chatService = binaryClient.getService(ChatService.class);
+                callbackStub = callback;
+            } else {
+                Registry registry = LocateRegistry.getRegistry(host,
+                    Integer.parseInt(config.getProperty("rmi.registry.port", "1099")));
+                whiteboardService = (WhiteboardService) registry.lookup(
+                    config.getProperty("service.whiteboard.name", "WhiteboardService"));
+                chatService = (ChatService) registry.lookup(config.getProperty("service.chat.name", "ChatService"));
+                callbackStub = (ClientCallback) UnicastRemoteObject.exportObject(callback, 0);
+            }
+            whiteboardService.registerClient(callbackStub, userId);
+            chatService.registerChatClient(callbackStub, user);
+        }
+        
+        @Override
+        public void run() {
+            long lastSequence = 0;
+            List<Point> points = Arrays.asList(new Point(10, 10), new Point(50, 40), new Point(90, 20));
+            for (int i = 0; System.nanoTime() < deadline; i++) {
+                int operation = i % OPERATIONS.length;
+                long start = System.nanoTime();
+                try {
+                    switch (operation) {
+                        case 0:
+                            lastSequence = chatService.sendMessage(
+                                new ChatMessage(userId, user.getUsername(), "Load test message " + i));
+                            break;
+                        case 1:
+                            whiteboardService.addDrawingAction(new DrawingAction(
+                                DrawingAction.ActionType.DRAW_LINE, points, Color.BLUE, 2, userId));
+                            break;
+                        case 2:
+                            chatService.getMessagesAfter(Math.max(0, lastSequence - 20), 20);
+                            break;
+                        default:
+                            chatService.notifyTyping(userId, user.getUsername(), true);
+                            break;
+                    }
+                    latency[operation].record(System.nanoTime() - start);
+                } catch (Exception e) {
+                    RetryLaterException retryLater = RetryLaterException.find(e);
+                    if (retryLater == null) {
+                        failed.increment();
+                        System.err.println(userId + " " + OPERATIONS[operation] + " failed: " + e.getMessage());
+                        return;
+                    }
+                    throttled.increment();
+                    try {
+                        Thread.sleep(retryLater.getRetryAfterMillis());
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                }
+            }
+        }
+        
+        void disconnect() {
+            try {
+                whiteboardService.unregisterClient(callbackStub, userId);
+                chatService.unregisterChatClient(callbackStub, userId);
+            } catch (Exception e) {
+                System.err.println(userId + " unregister failed: " + e.getMessage());
+            }
+            if (binaryClient != null) {
+                binaryClient.close();
+            } else {
+                try {
+                    UnicastRemoteObject.unexportObject(callback, true);
+                } catch (Exception e) {
+                    // Not exported
+                }
+            }
+        }
+    }
+    
+    /**
+     * Connect the clients, run the load and print the results
+     */
+    public void run() throws Exception {
+        List<LoadClient> clients = new ArrayList<>();
+        for (int i = 0; i < clientCount; i++) {
+            LoadClient client = new LoadClient(i);
+            client.connect();
+            clients.add(client);
+        }
+        System.out.println("Running " + clientCount + " clients over " + transport + " for " + seconds + " s");
+        
+        long start = System.nanoTime();
+        List<Thread> threads = new ArrayList<>();
+        for (LoadClient client : clients) {
+            client.deadline = start + seconds * 1_000_000_000L;
+            Thread thread = new Thread(client, "load-" + client.userId);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        
+        // Let the last callbacks arrive before counting them
+        Thread.sleep(500);
+        long callbackCount = callbacks.sum();
+        for (LoadClient client : clients) {
+            client.disconnect();
+        }
+        
+        long calls = 0;
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            calls += latency[i].getCount();
+            System.out.printf("  %-18s %s%n", OPERATIONS[i], latency[i]);
+        }
+        System.out.printf("Transport %s: %d calls in %.1f s (%.0f calls/s), %d callbacks (%.0f/s), %d throttled, %d failed%n",
+                          transport, calls, elapsed, calls / elapsed, callbackCount, callbackCount / elapsed,
+                          throttled.sum(), failed.sum());
+    }
+    
+    public static void main(String[] args) {
+        Properties config = new Properties();
+        try (FileInputStream in = new FileInputStream(CONFIG_FILE)) {
+            config.load(in);
+        } catch (IOException e) {
+            System.err.println("Could not load configuration file, using defaults");
+        }
+        
+        String transport = args.length > 0 ? args[0].toLowerCase() : config.getProperty("transport.mode", "rmi");
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        String host = args.length > 3 ? args[3] : config.getProperty("server.host", "localhost");
+        
+        int exitCode = 0;
+        try {
+            new LoadTest(config, transport, host, clients, seconds).run();
+        } catch (Exception e) {
+            System.err.println("Load test failed: " + e.getMessage());
+            e.printStackTrace();
+            exitCode = 1;
+        }
+        System.exit(exitCode);
+    }
+}
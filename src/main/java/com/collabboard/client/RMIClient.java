@@ -2,14 +2,22 @@ package com.collabboard.client;
 
 import com.collabboard.interfaces.*;
 import com.collabboard.models.*;
+import com.collabboard.gui.ChatPanel;
 import com.collabboard.gui.MainWindow;
 
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
 import java.rmi.RemoteException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.io.FileInputStream;
 import java.io.IOException;
 import javax.swing.SwingUtilities;
@@ -25,11 +33,15 @@ public class RMIClient implements ClientCallback {
     private Properties config;
     private String serverHost;
     private int serverPort;
+    private boolean binaryTransport; // services reached over the binary transport instead of RMI
     
     // RMI services
     private WhiteboardService whiteboardService;
     private ChatService chatService;
     private FileService fileService;
+    private volatile FileListPage initialFilePage;
+    private BulkTransferClient bulkTransferClient;
+    private BinaryTransportClient binaryTransportClient;
     
     // Client information
     private User currentUser;
@@ -40,7 +52,12 @@ public class RMIClient implements ClientCallback {
     private MainWindow mainWindow;
     
     // Connection state
-    private boolean connected = false;
+    private volatile boolean connected = false;
+    private ClientCallback clientStub; // exported once, registered again on reconnect
+    private ScheduledExecutorService connectionMonitor;
+    
+    // Sequence number of the last chat message seen in each channel, replayed from on reconnect
+    private final Map<String, Long> lastSeenSequences = new ConcurrentHashMap<>();
     
     public RMIClient(String serverHost) {
         this.serverHost = serverHost != null ? serverHost : "localhost";
@@ -61,6 +78,7 @@ public class RMIClient implements ClientCallback {
         }
         
         this.serverPort = Integer.parseInt(config.getProperty("rmi.registry.port", "1099"));
+        this.binaryTransport = "binary".equalsIgnoreCase(config.getProperty("transport.mode", "rmi").trim());
     }
     
     /**
@@ -101,20 +119,10 @@ public class RMIClient implements ClientCallback {
         try {
             System.out.println("Connecting to server at " + serverHost + ":" + serverPort);
             
-            // Get RMI registry
-            Registry registry = LocateRegistry.getRegistry(serverHost, serverPort);
-            
-            // Lookup services
-            String whiteboardName = config.getProperty("service.whiteboard.name", "WhiteboardService");
-            String chatName = config.getProperty("service.chat.name", "ChatService");
-            String fileName = config.getProperty("service.file.name", "FileService");
+            lookupServices();
             
-            whiteboardService = (WhiteboardService) registry.lookup(whiteboardName);
-            chatService = (ChatService) registry.lookup(chatName);
-            fileService = (FileService) registry.lookup(fileName);
-            
-            // Export this client for callbacks
-            ClientCallback clientStub = (ClientCallback) UnicastRemoteObject.exportObject(this, 0);
+            // Export this client for callbacks, the binary transport carries them on its connection
+            clientStub = binaryTransport ? this : (ClientCallback) UnicastRemoteObject.exportObject(this, 0);
             
             // Register with services
             whiteboardService.registerClient(clientStub, userId);
@@ -123,6 +131,7 @@ public class RMIClient implements ClientCallback {
             
             connected = true;
             System.out.println("Successfully connected to server");
+            startConnectionMonitor();
             
             return true;
             
@@ -142,10 +151,159 @@ public class RMIClient implements ClientCallback {
         }
     }
     
+    /**
+     * Look up the services in the server's registry, or connect to its binary transport
+     */
+    private void lookupServices() throws Exception {
+        if (binaryTransport) {
+            if (binaryTransportClient != null) {
+                binaryTransportClient.close();
+            }
+            int port = Integer.parseInt(config.getProperty("transport.binary.port", "1101"));
+            binaryTransportClient = new BinaryTransportClient(serverHost, port, this);
+            whiteboardService = binaryTransportClient.getService(WhiteboardService.class);
+            chatService = binaryTransportClient.getService(ChatService.class);
+            fileService = binaryTransportClient.getService(FileService.class);
+            bulkTransferClient = new BulkTransferClient(serverHost, 
+                Long.parseLong(config.getProperty("file.bulk.io.timeout", "30000")));
+            return;
+        }
+        
+        // Get RMI registry
+        Registry registry = LocateRegistry.getRegistry(serverHost, serverPort);
+        
+        // Lookup services
+        String whiteboardName = config.getProperty("service.whiteboard.name", "WhiteboardService");
+        String chatName = config.getProperty("service.chat.name", "ChatService");
+        String fileName = config.getProperty("service.file.name", "FileService");
+        
+        whiteboardService = (WhiteboardService) registry.lookup(whiteboardName);
+        chatService = (ChatService) registry.lookup(chatName);
+        fileService = (FileService) registry.lookup(fileName);
+        bulkTransferClient = new BulkTransferClient(serverHost, 
+            Long.parseLong(config.getProperty("file.bulk.io.timeout", "30000")));
+    }
+    
+    /**
+     * Check the connection periodically and reconnect when it was lost
+     */
+    private void startConnectionMonitor() {
+        if (connectionMonitor != null) {
+            return;
+        }
+        long interval = Long.parseLong(config.getProperty("client.connection.check.millis", "5000"));
+        connectionMonitor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ConnectionMonitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        connectionMonitor.scheduleWithFixedDelay(this::checkConnection, interval, interval, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Reconnect if the server cannot be reached or dropped this client
+     */
+    private void checkConnection() {
+        try {
+            if (connected && chatService.isChatClientRegistered(userId)) {
+                return;
+            }
+            if (connected) {
+                System.out.println("Dropped by the server, reconnecting");
+            }
+        } catch (RemoteException e) {
+            if (RetryLaterException.find(e) != null) {
+                return; // busy, not disconnected
+            }
+            System.out.println("Lost connection to server, reconnecting: " + e.getMessage());
+        }
+        
+        if (connected) {
+            connected = false;
+            SwingUtilities.invokeLater(() -> {
+                if (mainWindow != null) {
+                    mainWindow.getChatPanel().addSystemMessage("Connection to server lost, reconnecting...");
+                }
+            });
+        }
+        reconnect();
+    }
+    
+    /**
+     * Register with the services again and catch up on the chat messages missed meanwhile
+     * The first attempt waits a random part of the delay, so clients that lost the
+     * connection together do not all reconnect at once.
+     */
+    private void reconnect() {
+        int attempts = Integer.parseInt(config.getProperty("client.reconnect.attempts", "3"));
+        long delay = Long.parseLong(config.getProperty("client.reconnect.delay", "5000"));
+        long wait = ThreadLocalRandom.current().nextLong(Math.max(1, delay));
+        
+        for (int attempt = 1; attempt <= attempts; attempt++) {
+            try {
+                Thread.sleep(wait);
+                lookupServices();
+                whiteboardService.registerClient(clientStub, userId);
+                List<ChatCatchUp> catchUps = chatService.resumeChatClient(
+                    clientStub, currentUser, new HashMap<>(lastSeenSequences));
+                fileService.registerFileClient(clientStub, userId);
+                
+                connected = true;
+                System.out.println("Reconnected to server");
+                showCatchUps(catchUps);
+                return;
+                
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                System.err.println("Reconnect attempt " + attempt + " failed: " + e.getMessage());
+                RetryLaterException retryLater = RetryLaterException.find(e);
+                wait = retryLater != null ? retryLater.getRetryAfterMillis() : delay * attempt;
+            }
+        }
+        // The next connection check starts another round
+    }
+    
+    /**
+     * Show the chat messages missed while disconnected
+     */
+    private void showCatchUps(List<ChatCatchUp> catchUps) {
+        for (ChatCatchUp catchUp : catchUps) {
+            if (catchUp.isReplayed()) {
+                noteSeenSequence(catchUp.getChannel(), catchUp.getLastSequence());
+            } else {
+                lastSeenSequences.put(catchUp.getChannel(), catchUp.getLastSequence());
+            }
+        }
+        SwingUtilities.invokeLater(() -> {
+            if (mainWindow != null) {
+                ChatPanel chatPanel = mainWindow.getChatPanel();
+                for (ChatCatchUp catchUp : catchUps) {
+                    chatPanel.showCatchUp(catchUp);
+                }
+                chatPanel.addSystemMessage("Reconnected to server");
+                chatPanel.loadChannels();
+            }
+        });
+    }
+    
+    /**
+     * Remember the newest chat message seen in a channel, catch-up after a reconnect starts after it
+     */
+    public void noteSeenSequence(String channel, long sequence) {
+        if (channel != null && sequence > 0) {
+            lastSeenSequences.merge(channel, sequence, Math::max);
+        }
+    }
+    
     /**
      * Disconnect from the server
      */
     public void disconnect() {
+        if (connectionMonitor != null) {
+            connectionMonitor.shutdownNow();
+        }
         if (!connected) {
             return;
         }
@@ -163,7 +321,11 @@ public class RMIClient implements ClientCallback {
             }
             
             // Unexport this client
-            UnicastRemoteObject.unexportObject(this, true);
+            if (binaryTransportClient != null) {
+                binaryTransportClient.close();
+            } else {
+                UnicastRemoteObject.unexportObject(this, true);
+            }
             
             connected = false;
             System.out.println("Disconnected from server");
@@ -186,8 +348,10 @@ public class RMIClient implements ClientCallback {
                 if (connected && chatService != null) {
                     SwingUtilities.invokeLater(() -> {
                         try {
-                            List<User> currentUsers = chatService.getOnlineUsers();
-                            mainWindow.getUserListPanel().updateUserList(currentUsers);
+                            // Lists sent before the window existed were dropped, ask for it again
+                            chatService.requestPresenceResync(userId);
+                            mainWindow.getChatPanel().loadOlderMessages();
+                            mainWindow.getChatPanel().loadChannels();
                         } catch (Exception e) {
                             System.err.println("Failed to get initial user list: " + e.getMessage());
                         }
@@ -207,6 +371,7 @@ public class RMIClient implements ClientCallback {
     public WhiteboardService getWhiteboardService() { return whiteboardService; }
     public ChatService getChatService() { return chatService; }
     public FileService getFileService() { return fileService; }
+    public BulkTransferClient getBulkTransferClient() { return bulkTransferClient; }
     public User getCurrentUser() { return currentUser; }
     public String getUserId() { return userId; }
     public String getUsername() { return username; }
@@ -245,11 +410,12 @@ public class RMIClient implements ClientCallback {
     
     @Override
     public void onChatMessageReceived(ChatMessage message) throws RemoteException {
-        SwingUtilities.invokeLater(() -> {
-            if (mainWindow != null) {
-                mainWindow.getChatPanel().addMessage(message);
-            }
-        });
+        noteSeenSequence(message.getChannel(), message.getSequenceNumber());
+        
+        // The chat panel batches messages onto the event thread itself
+        if (mainWindow != null) {
+            mainWindow.getChatPanel().addMessage(message);
+        }
     }
     
     @Override
@@ -284,10 +450,28 @@ public class RMIClient implements ClientCallback {
     }
     
     @Override
-    public void onUserTyping(String userId, String username, boolean isTyping) throws RemoteException {
+    public void onUserUpdated(User user) throws RemoteException {
+        SwingUtilities.invokeLater(() -> {
+            if (mainWindow != null) {
+                mainWindow.getUserListPanel().updateUser(user);
+            }
+        });
+    }
+    
+    @Override
+    public void onPresenceChecksum(long version, long checksum) throws RemoteException {
+        SwingUtilities.invokeLater(() -> {
+            if (mainWindow != null) {
+                mainWindow.getUserListPanel().checkPresence(version, checksum);
+            }
+        });
+    }
+    
+    @Override
+    public void onTypingUsersUpdated(java.util.List<String> usernames) throws RemoteException {
         SwingUtilities.invokeLater(() -> {
             if (mainWindow != null) {
-                mainWindow.getChatPanel().updateTypingStatus(userId, username, isTyping);
+                mainWindow.getChatPanel().updateTypingUsers(usernames);
             }
         });
     }
@@ -303,6 +487,30 @@ public class RMIClient implements ClientCallback {
         });
     }
     
+    @Override
+    public void onSharedFilesLoaded(FileListPage page) throws RemoteException {
+        // The page arrives during join, before the file panel exists
+        initialFilePage = page;
+        SwingUtilities.invokeLater(() -> {
+            if (mainWindow != null) {
+                FileListPage firstPage = consumeInitialFilePage();
+                if (firstPage != null) {
+                    mainWindow.getFileSharePanel().showFilePage(firstPage, true);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Take the first page of shared files delivered on join
+     * @return The page, or null if it was already taken or has not arrived
+     */
+    public FileListPage consumeInitialFilePage() {
+        FileListPage page = initialFilePage;
+        initialFilePage = null;
+        return page;
+    }
+    
     @Override
     public void onFileDeleted(String fileId, String deletedBy) throws RemoteException {
         SwingUtilities.invokeLater(() -> {
@@ -313,6 +521,18 @@ public class RMIClient implements ClientCallback {
         });
     }
     
+    @Override
+    public void onFilesDeleted(java.util.List<String> fileIds, String deletedBy) throws RemoteException {
+        SwingUtilities.invokeLater(() -> {
+            if (mainWindow != null) {
+                for (String fileId : fileIds) {
+                    mainWindow.getFileSharePanel().removeSharedFile(fileId);
+                }
+                mainWindow.getChatPanel().addSystemMessage(fileIds.size() + " files deleted: " + deletedBy);
+            }
+        });
+    }
+    
     @Override
     public void onAudioSessionStarted(String sessionId) throws RemoteException {
         SwingUtilities.invokeLater(() -> {
@@ -0,0 +1,389 @@
+package com.collabboard.client;
+
+import com.collabboard.server.LatencyStats;
+import com.collabboard.utils.JsonCodec;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of the WebSocket gateway with many simulated browsers
+ * All sockets are driven by one selector thread. Each simulated browser signs in, then
+ * sends a request at the given rate: half of them strokes, a quarter chat messages and a
+ * quarter typing notifications. Reports the latency of the replies, how long chat
+ * messages take to reach the other browsers, and the events received.
+ * Usage: WebSocketLoadTest [clients] [requests per second per client] [seconds] [host]
+ * Run against a server with rate limiting off (ratelimit.user.rate=0) to measure the
+ * gateway rather than the limiter.
+ */
+public class WebSocketLoadTest {
+    
+    private static final String CONFIG_FILE = "src/main/resources/config.properties";
+    private static final String[] OPERATIONS = {"draw", "chat", "draw", "typing"};
+    private static final String CHAT_PREFIX = "load:"; // chat text carries the send time
+    
+    private final String host;
+    private final int port;
+    private final String path;
+    private final int clientCount;
+    private final double rate;
+    private final int seconds;
+    private final Map<String, LatencyStats> replyLatency = new HashMap<>();
+    private final LatencyStats deliveryLatency = new LatencyStats();
+    private long events;
+    private long throttled;
+    private long errors;
+    
+    public WebSocketLoadTest(Properties config, String host, int clientCount, double rate, int seconds) {
+        this.host = host;
+        this.port = Integer.parseInt(config.getProperty("websocket.port", "8080"));
+        this.path = config.getProperty("websocket.path", "/ws");
+        this.clientCount = clientCount;
+        this.rate = rate;
+        this.seconds = seconds;
+        for (String operation : new String[] {"hello", "draw", "chat", "typing"}) {
+            replyLatency.put(operation, new LatencyStats());
+        }
+    }
+    
+    /**
+     * One simulated browser
+     */
+    private class LoadClient {
+        final int index;
+        final SocketChannel channel;
+        ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+        final Queue<ByteBuffer> writeQueue = new ArrayDeque<>();
+        final Map<Long, Object[]> pending = new HashMap<>(); // rid -> operation, send time
+        long nextRid;
+        long nextSend;
+        int sent;
+        
+        LoadClient(int index) throws IOException {
+            this.index = index;
+            this.channel = SocketChannel.open(new InetSocketAddress(host, port));
+            channel.socket().setTcpNoDelay(true);
+            handshake();
+            channel.configureBlocking(false);
+        }
+        
+        private void handshake() throws IOException {
+            byte[] nonce = new byte[16];
+            ThreadLocalRandom.current().nextBytes(nonce);
+            String key = Base64.getEncoder().encodeToString(nonce);
+            String request = "GET " + path + " HTTP/1.1\r\nHost: " + host + ":" + port + "\r\n" +
+                             "Upgrade: websocket\r\nConnection: Upgrade\r\n" +
+                             "Sec-WebSocket-Key: " + key + "\r\nSec-WebSocket-Version: 13\r\n\r\n";
+            ByteBuffer out = ByteBuffer.wrap(request.getBytes(StandardCharsets.ISO_8859_1));
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            
+            // Read the response header, frames right after it stay in the buffer
+            while (true) {
+                if (channel.read(readBuffer) < 0) {
+                    throw new IOException("Server closed the connection during the handshake");
+                }
+                String response = new String(readBuffer.array(), 0, readBuffer.position(), StandardCharsets.ISO_8859_1);
+                int end = response.indexOf("\r\n\r\n");
+                if (end < 0) {
+                    continue;
+                }
+                if (!response.startsWith("HTTP/1.1 101") || !response.contains(expectedAccept(key))) {
+                    throw new IOException("Handshake rejected: " + response.substring(0, response.indexOf('\r')));
+                }
+                readBuffer.flip();
+                readBuffer.position(end + 4);
+                readBuffer.compact();
+                return;
+            }
+        }
+        
+        void request(String operation, Map<String, Object> request, long now) {
+            long rid = ++nextRid;
+            request.put("op", operation);
+            request.put("rid", rid);
+            pending.put(rid, new Object[] {operation, now});
+            byte[] payload = JsonCodec.write(request).getBytes(StandardCharsets.UTF_8);
+            writeQueue.add(maskedFrame(payload));
+        }
+        
+        void sendNext(long now) {
+            String operation = OPERATIONS[sent++ % OPERATIONS.length];
+            Map<String, Object> request = new HashMap<>();
+            switch (operation) {
+                case "draw":
+                    List<Integer> points = new ArrayList<>();
+                    for (int i = 0; i < 8; i++) {
+                        points.add(ThreadLocalRandom.current().nextInt(800));
+                        points.add(ThreadLocalRandom.current().nextInt(600));
+                    }
+                    request.put("type", "DRAW_LINE");
+                    request.put("points", points);
+                    request.put("color", "#3366cc");
+                    request.put("width", 2);
+                    break;
+                case "chat":
+                    request.put("text", CHAT_PREFIX + now);
+                    break;
+                default:
+                    request.put("on", true);
+                    break;
+            }
+            request(operation, request, now);
+        }
+        
+        /**
+         * Handle every complete frame in the read buffer
+         */
+        void readFrames() throws IOException {
+            readBuffer.flip();
+            while (readBuffer.remaining() >= 2) {
+                int start = readBuffer.position();
+                int opcode = readBuffer.get(start) & 0x0F;
+                long length = readBuffer.get(start + 1) & 0x7F;
+                int headerSize = 2;
+                if (length == 126) {
+                    headerSize = 4;
+                    if (readBuffer.remaining() < headerSize) {
+                        break;
+                    }
+                    length = readBuffer.getShort(start + 2) & 0xFFFF;
+                } else if (length == 127) {
+                    headerSize = 10;
+                    if (readBuffer.remaining() < headerSize) {
+                        break;
+                    }
+                    length = readBuffer.getLong(start + 2);
+                }
+                int frameSize = headerSize + (int) length;
+                if (readBuffer.remaining() < frameSize) {
+                    if (frameSize > readBuffer.capacity()) {
+                        ByteBuffer larger = ByteBuffer.allocate(frameSize);
+                        larger.put(readBuffer);
+                        larger.flip();
+                        readBuffer = larger;
+                    }
+                    break;
+                }
+                byte[] payload = new byte[(int) length];
+                readBuffer.position(start + headerSize);
+                readBuffer.get(payload);
+                if (opcode == 0x8) {
+                    throw new IOException("Closed by the server: " +
+                        new String(payload, Math.min(2, payload.length), Math.max(0, payload.length - 2), StandardCharsets.UTF_8));
+                }
+                if (opcode == 0x1) {
+                    handleMessage(new String(payload, StandardCharsets.UTF_8));
+                }
+            }
+            readBuffer.compact();
+        }
+        
+        private void handleMessage(String text) throws IOException {
+            long now = System.nanoTime();
+            @SuppressWarnings("unchecked")
+            Map<String, Object> message = (Map<String, Object>) JsonCodec.parse(text);
+            Object event = message.get("ev");
+            if (event != null) {
+                events++;
+                if ("chat".equals(event)) {
+                    Object content = ((Map<?, ?>) message.get("msg")).get("text");
+                    if (content instanceof String && ((String) content).startsWith(CHAT_PREFIX)) {
+                        deliveryLatency.record(now - Long.parseLong(((String) content).substring(CHAT_PREFIX.length())));
+                    }
+                }
+                return;
+            }
+            
+            Object[] request = message.get("rid") instanceof Number
+                ? pending.remove(((Number) message.get("rid")).longValue()) : null;
+            if (Boolean.TRUE.equals(message.get("ok")) && request != null) {
+                replyLatency.get(request[0]).record(now - (Long) request[1]);
+            } else if (message.containsKey("retryAfter")) {
+                throttled++;
+            } else if (!Boolean.TRUE.equals(message.get("ok"))) {
+                if (errors++ < 5) {
+                    System.err.println("load_" + index + ": " + message.get("error"));
+                }
+            }
+        }
+        
+        /**
+         * Write queued frames
+         * @return true if everything was written
+         */
+        boolean flush() throws IOException {
+            ByteBuffer frame;
+            while ((frame = writeQueue.peek()) != null) {
+                channel.write(frame);
+                if (frame.hasRemaining()) {
+                    return false;
+                }
+                writeQueue.poll();
+            }
+            return true;
+        }
+    }
+    
+    /**
+     * Encode a masked client frame
+     */
+    private static ByteBuffer maskedFrame(byte[] payload) {
+        int headerSize = payload.length < 126 ? 2 : payload.length <= 0xFFFF ? 4 : 10;
+        ByteBuffer frame = ByteBuffer.allocate(headerSize + 4 + payload.length);
+        frame.put((byte) 0x81);
+        if (payload.length < 126) {
+            frame.put((byte) (0x80 | payload.length));
+        } else if (payload.length <= 0xFFFF) {
+            frame.put((byte) (0x80 | 126));
+            frame.putShort((short) payload.length);
+        } else {
+            frame.put((byte) (0x80 | 127));
+            frame.putLong(payload.length);
+        }
+        byte[] mask = new byte[4];
+        ThreadLocalRandom.current().nextBytes(mask);
+        frame.put(mask);
+        for (int i = 0; i < payload.length; i++) {
+            frame.put((byte) (payload[i] ^ mask[i & 3]));
+        }
+        frame.flip();
+        return frame;
+    }
+    
+    private static String expectedAccept(String key) throws IOException {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return Base64.getEncoder().encodeToString(sha1.digest(
+                (key + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11").getBytes(StandardCharsets.ISO_8859_1)));
+        } catch (Exception e) {
+            throw new IOException("SHA-1 not available", e);
+        }
+    }
+    
+    /**
+     * Connect the clients, run the load and print the results
+     */
+    public void run() throws IOException {
+        Selector selector = Selector.open();
+        List<LoadClient> clients = new ArrayList<>();
+        long now = System.nanoTime();
+        for (int i = 0; i < clientCount; i++) {
+            LoadClient client = new LoadClient(i);
+            Map<String, Object> hello = new HashMap<>();
+            hello.put("name", "Load " + i);
+            hello.put("userId", "wsload_" + i);
+            client.request("hello", hello, now);
+            client.channel.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE, client);
+            clients.add(client);
+        }
+        System.out.println("Running " + clientCount + " WebSocket clients at " + rate + " requests/s each for " +
+                           seconds + " s");
+        
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        for (LoadClient client : clients) {
+            client.nextSend = start + ThreadLocalRandom.current().nextLong(interval); // spread the clients out
+        }
+        
+        long sent = 0;
+        long drainUntil = end + TimeUnit.SECONDS.toNanos(1); // let the last replies and events arrive
+        while ((now = System.nanoTime()) < drainUntil) {
+            long nextDue = drainUntil;
+            if (now < end) {
+                for (LoadClient client : clients) {
+                    if (client.nextSend <= now) {
+                        client.sendNext(now);
+                        client.nextSend += interval;
+                        sent++;
+                        if (client.flush()) {
+                            continue;
+                        }
+                        client.channel.keyFor(selector).interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    }
+                    nextDue = Math.min(nextDue, client.nextSend);
+                }
+            }
+            
+            selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(nextDue - System.nanoTime())));
+            for (SelectionKey key : selector.selectedKeys()) {
+                LoadClient client = (LoadClient) key.attachment();
+                try {
+                    if (key.isReadable()) {
+                        if (client.channel.read(client.readBuffer) < 0) {
+                            throw new IOException("Server closed the connection");
+                        }
+                        client.readFrames();
+                    }
+                    if (key.isValid() && key.isWritable() && client.flush()) {
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                } catch (IOException e) {
+                    System.err.println("load_" + client.index + " failed: " + e.getMessage());
+                    key.cancel();
+                    client.channel.close();
+                    clients.remove(client);
+                }
+            }
+            selector.selectedKeys().clear();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        
+        for (LoadClient client : clients) {
+            client.channel.close();
+        }
+        selector.close();
+        
+        for (Map.Entry<String, LatencyStats> entry : replyLatency.entrySet()) {
+            System.out.printf("  %-16s %s%n", entry.getKey(), entry.getValue());
+        }
+        System.out.printf("  %-16s %s%n", "chat delivery", deliveryLatency);
+        System.out.printf("%d clients (%d still connected): %d requests (%.0f/s), %d events (%.0f/s), " +
+                          "%d throttled, %d errors%n",
+                          clientCount, clients.size(), sent, sent / elapsed, events, events / elapsed,
+                          throttled, errors);
+    }
+    
+    public static void main(String[] args) {
+        Properties config = new Properties();
+        try (FileInputStream in = new FileInputStream(CONFIG_FILE)) {
+            config.load(in);
+        } catch (IOException e) {
+            System.err.println("Could not load configuration file, using defaults");
+        }
+        
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        double rate = args.length > 1 ? Double.parseDouble(args[1]) : 2;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        String host = args.length > 3 ? args[3] : config.getProperty("server.host", "localhost");
+        
+        int exitCode = 0;
+        try {
+            new WebSocketLoadTest(config, host, clients, rate, seconds).run();
+        } catch (IOException e) {
+            System.err.println("Load test failed: " + e.getMessage());
+            e.printStackTrace();
+            exitCode = 1;
+        }
+        System.exit(exitCode);
+    }
+}
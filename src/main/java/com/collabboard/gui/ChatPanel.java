@@ -1,22 +1,34 @@
 package com.collabboard.gui;
 
 import com.collabboard.client.RMIClient;
+import com.collabboard.interfaces.RetryLaterException;
+import com.collabboard.models.ChatCatchUp;
 import com.collabboard.models.ChatMessage;
+import com.collabboard.models.User;
 
 import javax.swing.*;
-import javax.swing.text.BadLocationException;
-import javax.swing.text.SimpleAttributeSet;
-import javax.swing.text.StyleConstants;
-import javax.swing.text.StyledDocument;
+import javax.swing.plaf.basic.BasicListUI;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.rmi.RemoteException;
+import java.rmi.ServerException;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Chat panel for group messaging
@@ -26,30 +38,61 @@ public class ChatPanel extends JPanel {
     private RMIClient client;
     
     // GUI Components
-    private JTextPane chatDisplay;
+    private JList<ChatMessage> messageList;
     private JTextField messageInput;
     private JButton sendButton;
     private JLabel typingLabel;
+    private JScrollPane scrollPane;
+    private JComboBox<String> channelSelector;
+    private JButton joinButton;
+    private JButton leaveButton;
     
-    // Message formatting
-    private StyledDocument chatDocument;
-    private SimpleAttributeSet systemStyle;
-    private SimpleAttributeSet userStyle;
-    private SimpleAttributeSet ownMessageStyle;
-    private SimpleAttributeSet timestampStyle;
+    // Channel shown, messages of the other channels are loaded when switching to them
+    private String currentChannel = ChatMessage.DEFAULT_CHANNEL;
+    private final Map<String, String> directChannelNames = new HashMap<>(); // direct channel -> other user's name
+    
+    // Shown messages, the list only lays out the rows in view
+    private DefaultListModel<ChatMessage> messageModel;
+    private static final int MAX_SHOWN_MESSAGES = 1000;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+    
+    // Messages received since the last frame, added to the list in one batch
+    private final Queue<ChatMessage> pendingMessages = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private Timer flushTimer;
+    private static final int FLUSH_DELAY_MILLIS = 16;
     
     // Typing indicator
-    private Map<String, String> typingUsers;
+    private List<String> typingUsers;
     private Timer typingTimer;
+    private boolean typingNotified;
+    private long lastTypingNotification;
+    
+    // Sends that fail on the way are retried with the same message ID
+    private static final int SEND_ATTEMPTS = 4;
+    private static final long SEND_RETRY_DELAY_MILLIS = 500;
+    
+    // Repeat typing notifications this often while typing, well within the server's expiry
+    private static final long TYPING_REFRESH_MILLIS = 2000;
+    
+    // History loaded page by page while scrolling up
+    private static final int HISTORY_PAGE_SIZE = 50;
+    private long oldestSequence = Long.MAX_VALUE; // oldest server message shown
+    private long newestSequence; // newest server message shown
+    private boolean loadingHistory;
+    private boolean historyComplete;
+    
+    // Live messages held back while scrolled into history that does not reach the newest message
+    private boolean followingLive = true;
+    private final Queue<ChatMessage> detachedMessages = new ArrayDeque<>();
     
     public ChatPanel(RMIClient client) {
         this.client = client;
-        this.typingUsers = new HashMap<>();
+        this.typingUsers = Collections.emptyList();
         
         initializeComponents();
         setupLayout();
         setupEventHandlers();
-        setupStyles();
         setupTypingIndicator();
     }
     
@@ -57,11 +100,45 @@ public class ChatPanel extends JPanel {
      * Initialize chat components
      */
     private void initializeComponents() {
-        // Chat display
-        chatDisplay = new JTextPane();
-        chatDisplay.setEditable(false);
-        chatDisplay.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 12));
-        chatDocument = chatDisplay.getStyledDocument();
+        // Chat display, rows wrap to the width of the view
+        messageModel = new DefaultListModel<>();
+        messageList = new JList<ChatMessage>(messageModel) {
+            @Override
+            public boolean getScrollableTracksViewportWidth() {
+                return true;
+            }
+            
+            @Override
+            public void updateUI() {
+                setUI(new MessageListUI());
+            }
+        };
+        messageList.setCellRenderer(new MessageRenderer());
+        messageList.setSelectionModel(new DefaultListSelectionModel() {
+            @Override
+            public void setSelectionInterval(int index0, int index1) {
+                // Messages are not selectable
+            }
+        });
+        messageList.setFocusable(false);
+        
+        // Channels
+        channelSelector = new JComboBox<>();
+        channelSelector.addItem(ChatMessage.DEFAULT_CHANNEL);
+        channelSelector.setRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                          boolean isSelected, boolean cellHasFocus) {
+                return super.getListCellRendererComponent(list, value != null ? channelLabel((String) value) : "",
+                                                          index, isSelected, cellHasFocus);
+            }
+        });
+        joinButton = new JButton("Join...");
+        leaveButton = new JButton("Leave");
+        leaveButton.setEnabled(false);
+        
+        flushTimer = new Timer(FLUSH_DELAY_MILLIS, e -> flushPendingMessages());
+        flushTimer.setRepeats(false);
         
         // Message input
         messageInput = new JTextField();
@@ -85,12 +162,24 @@ public class ChatPanel extends JPanel {
         setBorder(BorderFactory.createTitledBorder("Group Chat"));
         
         // Chat display with scroll
-        JScrollPane scrollPane = new JScrollPane(chatDisplay);
+        scrollPane = new JScrollPane(messageList);
         scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
+        scrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
         scrollPane.setPreferredSize(new Dimension(300, 400));
         
         add(scrollPane, BorderLayout.CENTER);
         
+        // Channel selection
+        JPanel channelPanel = new JPanel(new BorderLayout(5, 0));
+        channelPanel.setBorder(BorderFactory.createEmptyBorder(0, 5, 5, 5));
+        JPanel channelButtons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 2, 0));
+        channelButtons.add(joinButton);
+        channelButtons.add(leaveButton);
+        channelPanel.add(channelSelector, BorderLayout.CENTER);
+        channelPanel.add(channelButtons, BorderLayout.EAST);
+        
+        add(channelPanel, BorderLayout.NORTH);
+        
         // Input area
         JPanel inputPanel = new JPanel(new BorderLayout());
         inputPanel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
@@ -112,6 +201,36 @@ public class ChatPanel extends JPanel {
         // Send button action
         sendButton.addActionListener(e -> sendMessage());
         
+        // Channel actions
+        channelSelector.addActionListener(e -> {
+            String selected = (String) channelSelector.getSelectedItem();
+            if (selected != null && !selected.equals(currentChannel)) {
+                switchChannel(selected);
+            }
+        });
+        joinButton.addActionListener(e -> joinChannel());
+        leaveButton.addActionListener(e -> leaveChannel());
+        
+        // Load older messages when scrolled to the top, newer ones when scrolled back to the bottom
+        scrollPane.getVerticalScrollBar().addAdjustmentListener(e -> {
+            if (e.getValueIsAdjusting()) {
+                return;
+            }
+            if (e.getValue() == scrollPane.getVerticalScrollBar().getMinimum()) {
+                loadOlderMessages();
+            } else if (!followingLive && isScrolledToBottom()) {
+                loadNewerMessages();
+            }
+        });
+        
+        // Row heights depend on the width messages wrap to
+        scrollPane.getViewport().addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                ((MessageListUI) messageList.getUI()).widthChanged();
+            }
+        });
+        
         // Enter key to send message
         messageInput.addKeyListener(new KeyAdapter() {
             @Override
@@ -141,33 +260,6 @@ public class ChatPanel extends JPanel {
         });
     }
     
-    /**
-     * Setup text styles for different message types
-     */
-    private void setupStyles() {
-        // System message style
-        systemStyle = new SimpleAttributeSet();
-        StyleConstants.setItalic(systemStyle, true);
-        StyleConstants.setForeground(systemStyle, Color.BLUE);
-        StyleConstants.setFontSize(systemStyle, 11);
-        
-        // Regular user message style
-        userStyle = new SimpleAttributeSet();
-        StyleConstants.setForeground(userStyle, Color.BLACK);
-        StyleConstants.setFontSize(userStyle, 12);
-        
-        // Own message style
-        ownMessageStyle = new SimpleAttributeSet();
-        StyleConstants.setForeground(ownMessageStyle, new Color(0, 100, 0));
-        StyleConstants.setFontSize(ownMessageStyle, 12);
-        StyleConstants.setBold(ownMessageStyle, true);
-        
-        // Timestamp style
-        timestampStyle = new SimpleAttributeSet();
-        StyleConstants.setForeground(timestampStyle, Color.GRAY);
-        StyleConstants.setFontSize(timestampStyle, 10);
-    }
-    
     /**
      * Setup typing indicator timer
      */
@@ -189,73 +281,345 @@ public class ChatPanel extends JPanel {
             return;
         }
         
-        try {
-            // Create chat message
-            ChatMessage message = new ChatMessage(
-                client.getUserId(),
-                client.getUsername(),
-                messageText
-            );
-            
-            // Send to server
-            client.getChatService().sendMessage(message);
-            
-            // Clear input
-            messageInput.setText("");
-            
-            // Stop typing notification
-            notifyTyping(false);
+        // Create chat message
+        ChatMessage message = new ChatMessage(
+            client.getUserId(), 
+            client.getUsername(), 
+            messageText
+        );
+        message.setChannel(currentChannel);
+        
+        // Clear input
+        messageInput.setText("");
+        
+        // The server stops the typing notification when the message arrives
+        typingNotified = false;
+        typingTimer.stop();
+        
+        // Send to server
+        new SwingWorker<Long, Void>() {
+            @Override
+            protected Long doInBackground() throws RemoteException, InterruptedException {
+                return sendWithRetry(message);
+            }
             
-        } catch (RemoteException e) {
-            showError("Failed to send message: " + e.getMessage());
+            @Override
+            protected void done() {
+                try {
+                    get();
+                } catch (ExecutionException e) {
+                    // Give the text back so it is not lost
+                    if (messageInput.getText().isEmpty()) {
+                        messageInput.setText(messageText);
+                    }
+                    showError("Failed to send message: " + e.getCause().getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }.execute();
+    }
+    
+    /**
+     * Send a message, retrying when the call fails on the way
+     * The server recognizes a retry by the message ID, so a send that reached it but whose
+     * reply was lost is not delivered twice.
+     * @return The sequence number the server assigned to the message
+     */
+    private long sendWithRetry(ChatMessage message) throws RemoteException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return client.getChatService().sendMessage(message);
+            } catch (RemoteException e) {
+                RetryLaterException retryLater = RetryLaterException.find(e);
+                // A message the server rejected fails again when retried
+                if (attempt >= SEND_ATTEMPTS || (e instanceof ServerException && retryLater == null)) {
+                    throw e;
+                }
+                Thread.sleep(retryLater != null ? retryLater.getRetryAfterMillis() : SEND_RETRY_DELAY_MILLIS * attempt);
+            }
         }
     }
     
     /**
      * Add a chat message to the display
+     * Can be called from any thread, messages are added in one batch per frame.
      */
     public void addMessage(ChatMessage message) {
-        SwingUtilities.invokeLater(() -> {
-            try {
-                // Choose style based on message type and sender
-                SimpleAttributeSet messageStyle;
-                if (message.getMessageType() == ChatMessage.MessageType.SYSTEM) {
-                    messageStyle = systemStyle;
-                } else if (client.getUserId().equals(message.getUserId())) {
-                    messageStyle = ownMessageStyle;
-                } else {
-                    messageStyle = userStyle;
+        pendingMessages.add(message);
+        if (flushScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(flushTimer::restart);
+        }
+    }
+    
+    /**
+     * Add the messages that arrived since the last frame
+     */
+    private void flushPendingMessages() {
+        flushScheduled.set(false);
+        List<ChatMessage> batch = new ArrayList<>();
+        ChatMessage message;
+        while ((message = pendingMessages.poll()) != null) {
+            // Local system messages show in any channel
+            if (message.getSequenceNumber() > 0 && !currentChannel.equals(message.getChannel())) {
+                noteChannel(message);
+                continue;
+            }
+            if (message.getSequenceNumber() > 0 && oldestSequence == Long.MAX_VALUE) {
+                oldestSequence = message.getSequenceNumber();
+            }
+            if (message.getSequenceNumber() <= 0 || message.getSequenceNumber() > newestSequence) {
+                batch.add(message);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        
+        // Live messages wait while older history is shown without the newest messages
+        if (!followingLive) {
+            detachedMessages.addAll(batch);
+            while (detachedMessages.size() > MAX_SHOWN_MESSAGES) {
+                detachedMessages.poll();
+            }
+            return;
+        }
+        
+        boolean atBottom = isScrolledToBottom();
+        appendMessages(batch);
+        
+        // Auto-scroll to bottom
+        if (atBottom) {
+            messageList.ensureIndexIsVisible(messageModel.getSize() - 1);
+        }
+    }
+    
+    /**
+     * Append messages and drop the oldest ones beyond the shown window
+     */
+    private void appendMessages(List<ChatMessage> messages) {
+        messageModel.addAll(messages);
+        for (ChatMessage message : messages) {
+            newestSequence = Math.max(newestSequence, message.getSequenceNumber());
+        }
+        
+        int excess = messageModel.getSize() - MAX_SHOWN_MESSAGES;
+        if (excess > 0) {
+            messageModel.removeRange(0, excess - 1);
+            oldestSequence = firstSequenceShown();
+            historyComplete = false;
+        }
+    }
+    
+    private boolean isScrolledToBottom() {
+        JScrollBar scrollBar = scrollPane.getVerticalScrollBar();
+        return scrollBar.getValue() + scrollBar.getVisibleAmount() >= scrollBar.getMaximum() - 4;
+    }
+    
+    /**
+     * Load the page of history before the oldest message shown
+     */
+    public void loadOlderMessages() {
+        if (loadingHistory || historyComplete || !client.isConnected()) {
+            return;
+        }
+        loadingHistory = true;
+        long before = oldestSequence;
+        String channel = currentChannel;
+        
+        new SwingWorker<List<ChatMessage>, Void>() {
+            @Override
+            protected List<ChatMessage> doInBackground() throws RemoteException {
+                return client.getChatService().getMessagesBefore(client.getUserId(), channel, before, HISTORY_PAGE_SIZE);
+            }
+            
+            @Override
+            protected void done() {
+                if (!channel.equals(currentChannel)) {
+                    return; // switched channels while loading
                 }
-                
-                // Format timestamp
-                String timestamp = message.getTimestamp().format(
-                    DateTimeFormatter.ofPattern("HH:mm:ss"));
-                
-                // Add timestamp
-                chatDocument.insertString(chatDocument.getLength(), 
-                    "[" + timestamp + "] ", timestampStyle);
-                
-                // Add username (if not system message)
-                if (message.getMessageType() != ChatMessage.MessageType.SYSTEM) {
-                    String username = client.getUserId().equals(message.getUserId()) ? 
-                        "You" : message.getUsername();
-                    chatDocument.insertString(chatDocument.getLength(), 
-                        username + ": ", messageStyle);
+                loadingHistory = false;
+                try {
+                    List<ChatMessage> page = get();
+                    if (page.isEmpty()) {
+                        historyComplete = true;
+                        return;
+                    }
+                    client.noteSeenSequence(channel, page.get(page.size() - 1).getSequenceNumber());
+                    insertOlderMessages(page);
+                } catch (InterruptedException | ExecutionException e) {
+                    System.err.println("Failed to load chat history: " + e.getMessage());
                 }
-                
-                // Add message content
-                chatDocument.insertString(chatDocument.getLength(), 
-                    message.getContent() + "\n", messageStyle);
-                
-                // Auto-scroll to bottom
-                chatDisplay.setCaretPosition(chatDocument.getLength());
-                
-            } catch (BadLocationException e) {
-                e.printStackTrace();
+            }
+        }.execute();
+    }
+    
+    /**
+     * Insert a page of older messages above the shown ones, keeping the view where it was
+     * Drops the newest messages beyond the shown window, they are paged back in when scrolling down.
+     */
+    private void insertOlderMessages(List<ChatMessage> page) {
+        List<ChatMessage> older = new ArrayList<>(page.size());
+        for (ChatMessage message : page) {
+            // Messages that arrived live while the page was loading are already shown
+            if (message.getSequenceNumber() < oldestSequence) {
+                older.add(message);
+            }
+        }
+        oldestSequence = Math.min(oldestSequence, page.get(0).getSequenceNumber());
+        if (older.isEmpty()) {
+            return;
+        }
+        
+        JScrollBar scrollBar = scrollPane.getVerticalScrollBar();
+        int previousMaximum = scrollBar.getMaximum();
+        int previousValue = scrollBar.getValue();
+        messageModel.addAll(0, older);
+        
+        int excess = messageModel.getSize() - MAX_SHOWN_MESSAGES;
+        if (excess > 0) {
+            messageModel.removeRange(messageModel.getSize() - excess, messageModel.getSize() - 1);
+            newestSequence = lastSequenceShown();
+            followingLive = false;
+        }
+        
+        SwingUtilities.invokeLater(() -> {
+            scrollBar.setValue(previousValue + scrollBar.getMaximum() - previousMaximum);
+            // Keep loading while the history does not fill the view
+            if (scrollBar.getValue() == scrollBar.getMinimum()) {
+                loadOlderMessages();
             }
         });
     }
     
+    /**
+     * Load the page of history after the newest message shown, when it is not following live messages
+     */
+    private void loadNewerMessages() {
+        if (loadingHistory || followingLive || !client.isConnected()) {
+            return;
+        }
+        loadingHistory = true;
+        long after = newestSequence;
+        String channel = currentChannel;
+        
+        new SwingWorker<List<ChatMessage>, Void>() {
+            @Override
+            protected List<ChatMessage> doInBackground() throws RemoteException {
+                return client.getChatService().getMessagesAfter(client.getUserId(), channel, after, HISTORY_PAGE_SIZE);
+            }
+            
+            @Override
+            protected void done() {
+                if (!channel.equals(currentChannel)) {
+                    return; // switched channels while loading
+                }
+                loadingHistory = false;
+                try {
+                    List<ChatMessage> page = get();
+                    if (!page.isEmpty()) {
+                        client.noteSeenSequence(channel, page.get(page.size() - 1).getSequenceNumber());
+                    }
+                    appendMessages(page);
+                    if (page.size() < HISTORY_PAGE_SIZE) {
+                        // Caught up, show the live messages that arrived meanwhile
+                        List<ChatMessage> caughtUp = new ArrayList<>();
+                        for (ChatMessage message : detachedMessages) {
+                            if (message.getSequenceNumber() <= 0 || message.getSequenceNumber() > newestSequence) {
+                                caughtUp.add(message);
+                            }
+                        }
+                        detachedMessages.clear();
+                        followingLive = true;
+                        appendMessages(caughtUp);
+                    }
+                } catch (InterruptedException | ExecutionException e) {
+                    System.err.println("Failed to load chat history: " + e.getMessage());
+                }
+            }
+        }.execute();
+    }
+    
+    /**
+     * Show the messages of a channel missed while disconnected, on the event thread
+     * A replayed gap continues the shown messages. A summary of a longer gap replaces them,
+     * scrolling up pages in the rest. Other channels and history paged back from the live
+     * messages pick up the missed messages when loaded from the server.
+     */
+    public void showCatchUp(ChatCatchUp catchUp) {
+        if (!catchUp.getChannel().equals(currentChannel) || !followingLive) {
+            return;
+        }
+        
+        // Live messages after the catch-up may have arrived before it, they move below it
+        int firstLive = messageModel.getSize();
+        for (int i = messageModel.getSize() - 1; i >= 0; i--) {
+            long sequence = messageModel.get(i).getSequenceNumber();
+            if (sequence > catchUp.getLastSequence()) {
+                firstLive = i;
+            } else if (sequence > 0) {
+                break;
+            }
+        }
+        List<ChatMessage> live = new ArrayList<>();
+        for (int i = firstLive; i < messageModel.getSize(); i++) {
+            live.add(messageModel.get(i));
+        }
+        
+        List<ChatMessage> shown = new ArrayList<>();
+        if (catchUp.isReplayed()) {
+            if (!live.isEmpty()) {
+                messageModel.removeRange(firstLive, messageModel.getSize() - 1);
+                newestSequence = lastSequenceShown();
+            }
+            for (ChatMessage message : catchUp.getMessages()) {
+                if (message.getSequenceNumber() > newestSequence) {
+                    shown.add(message);
+                }
+            }
+        } else {
+            resetMessages();
+            if (catchUp.getSkippedCount() > 0) {
+                shown.add(ChatMessage.createSystemMessage(catchUp.getSkippedCount()
+                    + " messages were missed while disconnected, scroll up to see them"));
+            }
+            shown.addAll(catchUp.getMessages());
+        }
+        shown.addAll(live);
+        if (shown.isEmpty()) {
+            return;
+        }
+        
+        boolean atBottom = isScrolledToBottom();
+        appendMessages(shown);
+        if (oldestSequence == Long.MAX_VALUE) {
+            oldestSequence = firstSequenceShown();
+        }
+        if (atBottom || !catchUp.isReplayed()) {
+            messageList.ensureIndexIsVisible(messageModel.getSize() - 1);
+        }
+    }
+    
+    private long firstSequenceShown() {
+        for (int i = 0; i < messageModel.getSize(); i++) {
+            long sequence = messageModel.get(i).getSequenceNumber();
+            if (sequence > 0) {
+                return sequence;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+    
+    private long lastSequenceShown() {
+        for (int i = messageModel.getSize() - 1; i >= 0; i--) {
+            long sequence = messageModel.get(i).getSequenceNumber();
+            if (sequence > 0) {
+                return sequence;
+            }
+        }
+        return 0;
+    }
+    
     /**
      * Add a system message
      */
@@ -265,16 +629,11 @@ public class ChatPanel extends JPanel {
     }
     
     /**
-     * Update typing status display
+     * Update typing status display with the server's digest of typing users
      */
-    public void updateTypingStatus(String userId, String username, boolean isTyping) {
+    public void updateTypingUsers(List<String> usernames) {
         SwingUtilities.invokeLater(() -> {
-            if (isTyping) {
-                typingUsers.put(userId, username);
-            } else {
-                typingUsers.remove(userId);
-            }
-            
+            typingUsers = usernames;
             updateTypingLabel();
         });
     }
@@ -286,31 +645,45 @@ public class ChatPanel extends JPanel {
         if (typingUsers.isEmpty()) {
             typingLabel.setText(" ");
         } else if (typingUsers.size() == 1) {
-            String username = typingUsers.values().iterator().next();
-            typingLabel.setText(username + " is typing...");
+            typingLabel.setText(typingUsers.get(0) + " is typing...");
+        } else if (typingUsers.size() <= 3) {
+            String names = String.join(", ", typingUsers.subList(0, typingUsers.size() - 1));
+            typingLabel.setText(names + " and " + typingUsers.get(typingUsers.size() - 1) + " are typing...");
         } else {
-            typingLabel.setText(typingUsers.size() + " users are typing...");
+            typingLabel.setText(typingUsers.get(0) + ", " + typingUsers.get(1) + " and " +
+                                (typingUsers.size() - 2) + " others are typing...");
         }
     }
     
     /**
      * Notify server about typing status
+     * Only changes are sent, and while typing a repeat every few seconds keeps it from expiring.
      */
     private void notifyTyping(boolean isTyping) {
         if (!client.isConnected()) {
             return;
         }
         
+        long now = System.currentTimeMillis();
+        if (isTyping) {
+            typingTimer.restart();
+            if (typingNotified && now - lastTypingNotification < TYPING_REFRESH_MILLIS) {
+                return;
+            }
+        } else if (!typingNotified) {
+            return;
+        }
+        
         try {
             client.getChatService().notifyTyping(
                 client.getUserId(), 
                 client.getUsername(), 
                 isTyping
             );
+            typingNotified = isTyping;
+            lastTypingNotification = now;
             
-            if (isTyping) {
-                typingTimer.restart();
-            } else {
+            if (!isTyping) {
                 typingTimer.stop();
             }
             
@@ -323,9 +696,148 @@ public class ChatPanel extends JPanel {
      * Clear chat display
      */
     public void clearChat() {
-        SwingUtilities.invokeLater(() -> {
-            chatDisplay.setText("");
-        });
+        SwingUtilities.invokeLater(this::resetMessages);
+    }
+    
+    private void resetMessages() {
+        messageModel.clear();
+        detachedMessages.clear();
+        oldestSequence = Long.MAX_VALUE;
+        newestSequence = 0;
+        loadingHistory = false;
+        historyComplete = false;
+        followingLive = true;
+    }
+    
+    /**
+     * Show another channel, starting from its latest messages
+     */
+    private void switchChannel(String channel) {
+        currentChannel = channel;
+        channelSelector.setSelectedItem(channel);
+        leaveButton.setEnabled(!ChatMessage.DEFAULT_CHANNEL.equals(channel) && !ChatMessage.isDirectChannel(channel));
+        resetMessages();
+        loadOlderMessages();
+    }
+    
+    /**
+     * Add the channels the user is in to the channel selector
+     */
+    public void loadChannels() {
+        if (!client.isConnected()) {
+            return;
+        }
+        new SwingWorker<List<String>, Void>() {
+            private List<User> onlineUsers;
+            
+            @Override
+            protected List<String> doInBackground() throws RemoteException {
+                onlineUsers = client.getChatService().getOnlineUsers();
+                return client.getChatService().getSubscribedChannels(client.getUserId());
+            }
+            
+            @Override
+            protected void done() {
+                try {
+                    for (User user : onlineUsers) {
+                        if (!user.getUserId().equals(client.getUserId())) {
+                            directChannelNames.putIfAbsent(
+                                ChatMessage.directChannel(client.getUserId(), user.getUserId()), user.getUsername());
+                        }
+                    }
+                    for (String channel : get()) {
+                        addChannel(channel);
+                    }
+                } catch (InterruptedException | ExecutionException e) {
+                    System.err.println("Failed to load chat channels: " + e.getMessage());
+                }
+            }
+        }.execute();
+    }
+    
+    private void addChannel(String channel) {
+        for (int i = 0; i < channelSelector.getItemCount(); i++) {
+            if (channelSelector.getItemAt(i).equals(channel)) {
+                return;
+            }
+        }
+        channelSelector.addItem(channel);
+    }
+    
+    /**
+     * Keep track of a channel that got a message while another one is shown
+     */
+    private void noteChannel(ChatMessage message) {
+        String channel = message.getChannel();
+        if (ChatMessage.isDirectChannel(channel) && !client.getUserId().equals(message.getUserId())) {
+            directChannelNames.putIfAbsent(channel, message.getUsername());
+        }
+        addChannel(channel);
+    }
+    
+    /**
+     * Get the text shown for a channel, '#' for named channels and '@' with the other user for direct ones
+     */
+    private String channelLabel(String channel) {
+        if (!ChatMessage.isDirectChannel(channel)) {
+            return "# " + channel;
+        }
+        String name = directChannelNames.get(channel);
+        if (name == null) {
+            String[] userIds = ChatMessage.getDirectChannelUsers(channel);
+            name = userIds == null ? channel : userIds[0].equals(client.getUserId()) ? userIds[1] : userIds[0];
+        }
+        return "@ " + name;
+    }
+    
+    /**
+     * Ask for a channel name, then join and show it
+     */
+    private void joinChannel() {
+        String channel = JOptionPane.showInputDialog(this, "Channel name:", "Join Channel", JOptionPane.QUESTION_MESSAGE);
+        if (channel == null || channel.trim().isEmpty() || !client.isConnected()) {
+            return;
+        }
+        channel = channel.trim();
+        
+        try {
+            client.getChatService().joinChannel(client.getUserId(), channel);
+            addChannel(channel);
+            switchChannel(channel);
+        } catch (RemoteException e) {
+            showError("Failed to join channel: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Leave the channel shown and go back to the general channel
+     */
+    private void leaveChannel() {
+        String channel = currentChannel;
+        if (!client.isConnected()) {
+            return;
+        }
+        
+        try {
+            client.getChatService().leaveChannel(client.getUserId(), channel);
+            switchChannel(ChatMessage.DEFAULT_CHANNEL);
+            channelSelector.removeItem(channel);
+        } catch (RemoteException e) {
+            showError("Failed to leave channel: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Show the direct channel with another user, it is opened on the server by the first message
+     */
+    public void openDirectChannel(String userId, String username) {
+        if (userId.equals(client.getUserId())) {
+            return;
+        }
+        String channel = ChatMessage.directChannel(client.getUserId(), userId);
+        directChannelNames.put(channel, username);
+        addChannel(channel);
+        switchChannel(channel);
     }
     
     /**
@@ -367,4 +879,117 @@ public class ChatPanel extends JPanel {
     public JTextField getMessageInput() {
         return messageInput;
     }
+    
+    /**
+     * Lays out the message rows from cached heights
+     * The default list UI measures every row through the renderer whenever the model changes,
+     * so each batch of messages would wrap the text of all shown messages again. Here a row
+     * is only measured when it is new or the list width changed.
+     */
+    private class MessageListUI extends BasicListUI {
+        
+        private Map<Object, Integer> rowHeights = new IdentityHashMap<>();
+        private int measuredWidth = -1;
+        
+        /**
+         * Measure the rows again for the new width of the list
+         */
+        void widthChanged() {
+            updateLayoutStateNeeded |= cellRendererChanged;
+            list.revalidate();
+            list.repaint();
+        }
+        
+        @Override
+        protected void updateLayoutState() {
+            int width = list.getWidth();
+            if (width != measuredWidth) {
+                rowHeights.clear();
+                measuredWidth = width;
+            }
+            
+            // Rebuilt each time so removed messages do not stay cached
+            ListModel<Object> model = list.getModel();
+            int size = model.getSize();
+            Map<Object, Integer> heights = new IdentityHashMap<>(size * 2);
+            ListCellRenderer<Object> renderer = list.getCellRenderer();
+            cellHeights = new int[size];
+            for (int i = 0; i < size; i++) {
+                Object message = model.getElementAt(i);
+                Integer height = rowHeights.get(message);
+                if (height == null) {
+                    Component row = renderer.getListCellRendererComponent(list, message, i, false, false);
+                    rendererPane.add(row);
+                    height = row.getPreferredSize().height;
+                }
+                heights.put(message, height);
+                cellHeights[i] = height;
+            }
+            rowHeights = heights;
+            cellHeight = -1;
+            cellWidth = width;
+        }
+    }
+    
+    /**
+     * Renders one message as a row, with the text wrapped to the width of the list
+     */
+    private class MessageRenderer extends JPanel implements ListCellRenderer<ChatMessage> {
+        
+        private final JLabel timeLabel;
+        private final JTextArea textArea;
+        
+        private final Font systemFont = new Font(Font.SANS_SERIF, Font.ITALIC, 11);
+        private final Font userFont = new Font(Font.SANS_SERIF, Font.PLAIN, 12);
+        private final Font ownMessageFont = new Font(Font.SANS_SERIF, Font.BOLD, 12);
+        private final Color ownMessageColor = new Color(0, 100, 0);
+        
+        MessageRenderer() {
+            super(new BorderLayout(4, 0));
+            setBorder(BorderFactory.createEmptyBorder(1, 3, 1, 3));
+            setBackground(Color.WHITE);
+            
+            timeLabel = new JLabel();
+            timeLabel.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 10));
+            timeLabel.setForeground(Color.GRAY);
+            timeLabel.setVerticalAlignment(SwingConstants.TOP);
+            
+            textArea = new JTextArea();
+            textArea.setLineWrap(true);
+            textArea.setWrapStyleWord(true);
+            textArea.setOpaque(false);
+            
+            add(timeLabel, BorderLayout.WEST);
+            add(textArea, BorderLayout.CENTER);
+        }
+        
+        @Override
+        public Component getListCellRendererComponent(JList<? extends ChatMessage> list, ChatMessage message,
+                                                      int index, boolean isSelected, boolean cellHasFocus) {
+            timeLabel.setText(message.getTimestamp() != null
+                ? "[" + message.getTimestamp().format(TIME_FORMAT) + "]" : "");
+            
+            if (message.getMessageType() == ChatMessage.MessageType.SYSTEM) {
+                textArea.setFont(systemFont);
+                textArea.setForeground(Color.BLUE);
+                textArea.setText(message.getContent());
+            } else if (message.getUserId() != null && message.getUserId().equals(client.getUserId())) {
+                textArea.setFont(ownMessageFont);
+                textArea.setForeground(ownMessageColor);
+                textArea.setText("You: " + message.getContent());
+            } else {
+                textArea.setFont(userFont);
+                textArea.setForeground(Color.BLACK);
+                textArea.setText(message.getUsername() + ": " + message.getContent());
+            }
+            
+            // Wrap to the list width so the row reports the height it needs
+            Insets insets = getInsets();
+            int width = list.getWidth() - insets.left - insets.right - timeLabel.getPreferredSize().width - 4;
+            if (width > 0) {
+                textArea.setSize(width, Short.MAX_VALUE);
+            }
+            return this;
+        }
+    }
 }
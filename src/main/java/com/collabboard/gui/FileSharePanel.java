@@ -1,17 +1,43 @@
 package com.collabboard.gui;
 
 import com.collabboard.client.RMIClient;
+import com.collabboard.interfaces.RetryLaterException;
+import com.collabboard.models.BlockSignature;
+import com.collabboard.models.DeltaInstruction;
+import com.collabboard.models.FileListPage;
 import com.collabboard.models.FileTransfer;
+import com.collabboard.models.TransferTicket;
+import com.collabboard.utils.CompressionUtils;
+import com.collabboard.utils.DeltaEncoder;
 import com.collabboard.utils.FileUtils;
 
 import javax.swing.*;
+import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.rmi.RemoteException;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /**
  * Panel for file sharing functionality
@@ -26,17 +52,72 @@ public class FileSharePanel extends JPanel {
     private JButton uploadButton;
     private JButton downloadButton;
     private JButton deleteButton;
+    private JButton zipButton;
+    private JButton versionsButton;
+    private JButton loadMoreButton;
+    private JTextField filterField;
+    private JComboBox<String> sortComboBox;
+    private JComboBox<String> shareTimeComboBox;
     private JLabel statusLabel;
     
+    // Cursor of the next page of the file list, null when all pages are loaded
+    private String nextCursor;
+    
     // File tracking
     private java.util.List<FileTransfer> fileList; // Store actual file objects with IDs
     
+    // Previews of image files, loaded lazily for the rows on screen
+    private final Map<String, Icon> previewIcons = new ConcurrentHashMap<>();
+    private final Set<String> previewsRequested = ConcurrentHashMap.newKeySet(); // loading, loaded or unavailable
+    private final ExecutorService previewLoader = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "PreviewLoader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    // Bytes not sent during the last transfer thanks to compression or delta encoding
+    private long lastTransferBytesSaved;
+    
     // Table columns
-    private static final String[] COLUMN_NAMES = {"File Name", "Size", "Uploader", "Type"};
-    private static final int FILENAME_COLUMN = 0;
-    private static final int SIZE_COLUMN = 1;
-    private static final int UPLOADER_COLUMN = 2;
-    private static final int TYPE_COLUMN = 3;
+    private static final String[] COLUMN_NAMES = {"Preview", "File Name", "Version", "Size", "Uploader", "Type", "Expires"};
+    private static final int PREVIEW_COLUMN = 0; // holds the file ID, rendered as the preview
+    private static final int FILENAME_COLUMN = 1;
+    private static final int VERSION_COLUMN = 2;
+    private static final int SIZE_COLUMN = 3;
+    private static final int UPLOADER_COLUMN = 4;
+    private static final int TYPE_COLUMN = 5;
+    private static final int EXPIRES_COLUMN = 6;
+    
+    // Upload time format in the version history
+    private static final DateTimeFormatter VERSION_TIME_FORMAT = 
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+    
+    // Expiry time format in the file list
+    private static final DateTimeFormatter EXPIRY_TIME_FORMAT = 
+        DateTimeFormatter.ofPattern("MM-dd HH:mm").withZone(ZoneId.systemDefault());
+    
+    // How long uploaded files stay shared, 0 to keep them
+    private static final String[] SHARE_TIME_LABELS = {"Keep", "1 hour", "8 hours", "1 day", "1 week"};
+    private static final long[] SHARE_TIME_MILLIS = {0, 3600000L, 8 * 3600000L, 86400000L, 7 * 86400000L};
+    
+    // Sort orders offered in the sort combo box
+    private static final String[] SORT_LABELS = {"Newest", "Uploader", "Type"};
+    private static final String[] SORT_KEYS = {FileListPage.SORT_TIME, FileListPage.SORT_UPLOADER, FileListPage.SORT_TYPE};
+    
+    // Number of files loaded per page
+    private static final int PAGE_SIZE = 100;
+    
+    // Width and height of preview thumbnails in pixels
+    private static final int PREVIEW_SIZE = 48;
+    
+    // Number of times a chunk is retransmitted before the transfer fails
+    private static final int MAX_CHUNK_RETRIES = 3;
+    
+    // Files smaller than this are uploaded whole instead of as a delta
+    private static final long MIN_DELTA_FILE_SIZE = 256 * 1024;
+    
+    // Deltas that carry more than this fraction of the file are uploaded whole instead
+    private static final double MAX_DELTA_LITERAL_RATIO = 0.5;
     
     public FileSharePanel(RMIClient client) {
         this.client = client;
@@ -62,13 +143,28 @@ public class FileSharePanel extends JPanel {
         
         // File table
         fileTable = new JTable(tableModel);
-        fileTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
-        fileTable.setRowHeight(25);
+        fileTable.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+        fileTable.setRowHeight(PREVIEW_SIZE + 4);
+        fileTable.getColumnModel().getColumn(PREVIEW_COLUMN).setMaxWidth(PREVIEW_SIZE + 8);
+        fileTable.getColumnModel().getColumn(PREVIEW_COLUMN).setCellRenderer(new PreviewCellRenderer());
         
         // Buttons
         uploadButton = new JButton("📁 Upload File");
         downloadButton = new JButton("⬇️ Download");
         deleteButton = new JButton("🗑️ Delete");
+        zipButton = new JButton("🗜️ Download ZIP");
+        zipButton.setEnabled(false);
+        versionsButton = new JButton("🕘 Versions");
+        versionsButton.setEnabled(false);
+        loadMoreButton = new JButton("Load more");
+        loadMoreButton.setEnabled(false);
+        
+        // Filter and sort controls
+        filterField = new JTextField(10);
+        filterField.setToolTipText("Name text, uploader:name or type:ext - press Enter to apply");
+        sortComboBox = new JComboBox<>(SORT_LABELS);
+        shareTimeComboBox = new JComboBox<>(SHARE_TIME_LABELS);
+        shareTimeComboBox.setToolTipText("How long uploaded files stay shared");
         
         // Status label
         statusLabel = new JLabel("Ready");
@@ -90,13 +186,20 @@ public class FileSharePanel extends JPanel {
         // Button panel
         JPanel buttonPanel = new JPanel(new FlowLayout());
         buttonPanel.add(uploadButton);
+        buttonPanel.add(shareTimeComboBox);
         buttonPanel.add(downloadButton);
         buttonPanel.add(deleteButton);
+        buttonPanel.add(zipButton);
+        buttonPanel.add(versionsButton);
+        buttonPanel.add(new JLabel("Filter:"));
+        buttonPanel.add(filterField);
+        buttonPanel.add(sortComboBox);
         
         add(buttonPanel, BorderLayout.NORTH);
         
         // Status panel
         JPanel statusPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        statusPanel.add(loadMoreButton);
         statusPanel.add(statusLabel);
         add(statusPanel, BorderLayout.SOUTH);
     }
@@ -108,11 +211,18 @@ public class FileSharePanel extends JPanel {
         uploadButton.addActionListener(e -> uploadFile());
         downloadButton.addActionListener(e -> downloadSelectedFile());
         deleteButton.addActionListener(e -> deleteSelectedFile());
+        loadMoreButton.addActionListener(e -> loadMoreFiles());
+        zipButton.addActionListener(e -> downloadSelectedAsZip());
+        versionsButton.addActionListener(e -> showSelectedFileVersions());
+        filterField.addActionListener(e -> loadSharedFiles());
+        sortComboBox.addActionListener(e -> loadSharedFiles());
         
         // Enable/disable buttons based on selection
         fileTable.getSelectionModel().addListSelectionListener(e -> {
             boolean hasSelection = fileTable.getSelectedRow() != -1;
             downloadButton.setEnabled(hasSelection);
+            zipButton.setEnabled(hasSelection);
+            versionsButton.setEnabled(fileTable.getSelectedRowCount() == 1);
             
             // Only enable delete for own files
             if (hasSelection) {
@@ -165,29 +275,24 @@ public class FileSharePanel extends JPanel {
             statusLabel.setText("Uploading file...");
             uploadButton.setEnabled(false);
             
-            // Read file data
-            byte[] fileData = FileUtils.readFileAsBytes(selectedFile.getAbsolutePath());
-            
-            // Create file transfer object
-            FileTransfer fileTransfer = new FileTransfer(
-                selectedFile.getName(),
-                extension,
-                fileData,
-                client.getUserId(),
-                client.getUsername()
-            );
+            long shareTime = SHARE_TIME_MILLIS[shareTimeComboBox.getSelectedIndex()];
+            long expiresAt = shareTime > 0 ? System.currentTimeMillis() + shareTime : 0;
             
-            // Upload to server
-            String fileId = client.getFileService().uploadFile(fileTransfer);
+            // Upload as a delta against an earlier version, over the bulk channel,
+            // or as verified RMI chunks
+            String fileId = uploadAsDelta(selectedFile, extension, expiresAt);
+            if (fileId == null) {
+                fileId = uploadOverBulkChannel(selectedFile, extension, expiresAt);
+            }
+            if (fileId == null) {
+                fileId = uploadInChunks(selectedFile, extension, expiresAt);
+            }
             
             if (fileId != null && !fileId.trim().isEmpty()) {
-                // Set the file ID that was returned by the server
-                fileTransfer.setFileId(fileId);
-                
                 // Share the file
                 client.getFileService().shareFile(fileId, client.getUserId());
                 
-                statusLabel.setText("File uploaded successfully");
+                statusLabel.setText("File uploaded successfully" + formatBytesSaved());
                 
                 // Refresh file list
                 loadSharedFiles();
@@ -197,8 +302,15 @@ public class FileSharePanel extends JPanel {
             }
             
         } catch (Exception e) {
-            showError("Upload error: " + e.getMessage());
-            statusLabel.setText("Upload failed");
+            RetryLaterException retryLater = RetryLaterException.find(e);
+            if (retryLater != null) {
+                long seconds = Math.max(1, (retryLater.getRetryAfterMillis() + 999) / 1000);
+                showError(retryLater.getMessage() + " in " + seconds + " seconds");
+                statusLabel.setText("Server busy - retry in " + seconds + "s");
+            } else {
+                showError("Upload error: " + e.getMessage());
+                statusLabel.setText("Upload failed");
+            }
         } finally {
             uploadButton.setEnabled(true);
         }
@@ -222,6 +334,13 @@ public class FileSharePanel extends JPanel {
             return;
         }
         
+        downloadFile(fileId, fileName);
+    }
+    
+    /**
+     * Download a file, or one version of it, to a location chosen by the user
+     */
+    private void downloadFile(String fileId, String fileName) {
         // Choose download location
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setDialogTitle("Save File As");
@@ -240,13 +359,8 @@ public class FileSharePanel extends JPanel {
             
             // Download from server
             System.out.println("Attempting to download file with ID: " + fileId);
-            FileTransfer fileTransfer = client.getFileService().downloadFile(fileId);
-            
-            if (fileTransfer != null) {
-                // Save to local file
-                FileUtils.writeBytesToFile(saveFile.getAbsolutePath(), fileTransfer.getData());
-                
-                statusLabel.setText("File downloaded successfully");
+            if (downloadOverBulkChannel(fileId, saveFile) || downloadInChunks(fileId, saveFile)) {
+                statusLabel.setText("File downloaded successfully" + formatBytesSaved());
                 JOptionPane.showMessageDialog(this, 
                     "File saved to: " + saveFile.getAbsolutePath(),
                     "Download Complete", JOptionPane.INFORMATION_MESSAGE);
@@ -264,6 +378,388 @@ public class FileSharePanel extends JPanel {
         }
     }
     
+    /**
+     * Show the version history of the selected file, from which any version can be downloaded
+     */
+    private void showSelectedFileVersions() {
+        String fileId = getFileIdForRow(fileTable.getSelectedRow());
+        if (fileId == null || !client.isConnected()) {
+            return;
+        }
+        
+        List<FileTransfer> versions;
+        try {
+            versions = client.getFileService().getFileVersions(fileId);
+        } catch (RemoteException e) {
+            showError("Failed to load versions: " + e.getMessage());
+            return;
+        }
+        if (versions == null || versions.isEmpty()) {
+            showError("File not found on server");
+            return;
+        }
+        
+        DefaultTableModel versionModel = new DefaultTableModel(
+            new String[] {"Version", "Size", "Uploader", "Uploaded"}, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        for (FileTransfer version : versions) {
+            versionModel.addRow(new Object[] {
+                "v" + version.getVersion(),
+                version.getFormattedFileSize(),
+                version.getUploaderName(),
+                VERSION_TIME_FORMAT.format(Instant.ofEpochMilli(version.getUploadTime()))
+            });
+        }
+        
+        JTable versionTable = new JTable(versionModel);
+        versionTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        versionTable.setRowSelectionInterval(0, 0);
+        JScrollPane scrollPane = new JScrollPane(versionTable);
+        scrollPane.setPreferredSize(new Dimension(420, 200));
+        
+        Object[] options = {"Download", "Close"};
+        int choice = JOptionPane.showOptionDialog(this, scrollPane, 
+            "Versions of " + versions.get(0).getFileName(), JOptionPane.DEFAULT_OPTION, 
+            JOptionPane.PLAIN_MESSAGE, null, options, options[0]);
+        
+        int selected = versionTable.getSelectedRow();
+        if (choice == 0 && selected != -1) {
+            FileTransfer version = versions.get(selected);
+            downloadFile(version.getFileId(), version.getFileName());
+        }
+    }
+    
+    /**
+     * Download the selected files as one ZIP archive
+     */
+    private void downloadSelectedAsZip() {
+        int[] selectedRows = fileTable.getSelectedRows();
+        if (selectedRows.length == 0 || !client.isConnected()) {
+            return;
+        }
+        
+        List<String> fileIds = new java.util.ArrayList<>();
+        for (int row : selectedRows) {
+            String fileId = getFileIdForRow(row);
+            if (fileId != null) {
+                fileIds.add(fileId);
+            }
+        }
+        
+        // Choose download location
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Save Files As ZIP");
+        fileChooser.setSelectedFile(new File("shared-files.zip"));
+        
+        int result = fileChooser.showSaveDialog(this);
+        if (result != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        
+        File saveFile = fileChooser.getSelectedFile();
+        
+        try {
+            statusLabel.setText("Downloading " + fileIds.size() + " files as ZIP...");
+            zipButton.setEnabled(false);
+            
+            // Stream the archive over the bulk channel, or build it here from verified chunks
+            TransferTicket ticket = client.getFileService().requestZipDownloadTicket(fileIds);
+            if (ticket != null) {
+                client.getBulkTransferClient().downloadArchive(ticket, saveFile);
+            } else {
+                zipInChunks(fileIds, saveFile);
+            }
+            
+            statusLabel.setText("ZIP downloaded successfully");
+            JOptionPane.showMessageDialog(this, 
+                "Files saved to: " + saveFile.getAbsolutePath(),
+                "Download Complete", JOptionPane.INFORMATION_MESSAGE);
+            
+        } catch (Exception e) {
+            showError("ZIP download error: " + e.getMessage());
+            statusLabel.setText("Download failed");
+        } finally {
+            zipButton.setEnabled(fileTable.getSelectedRowCount() > 0);
+        }
+    }
+    
+    /**
+     * Build a ZIP archive locally from files downloaded chunk by chunk,
+     * used when the bulk channel is unavailable
+     */
+    private void zipInChunks(List<String> fileIds, File saveFile) throws IOException {
+        java.util.Set<String> entryNames = new java.util.HashSet<>();
+        try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(saveFile)))) {
+            for (String fileId : fileIds) {
+                File temp = File.createTempFile("collabboard", ".part");
+                try {
+                    if (!downloadInChunks(fileId, temp)) {
+                        throw new IOException("File not found on server: " + fileId);
+                    }
+                    
+                    FileTransfer metadata = client.getFileService().getFileMetadata(fileId);
+                    String name = metadata != null ? metadata.getFileName() : fileId;
+                    zip.putNextEntry(new ZipEntry(FileUtils.getUniqueFileName(name, entryNames)));
+                    Files.copy(temp.toPath(), zip);
+                    zip.closeEntry();
+                } finally {
+                    temp.delete();
+                }
+            }
+        } catch (IOException e) {
+            saveFile.delete();
+            throw e;
+        }
+    }
+    
+    /**
+     * Upload a file as a delta against a shared file with the same name,
+     * sending only the blocks that changed
+     * @return The file ID of the uploaded file, or null if no delta upload was possible
+     */
+    private String uploadAsDelta(File file, String extension, long expiresAt) throws IOException {
+        if (file.length() < MIN_DELTA_FILE_SIZE) {
+            return null;
+        }
+        
+        FileTransfer base = null;
+        for (FileTransfer existing : fileList) {
+            if (file.getName().equals(existing.getFileName())) {
+                base = existing;
+            }
+        }
+        if (base == null) {
+            return null;
+        }
+        
+        int blockSize = DeltaEncoder.chooseBlockSize(base.getFileSize());
+        List<BlockSignature> signatures = client.getFileService().getBlockSignatures(base.getFileId(), blockSize);
+        if (signatures == null) {
+            return null;
+        }
+        
+        byte[] data = Files.readAllBytes(file.toPath());
+        List<DeltaInstruction> delta = DeltaEncoder.encode(data, blockSize, signatures);
+        long literalBytes = DeltaEncoder.getLiteralBytes(delta);
+        if (literalBytes > data.length * MAX_DELTA_LITERAL_RATIO) {
+            return null;
+        }
+        
+        FileTransfer metadata = new FileTransfer();
+        metadata.setFileName(file.getName());
+        metadata.setFileType(extension);
+        metadata.setFileSize(data.length);
+        metadata.setUploaderId(client.getUserId());
+        metadata.setUploaderName(client.getUsername());
+        metadata.setSha256(FileUtils.computeSha256(data));
+        metadata.setExpiresAt(expiresAt);
+        
+        try {
+            String fileId = client.getFileService().uploadDelta(metadata, base.getFileId(), blockSize, delta);
+            lastTransferBytesSaved = data.length - literalBytes;
+            return fileId;
+        } catch (RemoteException e) {
+            if (RetryLaterException.find(e) != null) {
+                throw e;
+            }
+            System.err.println("Delta upload failed, uploading whole file: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Upload a file over the bulk transfer channel
+     * @return The file ID of the uploaded file, or null if the channel is unavailable
+     */
+    private String uploadOverBulkChannel(File file, String extension, long expiresAt) throws IOException {
+        FileTransfer metadata = new FileTransfer();
+        metadata.setFileName(file.getName());
+        metadata.setFileType(extension);
+        metadata.setFileSize(file.length());
+        metadata.setUploaderId(client.getUserId());
+        metadata.setUploaderName(client.getUsername());
+        metadata.setSha256(FileUtils.computeSha256(file.getAbsolutePath()));
+        metadata.setExpiresAt(expiresAt);
+        
+        TransferTicket ticket = client.getFileService().requestUploadTicket(metadata);
+        if (ticket == null) {
+            return null;
+        }
+        
+        try {
+            lastTransferBytesSaved = 0;
+            return client.getBulkTransferClient().upload(ticket, file);
+        } catch (IOException e) {
+            System.err.println("Bulk upload failed, falling back to RMI: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Download a file over the bulk transfer channel
+     * @return true if the file was downloaded, false if the channel is unavailable
+     */
+    private boolean downloadOverBulkChannel(String fileId, File saveFile) throws RemoteException {
+        TransferTicket ticket = client.getFileService().requestDownloadTicket(fileId);
+        if (ticket == null) {
+            return false;
+        }
+        
+        try {
+            lastTransferBytesSaved = 0;
+            client.getBulkTransferClient().download(ticket, saveFile);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Bulk download failed, falling back to RMI: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Upload a file chunk by chunk, retransmitting any chunk the server
+     * rejects because its CRC32C did not match
+     * @return The file ID of the uploaded file
+     */
+    private String uploadInChunks(File file, String extension, long expiresAt) throws IOException {
+        // Reserve capacity on the server before sending any chunks
+        FileTransfer metadata = new FileTransfer();
+        metadata.setFileId(client.getUserId() + "_" + System.currentTimeMillis() + "_" + 
+                          Math.abs(file.getName().hashCode()));
+        metadata.setFileName(file.getName());
+        metadata.setFileType(extension);
+        metadata.setFileSize(file.length());
+        metadata.setUploaderId(client.getUserId());
+        metadata.setUploaderName(client.getUsername());
+        metadata.setExpiresAt(expiresAt);
+        String fileId = client.getFileService().beginUpload(metadata);
+        
+        String sha256 = FileUtils.computeSha256(file.getAbsolutePath());
+        int totalChunks = FileUtils.getChunkCount(file.length());
+        
+        // Use the compression level the server asks for, unless the file is already compressed
+        int compressionLevel = CompressionUtils.isAlreadyCompressed(extension)
+            ? CompressionUtils.DISABLED_LEVEL
+            : client.getFileService().getChunkCompressionLevel();
+        lastTransferBytesSaved = 0;
+        
+        for (int i = 0; i < totalChunks; i++) {
+            byte[] chunkData = FileUtils.readFileRange(file.getAbsolutePath(), 
+                (long) i * FileUtils.CHUNK_SIZE, FileUtils.CHUNK_SIZE);
+            
+            FileTransfer chunk = new FileTransfer(fileId, file.getName(), extension, chunkData,
+                client.getUserId(), client.getUsername(), i, totalChunks, i == totalChunks - 1);
+            chunk.setFileSize(file.length());
+            chunk.setChunkChecksum(FileUtils.computeCrc32c(chunkData));
+            chunk.setSha256(sha256);
+            chunk.setExpiresAt(expiresAt);
+            
+            if (compressionLevel != CompressionUtils.DISABLED_LEVEL) {
+                byte[] compressed = CompressionUtils.compressChunk(chunkData, compressionLevel);
+                if (compressed != null) {
+                    chunk.setData(compressed);
+                    chunk.setCompressed(true);
+                    chunk.setRawLength(chunkData.length);
+                    lastTransferBytesSaved += chunkData.length - compressed.length;
+                }
+            }
+            
+            int attempts = 0;
+            while (!client.getFileService().uploadFileChunk(chunk)) {
+                if (++attempts >= MAX_CHUNK_RETRIES) {
+                    throw new IOException("Chunk " + i + " was rejected " + attempts + " times");
+                }
+                System.err.println("Retransmitting chunk " + i + " of " + file.getName());
+            }
+            
+            statusLabel.setText("Uploading file... " + (i + 1) * 100 / totalChunks + "%");
+        }
+        
+        return fileId;
+    }
+    
+    /**
+     * Download a file chunk by chunk, verifying each chunk's CRC32C and the
+     * SHA-256 of the complete file
+     * @return true if the file was downloaded, false if it was not found
+     */
+    private boolean downloadInChunks(String fileId, File saveFile) throws IOException {
+        MessageDigest digest = FileUtils.newSha256Digest();
+        String expectedSha256 = null;
+        int totalChunks = 1;
+        lastTransferBytesSaved = 0;
+        
+        try (OutputStream out = new DigestOutputStream(
+                new BufferedOutputStream(new FileOutputStream(saveFile)), digest)) {
+            for (int i = 0; i < totalChunks; i++) {
+                FileTransfer chunk = downloadVerifiedChunk(fileId, i);
+                if (chunk == null) {
+                    break;
+                }
+                
+                totalChunks = chunk.getTotalChunks();
+                expectedSha256 = chunk.getSha256();
+                out.write(chunk.getData());
+                
+                statusLabel.setText("Downloading file... " + (i + 1) * 100 / totalChunks + "%");
+            }
+        }
+        
+        if (expectedSha256 == null) {
+            saveFile.delete();
+            return false;
+        }
+        
+        if (!expectedSha256.equalsIgnoreCase(FileUtils.toHexString(digest.digest()))) {
+            saveFile.delete();
+            throw new IOException("Downloaded file is corrupted (SHA-256 mismatch)");
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Download a single chunk, refetching it until its CRC32C matches
+     * Compressed chunks are inflated before verification
+     */
+    private FileTransfer downloadVerifiedChunk(String fileId, int chunkIndex) throws IOException {
+        for (int attempt = 0; attempt < MAX_CHUNK_RETRIES; attempt++) {
+            FileTransfer chunk = client.getFileService().downloadFileChunk(fileId, chunkIndex, true);
+            if (chunk == null) {
+                return null;
+            }
+            
+            try {
+                if (chunk.isCompressed()) {
+                    int transferLength = chunk.getData().length;
+                    chunk.setData(CompressionUtils.decompressChunk(chunk.getData(), chunk.getRawLength()));
+                    chunk.setCompressed(false);
+                    lastTransferBytesSaved += chunk.getRawLength() - transferLength;
+                }
+                if (FileUtils.computeCrc32c(chunk.getData()) == chunk.getChunkChecksum()) {
+                    return chunk;
+                }
+            } catch (IOException e) {
+                // Corrupted compressed data, fall through and refetch
+            }
+            System.err.println("Refetching corrupted chunk " + chunkIndex + " of file " + fileId);
+        }
+        throw new IOException("Chunk " + chunkIndex + " failed verification " + MAX_CHUNK_RETRIES + " times");
+    }
+    
+    /**
+     * Describe the bytes saved by compression during the last transfer
+     */
+    private String formatBytesSaved() {
+        if (lastTransferBytesSaved <= 0) {
+            return "";
+        }
+        return " (saved " + FileUtils.formatFileSize(lastTransferBytesSaved) + " of transfer)";
+    }
+    
     /**
      * Delete selected file
      */
@@ -304,8 +800,8 @@ public class FileSharePanel extends JPanel {
             
             if (success) {
                 statusLabel.setText("File deleted successfully");
-                // Remove from table
-                tableModel.removeRow(selectedRow);
+                // Remove from table, the server lists the previous version if there is one
+                removeSharedFile(fileId);
             } else {
                 showError("Failed to delete file");
                 statusLabel.setText("Delete failed");
@@ -320,87 +816,252 @@ public class FileSharePanel extends JPanel {
     }
     
     /**
-     * Load shared files from server
+     * Load the first page of shared files for the current filter and sort order
      */
     private void loadSharedFiles() {
         if (!client.isConnected()) {
             return;
         }
         
+        String filter = filterField.getText().trim();
+        String sort = SORT_KEYS[sortComboBox.getSelectedIndex()];
+        
+        // Use the page delivered on join for the default view
+        FileListPage initialPage = client.consumeInitialFilePage();
+        if (initialPage != null && filter.isEmpty() && FileListPage.SORT_TIME.equals(sort)) {
+            showFilePage(initialPage, true);
+            return;
+        }
+        
         try {
-            List<FileTransfer> files = client.getFileService().getSharedFiles();
-            updateFileList(files);
+            showFilePage(client.getFileService().getSharedFiles(null, PAGE_SIZE, filter, sort), true);
         } catch (RemoteException e) {
             System.err.println("Failed to load shared files: " + e.getMessage());
         }
     }
     
     /**
-     * Update the file list display
+     * Load the next page of shared files
      */
-    private void updateFileList(List<FileTransfer> files) {
+    private void loadMoreFiles() {
+        if (nextCursor == null) {
+            return;
+        }
+        
+        try {
+            showFilePage(client.getFileService().getSharedFiles(nextCursor, PAGE_SIZE, 
+                filterField.getText().trim(), SORT_KEYS[sortComboBox.getSelectedIndex()]), false);
+        } catch (RemoteException e) {
+            showError("Failed to load more files: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Show a page of shared files
+     * @param page The page to show
+     * @param replace true to replace the list, false to append the page to it
+     */
+    public void showFilePage(FileListPage page, boolean replace) {
         SwingUtilities.invokeLater(() -> {
-            // Store the file list for ID tracking
-            fileList.clear();
-            fileList.addAll(files);
-            
-            tableModel.setRowCount(0);
+            if (replace) {
+                fileList.clear();
+                tableModel.setRowCount(0);
+            }
             
-            for (FileTransfer file : files) {
-                System.out.println("Loading file: " + file.getFileName() + " with ID: " + file.getFileId());
-                Object[] rowData = {
-                    file.getFileName(),
-                    file.getFormattedFileSize(),
-                    file.getUploaderName(),
-                    file.getFileType().toUpperCase()
-                };
-                tableModel.addRow(rowData);
+            // Store the file list for ID tracking
+            fileList.addAll(page.getFiles());
+            for (FileTransfer file : page.getFiles()) {
+                tableModel.addRow(createRow(file));
             }
             
-            statusLabel.setText("Files: " + files.size());
+            nextCursor = page.getNextCursor();
+            loadMoreButton.setEnabled(page.hasMore());
+            statusLabel.setText("Files: " + fileList.size() + " of " + page.getTotalFiles());
         });
     }
     
     /**
-     * Add a shared file to the list
+     * Add a shared file to the list, replacing the row of another version of it
      */
     public void addSharedFile(FileTransfer fileMetadata) {
         SwingUtilities.invokeLater(() -> {
             // Check if file already exists in our list (prevent duplicates)
             String newFileId = fileMetadata.getFileId();
-            for (FileTransfer existingFile : fileList) {
+            String logicalFileId = fileMetadata.getLogicalFileId();
+            for (int row = 0; row < fileList.size(); row++) {
+                FileTransfer existingFile = fileList.get(row);
                 if (existingFile.getFileId() != null && existingFile.getFileId().equals(newFileId)) {
                     // File already exists, don't add duplicate
                     return;
                 }
+                if (logicalFileId != null && logicalFileId.equals(existingFile.getLogicalFileId())) {
+                    fileList.set(row, fileMetadata);
+                    Object[] rowData = createRow(fileMetadata);
+                    for (int column = 0; column < rowData.length; column++) {
+                        tableModel.setValueAt(rowData[column], row, column);
+                    }
+                    return;
+                }
             }
             
             // Add to our tracked list
             fileList.add(fileMetadata);
-            
-            Object[] rowData = {
-                fileMetadata.getFileName(),
-                fileMetadata.getFormattedFileSize(),
-                fileMetadata.getUploaderName(),
-                fileMetadata.getFileType().toUpperCase()
-            };
-            tableModel.addRow(rowData);
+            tableModel.addRow(createRow(fileMetadata));
             
             statusLabel.setText("Files: " + tableModel.getRowCount());
         });
     }
     
+    /**
+     * Build the table row of a file
+     */
+    private static Object[] createRow(FileTransfer file) {
+        return new Object[] {
+            file.getFileId(),
+            file.getFileName(),
+            file.getVersion() > 0 ? "v" + file.getVersion() : "",
+            file.getFormattedFileSize(),
+            file.getUploaderName(),
+            file.getFileType().toUpperCase(),
+            file.getExpiresAt() > 0 ? EXPIRY_TIME_FORMAT.format(Instant.ofEpochMilli(file.getExpiresAt())) : ""
+        };
+    }
+    
     /**
      * Remove a shared file from the list
      */
     public void removeSharedFile(String fileId) {
         // Note: In a full implementation, you'd need to track file IDs
         // For now, we'll refresh the entire list
+        previewIcons.remove(fileId);
         SwingUtilities.invokeLater(() -> {
-            loadSharedFiles();
+            for (int row = 0; row < fileList.size(); row++) {
+                if (fileId.equals(fileList.get(row).getFileId())) {
+                    fileList.remove(row);
+                    tableModel.removeRow(row);
+                    statusLabel.setText("Files: " + fileList.size());
+                    return;
+                }
+            }
         });
     }
     
+    /**
+     * Renders the preview column, requesting previews only for rows that are painted
+     */
+    private class PreviewCellRenderer extends DefaultTableCellRenderer {
+        @Override
+        public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected,
+                                                       boolean hasFocus, int row, int column) {
+            super.getTableCellRendererComponent(table, "", isSelected, hasFocus, row, column);
+            setHorizontalAlignment(CENTER);
+            
+            String fileId = (String) value;
+            Icon icon = fileId != null ? previewIcons.get(fileId) : null;
+            setIcon(icon);
+            if (icon == null && fileId != null && row < fileList.size()) {
+                requestPreview(fileId, fileList.get(row).getFileType());
+            }
+            return this;
+        }
+    }
+    
+    /**
+     * Start loading the preview of an image file in the background
+     */
+    private void requestPreview(String fileId, String fileType) {
+        if (!previewsRequested.add(fileId)) {
+            return;
+        }
+        if (fileType == null || !FileUtils.getMimeType(fileType).startsWith("image/")) {
+            return;
+        }
+        previewLoader.execute(() -> loadPreview(fileId));
+    }
+    
+    /**
+     * Load a preview from the server, skipping rows scrolled out of view while queued
+     */
+    private void loadPreview(String fileId) {
+        try {
+            final boolean[] visible = new boolean[1];
+            SwingUtilities.invokeAndWait(() -> visible[0] = isRowVisible(fileId));
+            if (!visible[0]) {
+                previewsRequested.remove(fileId);
+                return;
+            }
+            
+            byte[] preview = client.getFileService().getPreview(fileId, PREVIEW_SIZE);
+            if (preview == null) {
+                return;
+            }
+            
+            previewIcons.put(fileId, new ImageIcon(scaleToFit(new ImageIcon(preview).getImage(), PREVIEW_SIZE)));
+            SwingUtilities.invokeLater(() -> fileTable.repaint());
+            
+        } catch (RemoteException e) {
+            RetryLaterException retryLater = RetryLaterException.find(e);
+            if (retryLater != null) {
+                // Allow the next repaint after the hint to request the preview again
+                Timer retry = new Timer((int) retryLater.getRetryAfterMillis(), event -> {
+                    previewsRequested.remove(fileId);
+                    fileTable.repaint();
+                });
+                retry.setRepeats(false);
+                retry.start();
+            } else {
+                System.err.println("Failed to load preview: " + e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("Failed to load preview: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Check if the row of a file is within the visible part of the table
+     */
+    private boolean isRowVisible(String fileId) {
+        Rectangle visibleRect = fileTable.getVisibleRect();
+        int first = fileTable.rowAtPoint(visibleRect.getLocation());
+        int last = fileTable.rowAtPoint(new Point(visibleRect.x, visibleRect.y + visibleRect.height - 1));
+        if (first < 0) {
+            return false;
+        }
+        if (last < 0) {
+            last = tableModel.getRowCount() - 1;
+        }
+        
+        for (int row = first; row <= last; row++) {
+            if (fileId.equals(tableModel.getValueAt(row, PREVIEW_COLUMN))) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Scale an image to fit in a square, keeping its aspect ratio
+     */
+    private static Image scaleToFit(Image image, int size) {
+        int width = image.getWidth(null);
+        int height = image.getHeight(null);
+        if (width <= size && height <= size) {
+            return image;
+        }
+        
+        double scale = (double) size / Math.max(width, height);
+        int scaledWidth = Math.max(1, (int) (width * scale));
+        int scaledHeight = Math.max(1, (int) (height * scale));
+        BufferedImage scaled = new BufferedImage(scaledWidth, scaledHeight, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = scaled.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2d.drawImage(image, 0, 0, scaledWidth, scaledHeight, null);
+        g2d.dispose();
+        return scaled;
+    }
+    
     /**
      * Get file ID for a table row (now using actual stored file IDs)
      */
@@ -428,6 +1089,9 @@ public class FileSharePanel extends JPanel {
             if (!enabled) {
                 downloadButton.setEnabled(false);
                 deleteButton.setEnabled(false);
+                zipButton.setEnabled(false);
+                versionsButton.setEnabled(false);
+                loadMoreButton.setEnabled(false);
                 statusLabel.setText("Disconnected");
                 tableModel.setRowCount(0);
                 fileList.clear(); // Clear tracked files
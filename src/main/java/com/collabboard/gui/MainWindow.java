@@ -60,6 +60,7 @@ public class MainWindow extends JFrame {
         
         // Create user list panel
         userListPanel = new UserListPanel(client);
+        userListPanel.setChatPanel(chatPanel);
         
         // Create file share panel
         fileSharePanel = new FileSharePanel(client);
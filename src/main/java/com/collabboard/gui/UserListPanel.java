@@ -7,7 +7,10 @@ import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableCellRenderer;
 import java.awt.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Panel to display online users and their status
@@ -15,12 +18,17 @@ import java.util.List;
 public class UserListPanel extends JPanel {
     
     private RMIClient client;
+    private ChatPanel chatPanel;
     
     // GUI Components
     private JTable userTable;
     private DefaultTableModel tableModel;
     private JLabel userCountLabel;
     
+    // Users shown in the table, keyed by user ID, and the user ID of each row
+    private final Map<String, User> usersById = new LinkedHashMap<>();
+    private final List<String> rowUserIds = new ArrayList<>();
+    
     // Table columns
     private static final String[] COLUMN_NAMES = {"Username", "Status", "Audio"};
     private static final int USERNAME_COLUMN = 0;
@@ -114,9 +122,13 @@ public class UserListPanel extends JPanel {
         JMenuItem viewProfileItem = new JMenuItem("View User Info");
         viewProfileItem.addActionListener(e -> viewSelectedUserInfo());
         
+        JMenuItem directMessageItem = new JMenuItem("Send Direct Message");
+        directMessageItem.addActionListener(e -> openDirectMessage());
+        
         contextMenu.add(refreshItem);
         contextMenu.addSeparator();
         contextMenu.add(viewProfileItem);
+        contextMenu.add(directMessageItem);
         
         userTable.setComponentPopupMenu(contextMenu);
     }
@@ -130,20 +142,16 @@ public class UserListPanel extends JPanel {
             
             // Clear existing data
             tableModel.setRowCount(0);
+            usersById.clear();
+            rowUserIds.clear();
             
             // Add users to table
             for (User user : users) {
-                System.out.println("UserListPanel: Adding user " + user.getUsername() + " (online: " + user.isOnline() + ")");
-                Object[] rowData = {
-                    user.getUsername(),
-                    user.isOnline() ? "online" : "offline",
-                    user.isAudioEnabled() ? "enabled" : "disabled"
-                };
-                tableModel.addRow(rowData);
+                appendRow(user);
             }
             
             // Update user count
-            userCountLabel.setText("Users: " + users.size());
+            updateUserCount();
             
             // Highlight current user
             highlightCurrentUser(users);
@@ -151,17 +159,27 @@ public class UserListPanel extends JPanel {
     }
     
     /**
-     * Add a single user to the list
+     * Add a single user to the list, or update the user if it is already listed
      */
     public void addUser(User user) {
         SwingUtilities.invokeLater(() -> {
             System.out.println("UserListPanel: Adding single user " + user.getUsername());
-            Object[] rowData = {
-                user.getUsername(),
-                user.isOnline() ? "online" : "offline",
-                user.isAudioEnabled() ? "enabled" : "disabled"
-            };
-            tableModel.addRow(rowData);
+            if (!replaceRow(user)) {
+                appendRow(user);
+            }
+            
+            updateUserCount();
+        });
+    }
+    
+    /**
+     * Update the row of a listed user
+     */
+    public void updateUser(User user) {
+        SwingUtilities.invokeLater(() -> {
+            if (!replaceRow(user)) {
+                appendRow(user);
+            }
             
             updateUserCount();
         });
@@ -172,18 +190,62 @@ public class UserListPanel extends JPanel {
      */
     public void removeUser(User user) {
         SwingUtilities.invokeLater(() -> {
-            for (int i = 0; i < tableModel.getRowCount(); i++) {
-                String username = (String) tableModel.getValueAt(i, USERNAME_COLUMN);
-                if (username.equals(user.getUsername())) {
-                    tableModel.removeRow(i);
-                    break;
-                }
+            int row = rowUserIds.indexOf(user.getUserId());
+            if (row >= 0) {
+                tableModel.removeRow(row);
+                rowUserIds.remove(row);
+                usersById.remove(user.getUserId());
             }
             
             updateUserCount();
         });
     }
     
+    /**
+     * Compare the list with the server's presence checksum and reload it on a mismatch
+     * Runs after the changes queued before it, like the other updates.
+     */
+    public void checkPresence(long version, long checksum) {
+        SwingUtilities.invokeLater(() -> {
+            if (User.presenceChecksum(usersById.values()) == checksum) {
+                return;
+            }
+            System.out.println("UserListPanel: User list drifted from presence version " + version + ", reloading");
+            refreshUserList();
+        });
+    }
+    
+    private void appendRow(User user) {
+        tableModel.addRow(createRow(user));
+        rowUserIds.add(user.getUserId());
+        usersById.put(user.getUserId(), user);
+    }
+    
+    /**
+     * Replace the row of a user in place
+     * @return false if the user is not listed
+     */
+    private boolean replaceRow(User user) {
+        int row = rowUserIds.indexOf(user.getUserId());
+        if (row < 0) {
+            return false;
+        }
+        Object[] rowData = createRow(user);
+        for (int column = 0; column < rowData.length; column++) {
+            tableModel.setValueAt(rowData[column], row, column);
+        }
+        usersById.put(user.getUserId(), user);
+        return true;
+    }
+    
+    private Object[] createRow(User user) {
+        return new Object[] {
+            user.getUsername(),
+            user.isOnline() ? "online" : "offline",
+            user.isAudioEnabled() ? "enabled" : "disabled"
+        };
+    }
+    
     /**
      * Update user count label
      */
@@ -207,7 +269,7 @@ public class UserListPanel extends JPanel {
     }
     
     /**
-     * Refresh user list from server
+     * Ask the server for the full user list
      */
     private void refreshUserList() {
         if (!client.isConnected()) {
@@ -215,8 +277,8 @@ public class UserListPanel extends JPanel {
         }
         
         try {
-            List<User> users = client.getChatService().getOnlineUsers();
-            updateUserList(users);
+            // Delivered in order with the presence changes still on their way
+            client.getChatService().requestPresenceResync(client.getUserId());
         } catch (Exception e) {
             showError("Failed to refresh user list: " + e.getMessage());
         }
@@ -246,6 +308,28 @@ public class UserListPanel extends JPanel {
         JOptionPane.showMessageDialog(this, info, "User Info", JOptionPane.INFORMATION_MESSAGE);
     }
     
+    /**
+     * Show the direct channel with the selected user in the chat panel
+     */
+    private void openDirectMessage() {
+        int selectedRow = userTable.getSelectedRow();
+        if (selectedRow == -1 || chatPanel == null) {
+            return;
+        }
+        
+        User user = usersById.get(rowUserIds.get(selectedRow));
+        if (user != null) {
+            chatPanel.openDirectChannel(user.getUserId(), user.getUsername());
+        }
+    }
+    
+    /**
+     * Set the chat panel that direct messages are shown in
+     */
+    public void setChatPanel(ChatPanel chatPanel) {
+        this.chatPanel = chatPanel;
+    }
+    
     /**
      * Show error message
      */
@@ -259,6 +343,8 @@ public class UserListPanel extends JPanel {
     public void clearUserList() {
         SwingUtilities.invokeLater(() -> {
             tableModel.setRowCount(0);
+            usersById.clear();
+            rowUserIds.clear();
             userCountLabel.setText("Users: 0");
         });
     }
@@ -1,6 +1,7 @@
 package com.collabboard.gui;
 
 import com.collabboard.client.RMIClient;
+import com.collabboard.interfaces.RetryLaterException;
 import com.collabboard.models.DrawingAction;
 import com.collabboard.utils.DrawingUtils;
 
@@ -10,6 +11,8 @@ import java.awt.event.*;
 import java.awt.image.BufferedImage;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.rmi.RemoteException;
 
 /**
@@ -34,14 +37,22 @@ public class WhiteboardPanel extends JPanel {
     private Point lastPoint;
     private List<Point> currentPoints;
     
+    // Actions drawn locally that the server has not accepted yet, sent in order
+    private final Deque<DrawingAction> pendingSends = new ArrayDeque<>();
+    private final Timer sendRetryTimer;
+    private int sendAttempts;
+    
     // Canvas properties
     private static final int CANVAS_WIDTH = 1000;
     private static final int CANVAS_HEIGHT = 700;
+    private static final int SEND_ATTEMPTS = 4;
     
     public WhiteboardPanel(RMIClient client) {
         this.client = client;
         this.localActions = new ArrayList<>();
         this.currentPoints = new ArrayList<>();
+        this.sendRetryTimer = new Timer(0, e -> flushPendingSends());
+        sendRetryTimer.setRepeats(false);
         
         initializeCanvas();
         setupPanel();
@@ -206,11 +217,7 @@ public class WhiteboardPanel extends JPanel {
             localActions.add(action);
             DrawingUtils.renderDrawingAction(canvasGraphics, action);
             repaint();
-            try {
-                client.getWhiteboardService().addDrawingAction(action);
-            } catch (RemoteException ex) {
-                showError("Failed to send drawing action: " + ex.getMessage());
-            }
+            sendDrawingAction(action);
         }
 
         currentPoints.clear();
@@ -234,15 +241,61 @@ public class WhiteboardPanel extends JPanel {
             DrawingUtils.renderDrawingAction(canvasGraphics, action);
             repaint();
             
+            sendDrawingAction(action);
+        }
+        
+        isDrawing = false;
+        currentPoints.clear();
+    }
+    
+    /**
+     * Send an action drawn locally to the server
+     * Actions go out in drawing order, so while one waits for a throttled retry
+     * the ones drawn after it wait behind it.
+     */
+    private void sendDrawingAction(DrawingAction action) {
+        pendingSends.add(action);
+        if (pendingSends.size() == 1) {
+            flushPendingSends();
+        }
+    }
+    
+    /**
+     * Send the queued actions until one fails
+     * A throttled action is retried after the delay the server asked for. Once it is out
+     * of attempts, or fails for another reason, the queued actions are removed from the
+     * canvas so it does not show strokes the other users never got.
+     */
+    private void flushPendingSends() {
+        while (!pendingSends.isEmpty()) {
             try {
-                client.getWhiteboardService().addDrawingAction(action);
+                client.getWhiteboardService().addDrawingAction(pendingSends.peek());
+                pendingSends.poll();
+                sendAttempts = 0;
             } catch (RemoteException ex) {
+                RetryLaterException retryLater = RetryLaterException.find(ex);
+                if (retryLater != null && ++sendAttempts < SEND_ATTEMPTS) {
+                    sendRetryTimer.setInitialDelay((int) Math.min(Integer.MAX_VALUE, retryLater.getRetryAfterMillis()));
+                    sendRetryTimer.restart();
+                    return;
+                }
+                
+                localActions.removeAll(pendingSends);
+                discardPendingSends();
+                redrawCanvas();
                 showError("Failed to send drawing action: " + ex.getMessage());
+                return;
             }
         }
-        
-        isDrawing = false;
-        currentPoints.clear();
+    }
+    
+    /**
+     * Drop the queued actions without sending them
+     */
+    private void discardPendingSends() {
+        sendRetryTimer.stop();
+        pendingSends.clear();
+        sendAttempts = 0;
     }
     
     /**
@@ -277,6 +330,8 @@ public class WhiteboardPanel extends JPanel {
      * Clear the local whiteboard (called from server callback)
      */
     public void clearWhiteboardLocal() {
+        // Strokes drawn before the clear must not reappear on the cleared board
+        discardPendingSends();
         localActions.clear();
         
         // Clear canvas
@@ -482,6 +537,7 @@ public class WhiteboardPanel extends JPanel {
      * Initialize whiteboard with existing actions (when connecting)
      */
     public void initializeWithActions(List<DrawingAction> actions) {
+        discardPendingSends();
         localActions.clear();
         
         // Clear canvas
@@ -1,10 +1,12 @@
 package com.collabboard.interfaces;
 
+import com.collabboard.models.ChatCatchUp;
 import com.collabboard.models.ChatMessage;
 import com.collabboard.models.User;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.util.List;
+import java.util.Map;
 
 /**
  * RMI interface for chat operations
@@ -13,20 +15,97 @@ import java.util.List;
 public interface ChatService extends Remote {
     
     /**
-     * Send a chat message to all connected clients
+     * Send a chat message to the subscribers of its channel
+     * A message to the direct channel of two users opens that channel if needed. Sending a
+     * message again with the same message ID does not send it twice, so a send whose reply
+     * was lost can be retried.
      * @param message The chat message to send
-     * @throws RemoteException if RMI communication fails
+     * @return The sequence number of the message in its channel, the same for every retry
+     * @throws RemoteException if RMI communication fails, or the sender may not send to the channel
      */
-    void sendMessage(ChatMessage message) throws RemoteException;
+    long sendMessage(ChatMessage message) throws RemoteException;
     
     /**
-     * Get chat message history
+     * Get chat message history of the general channel
      * @param limit Maximum number of messages to retrieve
      * @return List of recent chat messages
      * @throws RemoteException if RMI communication fails
      */
     List<ChatMessage> getMessageHistory(int limit) throws RemoteException;
     
+    /**
+     * Get a page of the messages of the general channel before a sequence number, for scrolling back through history
+     * @param beforeSequence Sequence number to page back from, Long.MAX_VALUE for the latest messages
+     * @param limit Maximum number of messages, capped by the server
+     * @return The messages right before the sequence number, oldest first
+     * @throws RemoteException if RMI communication fails
+     */
+    List<ChatMessage> getMessagesBefore(long beforeSequence, int limit) throws RemoteException;
+    
+    /**
+     * Get a page of the messages of the general channel after a sequence number
+     * @param afterSequence Sequence number to page forward from, 0 for the oldest messages
+     * @param limit Maximum number of messages, capped by the server
+     * @return The messages right after the sequence number, oldest first
+     * @throws RemoteException if RMI communication fails
+     */
+    List<ChatMessage> getMessagesAfter(long afterSequence, int limit) throws RemoteException;
+    
+    /**
+     * Get a page of the messages of a channel before a sequence number
+     * @param userId The user ID of the client, direct channels can only be read by their two users
+     * @param channel Channel name
+     * @param beforeSequence Sequence number to page back from, Long.MAX_VALUE for the latest messages
+     * @param limit Maximum number of messages, capped by the server
+     * @return The messages right before the sequence number, oldest first
+     * @throws RemoteException if RMI communication fails or the channel cannot be read
+     */
+    List<ChatMessage> getMessagesBefore(String userId, String channel, long beforeSequence, int limit)
+            throws RemoteException;
+    
+    /**
+     * Get a page of the messages of a channel after a sequence number
+     * @param userId The user ID of the client, direct channels can only be read by their two users
+     * @param channel Channel name
+     * @param afterSequence Sequence number to page forward from, 0 for the oldest messages
+     * @param limit Maximum number of messages, capped by the server
+     * @return The messages right after the sequence number, oldest first
+     * @throws RemoteException if RMI communication fails or the channel cannot be read
+     */
+    List<ChatMessage> getMessagesAfter(String userId, String channel, long afterSequence, int limit)
+            throws RemoteException;
+    
+    /**
+     * Join a named channel, creating it if it does not exist
+     * @param userId The user ID
+     * @param channel Channel name, letters, digits, '_' and '-'
+     * @throws RemoteException if RMI communication fails or the name is invalid
+     */
+    void joinChannel(String userId, String channel) throws RemoteException;
+    
+    /**
+     * Leave a named channel
+     * @param userId The user ID
+     * @param channel Channel name
+     * @throws RemoteException if RMI communication fails, or the channel is the general or a direct channel
+     */
+    void leaveChannel(String userId, String channel) throws RemoteException;
+    
+    /**
+     * Get the names of all named channels
+     * @return Channel names, sorted
+     * @throws RemoteException if RMI communication fails
+     */
+    List<String> getChannels() throws RemoteException;
+    
+    /**
+     * Get the channels a user receives messages of
+     * @param userId The user ID
+     * @return The general channel first, then the user's named and direct channels
+     * @throws RemoteException if RMI communication fails
+     */
+    List<String> getSubscribedChannels(String userId) throws RemoteException;
+    
     /**
      * Register a client for receiving chat updates
      * @param client The client callback interface
@@ -35,6 +114,28 @@ public interface ChatService extends Remote {
      */
     void registerChatClient(ClientCallback client, User user) throws RemoteException;
     
+    /**
+     * Register a reconnecting client again and get the messages it missed
+     * Only the channels the client saw messages of are caught up. Live deliveries continue
+     * after the last sequence number of each catch-up.
+     * @param client The client callback interface
+     * @param user The user information
+     * @param lastSeenSequences Sequence number of the last message the client saw, by channel
+     * @return The missed messages of each of those channels the user is still in
+     * @throws RemoteException if RMI communication fails
+     */
+    List<ChatCatchUp> resumeChatClient(ClientCallback client, User user, Map<String, Long> lastSeenSequences)
+            throws RemoteException;
+    
+    /**
+     * Check that a client still receives chat deliveries
+     * A client that was dropped, for example for falling too far behind, registers again.
+     * @param userId The user ID of the client
+     * @return true if the user's client is registered
+     * @throws RemoteException if RMI communication fails
+     */
+    boolean isChatClientRegistered(String userId) throws RemoteException;
+    
     /**
      * Unregister a client from receiving chat updates
      * @param client The client callback interface
@@ -58,6 +159,14 @@ public interface ChatService extends Remote {
      */
     void updateUserStatus(String userId, User user) throws RemoteException;
     
+    /**
+     * Ask for the full user list again, after a presence checksum did not match
+     * The list is delivered through onUserListUpdated, in order with other presence changes.
+     * @param userId The user ID of the client
+     * @throws RemoteException if RMI communication fails or the client is not registered
+     */
+    void requestPresenceResync(String userId) throws RemoteException;
+    
     /**
      * Notify that a user is typing
      * @param userId The user ID who is typing
@@ -2,6 +2,7 @@ package com.collabboard.interfaces;
 
 import com.collabboard.models.DrawingAction;
 import com.collabboard.models.ChatMessage;
+import com.collabboard.models.FileListPage;
 import com.collabboard.models.FileTransfer;
 import com.collabboard.models.User;
 import java.rmi.Remote;
@@ -66,13 +67,27 @@ public interface ClientCallback extends Remote {
     void onUserLeft(User user) throws RemoteException;
     
     /**
-     * Called when a user is typing
-     * @param userId The user ID who is typing
-     * @param username The username who is typing
-     * @param isTyping true if started typing, false if stopped
+     * Called when an online user's status changes
+     * @param user The user's new state
      * @throws RemoteException if RMI communication fails
      */
-    void onUserTyping(String userId, String username, boolean isTyping) throws RemoteException;
+    void onUserUpdated(User user) throws RemoteException;
+    
+    /**
+     * Called periodically with the checksum of the user list after all earlier changes
+     * A client whose own list has a different checksum should request the full list again.
+     * @param version Presence version the checksum belongs to
+     * @param checksum Sum of User.presenceHash over the online users
+     * @throws RemoteException if RMI communication fails
+     */
+    void onPresenceChecksum(long version, long checksum) throws RemoteException;
+    
+    /**
+     * Called with a digest of the other users that are typing, when it changes
+     * @param usernames Names of the users typing, sorted, empty when nobody is typing
+     * @throws RemoteException if RMI communication fails
+     */
+    void onTypingUsersUpdated(List<String> usernames) throws RemoteException;
     
     // File sharing callbacks
     /**
@@ -82,6 +97,13 @@ public interface ClientCallback extends Remote {
      */
     void onFileShared(FileTransfer fileMetadata) throws RemoteException;
     
+    /**
+     * Called once on join with the first page of the shared file list
+     * @param page The first page of shared files, newest first
+     * @throws RemoteException if RMI communication fails
+     */
+    void onSharedFilesLoaded(FileListPage page) throws RemoteException;
+    
     /**
      * Called when a file is deleted
      * @param fileId The ID of the deleted file
@@ -90,6 +112,14 @@ public interface ClientCallback extends Remote {
      */
     void onFileDeleted(String fileId, String deletedBy) throws RemoteException;
     
+    /**
+     * Called once for a batch of deleted files, such as files whose share time expired
+     * @param fileIds The IDs of the deleted files
+     * @param deletedBy The user or reason the files were deleted for
+     * @throws RemoteException if RMI communication fails
+     */
+    void onFilesDeleted(List<String> fileIds, String deletedBy) throws RemoteException;
+    
     // Audio callbacks
     /**
      * Called when audio session starts
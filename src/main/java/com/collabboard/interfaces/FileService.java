@@ -1,6 +1,10 @@
 package com.collabboard.interfaces;
 
+import com.collabboard.models.BlockSignature;
+import com.collabboard.models.DeltaInstruction;
+import com.collabboard.models.FileListPage;
 import com.collabboard.models.FileTransfer;
+import com.collabboard.models.TransferTicket;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.util.List;
@@ -29,11 +33,22 @@ public interface FileService extends Remote {
     
     /**
      * Get list of all shared files
-     * @return List of file transfer objects (metadata only, no data)
+     * @return List of file transfer objects (metadata only, no data), latest versions only
      * @throws RemoteException if RMI communication fails
      */
     List<FileTransfer> getSharedFiles() throws RemoteException;
     
+    /**
+     * Get one page of shared files
+     * @param cursor Cursor from the previous page, or null for the first page
+     * @param limit Maximum number of files on the page
+     * @param filter "uploader:name", "type:ext", text contained in the file name, or null for all files
+     * @param sort FileListPage.SORT_TIME, SORT_UPLOADER or SORT_TYPE
+     * @return The page (metadata only, no data) with the cursor of the next page
+     * @throws RemoteException if RMI communication fails
+     */
+    FileListPage getSharedFiles(String cursor, int limit, String filter, String sort) throws RemoteException;
+    
     /**
      * Share a file with all users (notify them about new file)
      * @param fileId The ID of the file to share
@@ -53,12 +68,92 @@ public interface FileService extends Remote {
     
     /**
      * Upload a file chunk (for large files)
-     * @param fileChunk The file chunk data
-     * @return true if chunk uploaded successfully, false otherwise
+     * @param fileChunk The file chunk data (with CRC32C checksum of the chunk data)
+     * @return true if chunk uploaded successfully, false if the chunk failed
+     *         verification and should be retransmitted
      * @throws RemoteException if RMI communication fails
      */
     boolean uploadFileChunk(FileTransfer fileChunk) throws RemoteException;
     
+    /**
+     * Reserve server capacity for a chunked upload before sending any chunks
+     * @param metadata File metadata (name, size and uploader, no data)
+     * @return The file ID to use for the chunks
+     * @throws RetryLaterException if the server cannot accept the upload right now
+     * @throws RemoteException if RMI communication fails or the file is not accepted
+     */
+    String beginUpload(FileTransfer metadata) throws RemoteException;
+    
+    /**
+     * Get the block signatures of a stored file for a delta upload
+     * @param fileId ID of the base file
+     * @param blockSize Block size in bytes
+     * @return Signatures in block order, or null if the file is not found
+     * @throws RemoteException if RMI communication fails
+     */
+    List<BlockSignature> getBlockSignatures(String fileId, int blockSize) throws RemoteException;
+    
+    /**
+     * Upload a new version of a file as a delta against a stored base file
+     * @param metadata File metadata (name, size, SHA-256 and uploader, no data)
+     * @param baseFileId ID of the base file the delta was encoded against
+     * @param blockSize Block size the signatures were requested with
+     * @param instructions Block copies and literal bytes that rebuild the new file
+     * @return The file ID of the new file
+     * @throws RetryLaterException if the server cannot accept the upload right now
+     * @throws RemoteException if RMI communication fails or the rebuilt file does not verify
+     */
+    String uploadDelta(FileTransfer metadata, String baseFileId, int blockSize, 
+                       List<DeltaInstruction> instructions) throws RemoteException;
+    
+    /**
+     * Download a single chunk of a file (for large files)
+     * The returned chunk carries its CRC32C checksum, the total chunk count
+     * and the SHA-256 of the complete file
+     * @param fileId The ID of the file to download
+     * @param chunkIndex Index of the chunk to download
+     * @param acceptCompressed true if the client can inflate compressed chunks
+     * @return FileTransfer object containing the chunk data, null if not found
+     * @throws RemoteException if RMI communication fails
+     */
+    FileTransfer downloadFileChunk(String fileId, int chunkIndex, boolean acceptCompressed) throws RemoteException;
+    
+    /**
+     * Get the compression level clients should use for uploaded chunks
+     * @return Deflater level, or CompressionUtils.DISABLED_LEVEL if compression is turned off
+     * @throws RemoteException if RMI communication fails
+     */
+    int getChunkCompressionLevel() throws RemoteException;
+    
+    /**
+     * Request a one-time ticket to download a file over the bulk transfer channel
+     * @param fileId The ID of the file to download
+     * @return Ticket with the token, port, size and SHA-256 of the file,
+     *         null if the file is not found or the bulk channel is unavailable
+     * @throws RemoteException if RMI communication fails
+     */
+    TransferTicket requestDownloadTicket(String fileId) throws RemoteException;
+    
+    /**
+     * Request a one-time ticket to upload a file over the bulk transfer channel
+     * @param metadata File metadata (name, size, SHA-256 and uploader, no data)
+     * @return Ticket with the token, port and assigned file ID,
+     *         null if the bulk channel is unavailable
+     * @throws RetryLaterException if the server cannot accept the upload right now
+     * @throws RemoteException if RMI communication fails or the file is not accepted
+     */
+    TransferTicket requestUploadTicket(FileTransfer metadata) throws RemoteException;
+    
+    /**
+     * Request a one-time ticket to download several files as one ZIP archive over the bulk transfer channel
+     * The archive is generated while it is sent, so its size is not known in advance
+     * @param fileIds IDs of the files to include
+     * @return Ticket with the token and port (file size -1, no SHA-256),
+     *         null if the bulk channel is unavailable
+     * @throws RemoteException if RMI communication fails or a file is not found
+     */
+    TransferTicket requestZipDownloadTicket(List<String> fileIds) throws RemoteException;
+    
     /**
      * Check if a file exists on the server
      * @param fileId The ID of the file to check
@@ -75,6 +170,26 @@ public interface FileService extends Remote {
      */
     FileTransfer getFileMetadata(String fileId) throws RemoteException;
     
+    /**
+     * Get all versions of a file
+     * Uploading a file with the same name as a shared file adds a new version of it.
+     * Each version has its own file ID, which can be downloaded like any other file.
+     * @param fileId The ID of any version of the file
+     * @return Metadata of the versions from newest to oldest, or null if the file is not found
+     * @throws RemoteException if RMI communication fails
+     */
+    List<FileTransfer> getFileVersions(String fileId) throws RemoteException;
+    
+    /**
+     * Get a downscaled preview of an image file
+     * @param fileId The ID of the file
+     * @param maxDim Maximum width and height of the preview in pixels
+     * @return Encoded JPEG or PNG preview, or null if the file is not found or not an image
+     * @throws RetryLaterException if the preview is still being generated
+     * @throws RemoteException if RMI communication fails or the image cannot be decoded
+     */
+    byte[] getPreview(String fileId, int maxDim) throws RemoteException;
+    
     /**
      * Register a client for receiving file sharing notifications
      * @param client The client callback interface
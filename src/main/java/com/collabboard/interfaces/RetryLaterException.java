@@ -0,0 +1,41 @@
+package com.collabboard.interfaces;
+
+import java.rmi.RemoteException;
+
+/**
+ * Thrown by services that are temporarily unable to accept a request
+ * The caller should retry the same request after the given delay
+ */
+public class RetryLaterException extends RemoteException {
+    private static final long serialVersionUID = 1L;
+    
+    private final long retryAfterMillis;
+    
+    public RetryLaterException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+    
+    /**
+     * Get the suggested delay before retrying
+     * @return Delay in milliseconds
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+    
+    /**
+     * Find a RetryLaterException in an exception chain
+     * RMI delivers exceptions thrown by a remote method wrapped in a ServerException
+     * @param error The exception caught by the caller
+     * @return The RetryLaterException, or null if the chain has none
+     */
+    public static RetryLaterException find(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof RetryLaterException) {
+                return (RetryLaterException) t;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,69 @@
+package com.collabboard.models;
+
+import java.io.Serializable;
+
+/**
+ * Signature of one fixed-size block of a stored file, used for delta uploads
+ * The weak rolling checksum finds candidate matches cheaply and the strong hash confirms them
+ */
+public class BlockSignature implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    private int blockIndex;
+    private int length;
+    private int weakHash;
+    private byte[] strongHash;
+    
+    // Default constructor
+    public BlockSignature() {
+    }
+    
+    public BlockSignature(int blockIndex, int length, int weakHash, byte[] strongHash) {
+        this.blockIndex = blockIndex;
+        this.length = length;
+        this.weakHash = weakHash;
+        this.strongHash = strongHash;
+    }
+    
+    // Getters and Setters
+    public int getBlockIndex() {
+        return blockIndex;
+    }
+    
+    public void setBlockIndex(int blockIndex) {
+        this.blockIndex = blockIndex;
+    }
+    
+    public int getLength() {
+        return length;
+    }
+    
+    public void setLength(int length) {
+        this.length = length;
+    }
+    
+    public int getWeakHash() {
+        return weakHash;
+    }
+    
+    public void setWeakHash(int weakHash) {
+        this.weakHash = weakHash;
+    }
+    
+    public byte[] getStrongHash() {
+        return strongHash;
+    }
+    
+    public void setStrongHash(byte[] strongHash) {
+        this.strongHash = strongHash;
+    }
+    
+    @Override
+    public String toString() {
+        return "BlockSignature{" +
+                "blockIndex=" + blockIndex +
+                ", length=" + length +
+                ", weakHash=" + Integer.toHexString(weakHash) +
+                '}';
+    }
+}
@@ -0,0 +1,100 @@
+package com.collabboard.models;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The chat messages of one channel a reconnecting client missed
+ * A short gap is replayed in full. A gap longer than the server keeps in memory is
+ * summarized as the number of messages skipped and the latest messages, the client
+ * pages in the rest of the history if the user scrolls up to it.
+ */
+public class ChatCatchUp implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    private String channel;
+    private List<ChatMessage> messages;
+    private long skippedCount;
+    private boolean replayed;
+    private long lastSequence;
+    
+    // Default constructor
+    public ChatCatchUp() {
+        this.messages = new ArrayList<>();
+    }
+    
+    public ChatCatchUp(String channel, List<ChatMessage> messages, long skippedCount,
+                       boolean replayed, long lastSequence) {
+        this.channel = channel;
+        this.messages = messages;
+        this.skippedCount = skippedCount;
+        this.replayed = replayed;
+        this.lastSequence = lastSequence;
+    }
+    
+    // Getters and Setters
+    public String getChannel() {
+        return channel;
+    }
+    
+    public void setChannel(String channel) {
+        this.channel = channel;
+    }
+    
+    /**
+     * Get the missed messages sent, oldest first
+     */
+    public List<ChatMessage> getMessages() {
+        return messages;
+    }
+    
+    public void setMessages(List<ChatMessage> messages) {
+        this.messages = messages;
+    }
+    
+    /**
+     * Get the number of missed messages left out before the ones sent
+     */
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+    
+    public void setSkippedCount(long skippedCount) {
+        this.skippedCount = skippedCount;
+    }
+    
+    /**
+     * Check if the messages continue right after the last one the client saw
+     * @return false for a summary, or when the channel's history no longer matches the client's
+     */
+    public boolean isReplayed() {
+        return replayed;
+    }
+    
+    public void setReplayed(boolean replayed) {
+        this.replayed = replayed;
+    }
+    
+    /**
+     * Get the sequence number the catch-up ends at, live deliveries continue after it
+     */
+    public long getLastSequence() {
+        return lastSequence;
+    }
+    
+    public void setLastSequence(long lastSequence) {
+        this.lastSequence = lastSequence;
+    }
+    
+    @Override
+    public String toString() {
+        return "ChatCatchUp{" +
+                "channel='" + channel + '\'' +
+                ", messages=" + messages.size() +
+                ", skippedCount=" + skippedCount +
+                ", replayed=" + replayed +
+                ", lastSequence=" + lastSequence +
+                '}';
+    }
+}
@@ -1,32 +1,72 @@
 package com.collabboard.models;
 
-import java.io.Serializable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Represents a chat message in the group chat
+ *
+ * Messages are kept compact, since the server holds many of them for history. The
+ * timestamp is epoch milliseconds, a UUID message ID is two longs, the file fields only
+ * exist for file messages, and the user strings of received messages are canonicalized so all
+ * messages of a user share them. The wire format only writes the fields that are present.
+ * Received strings come from remote peers, so their length and the canonical table are bounded.
  */
-public class ChatMessage implements Serializable {
-    private static final long serialVersionUID = 1L;
+public class ChatMessage implements Externalizable {
+    private static final long serialVersionUID = 2L;
     
     public enum MessageType {
         TEXT, FILE, SYSTEM, AUDIO_NOTIFICATION
     }
     
-    private String messageId;
+    // Channel every user is in
+    public static final String DEFAULT_CHANNEL = "general";
+    private static final String DIRECT_CHANNEL_PREFIX = "dm:";
+    
+    // Wire format, a flag is set for each optional field written
+    private static final int FORMAT_VERSION = 1;
+    private static final int HAS_UUID_ID = 1;
+    private static final int HAS_TEXT_ID = 1 << 1;
+    private static final int HAS_USER_ID = 1 << 2;
+    private static final int HAS_USERNAME = 1 << 3;
+    private static final int HAS_CONTENT = 1 << 4;
+    private static final int HAS_FILE = 1 << 5;
+    private static final int HAS_CHANNEL = 1 << 6; // not the default channel
+    private static final MessageType[] MESSAGE_TYPES = MessageType.values();
+    private static final int MAX_STRING_BYTES = 1024 * 1024;
+    
+    // Shared user strings of received messages, bounded unlike String.intern()
+    private static final int MAX_CANONICAL_STRINGS = 4096;
+    private static final int MAX_CANONICAL_LENGTH = 128;
+    private static final Map<String, String> CANONICAL_STRINGS = new ConcurrentHashMap<>();
+    
+    private long idHigh; // message ID as a UUID
+    private long idLow;
+    private String messageId; // message ID that is not a UUID
     private String userId;
     private String username;
     private String content;
     private MessageType messageType;
-    private LocalDateTime timestamp;
-    private String fileUrl;
-    private String fileName;
-    private long fileSize;
+    private long timestamp; // epoch milliseconds, 0 for none
+    private FileAttachment file; // null for messages without a file
+    private String channel; // named channel, or the direct channel of two users
+    private long sequenceNumber; // assigned by the server when the message is accepted, counted per channel
     
     // Default constructor
     public ChatMessage() {
-        this.timestamp = LocalDateTime.now();
+        this.timestamp = System.currentTimeMillis();
         this.messageType = MessageType.TEXT;
+        this.channel = DEFAULT_CHANNEL;
     }
     
     // Constructor for text messages
@@ -35,7 +75,7 @@ public class ChatMessage implements Serializable {
         this.userId = userId;
         this.username = username;
         this.content = content;
-        this.messageId = generateMessageId();
+        generateMessageId();
     }
     
     // Constructor for file messages
@@ -43,12 +83,10 @@ public class ChatMessage implements Serializable {
         this();
         this.userId = userId;
         this.username = username;
-        this.fileName = fileName;
-        this.fileUrl = fileUrl;
-        this.fileSize = fileSize;
+        this.file = new FileAttachment(fileUrl, fileName, fileSize);
         this.messageType = MessageType.FILE;
         this.content = "Shared file: " + fileName;
-        this.messageId = generateMessageId();
+        generateMessageId();
     }
     
     // Constructor for system messages
@@ -57,21 +95,222 @@ public class ChatMessage implements Serializable {
         message.messageType = MessageType.SYSTEM;
         message.content = content;
         message.username = "System";
-        message.messageId = message.generateMessageId();
+        message.generateMessageId();
         return message;
     }
     
-    private String generateMessageId() {
-        return userId + "_" + System.currentTimeMillis();
+    // Unique per message, the server recognizes a retried send by it
+    private void generateMessageId() {
+        UUID id = UUID.randomUUID();
+        this.idHigh = id.getMostSignificantBits();
+        this.idLow = id.getLeastSignificantBits();
+    }
+    
+    /**
+     * Get the channel of the direct messages between two users, the same for either order
+     */
+    public static String directChannel(String userId1, String userId2) {
+        return userId1.compareTo(userId2) <= 0
+            ? DIRECT_CHANNEL_PREFIX + userId1 + ":" + userId2
+            : DIRECT_CHANNEL_PREFIX + userId2 + ":" + userId1;
+    }
+    
+    public static boolean isDirectChannel(String channel) {
+        return channel != null && channel.startsWith(DIRECT_CHANNEL_PREFIX);
+    }
+    
+    /**
+     * Get the two users of a direct channel
+     * @return The user IDs, or null if the channel is not a well-formed direct channel
+     */
+    public static String[] getDirectChannelUsers(String channel) {
+        if (!isDirectChannel(channel)) {
+            return null;
+        }
+        int separator = channel.indexOf(':', DIRECT_CHANNEL_PREFIX.length());
+        if (separator < 0) {
+            return null;
+        }
+        String[] userIds = {channel.substring(DIRECT_CHANNEL_PREFIX.length(), separator), channel.substring(separator + 1)};
+        if (userIds[0].isEmpty() || userIds[1].isEmpty() || !channel.equals(directChannel(userIds[0], userIds[1]))) {
+            return null;
+        }
+        return userIds;
+    }
+    
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        boolean uuidId = messageId == null && (idHigh != 0 || idLow != 0);
+        boolean defaultChannel = DEFAULT_CHANNEL.equals(channel);
+        int flags = (uuidId ? HAS_UUID_ID : 0)
+            | (messageId != null ? HAS_TEXT_ID : 0)
+            | (userId != null ? HAS_USER_ID : 0)
+            | (username != null ? HAS_USERNAME : 0)
+            | (content != null ? HAS_CONTENT : 0)
+            | (file != null ? HAS_FILE : 0)
+            | (!defaultChannel ? HAS_CHANNEL : 0);
+        
+        out.writeByte(FORMAT_VERSION);
+        out.writeByte(flags);
+        out.writeByte(messageType != null ? messageType.ordinal() : -1);
+        writeVarLong(out, timestamp);
+        writeVarLong(out, sequenceNumber);
+        if (uuidId) {
+            out.writeLong(idHigh);
+            out.writeLong(idLow);
+        }
+        if (messageId != null) {
+            writeString(out, messageId);
+        }
+        if (userId != null) {
+            writeString(out, userId);
+        }
+        if (username != null) {
+            writeString(out, username);
+        }
+        if (content != null) {
+            writeString(out, content);
+        }
+        if (file != null) {
+            out.writeByte((file.fileUrl != null ? 1 : 0) | (file.fileName != null ? 2 : 0));
+            if (file.fileUrl != null) {
+                writeString(out, file.fileUrl);
+            }
+            if (file.fileName != null) {
+                writeString(out, file.fileName);
+            }
+            writeVarLong(out, file.fileSize);
+        }
+        if (!defaultChannel) {
+            out.writeBoolean(channel != null);
+            if (channel != null) {
+                writeString(out, channel);
+            }
+        }
+    }
+    
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != FORMAT_VERSION) {
+            throw new InvalidObjectException("Unknown chat message format " + version);
+        }
+        int flags = in.readUnsignedByte();
+        int type = in.readByte();
+        if (type < 0 || type >= MESSAGE_TYPES.length) {
+            throw new InvalidObjectException("Unknown chat message type " + type);
+        }
+        messageType = MESSAGE_TYPES[type];
+        timestamp = readVarLong(in);
+        sequenceNumber = readVarLong(in);
+        
+        idHigh = 0;
+        idLow = 0;
+        if ((flags & HAS_UUID_ID) != 0) {
+            idHigh = in.readLong();
+            idLow = in.readLong();
+        }
+        messageId = (flags & HAS_TEXT_ID) != 0 ? readString(in) : null;
+        // Every message of a user shares its user strings
+        userId = (flags & HAS_USER_ID) != 0 ? canonical(readString(in)) : null;
+        username = (flags & HAS_USERNAME) != 0 ? canonical(readString(in)) : null;
+        content = (flags & HAS_CONTENT) != 0 ? readString(in) : null;
+        file = null;
+        if ((flags & HAS_FILE) != 0) {
+            int fileFlags = in.readUnsignedByte();
+            String fileUrl = (fileFlags & 1) != 0 ? readString(in) : null;
+            String fileName = (fileFlags & 2) != 0 ? readString(in) : null;
+            file = new FileAttachment(fileUrl, fileName, readVarLong(in));
+        }
+        channel = DEFAULT_CHANNEL;
+        if ((flags & HAS_CHANNEL) != 0) {
+            channel = in.readBoolean() ? canonical(readString(in)) : null;
+        }
+    }
+    
+    // Unsigned LEB128, small numbers such as sequence numbers take one or two bytes
+    private static void writeVarLong(ObjectOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+    
+    private static long readVarLong(ObjectInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new InvalidObjectException("Malformed chat message number");
+    }
+    
+    // UTF-8 with a length prefix, unlike writeUTF not limited to 64 KB
+    private static void writeString(ObjectOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+    
+    private static String readString(ObjectInput in) throws IOException {
+        long length = readVarLong(in);
+        // A varint with the top bit set reads as a negative length
+        if (length < 0 || length > MAX_STRING_BYTES) {
+            throw new InvalidObjectException("Invalid chat message string length: " + length + " bytes");
+        }
+        byte[] bytes = new byte[(int) length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Get the shared instance of a short string
+     * The table starts over when it is full, so a peer sending many distinct names cannot grow it.
+     */
+    private static String canonical(String value) {
+        if (value.length() > MAX_CANONICAL_LENGTH) {
+            return value;
+        }
+        String shared = CANONICAL_STRINGS.putIfAbsent(value, value);
+        if (shared != null) {
+            return shared;
+        }
+        if (CANONICAL_STRINGS.size() > MAX_CANONICAL_STRINGS) {
+            CANONICAL_STRINGS.clear();
+        }
+        return value;
     }
     
     // Getters and Setters
     public String getMessageId() {
-        return messageId;
+        if (messageId != null) {
+            return messageId;
+        }
+        return idHigh != 0 || idLow != 0 ? new UUID(idHigh, idLow).toString() : null;
     }
     
     public void setMessageId(String messageId) {
-        this.messageId = messageId;
+        // IDs in the canonical UUID form are kept as two longs
+        UUID id = parseUuid(messageId);
+        this.idHigh = id != null ? id.getMostSignificantBits() : 0;
+        this.idLow = id != null ? id.getLeastSignificantBits() : 0;
+        this.messageId = id != null ? null : messageId;
+    }
+    
+    private static UUID parseUuid(String value) {
+        if (value == null || value.length() != 36) {
+            return null;
+        }
+        try {
+            UUID id = UUID.fromString(value);
+            return id.toString().equals(value) ? id : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
     }
     
     public String getUserId() {
@@ -107,45 +346,106 @@ public class ChatMessage implements Serializable {
     }
     
     public LocalDateTime getTimestamp() {
-        return timestamp;
+        return timestamp != 0
+            ? LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault()) : null;
     }
     
     public void setTimestamp(LocalDateTime timestamp) {
+        this.timestamp = timestamp != null ? timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : 0;
+    }
+    
+    /**
+     * Get the timestamp in epoch milliseconds, 0 for none
+     */
+    public long getTimestampMillis() {
+        return timestamp;
+    }
+    
+    public void setTimestampMillis(long timestamp) {
         this.timestamp = timestamp;
     }
     
     public String getFileUrl() {
-        return fileUrl;
+        return file != null ? file.fileUrl : null;
     }
     
     public void setFileUrl(String fileUrl) {
-        this.fileUrl = fileUrl;
+        file = fileUrl != null || file != null ? attachment().withUrl(fileUrl) : null;
     }
     
     public String getFileName() {
-        return fileName;
+        return file != null ? file.fileName : null;
     }
     
     public void setFileName(String fileName) {
-        this.fileName = fileName;
+        file = fileName != null || file != null ? attachment().withName(fileName) : null;
     }
     
     public long getFileSize() {
-        return fileSize;
+        return file != null ? file.fileSize : 0;
     }
     
     public void setFileSize(long fileSize) {
-        this.fileSize = fileSize;
+        file = fileSize != 0 || file != null ? attachment().withSize(fileSize) : null;
+    }
+    
+    private FileAttachment attachment() {
+        return file != null ? file : new FileAttachment(null, null, 0);
+    }
+    
+    public String getChannel() {
+        return channel;
+    }
+    
+    public void setChannel(String channel) {
+        this.channel = channel;
+    }
+    
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+    
+    public void setSequenceNumber(long sequenceNumber) {
+        this.sequenceNumber = sequenceNumber;
     }
     
     @Override
     public String toString() {
         return "ChatMessage{" +
-                "messageId='" + messageId + '\'' +
+                "messageId='" + getMessageId() + '\'' +
+                ", channel='" + channel + '\'' +
+                ", sequenceNumber=" + sequenceNumber +
                 ", username='" + username + '\'' +
                 ", content='" + content + '\'' +
                 ", messageType=" + messageType +
-                ", timestamp=" + timestamp +
+                ", timestamp=" + getTimestamp() +
                 '}';
     }
+    
+    /**
+     * File fields of a file message, immutable so messages can share it
+     */
+    private static final class FileAttachment {
+        final String fileUrl;
+        final String fileName;
+        final long fileSize;
+        
+        FileAttachment(String fileUrl, String fileName, long fileSize) {
+            this.fileUrl = fileUrl;
+            this.fileName = fileName;
+            this.fileSize = fileSize;
+        }
+        
+        FileAttachment withUrl(String fileUrl) {
+            return new FileAttachment(fileUrl, fileName, fileSize);
+        }
+        
+        FileAttachment withName(String fileName) {
+            return new FileAttachment(fileUrl, fileName, fileSize);
+        }
+        
+        FileAttachment withSize(long fileSize) {
+            return new FileAttachment(fileUrl, fileName, fileSize);
+        }
+    }
 }
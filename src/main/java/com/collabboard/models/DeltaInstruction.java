@@ -0,0 +1,75 @@
+package com.collabboard.models;
+
+import java.io.Serializable;
+
+/**
+ * One step in rebuilding a file from a base file on the server
+ * Either copies a run of blocks from the base file or inserts literal bytes
+ */
+public class DeltaInstruction implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    private int blockIndex;
+    private int blockCount;
+    private byte[] data;
+    
+    // Default constructor
+    public DeltaInstruction() {
+    }
+    
+    /**
+     * Create an instruction that copies blocks from the base file
+     */
+    public static DeltaInstruction copy(int blockIndex, int blockCount) {
+        DeltaInstruction instruction = new DeltaInstruction();
+        instruction.blockIndex = blockIndex;
+        instruction.blockCount = blockCount;
+        return instruction;
+    }
+    
+    /**
+     * Create an instruction that inserts literal bytes
+     */
+    public static DeltaInstruction literal(byte[] data) {
+        DeltaInstruction instruction = new DeltaInstruction();
+        instruction.blockIndex = -1;
+        instruction.data = data;
+        return instruction;
+    }
+    
+    public boolean isCopy() {
+        return data == null;
+    }
+    
+    // Getters and Setters
+    public int getBlockIndex() {
+        return blockIndex;
+    }
+    
+    public void setBlockIndex(int blockIndex) {
+        this.blockIndex = blockIndex;
+    }
+    
+    public int getBlockCount() {
+        return blockCount;
+    }
+    
+    public void setBlockCount(int blockCount) {
+        this.blockCount = blockCount;
+    }
+    
+    public byte[] getData() {
+        return data;
+    }
+    
+    public void setData(byte[] data) {
+        this.data = data;
+    }
+    
+    @Override
+    public String toString() {
+        return isCopy()
+            ? "DeltaInstruction{copy blocks " + blockIndex + "+" + blockCount + "}"
+            : "DeltaInstruction{literal " + data.length + " bytes}";
+    }
+}
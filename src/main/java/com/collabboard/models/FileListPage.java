@@ -0,0 +1,80 @@
+package com.collabboard.models;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One page of the shared file list
+ * The cursor points past the last file of the page, so files shared while paging
+ * do not shift later pages
+ */
+public class FileListPage implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    // Sort orders
+    public static final String SORT_TIME = "time";         // newest first
+    public static final String SORT_UPLOADER = "uploader"; // by uploader name, newest first
+    public static final String SORT_TYPE = "type";         // by file type, newest first
+    
+    // Filter prefixes, any other filter matches file names containing the text
+    public static final String FILTER_UPLOADER = "uploader:";
+    public static final String FILTER_TYPE = "type:";
+    
+    private List<FileTransfer> files;
+    private String nextCursor;
+    private int totalFiles;
+    
+    // Default constructor
+    public FileListPage() {
+        this.files = new ArrayList<>();
+    }
+    
+    public FileListPage(List<FileTransfer> files, String nextCursor, int totalFiles) {
+        this.files = files;
+        this.nextCursor = nextCursor;
+        this.totalFiles = totalFiles;
+    }
+    
+    // Getters and Setters
+    public List<FileTransfer> getFiles() {
+        return files;
+    }
+    
+    public void setFiles(List<FileTransfer> files) {
+        this.files = files;
+    }
+    
+    /**
+     * Get the cursor of the next page
+     * @return Cursor to pass to getSharedFiles, or null if this is the last page
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+    
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+    
+    public boolean hasMore() {
+        return nextCursor != null;
+    }
+    
+    public int getTotalFiles() {
+        return totalFiles;
+    }
+    
+    public void setTotalFiles(int totalFiles) {
+        this.totalFiles = totalFiles;
+    }
+    
+    @Override
+    public String toString() {
+        return "FileListPage{" +
+                "files=" + files.size() +
+                ", nextCursor='" + nextCursor + '\'' +
+                ", totalFiles=" + totalFiles +
+                '}';
+    }
+}
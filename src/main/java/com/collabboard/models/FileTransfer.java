@@ -19,6 +19,13 @@ public class FileTransfer implements Serializable {
     private int chunkIndex;
     private int totalChunks;
     private boolean isLastChunk;
+    private long chunkChecksum; // CRC32C of this chunk's data
+    private String sha256; // SHA-256 of the complete file
+    private boolean compressed; // data is deflated for transfer
+    private int rawLength; // length of the chunk data before compression
+    private String logicalFileId; // file ID of the first version, shared by all versions
+    private int version; // 1-based version number within the logical file
+    private long expiresAt; // time the file is deleted, 0 to keep it
     
     // Default constructor
     public FileTransfer() {
@@ -148,6 +155,62 @@ public class FileTransfer implements Serializable {
         isLastChunk = lastChunk;
     }
     
+    public long getChunkChecksum() {
+        return chunkChecksum;
+    }
+    
+    public void setChunkChecksum(long chunkChecksum) {
+        this.chunkChecksum = chunkChecksum;
+    }
+    
+    public String getSha256() {
+        return sha256;
+    }
+    
+    public void setSha256(String sha256) {
+        this.sha256 = sha256;
+    }
+    
+    public boolean isCompressed() {
+        return compressed;
+    }
+    
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+    
+    public int getRawLength() {
+        return rawLength;
+    }
+    
+    public void setRawLength(int rawLength) {
+        this.rawLength = rawLength;
+    }
+    
+    public String getLogicalFileId() {
+        return logicalFileId;
+    }
+    
+    public void setLogicalFileId(String logicalFileId) {
+        this.logicalFileId = logicalFileId;
+    }
+    
+    public int getVersion() {
+        return version;
+    }
+    
+    public void setVersion(int version) {
+        this.version = version;
+    }
+    
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+    
+    public void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+    
     /**
      * Get human-readable file size
      */
@@ -168,6 +231,7 @@ public class FileTransfer implements Serializable {
                 ", fileName='" + fileName + '\'' +
                 ", fileType='" + fileType + '\'' +
                 ", fileSize=" + fileSize +
+                ", version=" + version +
                 ", uploaderName='" + uploaderName + '\'' +
                 ", chunkIndex=" + chunkIndex +
                 ", totalChunks=" + totalChunks +
@@ -0,0 +1,90 @@
+package com.collabboard.models;
+
+import java.io.Serializable;
+
+/**
+ * One-time ticket that authorizes a single transfer over the bulk transfer channel
+ * The ticket is issued over RMI and presented as the first bytes on the bulk socket
+ */
+public class TransferTicket implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    private String token;
+    private int port;
+    private String fileId;
+    private long fileSize;
+    private String sha256;
+    private long expiresAt;
+    
+    // Default constructor
+    public TransferTicket() {
+    }
+    
+    public TransferTicket(String token, int port, String fileId, long fileSize, String sha256, long expiresAt) {
+        this.token = token;
+        this.port = port;
+        this.fileId = fileId;
+        this.fileSize = fileSize;
+        this.sha256 = sha256;
+        this.expiresAt = expiresAt;
+    }
+    
+    // Getters and Setters
+    public String getToken() {
+        return token;
+    }
+    
+    public void setToken(String token) {
+        this.token = token;
+    }
+    
+    public int getPort() {
+        return port;
+    }
+    
+    public void setPort(int port) {
+        this.port = port;
+    }
+    
+    public String getFileId() {
+        return fileId;
+    }
+    
+    public void setFileId(String fileId) {
+        this.fileId = fileId;
+    }
+    
+    public long getFileSize() {
+        return fileSize;
+    }
+    
+    public void setFileSize(long fileSize) {
+        this.fileSize = fileSize;
+    }
+    
+    public String getSha256() {
+        return sha256;
+    }
+    
+    public void setSha256(String sha256) {
+        this.sha256 = sha256;
+    }
+    
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+    
+    public void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+    
+    @Override
+    public String toString() {
+        return "TransferTicket{" +
+                "fileId='" + fileId + '\'' +
+                ", port=" + port +
+                ", fileSize=" + fileSize +
+                ", expiresAt=" + expiresAt +
+                '}';
+    }
+}
@@ -106,6 +106,34 @@ public class User implements Serializable {
         return userId != null ? userId.hashCode() : 0;
     }
     
+    /**
+     * Hash of the state shown in user lists, summed over users into a presence checksum
+     * The sum does not depend on order, so server and clients agree without sorting.
+     */
+    public long presenceHash() {
+        long hash = 1125899906842597L;
+        String state = userId + '\u0000' + username + '\u0000' + isOnline + isAudioEnabled + isMuted;
+        for (int i = 0; i < state.length(); i++) {
+            hash = 31 * hash + state.charAt(i);
+        }
+        // Spread the bits so sums of similar users do not cancel out
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+    
+    /**
+     * Compute the presence checksum of a user list
+     */
+    public static long presenceChecksum(Iterable<User> users) {
+        long checksum = 0;
+        for (User user : users) {
+            checksum += user.presenceHash();
+        }
+        return checksum;
+    }
+    
     @Override
     public String toString() {
         return "User{" +
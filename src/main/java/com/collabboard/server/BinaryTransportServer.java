@@ -0,0 +1,473 @@
+package com.collabboard.server;
+
+import com.collabboard.interfaces.ChatService;
+import com.collabboard.interfaces.ClientCallback;
+import com.collabboard.interfaces.FileService;
+import com.collabboard.interfaces.WhiteboardService;
+import com.collabboard.utils.BinaryProtocol;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serves the whiteboard, chat and file services over the binary protocol
+ * An alternative to RMI for the same operations: one connection per client carries its
+ * pipelined calls and its callbacks. A small pool of selector threads reads the frames of
+ * all connections and writes what could not be written right away, service calls run on
+ * a worker pool. A client that does not read its callbacks is disconnected once too many
+ * bytes wait for it, like a client that falls behind over RMI.
+ * See {@link BinaryProtocol} for the framing.
+ */
+public class BinaryTransportServer {
+
+    private static final ThreadLocal<String> CALLER_HOST = new ThreadLocal<>();
+    private static final int MAX_HELLO_FRAME = 256; // the hello is a few bytes, larger frames wait for it
+
+    private final int port;
+    private final int maxFrameSize;
+    private final long maxPendingBytes; // unsent bytes a connection may have before it is closed
+    private final Map<Class<?>, Object> services; // service interface -> implementation
+    private final SelectorLoop[] selectorLoops;
+    private final ExecutorService workers;
+    private final Set<Connection> connections;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder callbacks = new LongAdder();
+    private final LongAdder droppedConnections = new LongAdder();
+    private ServerSocketChannel serverChannel;
+    private Thread acceptThread;
+    private volatile boolean running;
+
+    public BinaryTransportServer(Properties config, WhiteboardService whiteboardService,
+                                 ChatService chatService, FileService fileService) {
+        this.port = Integer.parseInt(config.getProperty("transport.binary.port", "1101"));
+        this.maxFrameSize = Integer.parseInt(config.getProperty("transport.binary.max.frame", "67108864"));
+        this.maxPendingBytes = Long.parseLong(config.getProperty("transport.binary.max.pending.bytes", "16777216"));
+        this.services = new ConcurrentHashMap<>();
+        services.put(WhiteboardService.class, whiteboardService);
+        services.put(ChatService.class, chatService);
+        services.put(FileService.class, fileService);
+        this.connections = ConcurrentHashMap.newKeySet();
+
+        int selectors = Math.max(1, Integer.parseInt(config.getProperty("transport.binary.selectors", "2")));
+        this.selectorLoops = new SelectorLoop[selectors];
+
+        int threads = Integer.parseInt(config.getProperty("transport.binary.workers", "16"));
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = threads <= 0 ? null : Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "binary-transport-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Get the host of the client whose call the current thread runs
+     * @return The host, or null outside a call over this transport
+     */
+    public static String getCallerHost() {
+        return CALLER_HOST.get();
+    }
+
+    /**
+     * Bind the server socket and start serving connections
+     * @throws IOException if the port cannot be bound
+     */
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        running = true;
+
+        for (int i = 0; i < selectorLoops.length; i++) {
+            selectorLoops[i] = new SelectorLoop(Selector.open());
+            Thread thread = new Thread(selectorLoops[i], "binary-transport-selector-" + (i + 1));
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        acceptThread = new Thread(this::acceptLoop, "binary-transport-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+
+        System.out.println("Binary transport listening on port " + getPort() +
+                         " (" + selectorLoops.length + " selector threads)");
+    }
+
+    /**
+     * Get the port the transport listens on
+     */
+    public int getPort() {
+        try {
+            if (serverChannel != null) {
+                return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+            }
+        } catch (IOException e) {
+            // Fall back to the configured port
+        }
+        return port;
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                Connection connection = new Connection(channel);
+                connections.add(connection);
+                selectorLoops[Math.floorMod(nextLoop.getAndIncrement(), selectorLoops.length)].add(connection);
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Binary transport accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Run a call on a worker and answer it with its result or exception
+     */
+    private void invoke(Connection connection, BinaryProtocol.Frame frame) {
+        int requestId = frame.getRequestId();
+        Method method = BinaryProtocol.getMethod(frame.getOpcode());
+        Object service = method != null ? services.get(method.getDeclaringClass()) : null;
+        try {
+            Object result;
+            try {
+                if (service == null) {
+                    throw new RemoteException("Unknown operation " + frame.getOpcode());
+                }
+                Object[] args = frame.readValues(method.getParameterCount(), connection.callback);
+                CALLER_HOST.set(connection.host);
+                result = method.invoke(service, args);
+            } catch (InvocationTargetException e) {
+                connection.send(encodeError(requestId, e.getCause()));
+                return;
+            } catch (IOException | ReflectiveOperationException | IllegalArgumentException e) {
+                connection.send(encodeError(requestId, new RemoteException("Malformed request: " + e.getMessage())));
+                return;
+            } finally {
+                CALLER_HOST.remove();
+            }
+            connection.send(BinaryProtocol.encodeFrame(BinaryProtocol.KIND_RESPONSE, requestId, frame.getOpcode(), result));
+        } catch (IOException e) {
+            connection.close(e.getMessage());
+        }
+    }
+
+    private static ByteBuffer encodeError(int requestId, Throwable error) throws IOException {
+        try {
+            // The client only reads the exception classes it knows, others go as text
+            return BinaryProtocol.encodeFrame(BinaryProtocol.KIND_ERROR, requestId, 0,
+                                              BinaryProtocol.portableError(error));
+        } catch (IOException e) {
+            // Not serializable, the client still gets the message
+            return BinaryProtocol.encodeFrame(BinaryProtocol.KIND_ERROR, requestId, 0,
+                                              new RemoteException(String.valueOf(error)));
+        }
+    }
+
+    /**
+     * Stop serving and close all connections
+     */
+    public void shutdown() {
+        running = false;
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing binary transport: " + e.getMessage());
+        }
+        for (Connection connection : connections) {
+            connection.close(null);
+        }
+        for (SelectorLoop loop : selectorLoops) {
+            if (loop != null) {
+                loop.selector.wakeup();
+            }
+        }
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+        System.out.println("Binary transport shutdown completed");
+    }
+
+    /**
+     * Get transport statistics
+     */
+    public String getStats() {
+        return String.format("BinaryTransport Stats - Connections: %d, Requests: %d, Callbacks: %d, Dropped: %d",
+                           connections.size(), requests.sum(), callbacks.sum(), droppedConnections.sum());
+    }
+
+    /**
+     * Selects the connections assigned to one thread
+     */
+    private class SelectorLoop implements Runnable {
+        final Selector selector;
+        private final Queue<Connection> added = new ConcurrentLinkedQueue<>();
+
+        SelectorLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        void add(Connection connection) {
+            added.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                    Connection connection;
+                    while ((connection = added.poll()) != null) {
+                        connection.register(selector);
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection ready = (Connection) key.attachment();
+                        if (key.isValid() && key.isReadable()) {
+                            ready.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            ready.flush();
+                        }
+                    }
+                } catch (IOException e) {
+                    if (running) {
+                        System.err.println("Binary transport selector failed: " + e.getMessage());
+                    }
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Shutting down
+            }
+        }
+    }
+
+    /**
+     * One client connection, read only by its selector thread and written by any thread
+     */
+    private class Connection {
+        final SocketChannel channel;
+        final String host;
+        final ClientCallback callback;
+        private SelectionKey key;
+        private ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+        private boolean greeted;
+        private final Queue<ByteBuffer> writeQueue = new ArrayDeque<>(); // guarded by this
+        private long pendingBytes; // guarded by this
+        private volatile boolean closed;
+
+        Connection(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            this.host = ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress();
+            this.callback = (ClientCallback) Proxy.newProxyInstance(ClientCallback.class.getClassLoader(),
+                new Class<?>[] {ClientCallback.class}, (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        switch (method.getName()) {
+                            case "equals":
+                                return proxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            default:
+                                return "BinaryCallback[" + host + "]";
+                        }
+                    }
+                    sendCallback(method, args);
+                    return null;
+                });
+        }
+
+        synchronized void register(Selector selector) throws IOException {
+            if (closed) {
+                return;
+            }
+            key = channel.register(selector, writeQueue.isEmpty()
+                ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE, this);
+        }
+
+        /**
+         * Read what arrived and handle every complete frame
+         */
+        void read() {
+            try {
+                if (channel.read(readBuffer) < 0) {
+                    close(null);
+                    return;
+                }
+                readBuffer.flip();
+                while (readBuffer.remaining() >= BinaryProtocol.LENGTH_SIZE) {
+                    int length = readBuffer.getInt(readBuffer.position());
+                    if (length < BinaryProtocol.HEADER_SIZE || length > (greeted ? maxFrameSize : MAX_HELLO_FRAME)) {
+                        close("invalid frame length " + length);
+                        return;
+                    }
+                    if (readBuffer.remaining() < BinaryProtocol.LENGTH_SIZE + length) {
+                        break;
+                    }
+                    byte[] frameBytes = new byte[length];
+                    readBuffer.position(readBuffer.position() + BinaryProtocol.LENGTH_SIZE);
+                    readBuffer.get(frameBytes);
+                    handleFrame(new BinaryProtocol.Frame(frameBytes, 0, length));
+                    if (closed) {
+                        return;
+                    }
+                }
+                readBuffer.compact();
+
+                // Grow the buffer for a frame larger than it, doubling once the bytes that
+                // arrived fill it, so an announced length alone allocates nothing
+                if (!readBuffer.hasRemaining()) {
+                    int needed = BinaryProtocol.LENGTH_SIZE + readBuffer.getInt(0);
+                    if (needed > readBuffer.capacity()) {
+                        ByteBuffer larger = ByteBuffer.allocate((int) Math.min(needed, 2L * readBuffer.capacity()));
+                        readBuffer.flip();
+                        larger.put(readBuffer);
+                        readBuffer = larger;
+                    }
+                }
+            } catch (IOException e) {
+                close(e.getMessage());
+            }
+        }
+
+        private void handleFrame(BinaryProtocol.Frame frame) throws IOException {
+            if (!greeted) {
+                BinaryProtocol.checkHello(frame);
+                greeted = true;
+                send(BinaryProtocol.encodeHello());
+                return;
+            }
+            if (frame.getKind() != BinaryProtocol.KIND_REQUEST) {
+                throw new IOException("Unexpected frame kind " + frame.getKind());
+            }
+            requests.increment();
+            if (workers == null) {
+                invoke(this, frame);
+            } else {
+                workers.execute(() -> invoke(this, frame));
+            }
+        }
+
+        private void sendCallback(Method method, Object[] args) throws RemoteException {
+            try {
+                send(BinaryProtocol.encodeFrame(BinaryProtocol.KIND_CALLBACK, 0,
+                                                BinaryProtocol.getOpcode(method), args));
+                callbacks.increment();
+            } catch (IOException e) {
+                throw new java.rmi.ConnectException("Client connection lost", e);
+            }
+        }
+
+        /**
+         * Write a frame, queueing what the socket does not take right away
+         * @throws IOException if the connection is closed or too far behind
+         */
+        void send(ByteBuffer frame) throws IOException {
+            synchronized (this) {
+                if (closed) {
+                    throw new ClosedChannelException();
+                }
+                if (writeQueue.isEmpty()) {
+                    channel.write(frame);
+                }
+                if (!frame.hasRemaining()) {
+                    return;
+                }
+                if (pendingBytes + frame.remaining() <= maxPendingBytes) {
+                    writeQueue.add(frame);
+                    pendingBytes += frame.remaining();
+                    if (key != null && key.isValid()) {
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        key.selector().wakeup();
+                    }
+                    return;
+                }
+            }
+            droppedConnections.increment();
+            close("more than " + maxPendingBytes + " bytes waiting to be sent");
+            throw new IOException("Client is not reading");
+        }
+
+        /**
+         * Write the queued frames the socket takes now
+         */
+        synchronized void flush() {
+            try {
+                ByteBuffer frame;
+                while ((frame = writeQueue.peek()) != null) {
+                    int before = frame.remaining();
+                    channel.write(frame);
+                    pendingBytes -= before - frame.remaining();
+                    if (frame.hasRemaining()) {
+                        return;
+                    }
+                    writeQueue.poll();
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            } catch (IOException e) {
+                closed = true;
+                closeChannel();
+            }
+        }
+
+        void close(String reason) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                writeQueue.clear();
+            }
+            if (reason != null) {
+                System.err.println("Binary transport connection from " + host + " closed: " + reason);
+            }
+            closeChannel();
+        }
+
+        private void closeChannel() {
+            connections.remove(this);
+            try {
+                if (key != null) {
+                    key.cancel();
+                }
+                channel.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+}
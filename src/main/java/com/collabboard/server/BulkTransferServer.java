@@ -0,0 +1,194 @@
+package com.collabboard.server;
+
+import com.collabboard.utils.BulkChannel;
+import com.collabboard.utils.BulkTransferProtocol;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dedicated NIO channel for bulk file bytes
+ * RMI stays the control plane: services issue one-time tokens through {@link #registerTicket},
+ * and the client presents the token as the first frame on this socket. The registered
+ * handler then moves the bytes directly between the socket and a FileChannel.
+ * Every read and write has a deadline, so idle or stalled peers cannot hold the workers.
+ * See {@link BulkTransferProtocol} for the framing.
+ */
+public class BulkTransferServer {
+    
+    private static final int MAX_TOKEN_LENGTH = 128;
+    
+    private final int port;
+    private final long ticketTimeout;
+    private final long tokenTimeout;
+    private final long ioTimeout;
+    private final ExecutorService workers;
+    private final Map<String, PendingTransfer> pendingTransfers;
+    private ServerSocketChannel serverChannel;
+    private Thread acceptThread;
+    private volatile boolean running;
+    
+    public BulkTransferServer(Properties config) {
+        this.port = Integer.parseInt(config.getProperty("file.bulk.port", "1100"));
+        this.ticketTimeout = Long.parseLong(config.getProperty("file.bulk.ticket.timeout", "60000"));
+        this.tokenTimeout = Long.parseLong(config.getProperty("file.bulk.token.timeout", "5000"));
+        this.ioTimeout = Long.parseLong(config.getProperty("file.bulk.io.timeout", "30000"));
+        this.pendingTransfers = new ConcurrentHashMap<>();
+        
+        int threads = Integer.parseInt(config.getProperty("file.bulk.threads", "8"));
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "bulk-transfer-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * Bind the server socket and start accepting transfers
+     * @throws IOException if the port cannot be bound
+     */
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        running = true;
+        
+        acceptThread = new Thread(this::acceptLoop, "bulk-transfer-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        
+        System.out.println("Bulk transfer channel listening on port " + getPort());
+    }
+    
+    /**
+     * Get the port the channel listens on
+     */
+    public int getPort() {
+        try {
+            if (serverChannel != null) {
+                return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+            }
+        } catch (IOException e) {
+            // Fall back to the configured port
+        }
+        return port;
+    }
+    
+    /**
+     * Check if the channel is accepting transfers
+     */
+    public boolean isRunning() {
+        return running;
+    }
+    
+    /**
+     * Get the time a ticket stays valid
+     */
+    public long getTicketTimeout() {
+        return ticketTimeout;
+    }
+    
+    /**
+     * Register a one-time transfer
+     * @param handler Moves the bytes once the client connects with the token
+     * @return The token the client must present
+     */
+    public String registerTicket(TransferHandler handler) {
+        removeExpiredTickets();
+        
+        String token = UUID.randomUUID().toString();
+        pendingTransfers.put(token, new PendingTransfer(handler, System.currentTimeMillis() + ticketTimeout));
+        return token;
+    }
+    
+    private void acceptLoop() {
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                workers.execute(() -> handleConnection(channel));
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Bulk transfer accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+    
+    private void handleConnection(SocketChannel channel) {
+        // Clients send the token right after connecting, so idle connections are dropped quickly
+        try (BulkChannel socket = new BulkChannel(channel, tokenTimeout)) {
+            channel.socket().setTcpNoDelay(true);
+            
+            String token = BulkTransferProtocol.readToken(socket, MAX_TOKEN_LENGTH);
+            PendingTransfer transfer = token != null ? pendingTransfers.remove(token) : null;
+            if (transfer == null || transfer.expiresAt < System.currentTimeMillis()) {
+                System.err.println("Bulk transfer rejected: unknown or expired token from " + 
+                                 socket.getRemoteAddress());
+                return;
+            }
+            
+            socket.setTimeout(ioTimeout);
+            transfer.handler.transfer(socket);
+            
+        } catch (IOException e) {
+            System.err.println("Bulk transfer failed: " + e.getMessage());
+            try {
+                channel.close();
+            } catch (IOException closeError) {
+                // Already closed
+            }
+        }
+    }
+    
+    private void removeExpiredTickets() {
+        long now = System.currentTimeMillis();
+        pendingTransfers.values().removeIf(transfer -> transfer.expiresAt < now);
+    }
+    
+    /**
+     * Stop accepting transfers
+     */
+    public void shutdown() {
+        running = false;
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing bulk transfer channel: " + e.getMessage());
+        }
+        workers.shutdownNow();
+        pendingTransfers.clear();
+        System.out.println("Bulk transfer channel shutdown completed");
+    }
+    
+    /**
+     * Moves the bytes of one transfer once the client has presented its token
+     */
+    @FunctionalInterface
+    public interface TransferHandler {
+        void transfer(BulkChannel socket) throws IOException;
+    }
+    
+    private static class PendingTransfer {
+        final TransferHandler handler;
+        final long expiresAt;
+        
+        PendingTransfer(TransferHandler handler, long expiresAt) {
+            this.handler = handler;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
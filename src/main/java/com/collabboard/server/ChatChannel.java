@@ -0,0 +1,263 @@
+package com.collabboard.server;
+
+import com.collabboard.models.ChatMessage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Pattern;
+
+/**
+ * History and subscribers of one chat channel
+ * Accepting a message only assigns it the channel's next sequence number and stores it in
+ * a ring buffer of recent messages, without locks. Every message is also appended to the
+ * channel's chat log on disk, which serves history pages older than the ring. The users
+ * subscribed to the channel are the only ones its messages are delivered to.
+ */
+public class ChatChannel {
+    
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final Pattern NAME_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,32}");
+    
+    private final String name;
+    private final AtomicReferenceArray<ChatMessage> recentMessages; // ring indexed by sequence number
+    private final int ringMask;
+    private final int capacity; // size of the ring, a power of two
+    private ChatLog chatLog; // null when the log is disabled or could not be opened
+    private long loggedAtStartup; // messages up to here are only in the log
+    private final AtomicLong lastSequence;
+    private volatile long resetSequence; // messages up to here were cleared by a reset
+    private final Set<String> subscribers; // user IDs
+    
+    /**
+     * Create a channel, continuing the history in its log
+     * @param name Channel name
+     * @param capacity Minimum number of recent messages kept in memory
+     * @param chatLog Log of the channel, null to keep no history beyond the ring
+     */
+    public ChatChannel(String name, int capacity, ChatLog chatLog) {
+        this.name = name;
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.recentMessages = new AtomicReferenceArray<>(this.capacity);
+        this.ringMask = this.capacity - 1;
+        this.lastSequence = new AtomicLong();
+        this.subscribers = ConcurrentHashMap.newKeySet();
+        
+        // Continue the sequence numbers of the logged history
+        if (chatLog != null) {
+            try {
+                loggedAtStartup = chatLog.load();
+                lastSequence.set(loggedAtStartup);
+                resetSequence = Math.min(chatLog.getResetSequence(), loggedAtStartup);
+                this.chatLog = chatLog;
+            } catch (IOException e) {
+                System.err.println("Chat log of " + name + " unavailable, older history will not be kept: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Check that a name can be used for a named channel
+     */
+    public static boolean isValidName(String name) {
+        return name != null && NAME_PATTERN.matcher(name).matches();
+    }
+    
+    /**
+     * Assign a message the next sequence number and add it to the history
+     * @return The sequence number of the message
+     */
+    public long append(ChatMessage message) {
+        long sequence = lastSequence.incrementAndGet();
+        message.setChannel(name);
+        message.setSequenceNumber(sequence);
+        recentMessages.set((int) (sequence & ringMask), message);
+        if (chatLog != null) {
+            chatLog.append(message);
+        }
+        return sequence;
+    }
+    
+    /**
+     * Get a message from the ring
+     * @return The message, or null if it is still being stored or was overwritten
+     */
+    public ChatMessage getRecentMessage(long sequence) {
+        ChatMessage message = recentMessages.get((int) (sequence & ringMask));
+        if (message == null || message.getSequenceNumber() != sequence || sequence <= resetSequence) {
+            return null;
+        }
+        return message;
+    }
+    
+    /**
+     * Get the latest messages
+     * @param limit Maximum number of messages, at most the size of the ring
+     */
+    public List<ChatMessage> getLatestMessages(int limit) throws IOException {
+        long last = lastSequence.get();
+        int count = limit <= 0 || limit > capacity ? capacity : limit;
+        return readMessages(Math.max(resetSequence + 1, last - count + 1), last);
+    }
+    
+    /**
+     * Get a page of the messages before a sequence number, oldest first
+     */
+    public List<ChatMessage> getMessagesBefore(long beforeSequence, int limit) throws IOException {
+        long to = Math.min(beforeSequence - 1, lastSequence.get());
+        return readMessages(Math.max(resetSequence + 1, to - pageSize(limit) + 1), to);
+    }
+    
+    /**
+     * Get a page of the messages after a sequence number, oldest first
+     */
+    public List<ChatMessage> getMessagesAfter(long afterSequence, int limit) throws IOException {
+        long from = Math.max(resetSequence + 1, afterSequence + 1);
+        return readMessages(from, Math.min(lastSequence.get(), from + pageSize(limit) - 1));
+    }
+    
+    /**
+     * Get a range of messages from the ring only, never reading the log
+     * Waits for a message in the range that was assigned its sequence number but is still
+     * being stored, so a client caught up to the end of the range misses nothing.
+     * @return The messages after one sequence number up to another, or null if part of the
+     *         range is no longer in the ring
+     */
+    public List<ChatMessage> getRecentMessages(long afterSequence, long toSequence) {
+        List<ChatMessage> messages = new ArrayList<>((int) Math.max(0, Math.min(toSequence - afterSequence, capacity)));
+        for (long sequence = afterSequence + 1; sequence <= toSequence; sequence++) {
+            ChatMessage message;
+            while ((message = getRecentMessage(sequence)) == null) {
+                long notInRingUpTo = Math.max(lastSequence.get() - capacity, Math.max(loggedAtStartup, resetSequence));
+                if (sequence <= notInRingUpTo) {
+                    return null;
+                }
+                Thread.yield();
+            }
+            messages.add(message);
+        }
+        return messages;
+    }
+    
+    private static int pageSize(int limit) {
+        return Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+    }
+    
+    /**
+     * Read a range of messages from the ring, and the part the ring no longer holds from the log
+     * Stops before a message that is still being stored, so the range can be continued from
+     * the last message returned without skipping any.
+     */
+    private List<ChatMessage> readMessages(long fromSequence, long toSequence) throws IOException {
+        List<ChatMessage> page = new ArrayList<>();
+        long sequence = fromSequence;
+        while (sequence <= toSequence) {
+            ChatMessage message = getRecentMessage(sequence);
+            if (message != null) {
+                page.add(message);
+                sequence++;
+                continue;
+            }
+            
+            long notInRingUpTo = Math.max(lastSequence.get() - capacity, loggedAtStartup);
+            if (sequence > notInRingUpTo) {
+                break;
+            }
+            long end = Math.min(toSequence, notInRingUpTo);
+            if (chatLog != null) {
+                // Each channel has its own log, so its records do not repeat the channel
+                for (ChatMessage logged : chatLog.read(sequence, end)) {
+                    logged.setChannel(name);
+                    page.add(logged);
+                }
+            }
+            sequence = end + 1;
+        }
+        return page;
+    }
+    
+    /**
+     * Add a subscriber
+     * @return true if the user was not subscribed yet
+     */
+    public boolean subscribe(String userId) {
+        return subscribers.add(userId);
+    }
+    
+    /**
+     * Remove a subscriber
+     * @return true if the user was subscribed
+     */
+    public boolean unsubscribe(String userId) {
+        return subscribers.remove(userId);
+    }
+    
+    public boolean isSubscribed(String userId) {
+        return subscribers.contains(userId);
+    }
+    
+    /**
+     * Get the user IDs of the subscribers, a live view
+     */
+    public Set<String> getSubscribers() {
+        return Collections.unmodifiableSet(subscribers);
+    }
+    
+    /**
+     * Drop the messages sent so far from the history, also after a restart
+     */
+    public void reset() {
+        long sequence = lastSequence.get();
+        resetSequence = sequence;
+        if (chatLog != null) {
+            chatLog.appendReset(sequence);
+        }
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public boolean isDirect() {
+        return ChatMessage.isDirectChannel(name);
+    }
+    
+    /**
+     * Get the size of the ring, clients further behind than this are dropped
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    public long getLastSequence() {
+        return lastSequence.get();
+    }
+    
+    /**
+     * Get the sequence number of the last message cleared by a reset
+     */
+    public long getResetSequence() {
+        return resetSequence;
+    }
+    
+    /**
+     * Get the number of messages since the last reset
+     */
+    public long getMessageCount() {
+        return lastSequence.get() - resetSequence;
+    }
+    
+    /**
+     * Write the queued messages to the log and close it
+     */
+    public void shutdown() {
+        if (chatLog != null) {
+            chatLog.shutdown();
+        }
+    }
+}
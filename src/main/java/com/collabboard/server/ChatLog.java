@@ -0,0 +1,382 @@
+package com.collabboard.server;
+
+import com.collabboard.models.ChatMessage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of every message of a chat channel, in sequence order
+ * Messages are handed to a single writer thread, which puts them back in sequence order
+ * before appending, so accepting a message never waits for the disk. Each record is
+ * length-prefixed and checksummed, and an in-memory index of record offsets by sequence
+ * number serves pages of older history with positional reads. A channel reset is logged
+ * as a record of its own, so the cleared history stays cleared after a restart.
+ */
+public class ChatLog {
+    
+    private static final int HEADER_SIZE = 8; // int length, int crc
+    private static final int MAX_RECORD_SIZE = 1024 * 1024;
+    private static final long RESET_RECORD = -1; // written in place of a sequence number
+    
+    private final Path logFile;
+    private final ThreadPoolExecutor writer;
+    private FileChannel channel;
+    
+    // Writer thread state
+    private final TreeMap<Long, ChatMessage> pending; // messages waiting for an earlier one
+    private final List<Long> unflushedOffsets;
+    private DataOutputStream out;
+    private long writeOffset;
+    private long nextSequence;
+    
+    // Index of the records that can be read back, guarded by this
+    private long firstSequence;
+    private long[] offsets = new long[1024];
+    private int count;
+    private long indexedEnd; // offset just past the last indexed record
+    private long resetSequence; // last reset found by load
+    
+    /**
+     * Create a chat log
+     * @param directory Directory of the log file
+     * @param fileName Name of the log file
+     */
+    public ChatLog(String directory, String fileName) {
+        this.logFile = Paths.get(directory, fileName);
+        this.pending = new TreeMap<>();
+        this.unflushedOffsets = new ArrayList<>();
+        // A quiet channel does not keep its writer thread
+        this.writer = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "ChatLogWriter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.allowCoreThreadTimeOut(true);
+    }
+    
+    /**
+     * Open the log and index the records already in it
+     * A record cut short by a crash is dropped from the end.
+     * @return The sequence number of the last logged message, 0 for an empty log
+     * @throws IOException if the log cannot be opened
+     */
+    public synchronized long load() throws IOException {
+        Files.createDirectories(logFile.getParent());
+        channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                   StandardOpenOption.WRITE);
+        
+        long offset = 0;
+        long lastSequence = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(logFile)))) {
+            while (true) {
+                ChatMessage message;
+                byte[] record;
+                int length;
+                try {
+                    length = in.readInt();
+                    int crc = in.readInt();
+                    if (length <= 0 || length > MAX_RECORD_SIZE) {
+                        break;
+                    }
+                    record = new byte[length];
+                    in.readFully(record);
+                    if (crc(record, 0, length) != crc) {
+                        break;
+                    }
+                    message = decode(new DataInputStream(new ByteArrayInputStream(record)));
+                } catch (EOFException e) {
+                    break;
+                }
+                if (message == null) {
+                    resetSequence = readResetSequence(record);
+                    offset += HEADER_SIZE + length;
+                    continue;
+                }
+                if (count == 0) {
+                    firstSequence = message.getSequenceNumber();
+                } else if (message.getSequenceNumber() != firstSequence + count) {
+                    break;
+                }
+                addOffset(offset);
+                offset += HEADER_SIZE + length;
+                lastSequence = message.getSequenceNumber();
+            }
+        }
+        
+        if (offset < channel.size()) {
+            System.err.println("Chat log has a damaged tail, dropping " + (channel.size() - offset) + " bytes");
+            channel.truncate(offset);
+        }
+        channel.position(offset);
+        indexedEnd = offset;
+        writeOffset = offset;
+        nextSequence = lastSequence + 1;
+        out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+        return lastSequence;
+    }
+    
+    /**
+     * Queue a message to be appended once every earlier message is
+     */
+    public void append(ChatMessage message) {
+        writer.execute(() -> {
+            pending.put(message.getSequenceNumber(), message);
+            try {
+                ChatMessage next;
+                while ((next = pending.remove(nextSequence)) != null) {
+                    try {
+                        write(next);
+                    } catch (RuntimeException e) {
+                        // A message that cannot be logged must not hold up the ones after it,
+                        // and a placeholder keeps the sequence numbers of the log contiguous
+                        System.err.println("Failed to log chat message " + nextSequence + ", logging a placeholder: " + e);
+                        write(placeholder(nextSequence));
+                    }
+                    nextSequence++;
+                }
+                out.flush();
+                synchronized (this) {
+                    // Only index records once their bytes can be read back
+                    for (long offset : unflushedOffsets) {
+                        addOffset(offset);
+                    }
+                    indexedEnd = writeOffset;
+                }
+                unflushedOffsets.clear();
+            } catch (IOException e) {
+                System.err.println("Failed to append to chat log: " + e.getMessage());
+            }
+        });
+    }
+    
+    /**
+     * Queue a record of a channel reset
+     * @param sequence Sequence number of the last message cleared by the reset
+     */
+    public void appendReset(long sequence) {
+        writer.execute(() -> {
+            try {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream(16);
+                DataOutputStream record = new DataOutputStream(buffer);
+                record.writeLong(RESET_RECORD);
+                record.writeLong(sequence);
+                // Not indexed, reads of the messages around it skip it
+                writeRecord(buffer.toByteArray());
+                out.flush();
+            } catch (IOException e) {
+                System.err.println("Failed to append reset to chat log: " + e.getMessage());
+            }
+        });
+    }
+    
+    private void write(ChatMessage message) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+        encode(message, new DataOutputStream(buffer));
+        if (buffer.size() > MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException("Record of " + buffer.size() + " bytes is over the limit of " + MAX_RECORD_SIZE);
+        }
+        
+        synchronized (this) {
+            if (count == 0 && unflushedOffsets.isEmpty()) {
+                firstSequence = message.getSequenceNumber();
+            }
+        }
+        unflushedOffsets.add(writeOffset);
+        writeRecord(buffer.toByteArray());
+    }
+    
+    private void writeRecord(byte[] record) throws IOException {
+        // load() takes a longer record for a damaged tail
+        if (record.length > MAX_RECORD_SIZE) {
+            throw new IOException("Record of " + record.length + " bytes is over the limit of " + MAX_RECORD_SIZE);
+        }
+        out.writeInt(record.length);
+        out.writeInt(crc(record, 0, record.length));
+        out.write(record);
+        writeOffset += HEADER_SIZE + record.length;
+    }
+    
+    /**
+     * Read the logged messages in a range of sequence numbers
+     * @return The messages that are logged, in sequence order
+     * @throws IOException if the log cannot be read
+     */
+    public List<ChatMessage> read(long fromSequence, long toSequence) throws IOException {
+        long start;
+        long end;
+        synchronized (this) {
+            long from = Math.max(fromSequence, firstSequence);
+            long to = Math.min(toSequence, firstSequence + count - 1);
+            if (count == 0 || from > to) {
+                return new ArrayList<>();
+            }
+            start = offsets[(int) (from - firstSequence)];
+            int endIndex = (int) (to - firstSequence + 1);
+            end = endIndex < count ? offsets[endIndex] : indexedEnd;
+        }
+        
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                throw new EOFException("Chat log ended early");
+            }
+        }
+        
+        List<ChatMessage> messages = new ArrayList<>();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.array()));
+        while (in.available() > 0) {
+            int length = in.readInt();
+            in.readInt();
+            byte[] record = new byte[length];
+            in.readFully(record);
+            ChatMessage message = decode(new DataInputStream(new ByteArrayInputStream(record)));
+            if (message != null) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+    
+    private void addOffset(long offset) {
+        if (count == offsets.length) {
+            long[] grown = new long[offsets.length * 2];
+            System.arraycopy(offsets, 0, grown, 0, count);
+            offsets = grown;
+        }
+        offsets[count++] = offset;
+    }
+    
+    /**
+     * Get the sequence number of the first logged message, 0 for an empty log
+     */
+    public synchronized long getFirstSequence() {
+        return count == 0 ? 0 : firstSequence;
+    }
+    
+    /**
+     * Get the sequence number of the last message cleared by a logged reset, 0 if none
+     */
+    public synchronized long getResetSequence() {
+        return resetSequence;
+    }
+    
+    /**
+     * Get the sequence number of the last logged message, 0 for an empty log
+     */
+    public synchronized long getLastSequence() {
+        return count == 0 ? 0 : firstSequence + count - 1;
+    }
+    
+    /**
+     * Write the queued messages and close the log
+     */
+    public void shutdown() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+            synchronized (this) {
+                if (out != null) {
+                    out.flush();
+                    channel.close();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to close chat log: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Create the record logged in place of a message that cannot be
+     */
+    private static ChatMessage placeholder(long sequence) {
+        ChatMessage message = new ChatMessage("SYSTEM", "SYSTEM", "Message could not be logged");
+        message.setMessageType(ChatMessage.MessageType.SYSTEM);
+        message.setSequenceNumber(sequence);
+        return message;
+    }
+    
+    private static void encode(ChatMessage message, DataOutputStream out) throws IOException {
+        out.writeLong(message.getSequenceNumber());
+        writeString(out, message.getMessageId());
+        writeString(out, message.getUserId());
+        writeString(out, message.getUsername());
+        writeString(out, message.getContent());
+        out.writeByte(message.getMessageType().ordinal());
+        writeString(out, message.getTimestamp() != null ? message.getTimestamp().toString() : null);
+        writeString(out, message.getFileUrl());
+        writeString(out, message.getFileName());
+        out.writeLong(message.getFileSize());
+    }
+    
+    /**
+     * Decode a message record
+     * @return The message, or null for a reset record
+     */
+    private static ChatMessage decode(DataInputStream in) throws IOException {
+        long sequence = in.readLong();
+        if (sequence == RESET_RECORD) {
+            return null;
+        }
+        ChatMessage message = new ChatMessage();
+        message.setSequenceNumber(sequence);
+        message.setMessageId(readString(in));
+        message.setUserId(readString(in));
+        message.setUsername(readString(in));
+        message.setContent(readString(in));
+        message.setMessageType(ChatMessage.MessageType.values()[in.readByte()]);
+        String timestamp = readString(in);
+        message.setTimestamp(timestamp != null ? LocalDateTime.parse(timestamp) : null);
+        message.setFileUrl(readString(in));
+        message.setFileName(readString(in));
+        message.setFileSize(in.readLong());
+        return message;
+    }
+    
+    // Strings are written as a presence flag and UTF-8 bytes, so long messages fit
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeBoolean(false);
+            return;
+        }
+        byte[] bytes = value.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        out.writeBoolean(true);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    private static String readString(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, java.nio.charset.StandardCharsets.UTF_8);
+    }
+    
+    private static long readResetSequence(byte[] record) {
+        return ByteBuffer.wrap(record).getLong(Long.BYTES);
+    }
+    
+    private static int crc(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+}
@@ -1,171 +1,807 @@
 package com.collabboard.server;
 
+import com.collabboard.models.ChatCatchUp;
 import com.collabboard.models.ChatMessage;
 import com.collabboard.models.User;
 import com.collabboard.interfaces.ChatService;
 import com.collabboard.interfaces.ClientCallback;
+import java.io.File;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Properties;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.Map;
 
 /**
  * Implementation of the ChatService interface for handling chat messages
  * and user management in the distributed whiteboard application.
+ *
+ * Messages are sent to a channel: the general channel every user is in, a named channel
+ * users join, or the direct channel of two users. Each channel has its own sequence numbers,
+ * ring buffer of recent messages and chat log, and a message is only fanned out to the
+ * subscribers of its channel. Each client has its own delivery queue that sends each of its
+ * channels' rings in sequence order, so a slow client delays nobody else and is dropped
+ * once it falls further behind than a ring reaches.
+ *
+ * Message IDs are generated by the client. A window of recently accepted IDs makes a
+ * retried send return the sequence number of the first attempt instead of a duplicate.
+ *
+ * Typing notifications are not forwarded one by one. They are aggregated and sent as a
+ * digest of typing users at a fixed rate, only to clients whose view of it changed.
+ *
+ * Presence is versioned. A joining client gets the full user list and every other client
+ * only gets the change, queued in the same order for everyone. A periodic checksum of
+ * the user list lets clients detect drift and ask for the full list again.
  */
 public class ChatServerImpl extends UnicastRemoteObject implements ChatService {
     
-    private List<ChatMessage> messages;
-    private Map<String, ClientCallback> clients; // userId -> ClientCallback
-    private Map<String, User> users; // userId -> User
+    private static final String GENERAL_LOG_FILE = "chat-history.log";
+    private static final String CHANNEL_LOG_PREFIX = "channel-";
+    private static final String CHANNEL_LOG_SUFFIX = ".log";
+    
+    private final Map<String, ChatChannel> channels; // name -> channel with its subscribers
+    private final ChatChannel generalChannel;
+    private final Object channelLock = new Object(); // orders channel creation and subscription changes
+    private final String logDirectory; // null when chat logs are disabled
+    private final Map<String, ChatClient> clients; // userId -> delivery state
+    private final Map<String, User> users; // userId -> User
     private Properties config;
+    private TrafficScheduler trafficScheduler;
+    private final RateLimiter rateLimiter;
+    private final ExecutorService deliveryExecutor;
+    private final int maxMessageLength;
+    private final int historyCapacity; // ring size of the general channel
+    private final int channelCapacity; // ring size of the other channels
+    private final int maxPendingDeliveries;
+    private final AtomicLong droppedClients;
+    private final DedupWindow dedupWindow; // recent message IDs, makes retried sends idempotent
+    private final AtomicLong duplicateMessages;
+    private final int maxCatchUpMessages; // longest gap replayed to a reconnecting client
+    private final int catchUpSummaryMessages; // latest messages sent instead of a longer gap
+    private final AtomicLong replayedCatchUps;
+    private final AtomicLong summarizedCatchUps;
+    private final TypingAggregator typingAggregator;
+    private final ScheduledExecutorService scheduler;
+    private volatile long typingDigestVersion = -1; // version of the last digest, -1 forces the next one
+    private final Object presenceLock = new Object(); // orders presence changes and their deliveries
+    private long presenceVersion; // guarded by presenceLock
+    private long presenceChecksum; // sum of the users' presence hashes, guarded by presenceLock
     
     public ChatServerImpl() throws RemoteException {
-        super();
-        this.messages = new CopyOnWriteArrayList<>();
-        this.clients = new ConcurrentHashMap<>();
-        this.users = new ConcurrentHashMap<>();
-        System.out.println("ChatServerImpl initialized");
+        this(new Properties());
     }
     
     public ChatServerImpl(Properties config) throws RemoteException {
+        this(config, new TrafficScheduler(config));
+    }
+    
+    public ChatServerImpl(Properties config, TrafficScheduler trafficScheduler) throws RemoteException {
+        this(config, trafficScheduler, new RateLimiter(config));
+    }
+    
+    public ChatServerImpl(Properties config, TrafficScheduler trafficScheduler, 
+                          RateLimiter rateLimiter) throws RemoteException {
         super();
         this.config = config;
-        this.messages = new CopyOnWriteArrayList<>();
+        this.trafficScheduler = trafficScheduler;
+        this.rateLimiter = rateLimiter;
+        this.channels = new ConcurrentHashMap<>();
         this.clients = new ConcurrentHashMap<>();
         this.users = new ConcurrentHashMap<>();
+        this.maxMessageLength = Integer.parseInt(config.getProperty("chat.max.message.length", "1000"));
+        this.historyCapacity = Integer.parseInt(config.getProperty("chat.history.capacity", "16384"));
+        this.channelCapacity = Integer.parseInt(config.getProperty("chat.channel.history.capacity", "1024"));
+        this.maxPendingDeliveries = Math.max(1, Integer.parseInt(config.getProperty("chat.delivery.max.pending", "1000")));
+        this.droppedClients = new AtomicLong();
+        this.dedupWindow = new DedupWindow(Integer.parseInt(config.getProperty("chat.dedup.window", "65536")));
+        this.duplicateMessages = new AtomicLong();
+        this.maxCatchUpMessages = Integer.parseInt(config.getProperty("chat.catchup.max.messages", "500"));
+        this.catchUpSummaryMessages = Integer.parseInt(config.getProperty("chat.catchup.summary.messages", "20"));
+        this.replayedCatchUps = new AtomicLong();
+        this.summarizedCatchUps = new AtomicLong();
+        
+        // Deliveries of one client run one at a time, so this needs at most one thread per client
+        AtomicInteger threadCount = new AtomicInteger();
+        this.deliveryExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "ChatDelivery-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        this.typingAggregator = new TypingAggregator(
+            Long.parseLong(config.getProperty("chat.typing.expiry.millis", "5000")));
+        long digestMillis = Math.max(1, Long.parseLong(config.getProperty("chat.typing.digest.millis", "500")));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ChatScheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::sendTypingDigests, digestMillis, digestMillis, TimeUnit.MILLISECONDS);
+        long checksumMillis = Math.max(1, Long.parseLong(config.getProperty("chat.presence.checksum.millis", "30000")));
+        scheduler.scheduleAtFixedRate(this::sendPresenceChecksums, checksumMillis, checksumMillis, TimeUnit.MILLISECONDS);
+        
+        // Channels continue the sequence numbers of their logged history
+        this.logDirectory = Boolean.parseBoolean(config.getProperty("chat.log.enabled", "true"))
+            ? config.getProperty("chat.log.directory", "./chat") : null;
+        this.generalChannel = createChannel(ChatMessage.DEFAULT_CHANNEL);
+        channels.put(generalChannel.getName(), generalChannel);
+        if (logDirectory != null) {
+            loadLoggedChannels();
+        }
         System.out.println("ChatServerImpl initialized with configuration");
     }
     
     @Override
-    public synchronized void sendMessage(ChatMessage message) throws RemoteException {
+    public long sendMessage(ChatMessage message) throws RemoteException {
+        if (message == null) {
+            throw new RemoteException("Message cannot be null");
+        }
+        rateLimiter.acquire(message.getUserId(), RateLimiter.Operation.CHAT_SEND);
+        return acceptMessage(message);
+    }
+    
+    /**
+     * Add a message to its channel and deliver it to the subscribers
+     * @return The sequence number of the message
+     */
+    private long acceptMessage(ChatMessage message) throws RemoteException {
+        if (message.getMessageType() == null) {
+            throw new RemoteException("Message type cannot be null");
+        }
+        if (message.getContent() != null && message.getContent().length() > maxMessageLength) {
+            throw new RemoteException("Message is longer than " + maxMessageLength + " characters");
+        }
         System.out.println("Received message: " + message.getContent() + " from " + message.getUsername());
         
-        // Add message to history
-        messages.add(message);
+        // A retry of a message that was already accepted gets the ack of the first attempt
+        CompletableFuture<Long> ack = new CompletableFuture<>();
+        String dedupKey = message.getMessageId() != null ? message.getUserId() + "/" + message.getMessageId() : null;
+        if (dedupKey != null) {
+            CompletableFuture<Long> previous = dedupWindow.claim(dedupKey, ack);
+            if (previous != null) {
+                duplicateMessages.incrementAndGet();
+                return awaitAck(previous);
+            }
+        } else {
+            message.setMessageId(UUID.randomUUID().toString());
+        }
         
-        // Notify all clients about the new message
-        List<String> clientsToRemove = new ArrayList<>();
-        for (Map.Entry<String, ClientCallback> entry : clients.entrySet()) {
-            try {
-                entry.getValue().onChatMessageReceived(message);
-            } catch (RemoteException e) {
-                System.err.println("Failed to notify client of message: " + e.getMessage());
-                clientsToRemove.add(entry.getKey());
+        ChatChannel channel;
+        long sequence;
+        try {
+            channel = getChannelToSend(message);
+            
+            // Add message to the channel's history
+            sequence = channel.append(message);
+            ack.complete(sequence);
+        } catch (RemoteException | RuntimeException e) {
+            // Not accepted, so a retry is a new attempt
+            if (dedupKey != null) {
+                dedupWindow.release(dedupKey, ack);
+            }
+            ack.completeExceptionally(e);
+            throw e;
+        }
+        
+        // A user that sent a message has stopped typing
+        if (message.getUserId() != null) {
+            typingAggregator.remove(message.getUserId());
+        }
+        
+        // Let the queue of every subscriber pick up the new message
+        for (String userId : channel.getSubscribers()) {
+            ChatClient client = clients.get(userId);
+            Subscription subscription = client != null ? client.subscriptions.get(channel.getName()) : null;
+            if (subscription != null) {
+                signalChat(client, subscription, sequence);
+            }
+        }
+        return sequence;
+    }
+    
+    /**
+     * Wait for the ack of an earlier attempt of a message, which is accepted or rejected right away
+     */
+    private static long awaitAck(CompletableFuture<Long> ack) throws RemoteException {
+        try {
+            return ack.get();
+        } catch (ExecutionException e) {
+            throw new RemoteException("Message was not accepted: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for the message to be accepted");
+        }
+    }
+    
+    /**
+     * Find the channel a message goes to, opening the direct channel of two users on their first message
+     * @throws RemoteException if the channel does not exist or the sender may not send to it
+     */
+    private ChatChannel getChannelToSend(ChatMessage message) throws RemoteException {
+        String name = message.getChannel() != null ? message.getChannel() : ChatMessage.DEFAULT_CHANNEL;
+        if (ChatMessage.isDirectChannel(name)) {
+            String[] userIds = ChatMessage.getDirectChannelUsers(name);
+            if (userIds == null || !Arrays.asList(userIds).contains(message.getUserId())) {
+                throw new RemoteException("Only its two users can send to direct channel " + name);
             }
+            return openDirectChannel(name, userIds);
         }
         
-        // Remove disconnected clients
-        for (String userId : clientsToRemove) {
-            clients.remove(userId);
-            users.remove(userId);
+        ChatChannel channel = channels.get(name);
+        if (channel == null) {
+            throw new RemoteException("No such channel: " + name);
+        }
+        if (channel != generalChannel && message.getMessageType() != ChatMessage.MessageType.SYSTEM
+                && !channel.isSubscribed(message.getUserId())) {
+            throw new RemoteException("User " + message.getUserId() + " has not joined channel " + name);
+        }
+        return channel;
+    }
+    
+    /**
+     * Find a channel whose history a user may read
+     * @throws RemoteException if the channel does not exist or is the direct channel of other users
+     */
+    private ChatChannel getChannelToRead(String userId, String name) throws RemoteException {
+        ChatChannel channel = channels.get(name != null ? name : ChatMessage.DEFAULT_CHANNEL);
+        if (channel == null) {
+            throw new RemoteException("No such channel: " + name);
+        }
+        if (channel.isDirect() && !channel.isSubscribed(userId)) {
+            throw new RemoteException("User " + userId + " is not in direct channel " + name);
+        }
+        return channel;
+    }
+    
+    @Override
+    public List<ChatMessage> getMessageHistory(int limit) throws RemoteException {
+        rateLimiter.acquire(null, RateLimiter.Operation.CHAT_HISTORY);
+        try {
+            return generalChannel.getLatestMessages(limit);
+        } catch (IOException e) {
+            throw new RemoteException("Failed to read chat history: " + e.getMessage());
+        }
+    }
+    
+    @Override
+    public List<ChatMessage> getMessagesBefore(long beforeSequence, int limit) throws RemoteException {
+        return getMessagesBefore(null, ChatMessage.DEFAULT_CHANNEL, beforeSequence, limit);
+    }
+    
+    @Override
+    public List<ChatMessage> getMessagesAfter(long afterSequence, int limit) throws RemoteException {
+        return getMessagesAfter(null, ChatMessage.DEFAULT_CHANNEL, afterSequence, limit);
+    }
+    
+    @Override
+    public List<ChatMessage> getMessagesBefore(String userId, String channel, long beforeSequence, int limit)
+            throws RemoteException {
+        rateLimiter.acquire(userId, RateLimiter.Operation.CHAT_HISTORY);
+        ChatChannel readable = getChannelToRead(userId, channel);
+        try {
+            return readable.getMessagesBefore(beforeSequence, limit);
+        } catch (IOException e) {
+            throw new RemoteException("Failed to read chat history: " + e.getMessage());
+        }
+    }
+    
+    @Override
+    public List<ChatMessage> getMessagesAfter(String userId, String channel, long afterSequence, int limit)
+            throws RemoteException {
+        rateLimiter.acquire(userId, RateLimiter.Operation.CHAT_HISTORY);
+        ChatChannel readable = getChannelToRead(userId, channel);
+        try {
+            return readable.getMessagesAfter(afterSequence, limit);
+        } catch (IOException e) {
+            throw new RemoteException("Failed to read chat history: " + e.getMessage());
+        }
+    }
+    
+    @Override
+    public void joinChannel(String userId, String channelName) throws RemoteException {
+        if (!ChatChannel.isValidName(channelName)) {
+            throw new RemoteException("Invalid channel name: " + channelName);
+        }
+        rateLimiter.acquire(userId, RateLimiter.Operation.CHAT_CHANNEL);
+        synchronized (channelLock) {
+            ChatChannel channel = channels.get(channelName);
+            if (channel == null) {
+                channel = createChannel(channelName);
+                channels.put(channelName, channel);
+                System.out.println("Channel created: " + channelName);
+            }
+            subscribe(userId, channel);
+        }
+    }
+    
+    @Override
+    public void leaveChannel(String userId, String channelName) throws RemoteException {
+        ChatChannel channel = channels.get(channelName);
+        if (channel == null || channel == generalChannel || channel.isDirect()) {
+            throw new RemoteException("Cannot leave channel " + channelName);
+        }
+        rateLimiter.acquire(userId, RateLimiter.Operation.CHAT_CHANNEL);
+        synchronized (channelLock) {
+            unsubscribe(userId, channel);
+        }
+    }
+    
+    @Override
+    public List<String> getChannels() throws RemoteException {
+        List<String> names = new ArrayList<>();
+        for (ChatChannel channel : channels.values()) {
+            if (!channel.isDirect()) {
+                names.add(channel.getName());
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+    
+    @Override
+    public List<String> getSubscribedChannels(String userId) throws RemoteException {
+        List<String> names = new ArrayList<>();
+        for (ChatChannel channel : channels.values()) {
+            if (channel != generalChannel && channel.isSubscribed(userId)) {
+                names.add(channel.getName());
+            }
+        }
+        Collections.sort(names);
+        names.add(0, ChatMessage.DEFAULT_CHANNEL);
+        return names;
+    }
+    
+    /**
+     * Get the direct channel of two users, creating it with both of them subscribed
+     */
+    private ChatChannel openDirectChannel(String name, String[] userIds) {
+        ChatChannel channel = channels.get(name);
+        if (channel != null) {
+            return channel;
+        }
+        synchronized (channelLock) {
+            channel = channels.get(name);
+            if (channel == null) {
+                channel = createChannel(name);
+                channels.put(name, channel);
+                for (String userId : userIds) {
+                    subscribe(userId, channel);
+                }
+            }
+            return channel;
+        }
+    }
+    
+    /**
+     * Create a channel with its own log, the general channel keeps the original log file
+     */
+    private ChatChannel createChannel(String name) {
+        ChatLog chatLog = null;
+        if (logDirectory != null) {
+            chatLog = new ChatLog(logDirectory, name.equals(ChatMessage.DEFAULT_CHANNEL)
+                ? GENERAL_LOG_FILE : CHANNEL_LOG_PREFIX + encodeLogName(name) + CHANNEL_LOG_SUFFIX);
+        }
+        return new ChatChannel(name, name.equals(ChatMessage.DEFAULT_CHANNEL) ? historyCapacity : channelCapacity, chatLog);
+    }
+    
+    /**
+     * Reopen the channels that have a log, with the users of direct channels subscribed again
+     * Members of named channels are not logged, they join again.
+     */
+    private void loadLoggedChannels() {
+        File[] files = new File(logDirectory).listFiles((dir, fileName) ->
+            fileName.startsWith(CHANNEL_LOG_PREFIX) && fileName.endsWith(CHANNEL_LOG_SUFFIX));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String fileName = file.getName();
+            String name = decodeLogName(fileName.substring(CHANNEL_LOG_PREFIX.length(),
+                                                           fileName.length() - CHANNEL_LOG_SUFFIX.length()));
+            String[] userIds = ChatMessage.getDirectChannelUsers(name);
+            if (!ChatChannel.isValidName(name) && userIds == null) {
+                continue;
+            }
+            ChatChannel channel = createChannel(name);
+            channels.put(name, channel);
+            if (userIds != null) {
+                for (String userId : userIds) {
+                    channel.subscribe(userId);
+                }
+            }
+        }
+    }
+    
+    private static String encodeLogName(String name) {
+        return URLEncoder.encode(name, StandardCharsets.UTF_8);
+    }
+    
+    private static String decodeLogName(String encoded) {
+        try {
+            return URLDecoder.decode(encoded, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+    
+    /**
+     * Subscribe a user to a channel and start delivering to its client, the caller holds the channel lock
+     */
+    private void subscribe(String userId, ChatChannel channel) {
+        if (channel.subscribe(userId)) {
+            ChatClient client = clients.get(userId);
+            if (client != null) {
+                addSubscription(client, channel);
+            }
+        }
+    }
+    
+    /**
+     * Unsubscribe a user from a channel, the caller holds the channel lock
+     */
+    private void unsubscribe(String userId, ChatChannel channel) {
+        if (channel.unsubscribe(userId)) {
+            ChatClient client = clients.get(userId);
+            if (client != null) {
+                client.subscriptions.remove(channel.getName());
+            }
         }
     }
     
+    /**
+     * Deliver the messages of a channel to a client from now on
+     * @return The sequence number deliveries continue after
+     */
+    private long addSubscription(ChatClient client, ChatChannel channel) {
+        long startSequence = channel.getLastSequence();
+        Subscription subscription = new Subscription(channel, startSequence);
+        client.subscriptions.put(channel.getName(), subscription);
+        // A message sent while the subscription was being added may have missed it
+        signalChat(client, subscription, channel.getLastSequence());
+        return startSequence;
+    }
+    
+    @Override
+    public void registerChatClient(ClientCallback client, User user) throws RemoteException {
+        addClient(client, user);
+    }
+    
     @Override
-    public synchronized List<ChatMessage> getMessageHistory(int limit) throws RemoteException {
-        if (limit <= 0 || limit > messages.size()) {
-            return new ArrayList<>(messages);
+    public List<ChatCatchUp> resumeChatClient(ClientCallback client, User user, Map<String, Long> lastSeenSequences)
+            throws RemoteException {
+        rateLimiter.acquire(user.getUserId(), RateLimiter.Operation.CHAT_HISTORY);
+        Map<ChatChannel, Long> startSequences = addClient(client, user);
+        
+        List<ChatCatchUp> catchUps = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : lastSeenSequences.entrySet()) {
+            ChatChannel channel = channels.get(entry.getKey());
+            Long startSequence = channel != null ? startSequences.get(channel) : null;
+            if (startSequence != null && entry.getValue() != null) {
+                catchUps.add(catchUp(channel, entry.getValue(), startSequence));
+            }
+        }
+        return catchUps;
+    }
+    
+    /**
+     * Get the messages of a channel a client missed, up to where its deliveries continue
+     * Only the ring is read for the gap, a client further behind gets the latest messages
+     * and the number left out, so reconnecting clients do not all read the log.
+     */
+    private ChatCatchUp catchUp(ChatChannel channel, long lastSeenSequence, long upToSequence) {
+        // A client that saw messages past the end or before a reset has a history that no longer exists
+        boolean continues = lastSeenSequence <= upToSequence && lastSeenSequence >= channel.getResetSequence();
+        long after = continues ? lastSeenSequence : channel.getResetSequence();
+        
+        if (upToSequence - after <= maxCatchUpMessages) {
+            List<ChatMessage> gap = channel.getRecentMessages(after, upToSequence);
+            if (gap != null) {
+                replayedCatchUps.incrementAndGet();
+                return new ChatCatchUp(channel.getName(), gap, 0, continues, upToSequence);
+            }
         }
         
-        int startIndex = Math.max(0, messages.size() - limit);
-        return new ArrayList<>(messages.subList(startIndex, messages.size()));
+        long latestAfter = Math.max(after, upToSequence - catchUpSummaryMessages);
+        List<ChatMessage> latest = channel.getRecentMessages(latestAfter, upToSequence);
+        if (latest == null) {
+            // Only in the log, for example right after a restart
+            try {
+                latest = channel.getMessagesAfter(latestAfter, (int) (upToSequence - latestAfter));
+            } catch (IOException e) {
+                latest = new ArrayList<>();
+            }
+        }
+        summarizedCatchUps.incrementAndGet();
+        return new ChatCatchUp(channel.getName(), latest, upToSequence - after - latest.size(), false, upToSequence);
     }
     
     @Override
-    public synchronized void registerChatClient(ClientCallback client, User user) throws RemoteException {
-        clients.put(user.getUserId(), client);
-        users.put(user.getUserId(), user);
+    public boolean isChatClientRegistered(String userId) throws RemoteException {
+        return clients.containsKey(userId);
+    }
+    
+    /**
+     * Register a client, replacing an earlier client of the same user
+     * @return The channels the client receives, with the sequence number deliveries continue after
+     */
+    private Map<ChatChannel, Long> addClient(ClientCallback client, User user) {
+        ChatClient chatClient = new ChatClient(new ClientDeliveryQueue(
+            user.getUserId(), client, deliveryExecutor, maxPendingDeliveries, this::onClientFailed));
+        synchronized (presenceLock) {
+            ChatClient previous = clients.put(user.getUserId(), chatClient);
+            if (previous != null) {
+                previous.queue.close();
+            }
+            User previousUser = users.put(user.getUserId(), user);
+            applyPresenceChange(previousUser, user);
+            
+            // The new client gets the full list, everyone else only the change
+            sendUserList(chatClient);
+            for (Map.Entry<String, ChatClient> entry : clients.entrySet()) {
+                if (!entry.getKey().equals(user.getUserId())) {
+                    enqueuePresence(entry.getValue(), previousUser == null
+                        ? callback -> callback.onUserJoined(user)
+                        : callback -> callback.onUserUpdated(user));
+                }
+            }
+        }
         
-        System.out.println("User registered: " + user.getUsername() + ". Total users: " + users.size());
+        // New clients load the history themselves and only get messages sent from now on
+        Map<ChatChannel, Long> startSequences = new HashMap<>();
+        synchronized (channelLock) {
+            generalChannel.subscribe(user.getUserId());
+            for (ChatChannel channel : channels.values()) {
+                if (channel.isSubscribed(user.getUserId())) {
+                    startSequences.put(channel, addSubscription(chatClient, channel));
+                }
+            }
+        }
+        typingDigestVersion = -1; // the new client needs the current digest
         
-        // Notify all clients about the updated user list
-        notifyUserListUpdate();
+        System.out.println("User registered: " + user.getUsername() + ". Total users: " + users.size());
+        return startSequences;
     }
     
     @Override
-    public synchronized void unregisterChatClient(ClientCallback client, String userId) throws RemoteException {
-        clients.remove(userId);
-        User removedUser = users.remove(userId);
+    public void unregisterChatClient(ClientCallback client, String userId) throws RemoteException {
+        User removedUser;
+        synchronized (presenceLock) {
+            ChatClient removedClient = clients.remove(userId);
+            if (removedClient != null) {
+                removedClient.queue.close();
+            }
+            removedUser = removeUser(userId);
+        }
+        generalChannel.unsubscribe(userId);
+        typingAggregator.remove(userId);
         
         if (removedUser != null) {
             System.out.println("User unregistered: " + removedUser.getUsername() + ". Total users: " + users.size());
-            
-            // Notify all clients about the updated user list
-            notifyUserListUpdate();
         }
     }
     
     @Override
-    public synchronized List<User> getOnlineUsers() throws RemoteException {
+    public List<User> getOnlineUsers() throws RemoteException {
         return new ArrayList<>(users.values());
     }
     
     @Override
-    public synchronized void updateUserStatus(String userId, User user) throws RemoteException {
-        if (users.containsKey(userId)) {
-            users.put(userId, user);
-            System.out.println("Updated user status for: " + user.getUsername());
+    public void updateUserStatus(String userId, User user) throws RemoteException {
+        rateLimiter.acquire(userId, RateLimiter.Operation.CHAT_PRESENCE);
+        synchronized (presenceLock) {
+            User previousUser = users.replace(userId, user);
+            if (previousUser == null) {
+                return;
+            }
+            applyPresenceChange(previousUser, user);
             
             // Notify all clients about the user status update
-            notifyUserListUpdate();
+            for (ChatClient client : clients.values()) {
+                enqueuePresence(client, callback -> callback.onUserUpdated(user));
+            }
         }
+        System.out.println("Updated user status for: " + user.getUsername());
     }
     
     @Override
-    public synchronized void notifyTyping(String userId, String username, boolean isTyping) throws RemoteException {
-        System.out.println("User " + username + " typing status: " + isTyping);
-        
-        // Notify all other clients about typing status
-        List<String> clientsToRemove = new ArrayList<>();
-        for (Map.Entry<String, ClientCallback> entry : clients.entrySet()) {
-            if (!entry.getKey().equals(userId)) { // Don't notify the typing user
-                try {
-                    entry.getValue().onUserTyping(userId, username, isTyping);
-                } catch (RemoteException e) {
-                    System.err.println("Failed to notify client of typing status: " + e.getMessage());
-                    clientsToRemove.add(entry.getKey());
-                }
+    public void requestPresenceResync(String userId) throws RemoteException {
+        rateLimiter.acquire(userId, RateLimiter.Operation.CHAT_PRESENCE);
+        synchronized (presenceLock) {
+            ChatClient client = clients.get(userId);
+            if (client == null) {
+                throw new RemoteException("User " + userId + " is not registered for chat");
             }
+            sendUserList(client);
+        }
+    }
+    
+    @Override
+    public void notifyTyping(String userId, String username, boolean isTyping) throws RemoteException {
+        // Stopping is never throttled, it only shortens the digest
+        if (isTyping) {
+            rateLimiter.acquire(userId, RateLimiter.Operation.CHAT_TYPING);
         }
         
-        // Remove disconnected clients
-        for (String clientId : clientsToRemove) {
-            clients.remove(clientId);
-            users.remove(clientId);
+        // Only recorded here, clients get it with the next typing digest
+        typingAggregator.update(userId, username, isTyping);
+    }
+    
+    /**
+     * Expire stale typing users and send the clients whose view changed their new digest
+     */
+    private void sendTypingDigests() {
+        try {
+            typingAggregator.expire(System.currentTimeMillis());
+            long version = typingAggregator.getVersion();
+            if (version == typingDigestVersion) {
+                return;
+            }
+            typingDigestVersion = version;
+            
+            List<Map.Entry<String, String>> snapshot = typingAggregator.snapshot();
+            for (Map.Entry<String, ChatClient> entry : clients.entrySet()) {
+                ChatClient client = entry.getValue();
+                List<String> view = TypingAggregator.viewOf(snapshot, entry.getKey());
+                if (!view.equals(client.typingView)) { // Don't notify clients whose view is unchanged
+                    client.typingView = view;
+                    client.queue.enqueue(callback -> trafficScheduler.runInteractive(
+                        () -> callback.onTypingUsersUpdated(view)));
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Failed to send typing digest: " + e.getMessage());
         }
     }
     
     @Override
-    public synchronized int getTotalMessageCount() throws RemoteException {
-        return messages.size();
+    public int getTotalMessageCount() throws RemoteException {
+        return (int) getMessageCount();
+    }
+    
+    private long getMessageCount() {
+        long count = 0;
+        for (ChatChannel channel : channels.values()) {
+            count += channel.getMessageCount();
+        }
+        return count;
     }
     
     /**
-     * Notifies all registered clients about user list updates
+     * Remove a user and notify the remaining clients, the caller holds the presence lock
+     * @return The removed user, or null if it was not online
      */
-    private void notifyUserListUpdate() {
-        List<String> clientsToRemove = new ArrayList<>();
+    private User removeUser(String userId) {
+        User removedUser = users.remove(userId);
+        if (removedUser != null) {
+            applyPresenceChange(removedUser, null);
+            for (ChatClient client : clients.values()) {
+                enqueuePresence(client, callback -> callback.onUserLeft(removedUser));
+            }
+        }
+        return removedUser;
+    }
+    
+    /**
+     * Advance the presence version and checksum past a change, the caller holds the presence lock
+     * @param previousUser State before the change, null for a join
+     * @param user State after the change, null for a leave
+     */
+    private void applyPresenceChange(User previousUser, User user) {
+        if (previousUser != null) {
+            presenceChecksum -= previousUser.presenceHash();
+        }
+        if (user != null) {
+            presenceChecksum += user.presenceHash();
+        }
+        presenceVersion++;
+    }
+    
+    /**
+     * Queue the full user list for a client, the caller holds the presence lock
+     */
+    private void sendUserList(ChatClient client) {
         List<User> userList = new ArrayList<>(users.values());
-        
-        for (Map.Entry<String, ClientCallback> entry : clients.entrySet()) {
-            try {
-                entry.getValue().onUserListUpdated(userList);
-            } catch (RemoteException e) {
-                System.err.println("Failed to notify client of user list update: " + e.getMessage());
-                clientsToRemove.add(entry.getKey());
+        enqueuePresence(client, callback -> callback.onUserListUpdated(userList));
+    }
+    
+    private void enqueuePresence(ChatClient client, ClientDeliveryQueue.Delivery delivery) {
+        client.queue.enqueue(callback -> trafficScheduler.runInteractive(() -> delivery.deliver(callback)));
+    }
+    
+    /**
+     * Send every client the presence checksum, queued behind the changes it covers
+     */
+    private void sendPresenceChecksums() {
+        synchronized (presenceLock) {
+            long version = presenceVersion;
+            long checksum = presenceChecksum;
+            for (ChatClient client : clients.values()) {
+                enqueuePresence(client, callback -> callback.onPresenceChecksum(version, checksum));
             }
         }
+    }
+    
+    /**
+     * Queue a chat delivery of a channel for a client unless one is already waiting
+     * A single waiting delivery sends every message that arrived before it runs.
+     */
+    private void signalChat(ChatClient client, Subscription subscription, long sequence) {
+        // A client stuck in a callback is dropped here rather than when the callback returns
+        int capacity = subscription.channel.getCapacity();
+        if (subscription.deliveredSequence <= sequence - capacity) {
+            client.queue.fail("fell more than " + capacity + " messages behind in " + subscription.channel.getName());
+            return;
+        }
+        if (subscription.signalled.compareAndSet(false, true)) {
+            client.queue.enqueue(callback -> deliverChat(subscription, callback));
+        }
+    }
+    
+    /**
+     * Send a client the messages of a channel after the last one it received, in sequence order
+     * Stops at a sequence number whose message is still being appended, the sender
+     * signals the client again once it is in the history.
+     */
+    private void deliverChat(Subscription subscription, ClientCallback callback) throws RemoteException {
+        ChatChannel channel = subscription.channel;
+        subscription.signalled.set(false);
+        subscription.deliveredSequence = Math.max(subscription.deliveredSequence, channel.getResetSequence());
         
-        // Remove disconnected clients
-        for (String userId : clientsToRemove) {
-            clients.remove(userId);
-            users.remove(userId);
-            System.out.println("Removed disconnected client from chat notifications");
+        while (true) {
+            long next = subscription.deliveredSequence + 1;
+            ChatMessage message = channel.getRecentMessage(next);
+            if (message == null) {
+                if (next <= channel.getLastSequence() - channel.getCapacity()) {
+                    throw new RemoteException("Client fell more than " + channel.getCapacity()
+                                              + " messages behind in " + channel.getName());
+                }
+                return;
+            }
+            trafficScheduler.runInteractive(() -> callback.onChatMessageReceived(message));
+            subscription.deliveredSequence = next;
+        }
+    }
+    
+    /**
+     * Remove a client whose callback failed or that fell too far behind
+     */
+    private void onClientFailed(ClientDeliveryQueue queue, String reason) {
+        System.err.println("Failed to notify chat client " + queue.getClientId() + ": " + reason);
+        synchronized (presenceLock) {
+            ChatClient client = clients.get(queue.getClientId());
+            if (client == null || client.queue != queue || !clients.remove(queue.getClientId(), client)) {
+                return;
+            }
+            removeUser(queue.getClientId());
+        }
+        generalChannel.unsubscribe(queue.getClientId());
+        typingAggregator.remove(queue.getClientId());
+        droppedClients.incrementAndGet();
+        System.out.println("Removed disconnected client from chat notifications");
+    }
+    
+    private long getPresenceVersion() {
+        synchronized (presenceLock) {
+            return presenceVersion;
         }
     }
     
@@ -188,24 +824,19 @@ public class ChatServerImpl extends UnicastRemoteObject implements ChatService {
     /**
      * Clears all messages and users (for testing/reset purposes)
      */
-    public synchronized void reset() throws RemoteException {
-        messages.clear();
-        users.clear();
-        
-        // Notify all clients about the reset
-        List<String> clientsToRemove = new ArrayList<>();
-        for (Map.Entry<String, ClientCallback> entry : clients.entrySet()) {
-            try {
-                entry.getValue().onUserListUpdated(new ArrayList<>());
-            } catch (RemoteException e) {
-                System.err.println("Failed to notify client of reset: " + e.getMessage());
-                clientsToRemove.add(entry.getKey());
-            }
+    public void reset() throws RemoteException {
+        for (ChatChannel channel : channels.values()) {
+            channel.reset();
         }
-        
-        // Remove disconnected clients
-        for (String userId : clientsToRemove) {
-            clients.remove(userId);
+        synchronized (presenceLock) {
+            users.clear();
+            presenceChecksum = 0;
+            presenceVersion++;
+            
+            // Notify all clients about the reset
+            for (ChatClient client : clients.values()) {
+                sendUserList(client);
+            }
         }
         
         System.out.println("Chat server reset completed");
@@ -215,10 +846,10 @@ public class ChatServerImpl extends UnicastRemoteObject implements ChatService {
      * Broadcasts a system message to all clients
      * @param systemMessage the system message to broadcast
      */
-    public synchronized void broadcastSystemMessage(String systemMessage) throws RemoteException {
+    public void broadcastSystemMessage(String systemMessage) throws RemoteException {
         ChatMessage message = new ChatMessage("SYSTEM", "SYSTEM", systemMessage);
         message.setMessageType(ChatMessage.MessageType.SYSTEM);
-        sendMessage(message);
+        acceptMessage(message);
     }
     
     /**
@@ -226,7 +857,7 @@ public class ChatServerImpl extends UnicastRemoteObject implements ChatService {
      * @param userId the user ID to check
      * @return true if user exists, false otherwise
      */
-    public synchronized boolean isUserOnline(String userId) {
+    public boolean isUserOnline(String userId) {
         return users.containsKey(userId);
     }
     
@@ -235,8 +866,16 @@ public class ChatServerImpl extends UnicastRemoteObject implements ChatService {
      * @return status string with client and user counts
      */
     public String getServerStatus() {
-        return String.format("ChatServer Status - Clients: %d, Users: %d, Messages: %d", 
-                           clients.size(), users.size(), messages.size());
+        int pendingDeliveries = 0;
+        for (ChatClient client : clients.values()) {
+            pendingDeliveries += client.queue.getPendingCount();
+        }
+        return String.format("ChatServer Status - Clients: %d, Users: %d, Messages: %d, Channels: %d, " +
+                           "Pending Deliveries: %d, Dropped Clients: %d, Duplicates: %d, Typing: %d, Presence Version: %d, " +
+                           "Catch-ups Replayed: %d, Catch-ups Summarized: %d",
+                           clients.size(), users.size(), getMessageCount(), channels.size(),
+                           pendingDeliveries, droppedClients.get(), duplicateMessages.get(), typingAggregator.size(),
+                           getPresenceVersion(), replayedCatchUps.get(), summarizedCatchUps.get());
     }
     
     /**
@@ -247,14 +886,53 @@ public class ChatServerImpl extends UnicastRemoteObject implements ChatService {
             // Notify all clients about server shutdown
             broadcastSystemMessage("Server is shutting down...");
             
+            // Give the queues a moment to deliver it
+            scheduler.shutdownNow();
+            deliveryExecutor.shutdown();
+            if (!deliveryExecutor.awaitTermination(2, TimeUnit.SECONDS)) {
+                deliveryExecutor.shutdownNow();
+            }
+            
             // Clear all data structures
+            for (ChatClient client : clients.values()) {
+                client.queue.close();
+            }
             clients.clear();
             users.clear();
-            messages.clear();
+            for (ChatChannel channel : channels.values()) {
+                channel.shutdown();
+            }
             
             System.out.println("ChatServer shutdown completed");
         } catch (Exception e) {
             System.err.println("Error during ChatServer shutdown: " + e.getMessage());
         }
     }
+    
+    /**
+     * Delivery state of one chat client
+     */
+    private static class ChatClient {
+        final ClientDeliveryQueue queue;
+        final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>(); // channel name -> delivery state
+        List<String> typingView = Collections.emptyList(); // only touched by the typing digest thread
+        
+        ChatClient(ClientDeliveryQueue queue) {
+            this.queue = queue;
+        }
+    }
+    
+    /**
+     * Delivery state of one channel for one client
+     */
+    private static class Subscription {
+        final ChatChannel channel;
+        final AtomicBoolean signalled = new AtomicBoolean();
+        volatile long deliveredSequence; // only written by the client's deliveries, which run one at a time
+        
+        Subscription(ChatChannel channel, long deliveredSequence) {
+            this.channel = channel;
+            this.deliveredSequence = deliveredSequence;
+        }
+    }
 }
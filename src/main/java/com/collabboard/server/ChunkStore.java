@@ -0,0 +1,348 @@
+package com.collabboard.server;
+
+import com.collabboard.models.FileTransfer;
+import com.collabboard.utils.ContentChunker;
+import com.collabboard.utils.FileUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stores file versions as manifests of content-defined chunks
+ * Each distinct chunk is stored once and shared by every version that contains it, so
+ * versions of the same file cost little more than their changed chunks. Chunks and
+ * manifests are records in their own pack store, keyed by chunk hash and file ID.
+ */
+public class ChunkStore {
+    
+    private static final String CHUNK_PREFIX = "chunk-";
+    
+    private final PackStore packStore;
+    private final Map<String, Manifest> manifests; // file ID -> chunks of the file
+    private final Map<String, ChunkInfo> chunks; // chunk hash -> length and references, guarded by this
+    
+    // Statistics
+    private long storedBytes;
+    private long dedupedBytes;
+    
+    public ChunkStore(Properties config, String storageDirectory) {
+        this.packStore = new PackStore(config, storageDirectory + File.separator + "chunks");
+        this.manifests = new ConcurrentHashMap<>();
+        this.chunks = new HashMap<>();
+    }
+    
+    /**
+     * Open the chunk packs and rebuild the manifests and reference counts
+     * @return Metadata of the files stored as chunks
+     * @throws IOException if a pack cannot be read
+     */
+    public synchronized List<FileTransfer> load() throws IOException {
+        List<FileTransfer> records = packStore.load();
+        for (FileTransfer record : records) {
+            if (record.getFileId().startsWith(CHUNK_PREFIX)) {
+                chunks.put(record.getFileId().substring(CHUNK_PREFIX.length()),
+                           new ChunkInfo((int) record.getFileSize()));
+                storedBytes += record.getFileSize();
+            }
+        }
+        
+        List<FileTransfer> loaded = new ArrayList<>();
+        for (FileTransfer record : records) {
+            if (record.getFileId().startsWith(CHUNK_PREFIX)) {
+                continue;
+            }
+            Manifest manifest;
+            try (DataInputStream in = new DataInputStream(packStore.openStream(record.getFileId()))) {
+                manifest = Manifest.read(in);
+            }
+            if (!chunks.keySet().containsAll(Arrays.asList(manifest.hashes))) {
+                System.err.println("Chunk store is missing chunks of file " + record.getFileId());
+                continue;
+            }
+            acquire(manifest);
+            manifests.put(record.getFileId(), manifest);
+            record.setFileSize(manifest.getSize());
+            loaded.add(record);
+        }
+        
+        // Drop chunks left behind by an interrupted store
+        for (Iterator<Map.Entry<String, ChunkInfo>> it = chunks.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, ChunkInfo> entry = it.next();
+            if (entry.getValue().references == 0) {
+                packStore.delete(CHUNK_PREFIX + entry.getKey());
+                storedBytes -= entry.getValue().length;
+                it.remove();
+            }
+        }
+        return loaded;
+    }
+    
+    /**
+     * Start the background compactor of the chunk packs
+     * @param intervalSeconds Seconds between compaction runs
+     */
+    public void startCompactor(long intervalSeconds) {
+        packStore.startCompactor(intervalSeconds);
+    }
+    
+    /**
+     * Store a file, writing only the chunks that are not stored yet
+     * @param metadata Metadata stored with the file
+     * @param in Stream over the file contents, not closed
+     * @return Number of bytes that were already stored and shared
+     * @throws IOException if the file cannot be read or stored
+     */
+    public long put(FileTransfer metadata, InputStream in) throws IOException {
+        List<String> hashes = new ArrayList<>();
+        List<Integer> lengths = new ArrayList<>();
+        MessageDigest digest = FileUtils.newSha256Digest();
+        long[] shared = new long[1];
+        
+        try {
+            ContentChunker.split(in, (buffer, offset, length) -> {
+                digest.update(buffer, offset, length);
+                String hash = FileUtils.toHexString(digest.digest());
+                synchronized (this) {
+                    ChunkInfo chunk = chunks.get(hash);
+                    if (chunk == null) {
+                        packStore.put(createChunkMetadata(hash), Arrays.copyOfRange(buffer, offset, offset + length));
+                        chunk = new ChunkInfo(length);
+                        chunks.put(hash, chunk);
+                        storedBytes += length;
+                    } else {
+                        shared[0] += length;
+                    }
+                    chunk.references++;
+                }
+                hashes.add(hash);
+                lengths.add(length);
+            });
+            
+            Manifest manifest = new Manifest(hashes, lengths);
+            ByteArrayOutputStream record = new ByteArrayOutputStream(16 + hashes.size() * 72);
+            try (DataOutputStream out = new DataOutputStream(record)) {
+                manifest.write(out);
+            }
+            
+            synchronized (this) {
+                packStore.put(metadata, record.toByteArray());
+                Manifest previous = manifests.put(metadata.getFileId(), manifest);
+                if (previous != null) {
+                    release(previous);
+                }
+                dedupedBytes += shared[0];
+            }
+            return shared[0];
+            
+        } catch (IOException e) {
+            synchronized (this) {
+                release(new Manifest(hashes, lengths));
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * Delete a file, and every chunk no other file shares
+     * @param fileId ID of the file
+     * @return true if the file was stored as chunks
+     * @throws IOException if the deletion cannot be written
+     */
+    public synchronized boolean delete(String fileId) throws IOException {
+        Manifest manifest = manifests.remove(fileId);
+        if (manifest == null) {
+            return false;
+        }
+        packStore.delete(fileId);
+        release(manifest);
+        return true;
+    }
+    
+    /**
+     * Check if a file is stored as chunks
+     */
+    public boolean contains(String fileId) {
+        return manifests.containsKey(fileId);
+    }
+    
+    /**
+     * Read a range of a file, copying it from the mapped chunk packs
+     * @return The bytes, or null if the file is not stored as chunks
+     */
+    public byte[] read(String fileId, long offset, int length) throws IOException {
+        Manifest manifest = manifests.get(fileId);
+        if (manifest == null) {
+            return null;
+        }
+        
+        long start = Math.min(offset, manifest.getSize());
+        byte[] data = new byte[(int) Math.min(length, manifest.getSize() - start)];
+        int index = manifest.findChunk(start);
+        int copied = 0;
+        while (copied < data.length) {
+            ByteBuffer chunk = sliceChunk(manifest, index);
+            chunk.position((int) (start + copied - manifest.offsets[index]));
+            int count = Math.min(chunk.remaining(), data.length - copied);
+            chunk.get(data, copied, count);
+            copied += count;
+            index++;
+        }
+        return data;
+    }
+    
+    /**
+     * Open a stream over a file that reads its chunks in place
+     * @return The stream, or null if the file is not stored as chunks
+     */
+    public InputStream openStream(String fileId) {
+        Manifest manifest = manifests.get(fileId);
+        return manifest != null ? new ManifestInputStream(manifest) : null;
+    }
+    
+    private ByteBuffer sliceChunk(Manifest manifest, int index) throws IOException {
+        ByteBuffer chunk = packStore.slice(CHUNK_PREFIX + manifest.hashes[index]);
+        if (chunk == null) {
+            throw new IOException("Chunk " + manifest.hashes[index] + " is no longer stored");
+        }
+        return chunk;
+    }
+    
+    private void acquire(Manifest manifest) {
+        for (String hash : manifest.hashes) {
+            chunks.get(hash).references++;
+        }
+    }
+    
+    /**
+     * Drop a manifest's references, deleting chunks nothing refers to
+     */
+    private void release(Manifest manifest) throws IOException {
+        for (String hash : manifest.hashes) {
+            ChunkInfo chunk = chunks.get(hash);
+            if (chunk != null && --chunk.references == 0) {
+                chunks.remove(hash);
+                packStore.delete(CHUNK_PREFIX + hash);
+                storedBytes -= chunk.length;
+            }
+        }
+    }
+    
+    private static FileTransfer createChunkMetadata(String hash) {
+        FileTransfer metadata = new FileTransfer();
+        metadata.setFileId(CHUNK_PREFIX + hash);
+        metadata.setSha256(hash);
+        return metadata;
+    }
+    
+    /**
+     * Stop the compactor and close the chunk packs
+     */
+    public void shutdown() {
+        packStore.shutdown();
+    }
+    
+    /**
+     * Get chunk store statistics
+     */
+    public synchronized String getStats() {
+        long logicalBytes = 0;
+        for (Manifest manifest : manifests.values()) {
+            logicalBytes += manifest.getSize();
+        }
+        return String.format("ChunkStore Stats - Files: %d, Chunks: %d, Logical: %s, Stored: %s, " +
+                           "Deduplicated on upload: %s",
+                           manifests.size(), chunks.size(), FileUtils.formatFileSize(logicalBytes),
+                           FileUtils.formatFileSize(storedBytes), FileUtils.formatFileSize(dedupedBytes));
+    }
+    
+    private static class ChunkInfo {
+        final int length;
+        int references;
+        
+        ChunkInfo(int length) {
+            this.length = length;
+        }
+    }
+    
+    /**
+     * Ordered chunks of one file, with the offset each chunk starts at
+     */
+    private static class Manifest {
+        final String[] hashes;
+        final long[] offsets; // one more entry than hashes, the last is the file size
+        
+        Manifest(List<String> hashes, List<Integer> lengths) {
+            this.hashes = hashes.toArray(new String[0]);
+            this.offsets = new long[hashes.size() + 1];
+            for (int i = 0; i < lengths.size(); i++) {
+                offsets[i + 1] = offsets[i] + lengths.get(i);
+            }
+        }
+        
+        long getSize() {
+            return offsets[hashes.length];
+        }
+        
+        /**
+         * Get the index of the chunk holding a file offset
+         */
+        int findChunk(long offset) {
+            int index = Arrays.binarySearch(offsets, offset);
+            return index >= 0 ? index : -index - 2;
+        }
+        
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(hashes.length);
+            for (int i = 0; i < hashes.length; i++) {
+                out.writeUTF(hashes[i]);
+                out.writeInt((int) (offsets[i + 1] - offsets[i]));
+            }
+        }
+        
+        static Manifest read(DataInputStream in) throws IOException {
+            int count = in.readInt();
+            List<String> hashes = new ArrayList<>(count);
+            List<Integer> lengths = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                hashes.add(in.readUTF());
+                lengths.add(in.readInt());
+            }
+            return new Manifest(hashes, lengths);
+        }
+    }
+    
+    /**
+     * Stream over the chunks of a file, slicing each chunk as it is reached
+     */
+    private class ManifestInputStream extends InputStream {
+        private final Manifest manifest;
+        private int index;
+        private ByteBuffer current;
+        
+        ManifestInputStream(Manifest manifest) {
+            this.manifest = manifest;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+        
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            while (current == null || !current.hasRemaining()) {
+                if (index == manifest.hashes.length) {
+                    return -1;
+                }
+                current = sliceChunk(manifest, index++);
+            }
+            int count = Math.min(length, current.remaining());
+            current.get(bytes, offset, count);
+            return count;
+        }
+    }
+}
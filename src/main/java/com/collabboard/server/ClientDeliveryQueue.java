@@ -0,0 +1,150 @@
+package com.collabboard.server;
+
+import com.collabboard.interfaces.ClientCallback;
+
+import java.rmi.RemoteException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers callbacks to one client asynchronously and in order
+ * At most one delivery of a client runs at a time, on a shared executor, so a slow
+ * client only holds back its own deliveries. A client that fails a callback or lets
+ * too many deliveries pile up is closed and reported to the failure handler.
+ */
+public class ClientDeliveryQueue {
+    
+    /**
+     * A callback invocation to deliver
+     */
+    @FunctionalInterface
+    public interface Delivery {
+        void deliver(ClientCallback callback) throws RemoteException;
+    }
+    
+    /**
+     * Receives clients that were closed because they failed or fell behind
+     */
+    @FunctionalInterface
+    public interface FailureHandler {
+        void onClientFailed(ClientDeliveryQueue queue, String reason);
+    }
+    
+    private final String clientId;
+    private final ClientCallback callback;
+    private final Executor executor;
+    private final int maxPending;
+    private final FailureHandler failureHandler;
+    private final Queue<Delivery> pending;
+    private final AtomicInteger pendingCount;
+    private final AtomicBoolean scheduled;
+    private final AtomicBoolean closed;
+    
+    public ClientDeliveryQueue(String clientId, ClientCallback callback, Executor executor,
+                               int maxPending, FailureHandler failureHandler) {
+        this.clientId = clientId;
+        this.callback = callback;
+        this.executor = executor;
+        this.maxPending = maxPending;
+        this.failureHandler = failureHandler;
+        this.pending = new ConcurrentLinkedQueue<>();
+        this.pendingCount = new AtomicInteger();
+        this.scheduled = new AtomicBoolean();
+        this.closed = new AtomicBoolean();
+    }
+    
+    /**
+     * Queue a delivery behind the client's earlier deliveries
+     * @return false if the client is closed or was closed for falling behind
+     */
+    public boolean enqueue(Delivery delivery) {
+        if (closed.get()) {
+            return false;
+        }
+        if (pendingCount.incrementAndGet() > maxPending) {
+            pendingCount.decrementAndGet();
+            fail("more than " + maxPending + " deliveries pending");
+            return false;
+        }
+        pending.add(delivery);
+        schedule();
+        return true;
+    }
+    
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                close();
+            }
+        }
+    }
+    
+    /**
+     * Run the queued deliveries until the queue is empty
+     */
+    private void drain() {
+        Delivery delivery;
+        while ((delivery = pending.poll()) != null) {
+            pendingCount.decrementAndGet();
+            if (closed.get()) {
+                continue;
+            }
+            try {
+                delivery.deliver(callback);
+            } catch (RemoteException | RuntimeException e) {
+                fail(e.getMessage());
+            }
+        }
+        scheduled.set(false);
+        
+        // A delivery queued after the last poll but before the flag was cleared
+        if (!pending.isEmpty()) {
+            schedule();
+        }
+    }
+    
+    /**
+     * Close the client and report it to the failure handler
+     */
+    public void fail(String reason) {
+        if (closed.compareAndSet(false, true)) {
+            pending.clear();
+            failureHandler.onClientFailed(this, reason);
+        }
+    }
+    
+    /**
+     * Stop delivering to the client, dropping queued deliveries
+     */
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            pending.clear();
+        }
+    }
+    
+    public boolean isClosed() {
+        return closed.get();
+    }
+    
+    public String getClientId() {
+        return clientId;
+    }
+    
+    public ClientCallback getCallback() {
+        return callback;
+    }
+    
+    /**
+     * Get the number of deliveries waiting for the client
+     */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+}
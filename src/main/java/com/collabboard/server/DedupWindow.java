@@ -0,0 +1,73 @@
+package com.collabboard.server;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Remembers the acks of the most recently accepted message IDs
+ * A client that retries a send whose reply was lost gets the ack of the first attempt
+ * instead of sending the message twice. The window holds a fixed number of IDs, the
+ * oldest is forgotten when a new one is claimed, so only retries within the window are
+ * recognized.
+ */
+public class DedupWindow {
+    
+    private final int capacity;
+    private final Map<String, CompletableFuture<Long>> acks; // message key -> sequence number
+    // Claims in the order they were made, kept with their ack so evicting a released claim
+    // cannot remove a later claim of the same key
+    private final Queue<Map.Entry<String, CompletableFuture<Long>>> order;
+    private final AtomicInteger size;
+    
+    /**
+     * Create a dedup window
+     * @param capacity Number of message IDs remembered
+     */
+    public DedupWindow(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.acks = new ConcurrentHashMap<>();
+        this.order = new ConcurrentLinkedQueue<>();
+        this.size = new AtomicInteger();
+    }
+    
+    /**
+     * Claim a message ID for a new message
+     * @param key Message ID, scoped to its sender
+     * @param ack Ack the caller completes with the sequence number once the message is accepted
+     * @return null if the ID is new, otherwise the ack of the message that claimed it first
+     */
+    public CompletableFuture<Long> claim(String key, CompletableFuture<Long> ack) {
+        CompletableFuture<Long> previous = acks.putIfAbsent(key, ack);
+        if (previous != null) {
+            return previous;
+        }
+        order.add(Map.entry(key, ack));
+        if (size.incrementAndGet() > capacity) {
+            Map.Entry<String, CompletableFuture<Long>> oldest = order.poll();
+            if (oldest != null) {
+                acks.remove(oldest.getKey(), oldest.getValue());
+                size.decrementAndGet();
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Forget a claim whose message was not accepted, so a retry is accepted
+     * The claim keeps its place in the window until it is evicted, so the window stays bounded.
+     */
+    public void release(String key, CompletableFuture<Long> ack) {
+        acks.remove(key, ack);
+    }
+    
+    /**
+     * Get the number of message IDs remembered
+     */
+    public int size() {
+        return acks.size();
+    }
+}
@@ -0,0 +1,176 @@
+package com.collabboard.server;
+
+import com.collabboard.utils.FileUtils;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared read cache for hot file ranges with a global byte budget
+ * Entries are evicted in least-recently-used order once the budget is exceeded,
+ * and concurrent misses for the same range are served by a single disk read
+ */
+public class FileCache {
+    
+    private final long maxBytes;
+    private final LinkedHashMap<String, byte[]> entries; // access-ordered for LRU eviction
+    private final Map<String, CompletableFuture<byte[]>> pendingLoads;
+    private long currentBytes;
+    private long generation; // bumped by every invalidation, guarded by entries
+    
+    // Statistics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalescedLoads = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    
+    public FileCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.entries = new LinkedHashMap<>(64, 0.75f, true);
+        this.pendingLoads = new ConcurrentHashMap<>();
+    }
+    
+    /**
+     * Get a cached range, loading it if it is not cached yet
+     * @param key Cache key of the range
+     * @param loader Reads the range from disk on a miss
+     * @return The cached bytes (shared, must not be modified)
+     * @throws IOException if the range cannot be loaded
+     */
+    public byte[] get(String key, Loader loader) throws IOException {
+        long loadGeneration;
+        synchronized (entries) {
+            byte[] cached = entries.get(key);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached;
+            }
+            loadGeneration = generation;
+        }
+        
+        // Join a load that is already in progress for this range
+        CompletableFuture<byte[]> load = new CompletableFuture<>();
+        CompletableFuture<byte[]> existing = pendingLoads.putIfAbsent(key, load);
+        if (existing != null) {
+            coalescedLoads.incrementAndGet();
+            return await(existing);
+        }
+        
+        misses.incrementAndGet();
+        try {
+            byte[] data = loader.load();
+            put(key, data, loadGeneration);
+            load.complete(data);
+            return data;
+        } catch (IOException | RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            pendingLoads.remove(key, load);
+        }
+    }
+    
+    /**
+     * Remove all ranges whose key starts with the given prefix
+     * @param keyPrefix Prefix of the keys to remove
+     */
+    public void invalidatePrefix(String keyPrefix) {
+        synchronized (entries) {
+            generation++;
+            Iterator<Map.Entry<String, byte[]>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, byte[]> entry = it.next();
+                if (entry.getKey().startsWith(keyPrefix)) {
+                    currentBytes -= entry.getValue().length;
+                    it.remove();
+                }
+            }
+        }
+        // Later misses must read the new contents instead of joining a load of the old ones
+        pendingLoads.keySet().removeIf(key -> key.startsWith(keyPrefix));
+    }
+    
+    /**
+     * Add a range and evict the least recently used ranges over budget
+     * A range read before the last invalidation may be stale and is not cached
+     */
+    private void put(String key, byte[] data, long loadGeneration) {
+        if (data.length > maxBytes) {
+            return;
+        }
+        
+        synchronized (entries) {
+            if (loadGeneration != generation) {
+                return;
+            }
+            byte[] previous = entries.put(key, data);
+            if (previous != null) {
+                currentBytes -= previous.length;
+            }
+            currentBytes += data.length;
+            
+            Iterator<Map.Entry<String, byte[]>> it = entries.entrySet().iterator();
+            while (currentBytes > maxBytes && it.hasNext()) {
+                Map.Entry<String, byte[]> eldest = it.next();
+                currentBytes -= eldest.getValue().length;
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+    
+    private byte[] await(CompletableFuture<byte[]> load) throws IOException {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for file read");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("File read failed: " + cause.getMessage());
+        }
+    }
+    
+    /**
+     * Get the fraction of lookups served without a disk read
+     * @return Hit ratio between 0 and 1
+     */
+    public double getHitRatio() {
+        long served = hits.get() + coalescedLoads.get();
+        long total = served + misses.get();
+        return total == 0 ? 0.0 : (double) served / total;
+    }
+    
+    /**
+     * Get cache statistics
+     */
+    public String getStats() {
+        long usedBytes;
+        int entryCount;
+        synchronized (entries) {
+            usedBytes = currentBytes;
+            entryCount = entries.size();
+        }
+        return String.format("FileCache Stats - Entries: %d, Size: %s / %s, Hit Ratio: %.1f%% " +
+                           "(hits %d, coalesced %d, misses %d), Evictions: %d",
+                           entryCount, FileUtils.formatFileSize(usedBytes), FileUtils.formatFileSize(maxBytes),
+                           getHitRatio() * 100, hits.get(), coalescedLoads.get(), misses.get(), evictions.get());
+    }
+    
+    /**
+     * Reads a range from disk on a cache miss
+     */
+    @FunctionalInterface
+    public interface Loader {
+        byte[] load() throws IOException;
+    }
+}
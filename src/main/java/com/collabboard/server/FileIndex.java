@@ -0,0 +1,133 @@
+package com.collabboard.server;
+
+import com.collabboard.models.FileListPage;
+import com.collabboard.models.FileTransfer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Predicate;
+
+/**
+ * Sorted secondary indexes over the stored files for paged listing
+ * Each index is keyed so that key order is the listing order, and the key of the
+ * last file on a page is the cursor of the next page
+ */
+public class FileIndex {
+    
+    // Separates key parts, sorts below any character of a name
+    private static final char SEPARATOR = '\u0000';
+    
+    private final NavigableMap<String, FileTransfer> byTime = new ConcurrentSkipListMap<>();
+    private final NavigableMap<String, FileTransfer> byUploader = new ConcurrentSkipListMap<>();
+    private final NavigableMap<String, FileTransfer> byType = new ConcurrentSkipListMap<>();
+    
+    /**
+     * Add a file to all indexes
+     */
+    public void add(FileTransfer file) {
+        byTime.put(timeKey(file), file);
+        byUploader.put(groupKey(file.getUploaderName(), file), file);
+        byType.put(groupKey(file.getFileType(), file), file);
+    }
+    
+    /**
+     * Remove a file from all indexes
+     */
+    public void remove(FileTransfer file) {
+        byTime.remove(timeKey(file));
+        byUploader.remove(groupKey(file.getUploaderName(), file));
+        byType.remove(groupKey(file.getFileType(), file));
+    }
+    
+    /**
+     * Get a page of files
+     * Uploader and type filters are served from a range of their index when the sort
+     * order allows it; other filters are applied while walking the index
+     * @param cursor Cursor from the previous page, or null for the first page
+     * @param limit Maximum number of files on the page
+     * @param filter Filter, see FileListPage for the syntax, or null for all files
+     * @param sort Sort order, see FileListPage
+     * @return The page
+     */
+    public FileListPage getPage(String cursor, int limit, String filter, String sort) {
+        NavigableMap<String, FileTransfer> index = getSortIndex(sort);
+        Predicate<FileTransfer> matches = file -> true;
+        
+        String text = filter == null ? "" : filter.trim();
+        String lowerText = text.toLowerCase();
+        if (lowerText.startsWith(FileListPage.FILTER_TYPE)) {
+            String type = text.substring(FileListPage.FILTER_TYPE.length()).trim();
+            if (index == byTime || index == byType) {
+                index = groupRange(byType, type);
+            } else {
+                matches = file -> type.equalsIgnoreCase(file.getFileType());
+            }
+        } else if (lowerText.startsWith(FileListPage.FILTER_UPLOADER)) {
+            String uploader = text.substring(FileListPage.FILTER_UPLOADER.length()).trim();
+            if (index == byTime || index == byUploader) {
+                index = groupRange(byUploader, uploader);
+            } else {
+                matches = file -> uploader.equalsIgnoreCase(file.getUploaderName());
+            }
+        } else if (!text.isEmpty()) {
+            matches = file -> file.getFileName() != null && file.getFileName().toLowerCase().contains(lowerText);
+        }
+        
+        NavigableMap<String, FileTransfer> remaining = cursor == null ? index : index.tailMap(cursor, false);
+        List<FileTransfer> files = new ArrayList<>(Math.min(limit, 256));
+        String lastKey = null;
+        String nextCursor = null;
+        
+        for (Map.Entry<String, FileTransfer> entry : remaining.entrySet()) {
+            if (!matches.test(entry.getValue())) {
+                continue;
+            }
+            if (files.size() == limit) {
+                // There is at least one more match
+                nextCursor = lastKey;
+                break;
+            }
+            files.add(entry.getValue());
+            lastKey = entry.getKey();
+        }
+        
+        return new FileListPage(files, nextCursor, byTime.size());
+    }
+    
+    public int size() {
+        return byTime.size();
+    }
+    
+    private NavigableMap<String, FileTransfer> getSortIndex(String sort) {
+        if (FileListPage.SORT_UPLOADER.equals(sort)) {
+            return byUploader;
+        }
+        if (FileListPage.SORT_TYPE.equals(sort)) {
+            return byType;
+        }
+        return byTime;
+    }
+    
+    /**
+     * Get the entries of one uploader or type, newest first
+     */
+    private static NavigableMap<String, FileTransfer> groupRange(NavigableMap<String, FileTransfer> index, 
+                                                                  String group) {
+        String prefix = group.toLowerCase();
+        return index.subMap(prefix + SEPARATOR, true, prefix + (char) (SEPARATOR + 1), false);
+    }
+    
+    /**
+     * Key that orders files newest first, ties broken by file ID
+     */
+    private static String timeKey(FileTransfer file) {
+        return String.format("%019d", Long.MAX_VALUE - file.getUploadTime()) + SEPARATOR + file.getFileId();
+    }
+    
+    private static String groupKey(String group, FileTransfer file) {
+        return String.valueOf(group).toLowerCase() + SEPARATOR + timeKey(file);
+    }
+}
@@ -2,14 +2,45 @@ package com.collabboard.server;
 
 import com.collabboard.interfaces.FileService;
 import com.collabboard.interfaces.ClientCallback;
+import com.collabboard.models.BlockSignature;
+import com.collabboard.models.DeltaInstruction;
+import com.collabboard.models.FileListPage;
 import com.collabboard.models.FileTransfer;
+import com.collabboard.models.TransferTicket;
+import com.collabboard.utils.BulkChannel;
+import com.collabboard.utils.BulkTransferProtocol;
+import com.collabboard.utils.CompressionUtils;
+import com.collabboard.utils.DeltaEncoder;
 import com.collabboard.utils.FileUtils;
 
+import java.net.InetSocketAddress;
 import java.rmi.RemoteException;
+import java.rmi.server.RemoteServer;
+import java.rmi.server.ServerNotActiveException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
 
 /**
  * Server implementation of the FileService interface
@@ -17,24 +48,98 @@ import java.io.*;
 public class FileServerImpl extends UnicastRemoteObject implements FileService {
     
     private final Map<String, FileTransfer> storedFiles;
+    private final FileIndex fileIndex;
+    private final FileVersionIndex fileVersions;
     private final Map<String, ClientCallback> fileClients;
     private final Properties config;
     private final String storageDirectory;
     private final long maxFileSize;
+    private final int maxPageSize;
+    private final int initialPageSize;
+    private final int maxZipFiles;
+    private final int compressionLevel;
+    private final FileCache fileCache;
+    private final BulkTransferServer bulkTransferServer;
+    private final TrafficScheduler trafficScheduler;
+    private final RateLimiter rateLimiter;
+    private final UploadAdmissionController uploadAdmission;
+    private final PreviewGenerator previewGenerator;
+    private final PackStore packStore;
+    private final ChunkStore chunkStore;
+    private final boolean versionDedup;
+    private final TimerWheel<String> expiryWheel;
+    private final ScheduledExecutorService expiryScheduler;
+    private final long maxShareTime;
+    private final int expiryBatchSize;
+    
+    // Bytes not sent over the wire thanks to chunk compression
+    private final AtomicLong uploadBytesSaved = new AtomicLong();
+    private final AtomicLong downloadBytesSaved = new AtomicLong();
     
     public FileServerImpl(Properties config) throws RemoteException {
+        this(config, null, new TrafficScheduler(config));
+    }
+    
+    public FileServerImpl(Properties config, BulkTransferServer bulkTransferServer, 
+                          TrafficScheduler trafficScheduler) throws RemoteException {
+        this(config, bulkTransferServer, trafficScheduler, new RateLimiter(config));
+    }
+    
+    public FileServerImpl(Properties config, BulkTransferServer bulkTransferServer, 
+                          TrafficScheduler trafficScheduler, RateLimiter rateLimiter) throws RemoteException {
         super();
         this.config = config;
+        this.bulkTransferServer = bulkTransferServer;
+        this.trafficScheduler = trafficScheduler;
+        this.rateLimiter = rateLimiter;
         this.storedFiles = new ConcurrentHashMap<>();
+        this.fileIndex = new FileIndex();
+        this.fileVersions = new FileVersionIndex();
         this.fileClients = new ConcurrentHashMap<>();
         this.storageDirectory = config.getProperty("file.storage.directory", "./files");
         this.maxFileSize = Long.parseLong(config.getProperty("file.max.size", "52428800")); // 50MB
+        this.maxPageSize = Integer.parseInt(config.getProperty("file.list.max.page.size", "500"));
+        this.initialPageSize = Integer.parseInt(config.getProperty("file.list.initial.page.size", "100"));
+        this.maxZipFiles = Integer.parseInt(config.getProperty("file.zip.max.files", "500"));
+        this.compressionLevel = Boolean.parseBoolean(config.getProperty("file.compression.enabled", "true"))
+            ? Integer.parseInt(config.getProperty("file.compression.level", 
+                                                  String.valueOf(CompressionUtils.DEFAULT_LEVEL)))
+            : CompressionUtils.DISABLED_LEVEL;
+        this.fileCache = new FileCache(Long.parseLong(config.getProperty("file.cache.max.bytes", "67108864"))); // 64MB
+        this.uploadAdmission = new UploadAdmissionController(config, storageDirectory);
+        this.previewGenerator = new PreviewGenerator(config, storageDirectory);
+        this.packStore = new PackStore(config, storageDirectory + File.separator + "packs");
+        this.chunkStore = new ChunkStore(config, storageDirectory);
+        this.versionDedup = Boolean.parseBoolean(config.getProperty("file.version.dedup.enabled", "true"));
+        long expiryTick = Long.parseLong(config.getProperty("file.expiry.tick.millis", "1000"));
+        this.expiryWheel = new TimerWheel<>(expiryTick, System.currentTimeMillis());
+        this.maxShareTime = Long.parseLong(config.getProperty("file.expiry.max.millis", "2592000000")); // 30 days
+        this.expiryBatchSize = Integer.parseInt(config.getProperty("file.expiry.batch.size", "500"));
         
         // Create storage directory if it doesn't exist
         FileUtils.createDirectoryIfNotExists(storageDirectory);
         
-        // Load existing files from storage directory
+        // Load existing files from packs and storage directory, listing the latest versions
+        loadPackedFiles();
         loadExistingFiles();
+        fileVersions.getLatestVersions().forEach(fileIndex::add);
+        for (FileTransfer metadata : storedFiles.values()) {
+            if (metadata.getExpiresAt() > 0) {
+                expiryWheel.schedule(metadata.getFileId(), metadata.getExpiresAt());
+            }
+        }
+        
+        // Files past their share time are deleted by the wheel, never by scanning all files
+        this.expiryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "FileExpiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        expiryScheduler.scheduleAtFixedRate(this::expireFiles, expiryTick, expiryTick, TimeUnit.MILLISECONDS);
+        
+        long compactInterval = Long.parseLong(config.getProperty("file.pack.compact.interval.seconds", "300"));
+        packStore.startCompactor(compactInterval);
+        chunkStore.startCompactor(compactInterval);
         
         System.out.println("FileServer initialized - Storage: " + storageDirectory);
     }
@@ -44,6 +149,7 @@ public class FileServerImpl extends UnicastRemoteObject implements FileService {
         if (fileData == null) {
             throw new RemoteException("File data cannot be null");
         }
+        rateLimiter.acquire(fileData.getUploaderId(), RateLimiter.Operation.FILE_UPLOAD);
         
         // Validate file
         if (!FileUtils.isFileSizeValid(fileData.getFileSize())) {
@@ -55,29 +161,29 @@ public class FileServerImpl extends UnicastRemoteObject implements FileService {
         if (!FileUtils.isFileTypeAllowed(extension)) {
             throw new RemoteException("File type not allowed: " + extension);
         }
+        validateExpiry(fileData);
+        
+        String fileId = fileData.getFileId();
+        if (fileId == null) {
+            fileId = generateFileId(fileData);
+            fileData.setFileId(fileId);
+        }
         
+        // The whole file is held in memory while it is stored. RMI has already unmarshalled it
+        // by the time this runs, so the reservation only bounds how many of these are stored at
+        // once; large files should use beginUpload and chunks or the bulk channel instead.
+        boolean reserved = uploadAdmission.admit(fileId, fileData.getUploaderId(), fileData.getFileSize(), 
+                                                 fileData.getFileSize());
         try {
-            String fileId = fileData.getFileId();
-            if (fileId == null) {
-                fileId = generateFileId(fileData);
-                fileData.setFileId(fileId);
+            // Verify the file arrived intact before storing it
+            String sha256 = FileUtils.computeSha256(fileData.getData());
+            if (fileData.getSha256() != null && !fileData.getSha256().equalsIgnoreCase(sha256)) {
+                throw new RemoteException("File checksum mismatch for " + fileData.getFileName());
             }
             
             // Save file to disk
-            String filePath = storageDirectory + File.separator + fileId + "." + extension;
-            FileUtils.writeBytesToFile(filePath, fileData.getData());
-            
-            // Store file metadata
-            FileTransfer metadata = new FileTransfer();
-            metadata.setFileId(fileId);
-            metadata.setFileName(fileData.getFileName());
-            metadata.setFileType(extension);
-            metadata.setFileSize(fileData.getFileSize());
-            metadata.setUploaderId(fileData.getUploaderId());
-            metadata.setUploaderName(fileData.getUploaderName());
-            metadata.setUploadTime(System.currentTimeMillis());
-            
-            storedFiles.put(fileId, metadata);
+            FileTransfer metadata = createStoredMetadata(fileId, fileData, extension, fileData.getFileSize(), sha256);
+            storeVersion(metadata, previous -> storeBlob(metadata, fileData.getData(), previous));
             
             System.out.println("File uploaded: " + fileData.getFileName() + 
                              " (" + FileUtils.formatFileSize(fileData.getFileSize()) + 
@@ -87,6 +193,10 @@ public class FileServerImpl extends UnicastRemoteObject implements FileService {
             
         } catch (IOException e) {
             throw new RemoteException("Failed to save file: " + e.getMessage());
+        } finally {
+            if (reserved) {
+                uploadAdmission.release(fileId);
+            }
         }
     }
     
@@ -95,6 +205,7 @@ public class FileServerImpl extends UnicastRemoteObject implements FileService {
         if (fileId == null || fileId.trim().isEmpty()) {
             throw new RemoteException("File ID cannot be null or empty");
         }
+        rateLimiter.acquire(null, RateLimiter.Operation.FILE_DOWNLOAD);
         
         FileTransfer metadata = storedFiles.get(fileId);
         if (metadata == null) {
@@ -102,15 +213,18 @@ public class FileServerImpl extends UnicastRemoteObject implements FileService {
         }
         
         try {
-            String extension = FileUtils.getFileExtension(metadata.getFileName());
-            String filePath = storageDirectory + File.separator + fileId + "." + extension;
-            
-            if (!FileUtils.fileExists(filePath)) {
-                System.err.println("File not found on disk: " + filePath);
+            if (!blobExists(metadata)) {
+                System.err.println("File not found in storage: " + getBlobPath(metadata));
                 return null;
             }
             
-            byte[] fileData = FileUtils.readFileAsBytes(filePath);
+            // Assemble the file from cached chunks so concurrent downloads share disk reads
+            List<byte[]> chunks = new ArrayList<>();
+            for (int i = 0; i < FileUtils.getChunkCount(metadata.getFileSize()); i++) {
+                chunks.add(readChunk(metadata, i));
+            }
+            byte[] fileData = FileUtils.mergeFileChunks(chunks);
+            trafficScheduler.pace(getCallerKey(), fileData.length);
             
             FileTransfer fileTransfer = new FileTransfer(
                 metadata.getFileName(),
@@ -121,6 +235,7 @@ public class FileServerImpl extends UnicastRemoteObject implements FileService {
             );
             fileTransfer.setFileId(fileId);
             fileTransfer.setUploadTime(metadata.getUploadTime());
+            fileTransfer.setSha256(ensureSha256(metadata));
             
             System.out.println("File downloaded: " + metadata.getFileName() + " by client");
             
@@ -133,7 +248,18 @@ public class FileServerImpl extends UnicastRemoteObject implements FileService {
     
     @Override
     public List<FileTransfer> getSharedFiles() throws RemoteException {
-        return new ArrayList<>(storedFiles.values());
+        rateLimiter.acquire(null, RateLimiter.Operation.FILE_LIST);
+        return fileVersions.getLatestVersions();
+    }
+    
+    @Override
+    public FileListPage getSharedFiles(String cursor, int limit, String filter, String sort) 
+            throws RemoteException {
+        if (limit <= 0) {
+            throw new RemoteException("Page limit must be positive");
+        }
+        rateLimiter.acquire(null, RateLimiter.Operation.FILE_LIST);
+        return fileIndex.getPage(cursor, Math.min(limit, maxPageSize), filter, sort);
     }
     
     @Override
@@ -141,6 +267,7 @@ public class FileServerImpl extends UnicastRemoteObject implements FileService {
         if (fileId == null || uploaderId == null) {
             throw new RemoteException("File ID and uploader ID cannot be null");
         }
+        rateLimiter.acquire(uploaderId, RateLimiter.Operation.FILE_MODIFY);
         
         FileTransfer metadata = storedFiles.get(fileId);
         if (metadata == null) {
@@ -158,6 +285,7 @@ public class FileServerImpl extends UnicastRemoteObject implements FileService {
         if (fileId == null || userId == null) {
             throw new RemoteException("File ID and user ID cannot be null");
         }
+        rateLimiter.acquire(userId, RateLimiter.Operation.FILE_MODIFY);
         
         FileTransfer metadata = storedFiles.get(fileId);
         if (metadata == null) {
@@ -170,20 +298,22 @@ public class FileServerImpl extends UnicastRemoteObject implements FileService {
         }
         
         try {
-            // Remove from memory
-            storedFiles.remove(fileId);
+            // Remove from memory, listing the previous version if this was the latest
+            FileTransfer newLatest = unregisterStoredFile(metadata);
             
             // Delete from disk
-            String extension = FileUtils.getFileExtension(metadata.getFileName());
-            String filePath = storageDirectory + File.separator + fileId + "." + extension;
-            boolean deleted = FileUtils.deleteFile(filePath);
+            boolean deleted = deleteBlob(metadata);
             
             if (deleted) {
-                System.out.println("File deleted: " + metadata.getFileName() + " by " + userId);
+                System.out.println("File deleted: " + metadata.getFileName() + " v" + metadata.getVersion() + 
+                                 " by " + userId);
                 
                 // Notify all clients about file deletion
                 notifyAllFileClients(callback -> callback.onFileDeleted(fileId, userId));
             }
+            if (newLatest != null) {
+                notifyAllFileClients(callback -> callback.onFileShared(newLatest));
+            }
             
             return deleted;
             
@@ -198,21 +328,71 @@ public class FileServerImpl extends UnicastRemoteObject implements FileService {
         if (fileChunk == null) {
             throw new RemoteException("File chunk cannot be null");
         }
+        if (fileChunk.getData() == null) {
+            throw new RemoteException("File chunk data cannot be null");
+        }
+        rateLimiter.acquire(fileChunk.getUploaderId(), RateLimiter.Operation.FILE_CHUNK);
+        
+        // Restore the stored form of compressed chunks before verifying them
+        byte[] chunkData = fileChunk.getData();
+        if (fileChunk.isCompressed()) {
+            // The raw length comes from the client, so it is checked before anything is allocated
+            if (fileChunk.getRawLength() < 0 || fileChunk.getRawLength() > FileUtils.CHUNK_SIZE) {
+                System.err.println("Chunk raw length " + fileChunk.getRawLength() + " is invalid: " + fileChunk.getChunkIndex() + "/" +
+                                 fileChunk.getTotalChunks() + " for file: " + fileChunk.getFileName());
+                return false;
+            }
+            try {
+                chunkData = CompressionUtils.decompressChunk(fileChunk.getData(), fileChunk.getRawLength());
+            } catch (IOException e) {
+                System.err.println("Chunk decompression failed: " + fileChunk.getChunkIndex() + "/" + 
+                                 fileChunk.getTotalChunks() + " for file: " + fileChunk.getFileName());
+                return false;
+            }
+        }
+        
+        // Reject corrupted chunks so the client retransmits only this chunk
+        long checksum = FileUtils.computeCrc32c(chunkData);
+        if (checksum != fileChunk.getChunkChecksum()) {
+            System.err.println("Chunk checksum mismatch: " + fileChunk.getChunkIndex() + "/" + 
+                             fileChunk.getTotalChunks() + " for file: " + fileChunk.getFileName());
+            return false;
+        }
+        
+        String fileId = fileChunk.getFileId();
+        if (!uploadAdmission.touch(fileId, fileChunk.getUploaderId())) {
+            if (fileChunk.getChunkIndex() != 0) {
+                throw new RemoteException("Upload was not admitted or has expired: " + fileChunk.getFileName());
+            }
+            // Clients that skip beginUpload are admitted on their first chunk
+            uploadAdmission.admit(fileId, fileChunk.getUploaderId(), fileChunk.getFileSize(), FileUtils.CHUNK_SIZE);
+        }
         
         try {
-            String fileId = fileChunk.getFileId();
             String tempDir = storageDirectory + File.separator + "temp";
             FileUtils.createDirectoryIfNotExists(tempDir);
             
-            String chunkPath = tempDir + File.separator + fileId + "_chunk_" + fileChunk.getChunkIndex();
-            FileUtils.writeBytesToFile(chunkPath, fileChunk.getData());
+            String chunkPath = getChunkPath(fileId, fileChunk.getChunkIndex());
+            byte[] verifiedData = chunkData;
+            trafficScheduler.runBulk(() -> {
+                trafficScheduler.pace(getCallerKey(), fileChunk.getData().length);
+                FileUtils.writeBytesToFile(chunkPath, verifiedData);
+            });
+            
+            if (fileChunk.isCompressed()) {
+                uploadBytesSaved.addAndGet(chunkData.length - fileChunk.getData().length);
+            }
             
             System.out.println("Chunk uploaded: " + fileChunk.getChunkIndex() + "/" + 
                              fileChunk.getTotalChunks() + " for file: " + fileChunk.getFileName());
             
             // If this is the last chunk, assemble the complete file
             if (fileChunk.isLastChunk()) {
-                return assembleChunkedFile(fileChunk);
+                try {
+                    return assembleChunkedFile(fileChunk);
+                } finally {
+                    uploadAdmission.release(fileId);
+                }
             }
             
             return true;
@@ -222,16 +402,310 @@ public class FileServerImpl extends UnicastRemoteObject implements FileService {
         }
     }
     
+    @Override
+    public FileTransfer downloadFileChunk(String fileId, int chunkIndex, boolean acceptCompressed) 
+            throws RemoteException {
+        if (fileId == null || fileId.trim().isEmpty()) {
+            throw new RemoteException("File ID cannot be null or empty");
+        }
+        rateLimiter.acquire(null, RateLimiter.Operation.FILE_CHUNK);
+        
+        FileTransfer metadata = storedFiles.get(fileId);
+        if (metadata == null) {
+            return null;
+        }
+        
+        int totalChunks = FileUtils.getChunkCount(metadata.getFileSize());
+        if (chunkIndex < 0 || chunkIndex >= totalChunks) {
+            throw new RemoteException("Invalid chunk index " + chunkIndex + " for file: " + fileId);
+        }
+        
+        try {
+            if (!blobExists(metadata)) {
+                System.err.println("File not found in storage: " + getBlobPath(metadata));
+                return null;
+            }
+            
+            byte[] chunkData = readChunk(metadata, chunkIndex);
+            trafficScheduler.pace(getCallerKey(), chunkData.length);
+            
+            FileTransfer chunk = new FileTransfer(fileId, metadata.getFileName(), metadata.getFileType(), 
+                chunkData, metadata.getUploaderId(), metadata.getUploaderName(), 
+                chunkIndex, totalChunks, chunkIndex == totalChunks - 1);
+            chunk.setFileSize(metadata.getFileSize());
+            chunk.setUploadTime(metadata.getUploadTime());
+            chunk.setChunkChecksum(FileUtils.computeCrc32c(chunkData));
+            chunk.setSha256(ensureSha256(metadata));
+            
+            // Compress the transfer form of the chunk when it pays off
+            if (acceptCompressed && compressionLevel != CompressionUtils.DISABLED_LEVEL && 
+                !CompressionUtils.isAlreadyCompressed(metadata.getFileType())) {
+                byte[] compressed = CompressionUtils.compressChunk(chunkData, compressionLevel);
+                if (compressed != null) {
+                    chunk.setData(compressed);
+                    chunk.setCompressed(true);
+                    chunk.setRawLength(chunkData.length);
+                    downloadBytesSaved.addAndGet(chunkData.length - compressed.length);
+                }
+            }
+            
+            return chunk;
+            
+        } catch (IOException e) {
+            throw new RemoteException("Failed to read file chunk: " + e.getMessage());
+        }
+    }
+    
+    @Override
+    public TransferTicket requestDownloadTicket(String fileId) throws RemoteException {
+        if (fileId == null || fileId.trim().isEmpty()) {
+            throw new RemoteException("File ID cannot be null or empty");
+        }
+        rateLimiter.acquire(null, RateLimiter.Operation.FILE_DOWNLOAD);
+        
+        FileTransfer metadata = storedFiles.get(fileId);
+        if (metadata == null || !isBulkChannelAvailable()) {
+            return null;
+        }
+        
+        if (!blobExists(metadata)) {
+            System.err.println("File not found in storage: " + getBlobPath(metadata));
+            return null;
+        }
+        
+        try {
+            String sha256 = ensureSha256(metadata);
+            String token = bulkTransferServer.registerTicket(socket -> sendBlob(metadata, socket));
+            
+            return new TransferTicket(token, bulkTransferServer.getPort(), fileId, metadata.getFileSize(), 
+                                      sha256, System.currentTimeMillis() + bulkTransferServer.getTicketTimeout());
+            
+        } catch (IOException e) {
+            throw new RemoteException("Failed to prepare download: " + e.getMessage());
+        }
+    }
+    
+    @Override
+    public String beginUpload(FileTransfer metadata) throws RemoteException {
+        if (metadata == null) {
+            throw new RemoteException("File metadata cannot be null");
+        }
+        rateLimiter.acquire(metadata.getUploaderId(), RateLimiter.Operation.FILE_UPLOAD);
+        
+        // Validate file before accepting any chunks
+        if (!FileUtils.isFileSizeValid(metadata.getFileSize())) {
+            throw new RemoteException("File size exceeds maximum allowed size: " + 
+                                    FileUtils.formatFileSize(maxFileSize));
+        }
+        
+        String extension = FileUtils.getFileExtension(metadata.getFileName());
+        if (!FileUtils.isFileTypeAllowed(extension)) {
+            throw new RemoteException("File type not allowed: " + extension);
+        }
+        validateExpiry(metadata);
+        
+        String fileId = metadata.getFileId();
+        if (fileId == null) {
+            fileId = generateFileId(metadata);
+        }
+        
+        // Only one chunk of a chunked upload is held in memory at a time
+        uploadAdmission.admit(fileId, metadata.getUploaderId(), metadata.getFileSize(), FileUtils.CHUNK_SIZE);
+        return fileId;
+    }
+    
+    @Override
+    public List<BlockSignature> getBlockSignatures(String fileId, int blockSize) throws RemoteException {
+        if (blockSize < DeltaEncoder.MIN_BLOCK_SIZE || blockSize > DeltaEncoder.MAX_BLOCK_SIZE) {
+            throw new RemoteException("Invalid block size: " + blockSize);
+        }
+        rateLimiter.acquire(null, RateLimiter.Operation.FILE_LIST);
+        
+        FileTransfer metadata = storedFiles.get(fileId);
+        if (metadata == null) {
+            return null;
+        }
+        
+        try (InputStream in = new BufferedInputStream(openBlob(metadata), DeltaEncoder.MAX_BLOCK_SIZE)) {
+            return DeltaEncoder.computeSignatures(in, blockSize);
+        } catch (IOException e) {
+            throw new RemoteException("Failed to compute block signatures: " + e.getMessage());
+        }
+    }
+    
+    @Override
+    public String uploadDelta(FileTransfer metadata, String baseFileId, int blockSize, 
+                              List<DeltaInstruction> instructions) throws RemoteException {
+        if (metadata == null || instructions == null) {
+            throw new RemoteException("File metadata and delta cannot be null");
+        }
+        rateLimiter.acquire(metadata.getUploaderId(), RateLimiter.Operation.FILE_UPLOAD);
+        
+        FileTransfer base = storedFiles.get(baseFileId);
+        if (base == null) {
+            throw new RemoteException("Base file not found: " + baseFileId);
+        }
+        
+        // Validate file before rebuilding it
+        if (!FileUtils.isFileSizeValid(metadata.getFileSize())) {
+            throw new RemoteException("File size exceeds maximum allowed size: " + 
+                                    FileUtils.formatFileSize(maxFileSize));
+        }
+        
+        String extension = FileUtils.getFileExtension(metadata.getFileName());
+        if (!FileUtils.isFileTypeAllowed(extension)) {
+            throw new RemoteException("File type not allowed: " + extension);
+        }
+        validateExpiry(metadata);
+        
+        String fileId = metadata.getFileId();
+        if (fileId == null) {
+            fileId = generateFileId(metadata);
+            metadata.setFileId(fileId);
+        }
+        
+        // Only the literal bytes of the delta are held in memory
+        long literalBytes = DeltaEncoder.getLiteralBytes(instructions);
+        boolean reserved = uploadAdmission.admit(fileId, metadata.getUploaderId(), metadata.getFileSize(), literalBytes);
+        
+        String tempDir = storageDirectory + File.separator + "temp";
+        FileUtils.createDirectoryIfNotExists(tempDir);
+        Path tempPath = Paths.get(tempDir, fileId + ".delta");
+        
+        try {
+            trafficScheduler.runBulk(() -> {
+                trafficScheduler.pace(getCallerKey(), literalBytes);
+                applyDelta(base, blockSize, instructions, tempPath, metadata.getFileSize());
+            });
+            
+            String sha256 = FileUtils.computeSha256(tempPath.toString());
+            if (metadata.getSha256() != null && !metadata.getSha256().equalsIgnoreCase(sha256)) {
+                throw new RemoteException("File checksum mismatch for " + metadata.getFileName());
+            }
+            
+            FileTransfer stored = createStoredMetadata(fileId, metadata, extension, metadata.getFileSize(), sha256);
+            storeVersion(stored, previous -> storeBlob(stored, tempPath, previous));
+            
+            System.out.println("File uploaded as delta: " + metadata.getFileName() + 
+                             " (" + FileUtils.formatFileSize(literalBytes) + " of " + 
+                             FileUtils.formatFileSize(metadata.getFileSize()) + " sent) by " + 
+                             metadata.getUploaderName());
+            
+            return fileId;
+            
+        } catch (IOException e) {
+            throw new RemoteException("Failed to apply delta: " + e.getMessage());
+        } finally {
+            FileUtils.deleteFile(tempPath.toString());
+            if (reserved) {
+                uploadAdmission.release(fileId);
+            }
+        }
+    }
+    
+    @Override
+    public TransferTicket requestUploadTicket(FileTransfer metadata) throws RemoteException {
+        if (metadata == null) {
+            throw new RemoteException("File metadata cannot be null");
+        }
+        rateLimiter.acquire(metadata.getUploaderId(), RateLimiter.Operation.FILE_UPLOAD);
+        if (!isBulkChannelAvailable()) {
+            return null;
+        }
+        
+        // Validate file before accepting any bytes
+        if (!FileUtils.isFileSizeValid(metadata.getFileSize())) {
+            throw new RemoteException("File size exceeds maximum allowed size: " + 
+                                    FileUtils.formatFileSize(maxFileSize));
+        }
+        
+        String extension = FileUtils.getFileExtension(metadata.getFileName());
+        if (!FileUtils.isFileTypeAllowed(extension)) {
+            throw new RemoteException("File type not allowed: " + extension);
+        }
+        validateExpiry(metadata);
+        
+        String fileId = metadata.getFileId();
+        if (fileId == null) {
+            fileId = generateFileId(metadata);
+            metadata.setFileId(fileId);
+        }
+        
+        // Bulk uploads stream straight to disk, so they reserve no heap
+        boolean reserved = uploadAdmission.admit(fileId, metadata.getUploaderId(), metadata.getFileSize(), 0);
+        
+        String token = bulkTransferServer.registerTicket(socket -> receiveBlob(metadata, extension, reserved, socket));
+        
+        return new TransferTicket(token, bulkTransferServer.getPort(), fileId, metadata.getFileSize(), 
+                                  metadata.getSha256(), System.currentTimeMillis() + bulkTransferServer.getTicketTimeout());
+    }
+    
+    @Override
+    public TransferTicket requestZipDownloadTicket(List<String> fileIds) throws RemoteException {
+        if (fileIds == null || fileIds.isEmpty()) {
+            throw new RemoteException("No files selected");
+        }
+        if (fileIds.size() > maxZipFiles) {
+            throw new RemoteException("Too many files for one archive (maximum " + maxZipFiles + ")");
+        }
+        rateLimiter.acquire(null, RateLimiter.Operation.FILE_DOWNLOAD);
+        if (!isBulkChannelAvailable()) {
+            return null;
+        }
+        
+        List<FileTransfer> files = new ArrayList<>(fileIds.size());
+        for (String fileId : fileIds) {
+            FileTransfer metadata = storedFiles.get(fileId);
+            if (metadata == null) {
+                throw new RemoteException("File not found: " + fileId);
+            }
+            files.add(metadata);
+        }
+        
+        String token = bulkTransferServer.registerTicket(socket -> sendZip(files, socket));
+        return new TransferTicket(token, bulkTransferServer.getPort(), null, -1, null, 
+                                  System.currentTimeMillis() + bulkTransferServer.getTicketTimeout());
+    }
+    
+    @Override
+    public int getChunkCompressionLevel() throws RemoteException {
+        return compressionLevel;
+    }
+    
     @Override
     public boolean fileExists(String fileId) throws RemoteException {
+        rateLimiter.acquire(null, RateLimiter.Operation.FILE_LIST);
         return storedFiles.containsKey(fileId);
     }
     
     @Override
     public FileTransfer getFileMetadata(String fileId) throws RemoteException {
+        rateLimiter.acquire(null, RateLimiter.Operation.FILE_LIST);
         return storedFiles.get(fileId);
     }
     
+    @Override
+    public List<FileTransfer> getFileVersions(String fileId) throws RemoteException {
+        rateLimiter.acquire(null, RateLimiter.Operation.FILE_LIST);
+        FileTransfer metadata = storedFiles.get(fileId);
+        return metadata != null ? fileVersions.getVersions(metadata) : null;
+    }
+    
+    @Override
+    public byte[] getPreview(String fileId, int maxDim) throws RemoteException {
+        rateLimiter.acquire(null, RateLimiter.Operation.FILE_PREVIEW);
+        FileTransfer metadata = storedFiles.get(fileId);
+        if (metadata == null || !previewGenerator.isPreviewable(metadata.getFileType())) {
+            return null;
+        }
+        
+        try {
+            return previewGenerator.getPreview(fileId, () -> openImage(metadata), metadata.getFileType(), maxDim);
+        } catch (IOException e) {
+            throw new RemoteException("Failed to get preview: " + e.getMessage());
+        }
+    }
+    
     @Override
     public void registerFileClient(ClientCallback client, String userId) throws RemoteException {
         if (client == null || userId == null) {
@@ -242,12 +716,9 @@ public class FileServerImpl extends UnicastRemoteObject implements FileService {
         System.out.println("File client registered: " + userId + 
                           " (Total file clients: " + fileClients.size() + ")");
         
-        // Send current file list to new client
+        // Send the first page of the file list to the new client in one callback
         try {
-            List<FileTransfer> files = getSharedFiles();
-            for (FileTransfer file : files) {
-                client.onFileShared(file);
-            }
+            client.onSharedFilesLoaded(fileIndex.getPage(null, initialPageSize, null, FileListPage.SORT_TIME));
         } catch (RemoteException e) {
             System.err.println("Failed to send file list to new client: " + userId);
             fileClients.remove(userId);
@@ -272,54 +743,592 @@ public class FileServerImpl extends UnicastRemoteObject implements FileService {
     }
     
     /**
-     * Assemble chunked file into complete file
+     * Get the path of a stored file on disk
      */
-    private boolean assembleChunkedFile(FileTransfer lastChunk) throws RemoteException {
+    private String getBlobPath(String fileId, String extension) {
+        return storageDirectory + File.separator + fileId + "." + extension;
+    }
+    
+    private String getBlobPath(FileTransfer metadata) {
+        return getBlobPath(metadata.getFileId(), FileUtils.getFileExtension(metadata.getFileName()));
+    }
+    
+    /**
+     * Get the path of an uploaded chunk in the temp directory
+     */
+    private String getChunkPath(String fileId, int chunkIndex) {
+        return storageDirectory + File.separator + "temp" + File.separator + fileId + "_chunk_" + chunkIndex;
+    }
+    
+    /**
+     * Build the stored metadata of an uploaded file
+     */
+    private FileTransfer createStoredMetadata(String fileId, FileTransfer source, String extension, 
+                                              long fileSize, String sha256) {
+        FileTransfer metadata = new FileTransfer();
+        metadata.setFileId(fileId);
+        metadata.setFileName(source.getFileName());
+        metadata.setFileType(extension);
+        metadata.setFileSize(fileSize);
+        metadata.setUploaderId(source.getUploaderId());
+        metadata.setUploaderName(source.getUploaderName());
+        metadata.setUploadTime(System.currentTimeMillis());
+        metadata.setSha256(sha256);
+        metadata.setExpiresAt(source.getExpiresAt());
+        return metadata;
+    }
+    
+    /**
+     * Store an uploaded file as the next version of the logical file with its name,
+     * then list it in place of the previous version
+     */
+    private void storeVersion(FileTransfer metadata, BlobWriter writer) throws IOException {
+        FileTransfer previous = fileVersions.addVersion(metadata);
         try {
-            String fileId = lastChunk.getFileId();
-            String tempDir = storageDirectory + File.separator + "temp";
+            writer.store(previous);
+        } catch (IOException | RuntimeException e) {
+            fileVersions.remove(metadata);
+            throw e;
+        }
+        
+        storedFiles.put(metadata.getFileId(), metadata);
+        if (previous != null) {
+            fileIndex.remove(previous);
+        }
+        fileIndex.add(metadata);
+        fileCache.invalidatePrefix(metadata.getFileId() + "#");
+        previewGenerator.deletePreviews(metadata.getFileId());
+        if (metadata.getExpiresAt() > 0) {
+            expiryWheel.schedule(metadata.getFileId(), metadata.getExpiresAt());
+        }
+    }
+    
+    /**
+     * Remove a deleted file from memory, listing the previous version in its place
+     * @return The version listed in its place, or null
+     */
+    private FileTransfer unregisterStoredFile(FileTransfer metadata) {
+        String fileId = metadata.getFileId();
+        storedFiles.remove(fileId);
+        fileIndex.remove(metadata);
+        expiryWheel.cancel(fileId);
+        FileTransfer newLatest = fileVersions.remove(metadata);
+        if (newLatest != null) {
+            fileIndex.add(newLatest);
+        }
+        fileCache.invalidatePrefix(fileId + "#");
+        previewGenerator.deletePreviews(fileId);
+        return newLatest;
+    }
+    
+    /**
+     * Check that a requested expiry time is in the future and within the maximum share time
+     */
+    private void validateExpiry(FileTransfer metadata) throws RemoteException {
+        long expiresAt = metadata.getExpiresAt();
+        if (expiresAt == 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (expiresAt <= now) {
+            throw new RemoteException("Expiry time must be in the future");
+        }
+        if (expiresAt - now > maxShareTime) {
+            throw new RemoteException("Share time exceeds the maximum of " + 
+                                    TimeUnit.MILLISECONDS.toHours(maxShareTime) + " hours");
+        }
+    }
+    
+    /**
+     * Delete the files whose share time has passed and notify clients in batches
+     * Runs on every tick of the expiry wheel
+     */
+    private void expireFiles() {
+        try {
+            List<String> expired = expiryWheel.advance(System.currentTimeMillis());
+            if (expired.isEmpty()) {
+                return;
+            }
             
-            List<byte[]> chunks = new ArrayList<>();
+            List<String> deletedIds = new ArrayList<>(expired.size());
+            List<FileTransfer> relisted = new ArrayList<>();
+            for (String fileId : expired) {
+                FileTransfer metadata = storedFiles.get(fileId);
+                if (metadata == null) {
+                    continue;
+                }
+                FileTransfer newLatest = unregisterStoredFile(metadata);
+                if (newLatest != null) {
+                    relisted.add(newLatest);
+                }
+                try {
+                    deleteBlob(metadata);
+                } catch (IOException e) {
+                    System.err.println("Failed to delete expired file " + fileId + ": " + e.getMessage());
+                }
+                deletedIds.add(fileId);
+            }
             
-            // Read all chunks
-            for (int i = 0; i < lastChunk.getTotalChunks(); i++) {
-                String chunkPath = tempDir + File.separator + fileId + "_chunk_" + i;
-                if (FileUtils.fileExists(chunkPath)) {
-                    byte[] chunkData = FileUtils.readFileAsBytes(chunkPath);
-                    chunks.add(chunkData);
-                } else {
-                    throw new RemoteException("Missing chunk: " + i);
+            // One callback per batch instead of one per file
+            for (int start = 0; start < deletedIds.size(); start += expiryBatchSize) {
+                List<String> batch = new ArrayList<>(
+                    deletedIds.subList(start, Math.min(deletedIds.size(), start + expiryBatchSize)));
+                notifyAllFileClients(callback -> callback.onFilesDeleted(batch, "share time expired"));
+            }
+            for (FileTransfer metadata : relisted) {
+                if (storedFiles.containsKey(metadata.getFileId())) {
+                    notifyAllFileClients(callback -> callback.onFileShared(metadata));
                 }
             }
             
-            // Merge chunks
-            byte[] completeFile = FileUtils.mergeFileChunks(chunks);
+            System.out.println("Expired " + deletedIds.size() + " files");
             
-            // Create complete file transfer object
-            FileTransfer completeFileTransfer = new FileTransfer(
-                lastChunk.getFileName(),
-                lastChunk.getFileType(),
-                completeFile,
-                lastChunk.getUploaderId(),
-                lastChunk.getUploaderName()
-            );
-            completeFileTransfer.setFileId(fileId);
+        } catch (RuntimeException e) {
+            System.err.println("File expiry failed: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Stores the contents of a new version, given the previous version or null
+     */
+    @FunctionalInterface
+    private interface BlobWriter {
+        void store(FileTransfer previous) throws IOException;
+    }
+    
+    /**
+     * Store file contents, appending small files to a pack, splitting later versions of
+     * larger files into shared chunks and writing other files to their own file
+     */
+    private void storeBlob(FileTransfer metadata, byte[] data, FileTransfer previous) throws IOException {
+        if (packStore.shouldPack(data.length)) {
+            packStore.put(metadata, data);
+            FileUtils.deleteFile(getBlobPath(metadata));
+        } else if (versionDedup && previous != null) {
+            chunkStore.put(metadata, new ByteArrayInputStream(data));
+            moveToChunkStore(previous);
+        } else {
+            FileUtils.writeBytesToFile(getBlobPath(metadata), data);
+            packStore.delete(metadata.getFileId());
+        }
+    }
+    
+    /**
+     * Store file contents from a temp file, which is moved or deleted
+     */
+    private void storeBlob(FileTransfer metadata, Path source, FileTransfer previous) throws IOException {
+        if (packStore.shouldPack(metadata.getFileSize())) {
+            packStore.put(metadata, Files.readAllBytes(source));
+            Files.deleteIfExists(source);
+            FileUtils.deleteFile(getBlobPath(metadata));
+        } else if (versionDedup && previous != null) {
+            try (InputStream in = new FileInputStream(source.toFile())) {
+                chunkStore.put(metadata, in);
+            }
+            Files.deleteIfExists(source);
+            moveToChunkStore(previous);
+        } else {
+            Files.move(source, Paths.get(getBlobPath(metadata)), StandardCopyOption.REPLACE_EXISTING);
+            packStore.delete(metadata.getFileId());
+        }
+    }
+    
+    /**
+     * Split a version stored in its own file into chunks, so the versions after it share them
+     */
+    private void moveToChunkStore(FileTransfer metadata) {
+        String filePath = getBlobPath(metadata);
+        if (chunkStore.contains(metadata.getFileId()) || !FileUtils.fileExists(filePath)) {
+            return;
+        }
+        
+        try {
+            try (InputStream in = new FileInputStream(filePath)) {
+                chunkStore.put(metadata, in);
+            }
+            FileUtils.deleteFile(filePath);
+        } catch (IOException e) {
+            System.err.println("Failed to move " + metadata.getFileName() + " v" + metadata.getVersion() + 
+                             " to chunk storage: " + e.getMessage());
+        }
+    }
+    
+    private boolean blobExists(FileTransfer metadata) {
+        String fileId = metadata.getFileId();
+        return packStore.contains(fileId) || chunkStore.contains(fileId) || FileUtils.fileExists(getBlobPath(metadata));
+    }
+    
+    private boolean deleteBlob(FileTransfer metadata) throws IOException {
+        String fileId = metadata.getFileId();
+        return packStore.delete(fileId) || chunkStore.delete(fileId) || FileUtils.deleteFile(getBlobPath(metadata));
+    }
+    
+    /**
+     * Open a stream over stored file contents
+     */
+    private InputStream openBlob(FileTransfer metadata) throws IOException {
+        InputStream stored = openStoredStream(metadata);
+        return stored != null ? stored : new FileInputStream(getBlobPath(metadata));
+    }
+    
+    private ImageInputStream openImage(FileTransfer metadata) throws IOException {
+        InputStream stored = openStoredStream(metadata);
+        return stored != null ? new MemoryCacheImageInputStream(stored) 
+                              : ImageIO.createImageInputStream(new File(getBlobPath(metadata)));
+    }
+    
+    /**
+     * Open a stream over a file stored in a pack or as chunks
+     * @return The stream, or null if the file is stored in its own file
+     */
+    private InputStream openStoredStream(FileTransfer metadata) throws IOException {
+        InputStream packed = packStore.openStream(metadata.getFileId());
+        return packed != null ? packed : chunkStore.openStream(metadata.getFileId());
+    }
+    
+    /**
+     * Read a chunk of a stored file
+     * Packed and chunked files are copied straight from the mapped packs, other files go
+     * through the shared cache. The cached array is shared between requests and must not
+     * be modified
+     */
+    private byte[] readChunk(FileTransfer metadata, int chunkIndex) throws IOException {
+        long offset = (long) chunkIndex * FileUtils.CHUNK_SIZE;
+        byte[] stored = packStore.read(metadata.getFileId(), offset, FileUtils.CHUNK_SIZE);
+        if (stored == null) {
+            stored = chunkStore.read(metadata.getFileId(), offset, FileUtils.CHUNK_SIZE);
+        }
+        if (stored != null) {
+            return stored;
+        }
+        return fileCache.get(metadata.getFileId() + "#" + chunkIndex, () -> 
+            FileUtils.readFileRange(getBlobPath(metadata), offset, FileUtils.CHUNK_SIZE));
+    }
+    
+    /**
+     * Get the SHA-256 of a stored file, hashing it on first use for files
+     * that were loaded from disk without a recorded checksum
+     */
+    private String ensureSha256(FileTransfer metadata) throws IOException {
+        String sha256 = metadata.getSha256();
+        if (sha256 == null) {
+            try (InputStream in = openBlob(metadata)) {
+                sha256 = FileUtils.computeSha256(in);
+            }
+            metadata.setSha256(sha256);
+        }
+        return sha256;
+    }
+    
+    /**
+     * Get the key used to rate limit the client of the current RMI call
+     */
+    private String getCallerKey() {
+        try {
+            return RemoteServer.getClientHost();
+        } catch (ServerNotActiveException e) {
+            return "local";
+        }
+    }
+    
+    /**
+     * Get the key used to rate limit the client of a bulk transfer socket
+     */
+    private String getClientKey(BulkChannel socket) throws IOException {
+        return ((InetSocketAddress) socket.getRemoteAddress()).getHostString();
+    }
+    
+    private boolean isBulkChannelAvailable() {
+        return bulkTransferServer != null && bulkTransferServer.isRunning();
+    }
+    
+    /**
+     * Stream a stored file to a bulk transfer socket without copying it through the heap
+     */
+    private void sendBlob(FileTransfer metadata, BulkChannel socket) throws IOException {
+        String clientKey = getClientKey(socket);
+        ByteBuffer packed = packStore.slice(metadata.getFileId());
+        trafficScheduler.runBulk(() -> {
+            if (packed != null) {
+                // Packed files are small, so they are paced in one step
+                trafficScheduler.pace(clientKey, packed.remaining());
+                while (packed.hasRemaining()) {
+                    socket.write(packed);
+                }
+            } else if (chunkStore.contains(metadata.getFileId())) {
+                try (InputStream in = chunkStore.openStream(metadata.getFileId())) {
+                    byte[] buffer = new byte[FileUtils.CHUNK_SIZE];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        trafficScheduler.pace(clientKey, read);
+                        ByteBuffer slice = ByteBuffer.wrap(buffer, 0, read);
+                        while (slice.hasRemaining()) {
+                            socket.write(slice);
+                        }
+                    }
+                }
+            } else {
+                try (FileChannel file = FileChannel.open(Paths.get(getBlobPath(metadata)), StandardOpenOption.READ)) {
+                    long size = file.size();
+                    long position = 0;
+                    while (position < size) {
+                        long slice = Math.min(BulkTransferProtocol.TRANSFER_SLICE, size - position);
+                        trafficScheduler.pace(clientKey, slice);
+                        long sent = socket.sendFile(file, position, slice);
+                        if (sent <= 0) {
+                            throw new IOException("File ended after " + position + " of " + size + " bytes");
+                        }
+                        position += sent;
+                    }
+                }
+            }
+        });
+        
+        System.out.println("File downloaded over bulk channel: " + metadata.getFileName());
+    }
+    
+    /**
+     * Stream a ZIP archive of several files to a bulk transfer socket
+     * Entries are read from storage and compressed as they are written, so the archive is
+     * never held in memory or on disk. Already-compressed types are written without
+     * compression.
+     */
+    private void sendZip(List<FileTransfer> files, BulkChannel socket) throws IOException {
+        String clientKey = getClientKey(socket);
+        
+        trafficScheduler.runBulk(() -> {
+            try (ZipOutputStream zip = new ZipOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(socket), FileUtils.CHUNK_SIZE))) {
+                try {
+                    writeZipEntries(zip, files, clientKey);
+                    zip.finish();
+                } catch (IOException | RuntimeException e) {
+                    // Drop the connection before the stream is closed, so closing cannot complete
+                    // the broken archive with a central directory the client would accept
+                    socket.close();
+                    throw e;
+                }
+            }
+        });
+        
+        System.out.println("ZIP of " + files.size() + " files downloaded over bulk channel");
+    }
+    
+    /**
+     * Write one compressed (or stored) entry per file, pacing the bytes for the client
+     */
+    private void writeZipEntries(ZipOutputStream zip, List<FileTransfer> files, String clientKey) throws IOException {
+        Set<String> entryNames = new HashSet<>();
+        byte[] buffer = new byte[FileUtils.CHUNK_SIZE];
+        for (FileTransfer metadata : files) {
+            boolean store = compressionLevel == CompressionUtils.DISABLED_LEVEL || 
+                            CompressionUtils.isAlreadyCompressed(metadata.getFileType());
+            zip.setLevel(store ? Deflater.NO_COMPRESSION : compressionLevel);
             
-            // Upload the complete file
-            uploadFile(completeFileTransfer);
+            ZipEntry entry = new ZipEntry(FileUtils.getUniqueFileName(metadata.getFileName(), entryNames));
+            entry.setTime(metadata.getUploadTime());
+            zip.putNextEntry(entry);
             
-            // Clean up chunks
-            for (int i = 0; i < lastChunk.getTotalChunks(); i++) {
-                String chunkPath = tempDir + File.separator + fileId + "_chunk_" + i;
-                FileUtils.deleteFile(chunkPath);
+            try (InputStream in = openBlob(metadata)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    trafficScheduler.pace(clientKey, read);
+                    zip.write(buffer, 0, read);
+                }
             }
+            zip.closeEntry();
+        }
+    }
+    
+    /**
+     * Receive an uploaded file from a bulk transfer socket straight into a file,
+     * then verify and store it and answer with a status frame
+     */
+    private void receiveBlob(FileTransfer metadata, String extension, boolean reserved, 
+                             BulkChannel socket) throws IOException {
+        String fileId = metadata.getFileId();
+        String tempDir = storageDirectory + File.separator + "temp";
+        FileUtils.createDirectoryIfNotExists(tempDir);
+        Path tempPath = Paths.get(tempDir, fileId + ".upload");
+        
+        String clientKey = getClientKey(socket);
+        try {
+            trafficScheduler.runBulk(() -> {
+                try (FileChannel file = FileChannel.open(tempPath, StandardOpenOption.CREATE, 
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    long size = metadata.getFileSize();
+                    long position = 0;
+                    while (position < size) {
+                        long slice = Math.min(BulkTransferProtocol.TRANSFER_SLICE, size - position);
+                        trafficScheduler.pace(clientKey, slice);
+                        long received = socket.receiveFile(file, position, slice);
+                        if (received <= 0) {
+                            throw new IOException("Upload ended after " + position + " of " + size + " bytes");
+                        }
+                        position += received;
+                    }
+                }
+            });
             
-            System.out.println("Chunked file assembled: " + lastChunk.getFileName());
+            String sha256 = FileUtils.computeSha256(tempPath.toString());
+            if (metadata.getSha256() != null && !metadata.getSha256().equalsIgnoreCase(sha256)) {
+                throw new IOException("File checksum mismatch for " + metadata.getFileName());
+            }
             
-            return true;
+            FileTransfer stored = createStoredMetadata(fileId, metadata, extension, metadata.getFileSize(), sha256);
+            storeVersion(stored, previous -> storeBlob(stored, tempPath, previous));
             
         } catch (IOException e) {
+            Files.deleteIfExists(tempPath);
+            try {
+                BulkTransferProtocol.writeStatus(socket, false, String.valueOf(e.getMessage()));
+            } catch (IOException statusError) {
+                // Client is already gone
+            }
+            throw e;
+        } finally {
+            if (reserved) {
+                uploadAdmission.release(fileId);
+            }
+        }
+        
+        BulkTransferProtocol.writeStatus(socket, true, fileId);
+        
+        System.out.println("File uploaded over bulk channel: " + metadata.getFileName() + 
+                         " (" + FileUtils.formatFileSize(metadata.getFileSize()) + 
+                         ") by " + metadata.getUploaderName());
+    }
+    
+    /**
+     * Rebuild a file from a base file and delta instructions
+     * Copied blocks are transferred file to file, or written from the mapped pack
+     * of a packed base, without passing through the heap. Chunked bases are copied
+     * through the heap a transfer chunk at a time
+     */
+    private void applyDelta(FileTransfer base, int blockSize, List<DeltaInstruction> instructions, 
+                            Path targetPath, long expectedSize) throws IOException {
+        ByteBuffer packedBase = packStore.slice(base.getFileId());
+        boolean chunkedBase = packedBase == null && chunkStore.contains(base.getFileId());
+        try (FileChannel baseFile = packedBase != null || chunkedBase ? null 
+                : FileChannel.open(Paths.get(getBlobPath(base)), StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(targetPath, StandardOpenOption.CREATE, 
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long baseSize = packedBase != null ? packedBase.remaining() 
+                          : chunkedBase ? base.getFileSize() : baseFile.size();
+            for (DeltaInstruction instruction : instructions) {
+                if (instruction.isCopy()) {
+                    long offset = (long) instruction.getBlockIndex() * blockSize;
+                    long length = Math.min((long) instruction.getBlockCount() * blockSize, baseSize - offset);
+                    if (instruction.getBlockIndex() < 0 || length <= 0) {
+                        throw new IOException("Block out of range: " + instruction.getBlockIndex());
+                    }
+                    if (packedBase != null) {
+                        ByteBuffer blocks = packedBase.duplicate();
+                        blocks.position((int) offset).limit((int) (offset + length));
+                        while (blocks.hasRemaining()) {
+                            target.write(blocks);
+                        }
+                    }
+                    for (long copied = 0; chunkedBase && copied < length; ) {
+                        int part = (int) Math.min(length - copied, FileUtils.CHUNK_SIZE);
+                        ByteBuffer blocks = ByteBuffer.wrap(chunkStore.read(base.getFileId(), offset + copied, part));
+                        while (blocks.hasRemaining()) {
+                            target.write(blocks);
+                        }
+                        copied += part;
+                    }
+                    while (baseFile != null && length > 0) {
+                        long copied = baseFile.transferTo(offset, length, target);
+                        offset += copied;
+                        length -= copied;
+                    }
+                } else {
+                    target.write(ByteBuffer.wrap(instruction.getData()));
+                }
+                
+                if (target.position() > expectedSize) {
+                    throw new IOException("Delta produces more than " + expectedSize + " bytes");
+                }
+            }
+            
+            if (target.position() != expectedSize) {
+                throw new IOException("Delta produced " + target.position() + " of " + expectedSize + " bytes");
+            }
+        }
+    }
+    
+    /**
+     * Assemble chunked file into complete file
+     * Chunks are streamed to a temp file while the SHA-256 is computed,
+     * so the complete file is never held in memory
+     */
+    private boolean assembleChunkedFile(FileTransfer lastChunk) throws RemoteException {
+        String fileId = lastChunk.getFileId();
+        String extension = FileUtils.getFileExtension(lastChunk.getFileName());
+        if (!FileUtils.isFileTypeAllowed(extension)) {
+            throw new RemoteException("File type not allowed: " + extension);
+        }
+        
+        // Make sure all chunks are present before writing anything
+        long totalSize = 0;
+        for (int i = 0; i < lastChunk.getTotalChunks(); i++) {
+            File chunkFile = new File(getChunkPath(fileId, i));
+            if (!chunkFile.exists()) {
+                throw new RemoteException("Missing chunk: " + i);
+            }
+            totalSize += chunkFile.length();
+        }
+        
+        if (!FileUtils.isFileSizeValid(totalSize)) {
+            deleteChunks(fileId, lastChunk.getTotalChunks());
+            throw new RemoteException("File size exceeds maximum allowed size: " + 
+                                    FileUtils.formatFileSize(maxFileSize));
+        }
+        
+        String filePath = storageDirectory + File.separator + "temp" + File.separator + fileId + ".assembled";
+        String sha256;
+        try {
+            MessageDigest digest = FileUtils.newSha256Digest();
+            try (OutputStream out = new DigestOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(filePath)), digest)) {
+                for (int i = 0; i < lastChunk.getTotalChunks(); i++) {
+                    Files.copy(Paths.get(getChunkPath(fileId, i)), out);
+                }
+            }
+            sha256 = FileUtils.toHexString(digest.digest());
+            
+        } catch (IOException e) {
+            FileUtils.deleteFile(filePath);
             throw new RemoteException("Failed to assemble chunked file: " + e.getMessage());
+        } finally {
+            deleteChunks(fileId, lastChunk.getTotalChunks());
+        }
+        
+        if (lastChunk.getSha256() != null && !lastChunk.getSha256().equalsIgnoreCase(sha256)) {
+            FileUtils.deleteFile(filePath);
+            throw new RemoteException("File checksum mismatch for " + lastChunk.getFileName());
+        }
+        
+        try {
+            FileTransfer metadata = createStoredMetadata(fileId, lastChunk, extension, totalSize, sha256);
+            storeVersion(metadata, previous -> storeBlob(metadata, Paths.get(filePath), previous));
+        } catch (IOException e) {
+            FileUtils.deleteFile(filePath);
+            throw new RemoteException("Failed to store chunked file: " + e.getMessage());
+        }
+        
+        System.out.println("Chunked file assembled: " + lastChunk.getFileName() + 
+                         " (" + FileUtils.formatFileSize(totalSize) + ") by " + lastChunk.getUploaderName());
+        
+        return true;
+    }
+    
+    /**
+     * Clean up the temp chunks of an upload
+     */
+    private void deleteChunks(String fileId, int totalChunks) {
+        for (int i = 0; i < totalChunks; i++) {
+            FileUtils.deleteFile(getChunkPath(fileId, i));
         }
     }
     
@@ -338,6 +1347,7 @@ public class FileServerImpl extends UnicastRemoteObject implements FileService {
                 return;
             }
             
+            int loaded = 0;
             for (File file : files) {
                 if (file.isFile() && !file.getName().startsWith("temp")) {
                     try {
@@ -356,7 +1366,11 @@ public class FileServerImpl extends UnicastRemoteObject implements FileService {
                             metadata.setUploaderId("system");
                             metadata.setUploaderName("System");
                             
-                            storedFiles.put(fileId, metadata);
+                            // Files also found in a pack or as chunks were being moved there
+                            if (storedFiles.putIfAbsent(fileId, metadata) == null) {
+                                fileVersions.addLoaded(metadata);
+                                loaded++;
+                            }
                         }
                     } catch (Exception e) {
                         System.err.println("Failed to load existing file: " + file.getName());
@@ -364,13 +1378,35 @@ public class FileServerImpl extends UnicastRemoteObject implements FileService {
                 }
             }
             
-            System.out.println("Loaded " + storedFiles.size() + " existing files");
+            System.out.println("Loaded " + loaded + " existing files");
             
         } catch (Exception e) {
             System.err.println("Failed to load existing files: " + e.getMessage());
         }
     }
     
+    /**
+     * Load the files stored in packs and as chunks, rebuilding their indexes
+     */
+    private void loadPackedFiles() {
+        try {
+            List<FileTransfer> packedFiles = packStore.load();
+            List<FileTransfer> chunkedFiles = chunkStore.load();
+            for (List<FileTransfer> files : Arrays.asList(packedFiles, chunkedFiles)) {
+                for (FileTransfer metadata : files) {
+                    storedFiles.put(metadata.getFileId(), metadata);
+                    fileVersions.addLoaded(metadata);
+                }
+            }
+            
+            System.out.println("Loaded " + packedFiles.size() + " packed and " + chunkedFiles.size() + 
+                             " chunked files");
+            
+        } catch (IOException e) {
+            System.err.println("Failed to load packed files: " + e.getMessage());
+        }
+    }
+    
     /**
      * Notify all file clients
      */
@@ -410,6 +1446,10 @@ public class FileServerImpl extends UnicastRemoteObject implements FileService {
                 "File server is shutting down..."));
             
             fileClients.clear();
+            previewGenerator.shutdown();
+            expiryScheduler.shutdownNow();
+            packStore.shutdown();
+            chunkStore.shutdown();
             System.out.println("FileServer shutdown completed");
             
         } catch (Exception e) {
@@ -422,7 +1462,13 @@ public class FileServerImpl extends UnicastRemoteObject implements FileService {
      */
     public String getServerStats() {
         long totalSize = storedFiles.values().stream().mapToLong(FileTransfer::getFileSize).sum();
-        return String.format("FileServer Stats - Files: %d, Total Size: %s, Clients: %d", 
-                           storedFiles.size(), FileUtils.formatFileSize(totalSize), fileClients.size());
+        return String.format("FileServer Stats - Files: %d, Total Size: %s, Clients: %d, " +
+                           "Compression Saved: %s up / %s down, Pending Expiries: %d", 
+                           storedFiles.size(), FileUtils.formatFileSize(totalSize), fileClients.size(),
+                           FileUtils.formatFileSize(uploadBytesSaved.get()), 
+                           FileUtils.formatFileSize(downloadBytesSaved.get()), expiryWheel.size()) + 
+               "\n" + fileCache.getStats() + "\n" + uploadAdmission.getStats() + 
+               "\n" + previewGenerator.getStats() + "\n" + packStore.getStats() + 
+               "\n" + chunkStore.getStats();
     }
 }
@@ -0,0 +1,128 @@
+package com.collabboard.server;
+
+import com.collabboard.models.FileTransfer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Groups stored files with the same name into versions of one logical file
+ * The logical file ID is the file ID of the first version, and version numbers
+ * keep increasing even when versions are deleted
+ */
+public class FileVersionIndex {
+    
+    private final Map<String, LogicalFile> byName = new HashMap<>();
+    private final Map<String, LogicalFile> byLogicalId = new HashMap<>();
+    
+    /**
+     * Add an uploaded file as the next version of the logical file with its name
+     * @param file Stored metadata, its logical file ID and version are assigned
+     * @return The version that was the latest before, or null for a new logical file
+     */
+    public synchronized FileTransfer addVersion(FileTransfer file) {
+        LogicalFile logicalFile = byName.get(file.getFileName());
+        if (logicalFile == null) {
+            logicalFile = new LogicalFile(file.getFileId());
+            byName.put(file.getFileName(), logicalFile);
+            byLogicalId.put(logicalFile.id, logicalFile);
+        }
+        
+        FileTransfer previous = logicalFile.getLatest();
+        file.setLogicalFileId(logicalFile.id);
+        file.setVersion(logicalFile.nextVersion++);
+        logicalFile.versions.put(file.getVersion(), file);
+        return previous;
+    }
+    
+    /**
+     * Add a file loaded from storage, keeping the version it was stored with
+     * Files stored without one become the first version of their own logical file
+     */
+    public synchronized void addLoaded(FileTransfer file) {
+        if (file.getLogicalFileId() == null || file.getVersion() <= 0) {
+            file.setLogicalFileId(file.getFileId());
+            file.setVersion(1);
+        }
+        
+        LogicalFile logicalFile = byLogicalId.get(file.getLogicalFileId());
+        if (logicalFile == null) {
+            logicalFile = new LogicalFile(file.getLogicalFileId());
+            byLogicalId.put(logicalFile.id, logicalFile);
+            byName.put(file.getFileName(), logicalFile);
+        }
+        logicalFile.versions.put(file.getVersion(), file);
+        logicalFile.nextVersion = Math.max(logicalFile.nextVersion, file.getVersion() + 1);
+    }
+    
+    /**
+     * Remove a version
+     * @return The version that became the latest, or null if the removed version was not
+     * the latest or was the last one
+     */
+    public synchronized FileTransfer remove(FileTransfer file) {
+        LogicalFile logicalFile = byLogicalId.get(file.getLogicalFileId());
+        if (logicalFile == null || logicalFile.versions.get(file.getVersion()) != file) {
+            return null;
+        }
+        
+        boolean wasLatest = logicalFile.getLatest() == file;
+        logicalFile.versions.remove(file.getVersion());
+        if (logicalFile.versions.isEmpty()) {
+            byLogicalId.remove(logicalFile.id);
+            byName.remove(file.getFileName(), logicalFile);
+            return null;
+        }
+        return wasLatest ? logicalFile.getLatest() : null;
+    }
+    
+    /**
+     * Check if a file is the latest version of its logical file
+     */
+    public synchronized boolean isLatest(FileTransfer file) {
+        LogicalFile logicalFile = byLogicalId.get(file.getLogicalFileId());
+        return logicalFile != null && logicalFile.getLatest() == file;
+    }
+    
+    /**
+     * Get all versions of the logical file a version belongs to
+     * @return Versions from newest to oldest, empty if the file is unknown
+     */
+    public synchronized List<FileTransfer> getVersions(FileTransfer file) {
+        LogicalFile logicalFile = byLogicalId.get(file.getLogicalFileId());
+        if (logicalFile == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(logicalFile.versions.descendingMap().values());
+    }
+    
+    /**
+     * Get the latest version of every logical file
+     */
+    public synchronized List<FileTransfer> getLatestVersions() {
+        List<FileTransfer> latest = new ArrayList<>(byLogicalId.size());
+        for (LogicalFile logicalFile : byLogicalId.values()) {
+            latest.add(logicalFile.getLatest());
+        }
+        return latest;
+    }
+    
+    private static class LogicalFile {
+        final String id;
+        final NavigableMap<Integer, FileTransfer> versions = new TreeMap<>();
+        int nextVersion = 1;
+        
+        LogicalFile(String id) {
+            this.id = id;
+        }
+        
+        FileTransfer getLatest() {
+            return versions.isEmpty() ? null : versions.lastEntry().getValue();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.collabboard.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with power-of-two microsecond buckets
+ * Percentiles are reported as the upper bound of the bucket they fall in.
+ */
+public class LatencyStats {
+    
+    private static final int BUCKETS = 32;
+    
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    
+    /**
+     * Record one measurement
+     * @param nanos Latency in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = Math.max(1, nanos / 1000);
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros - 1));
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+    
+    public long getCount() {
+        return count.get();
+    }
+    
+    /**
+     * Get the latency below which the given fraction of measurements fall
+     * @param percentile Fraction between 0 and 1
+     * @return Latency in milliseconds
+     */
+    public double getPercentileMillis(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        
+        long threshold = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= threshold) {
+                return Math.min((1L << i) / 1000.0, getMaxMillis());
+            }
+        }
+        return getMaxMillis();
+    }
+    
+    public double getMeanMillis() {
+        long total = count.get();
+        return total == 0 ? 0 : totalNanos.get() / (total * 1_000_000.0);
+    }
+    
+    public double getMaxMillis() {
+        return maxNanos.get() / 1_000_000.0;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("count %d, mean %.2f ms, p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+                           getCount(), getMeanMillis(), getPercentileMillis(0.5), 
+                           getPercentileMillis(0.99), getMaxMillis());
+    }
+}
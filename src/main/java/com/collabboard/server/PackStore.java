@@ -0,0 +1,573 @@
+package com.collabboard.server;
+
+import com.collabboard.models.FileTransfer;
+import com.collabboard.utils.FileUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores small files as records appended to large pack files
+ * Each record carries the file's metadata, so the offset index is rebuilt by scanning the
+ * packs on startup. Reads are served from memory-mapped slices of the packs, and a background
+ * compactor rewrites packs that are mostly made of deleted records.
+ *
+ * Record layout: magic, type, file ID, then for a file the metadata, length, CRC32C and data,
+ * or for a deletion the ID of the pack holding the deleted record.
+ */
+public class PackStore {
+    
+    private static final int MAGIC = 0x50414B31; // "PAK1"
+    private static final byte RECORD_FILE = 1;
+    private static final byte RECORD_DELETE = 2;
+    
+    private final String packDirectory;
+    private final long threshold;
+    private final long maxPackSize;
+    private final double compactRatio;
+    
+    private final Map<String, PackEntry> entries; // file ID -> location of its live record
+    private final NavigableMap<Integer, Pack> packs;
+    private final Object writeLock = new Object();
+    private Pack activePack;
+    private ScheduledExecutorService compactor;
+    
+    // Statistics
+    private long compactedPacks;
+    private long reclaimedBytes;
+    
+    public PackStore(Properties config, String packDirectory) {
+        this.packDirectory = packDirectory;
+        this.maxPackSize = Math.min(Integer.MAX_VALUE, 
+            Long.parseLong(config.getProperty("file.pack.max.size", "67108864"))); // 64MB
+        this.threshold = Math.min(maxPackSize / 4, 
+            Long.parseLong(config.getProperty("file.pack.threshold", "262144"))); // 256KB
+        this.compactRatio = Double.parseDouble(config.getProperty("file.pack.compact.ratio", "0.5"));
+        this.entries = new ConcurrentHashMap<>();
+        this.packs = new ConcurrentSkipListMap<>();
+        
+        FileUtils.createDirectoryIfNotExists(packDirectory);
+    }
+    
+    /**
+     * Check if a file is small enough to be packed
+     * @param fileSize Size of the file
+     * @return true if the file should be stored in a pack
+     */
+    public boolean shouldPack(long fileSize) {
+        return fileSize < threshold;
+    }
+    
+    /**
+     * Open the packs and rebuild the index
+     * @return Metadata of the files stored in the packs
+     * @throws IOException if a pack cannot be read
+     */
+    public List<FileTransfer> load() throws IOException {
+        Map<String, FileTransfer> loaded = new HashMap<>();
+        NavigableMap<Integer, Path> packFiles = new TreeMap<>();
+        File[] files = new File(packDirectory).listFiles((dir, name) -> name.matches("pack-\\d+\\.dat"));
+        if (files != null) {
+            for (File file : files) {
+                packFiles.put(Integer.parseInt(file.getName().replaceAll("\\D", "")), file.toPath());
+            }
+        }
+        
+        // Later packs and later records override earlier ones, only the last pack takes appends
+        for (Map.Entry<Integer, Path> packFile : packFiles.entrySet()) {
+            boolean last = packFile.getKey().equals(packFiles.lastKey());
+            Pack pack = new Pack(packFile.getKey(), packFile.getValue(), last);
+            packs.put(pack.id, pack);
+            scanPack(pack, loaded);
+        }
+        
+        synchronized (writeLock) {
+            activePack = packs.isEmpty() ? null : packs.lastEntry().getValue();
+            if (activePack == null || activePack.end >= maxPackSize) {
+                if (activePack != null) {
+                    activePack.seal();
+                }
+                activePack = createPack();
+            }
+        }
+        return new ArrayList<>(loaded.values());
+    }
+    
+    /**
+     * Start the background compactor
+     * @param intervalSeconds Seconds between compaction runs
+     */
+    public void startCompactor(long intervalSeconds) {
+        compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "PackCompactor");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(this::compact, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+    
+    /**
+     * Append a file to the active pack
+     * @param metadata Metadata stored with the file
+     * @param data File contents
+     * @throws IOException if the record cannot be written
+     */
+    public void put(FileTransfer metadata, byte[] data) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(header)) {
+            out.writeInt(MAGIC);
+            out.writeByte(RECORD_FILE);
+            out.writeUTF(metadata.getFileId());
+            writeString(out, metadata.getFileName());
+            writeString(out, metadata.getFileType());
+            writeString(out, metadata.getUploaderId());
+            writeString(out, metadata.getUploaderName());
+            out.writeLong(metadata.getUploadTime());
+            writeString(out, metadata.getSha256());
+            writeString(out, metadata.getLogicalFileId());
+            out.writeInt(metadata.getVersion());
+            out.writeLong(metadata.getExpiresAt());
+            out.writeInt(data.length);
+            out.writeLong(FileUtils.computeCrc32c(data));
+        }
+        
+        synchronized (writeLock) {
+            Pack pack = getWritablePack(header.size() + data.length);
+            long dataOffset = pack.append(ByteBuffer.wrap(header.toByteArray()), ByteBuffer.wrap(data));
+            replaceEntry(metadata.getFileId(), new PackEntry(pack.id, dataOffset, data.length));
+        }
+    }
+    
+    /**
+     * Delete a file from the packs
+     * @param fileId ID of the file
+     * @return true if the file was packed
+     * @throws IOException if the deletion record cannot be written
+     */
+    public boolean delete(String fileId) throws IOException {
+        synchronized (writeLock) {
+            PackEntry entry = entries.get(fileId);
+            if (entry == null) {
+                return false;
+            }
+            writeDeleteRecord(fileId, entry.packId);
+            replaceEntry(fileId, null);
+            return true;
+        }
+    }
+    
+    /**
+     * Check if a file is stored in a pack
+     */
+    public boolean contains(String fileId) {
+        return entries.containsKey(fileId);
+    }
+    
+    /**
+     * Get a read-only slice of a packed file
+     * The slice stays valid even if the pack is compacted away afterwards
+     * @param fileId ID of the file
+     * @return Slice of the mapped pack, or null if the file is not packed
+     */
+    public ByteBuffer slice(String fileId) throws IOException {
+        PackEntry entry = entries.get(fileId);
+        if (entry == null) {
+            return null;
+        }
+        Pack pack = packs.get(entry.packId);
+        if (pack == null) {
+            // Compacted while we looked it up, the entry has moved
+            return slice(fileId);
+        }
+        return pack.slice(entry.offset, entry.length);
+    }
+    
+    /**
+     * Read a range of a packed file
+     * @return The bytes, or null if the file is not packed
+     */
+    public byte[] read(String fileId, long offset, int length) throws IOException {
+        ByteBuffer slice = slice(fileId);
+        if (slice == null) {
+            return null;
+        }
+        int start = (int) Math.min(offset, slice.remaining());
+        byte[] data = new byte[Math.min(length, slice.remaining() - start)];
+        slice.position(start);
+        slice.get(data);
+        return data;
+    }
+    
+    /**
+     * Open a stream over a packed file without copying it
+     * @return The stream, or null if the file is not packed
+     */
+    public InputStream openStream(String fileId) throws IOException {
+        ByteBuffer slice = slice(fileId);
+        return slice != null ? new ByteBufferInputStream(slice) : null;
+    }
+    
+    /**
+     * Rewrite sealed packs whose deleted records make up more than the compaction ratio
+     */
+    public void compact() {
+        for (Pack pack : new ArrayList<>(packs.values())) {
+            if (pack == activePack || pack.end == 0 || (double) pack.deadBytes / pack.end < compactRatio) {
+                continue;
+            }
+            try {
+                compactPack(pack);
+            } catch (IOException e) {
+                System.err.println("Failed to compact " + pack.path.getFileName() + ": " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Move the live records of a pack to the active pack and delete it
+     */
+    private void compactPack(Pack pack) throws IOException {
+        long before = pack.end;
+        long[] moved = new long[2]; // files, bytes
+        
+        synchronized (writeLock) {
+            readRecords(pack, new RecordVisitor() {
+                @Override
+                public void onFile(FileTransfer metadata, long crc, long offset, int length) throws IOException {
+                    PackEntry entry = entries.get(metadata.getFileId());
+                    if (entry == null || entry.packId != pack.id || entry.offset != offset) {
+                        return;
+                    }
+                    byte[] data = new byte[length];
+                    pack.slice(offset, length).get(data);
+                    if (FileUtils.computeCrc32c(data) != crc) {
+                        throw new IOException("Corrupted record for file " + metadata.getFileId());
+                    }
+                    put(metadata, data);
+                    moved[0]++;
+                    moved[1] += length;
+                }
+                
+                @Override
+                public void onDelete(String fileId, int targetPackId) throws IOException {
+                    // Keep deletion records that still hide a record in another pack
+                    if (targetPackId != pack.id && packs.containsKey(targetPackId)) {
+                        writeDeleteRecord(fileId, targetPackId);
+                    }
+                }
+            });
+            
+            packs.remove(pack.id);
+        }
+        
+        pack.close();
+        Files.deleteIfExists(pack.path);
+        long reclaimed = before - moved[1];
+        compactedPacks++;
+        reclaimedBytes += reclaimed;
+        System.out.println("Compacted " + pack.path.getFileName() + ": " + moved[0] + " files moved, " +
+                         FileUtils.formatFileSize(reclaimed) + " reclaimed");
+    }
+    
+    private void writeDeleteRecord(String fileId, int targetPackId) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(record)) {
+            out.writeInt(MAGIC);
+            out.writeByte(RECORD_DELETE);
+            out.writeUTF(fileId);
+            out.writeInt(targetPackId);
+        }
+        getWritablePack(record.size()).append(ByteBuffer.wrap(record.toByteArray()));
+    }
+    
+    /**
+     * Point a file at a new record, counting its old record as dead space
+     */
+    private void replaceEntry(String fileId, PackEntry entry) {
+        PackEntry previous = entry != null ? entries.put(fileId, entry) : entries.remove(fileId);
+        if (previous != null) {
+            Pack previousPack = packs.get(previous.packId);
+            if (previousPack != null) {
+                previousPack.deadBytes += previous.length;
+            }
+        }
+    }
+    
+    private Pack getWritablePack(int recordSize) throws IOException {
+        if (activePack.end + recordSize > maxPackSize && activePack.end > 0) {
+            activePack.seal();
+            activePack = createPack();
+        }
+        return activePack;
+    }
+    
+    private Pack createPack() throws IOException {
+        int packId = packs.isEmpty() ? 1 : packs.lastKey() + 1;
+        Pack pack = new Pack(packId, Paths.get(packDirectory, "pack-" + packId + ".dat"), true);
+        packs.put(packId, pack);
+        return pack;
+    }
+    
+    /**
+     * Rebuild the index entries of a pack, applying its records in order
+     */
+    private void scanPack(Pack pack, Map<String, FileTransfer> loaded) throws IOException {
+        readRecords(pack, new RecordVisitor() {
+            @Override
+            public void onFile(FileTransfer metadata, long crc, long offset, int length) {
+                replaceEntry(metadata.getFileId(), new PackEntry(pack.id, offset, length));
+                loaded.put(metadata.getFileId(), metadata);
+            }
+            
+            @Override
+            public void onDelete(String fileId, int targetPackId) {
+                PackEntry entry = entries.get(fileId);
+                if (entry != null && entry.packId == targetPackId) {
+                    replaceEntry(fileId, null);
+                    loaded.remove(fileId);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Read the records of a pack in order, up to the first incomplete record
+     * @return Offset just past the last complete record
+     */
+    private static long readRecords(Pack pack, RecordVisitor visitor) throws IOException {
+        return readRecords(pack.slice(0, (int) pack.end), pack.id, visitor);
+    }
+    
+    private static long readRecords(ByteBuffer buffer, int packId, RecordVisitor visitor) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteBufferInputStream(buffer));
+        long end = 0;
+        
+        try {
+            while (buffer.remaining() >= 4 && buffer.getInt(buffer.position()) == MAGIC) {
+                in.readInt();
+                byte type = in.readByte();
+                String fileId = in.readUTF();
+                if (type == RECORD_DELETE) {
+                    int targetPackId = in.readInt();
+                    if (visitor != null) {
+                        visitor.onDelete(fileId, targetPackId);
+                    }
+                } else {
+                    FileTransfer metadata = new FileTransfer();
+                    metadata.setFileId(fileId);
+                    metadata.setFileName(in.readUTF());
+                    metadata.setFileType(in.readUTF());
+                    metadata.setUploaderId(in.readUTF());
+                    metadata.setUploaderName(in.readUTF());
+                    metadata.setUploadTime(in.readLong());
+                    metadata.setSha256(readString(in));
+                    metadata.setLogicalFileId(readString(in));
+                    metadata.setVersion(in.readInt());
+                    metadata.setExpiresAt(in.readLong());
+                    int length = in.readInt();
+                    long crc = in.readLong();
+                    metadata.setFileSize(length);
+                    
+                    if (length < 0 || length > buffer.remaining()) {
+                        break;
+                    }
+                    int offset = buffer.position();
+                    buffer.position(offset + length);
+                    if (visitor != null) {
+                        visitor.onFile(metadata, crc, offset, length);
+                    }
+                }
+                end = buffer.position();
+            }
+        } catch (EOFException e) {
+            // Incomplete record at the end of the pack
+        }
+        return end;
+    }
+    
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeUTF(value != null ? value : "");
+    }
+    
+    private static String readString(DataInputStream in) throws IOException {
+        String value = in.readUTF();
+        return value.isEmpty() ? null : value;
+    }
+    
+    /**
+     * Receives the records of a pack in order
+     */
+    private interface RecordVisitor {
+        void onFile(FileTransfer metadata, long crc, long offset, int length) throws IOException;
+        
+        void onDelete(String fileId, int targetPackId) throws IOException;
+    }
+    
+    /**
+     * Close the packs and stop the compactor
+     */
+    public void shutdown() {
+        if (compactor != null) {
+            compactor.shutdownNow();
+        }
+        synchronized (writeLock) {
+            for (Pack pack : packs.values()) {
+                pack.close();
+            }
+        }
+    }
+    
+    /**
+     * Get pack statistics
+     */
+    public String getStats() {
+        long totalBytes = 0;
+        long deadBytes = 0;
+        for (Pack pack : packs.values()) {
+            totalBytes += pack.end;
+            deadBytes += pack.deadBytes;
+        }
+        return String.format("PackStore Stats - Packed Files: %d, Packs: %d, Size: %s, Dead: %s, " +
+                           "Compacted: %d packs, %s reclaimed",
+                           entries.size(), packs.size(), FileUtils.formatFileSize(totalBytes),
+                           FileUtils.formatFileSize(deadBytes), compactedPacks,
+                           FileUtils.formatFileSize(reclaimedBytes));
+    }
+    
+    /**
+     * Location of a file's data in a pack
+     */
+    private static class PackEntry {
+        final int packId;
+        final long offset;
+        final int length;
+        
+        PackEntry(int packId, long offset, int length) {
+            this.packId = packId;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+    
+    /**
+     * One pack file
+     * The active pack is preallocated to the maximum pack size and mapped once, so records
+     * appended later are visible through the same mapping. Sealing trims it to its contents.
+     */
+    private class Pack {
+        final int id;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer map;
+        volatile long end;
+        volatile long deadBytes;
+        
+        Pack(int id, Path path, boolean active) throws IOException {
+            this.id = id;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, 
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+            
+            long size = channel.size();
+            this.end = size == 0 ? 0 : readRecords(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), id, null);
+            
+            // Drop anything after the last complete record
+            if (size > end) {
+                channel.truncate(end);
+            }
+            if (active) {
+                // Preallocate room for appends so one mapping covers them
+                try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+                    file.setLength(maxPackSize);
+                }
+            }
+            this.map = channel.map(FileChannel.MapMode.READ_ONLY, 0, active ? maxPackSize : end);
+        }
+        
+        /**
+         * Append buffers as one record
+         * @return Offset of the last buffer in the pack
+         */
+        long append(ByteBuffer... buffers) throws IOException {
+            long position = end;
+            long lastOffset = position;
+            for (ByteBuffer buffer : buffers) {
+                lastOffset = position;
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            }
+            end = position;
+            return lastOffset;
+        }
+        
+        ByteBuffer slice(long offset, int length) {
+            ByteBuffer slice = map.duplicate();
+            slice.position((int) offset);
+            slice.limit((int) offset + length);
+            return slice.slice();
+        }
+        
+        /**
+         * Trim the preallocated space once the pack is full
+         */
+        void seal() throws IOException {
+            channel.truncate(end);
+        }
+        
+        void close() {
+            try {
+                if (this == activePack) {
+                    seal();
+                }
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close " + path.getFileName() + ": " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Stream over a byte buffer, used to read records and packed files in place
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+        
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+        
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+        
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+        
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
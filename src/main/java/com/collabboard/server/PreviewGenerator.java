@@ -0,0 +1,233 @@
+package com.collabboard.server;
+
+import com.collabboard.interfaces.RetryLaterException;
+import com.collabboard.utils.FileUtils;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates downscaled previews of image files
+ * Previews are generated on a bounded background pool and cached on disk,
+ * so each preview size of a file is only decoded once
+ */
+public class PreviewGenerator {
+    
+    // Requested sizes are rounded up to one of these so only a few variants are cached per file
+    private static final int[] PREVIEW_SIZES = {64, 128, 256, 512};
+    
+    private final String previewDirectory;
+    private final long timeout;
+    private final long retryAfter;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, Future<byte[]>> pendingPreviews;
+    
+    // Statistics
+    private final AtomicLong generated = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    
+    public PreviewGenerator(Properties config, String storageDirectory) {
+        this.previewDirectory = storageDirectory + File.separator + "previews";
+        this.timeout = Long.parseLong(config.getProperty("preview.timeout", "5000"));
+        this.retryAfter = Long.parseLong(config.getProperty("preview.retry.after", "1000"));
+        int threads = Integer.parseInt(config.getProperty("preview.threads", "2"));
+        int queueSize = Integer.parseInt(config.getProperty("preview.queue.size", "32"));
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, 
+            new ArrayBlockingQueue<>(queueSize), runnable -> {
+                Thread thread = new Thread(runnable, "PreviewGenerator");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+        this.pendingPreviews = new ConcurrentHashMap<>();
+        
+        FileUtils.createDirectoryIfNotExists(previewDirectory);
+    }
+    
+    /**
+     * Check if a preview can be generated for a file type
+     * @param extension File extension
+     * @return true if ImageIO can decode the type
+     */
+    public boolean isPreviewable(String extension) {
+        return ImageIO.getImageReadersBySuffix(extension.toLowerCase()).hasNext();
+    }
+    
+    /**
+     * Get the preview of an image file, generating it if it is not cached yet
+     * @param fileId ID of the file
+     * @param source Opens the stored image
+     * @param extension File extension
+     * @param maxDim Maximum width and height of the preview
+     * @return Encoded preview image
+     * @throws RetryLaterException if the preview pool is busy or generation takes too long
+     * @throws IOException if the image cannot be decoded
+     */
+    public byte[] getPreview(String fileId, ImageSource source, String extension, int maxDim) 
+            throws RetryLaterException, IOException {
+        int size = snapPreviewSize(maxDim);
+        String format = isLossyFormat(extension) ? "jpg" : "png";
+        Path previewPath = Paths.get(previewDirectory, fileId + "." + size + "." + format);
+        
+        if (Files.exists(previewPath)) {
+            diskHits.incrementAndGet();
+            return Files.readAllBytes(previewPath);
+        }
+        
+        Future<byte[]> preview;
+        try {
+            preview = pendingPreviews.computeIfAbsent(previewPath.toString(), key -> 
+                executor.submit(() -> {
+                    try {
+                        return generatePreview(fileId, source, size, format, previewPath);
+                    } finally {
+                        pendingPreviews.remove(key);
+                    }
+                }));
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw new RetryLaterException("Preview generator is busy, please retry", retryAfter);
+        }
+        
+        try {
+            return preview.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // Generation continues in the background and the retry hits the disk cache
+            throw new RetryLaterException("Preview is being generated, please retry", retryAfter);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to generate preview: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while generating preview");
+        }
+    }
+    
+    /**
+     * Delete all cached previews of a file
+     * @param fileId ID of the file
+     */
+    public void deletePreviews(String fileId) {
+        File[] previews = new File(previewDirectory).listFiles((dir, name) -> name.startsWith(fileId + "."));
+        if (previews != null) {
+            for (File preview : previews) {
+                FileUtils.deleteFile(preview.getPath());
+            }
+        }
+    }
+    
+    /**
+     * Decode, downscale and encode an image, then cache the result on disk
+     */
+    private byte[] generatePreview(String fileId, ImageSource imageSource, int size, String format, 
+                                   Path previewPath) throws IOException {
+        BufferedImage source = readSubsampled(fileId, imageSource, size);
+        
+        double scale = Math.min(1.0, (double) size / Math.max(source.getWidth(), source.getHeight()));
+        int width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+        
+        BufferedImage preview = new BufferedImage(width, height, 
+            "jpg".equals(format) ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = preview.createGraphics();
+        try {
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g2d.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            g2d.dispose();
+        }
+        
+        // Write to a temp file first so readers never see a partial preview
+        Path tempPath = Paths.get(previewPath + ".tmp");
+        if (!ImageIO.write(preview, format, tempPath.toFile())) {
+            throw new IOException("No writer for preview format: " + format);
+        }
+        Files.move(tempPath, previewPath, StandardCopyOption.REPLACE_EXISTING);
+        generated.incrementAndGet();
+        
+        return Files.readAllBytes(previewPath);
+    }
+    
+    /**
+     * Decode an image, skipping pixels the preview does not need
+     * Subsampling while decoding keeps a large photo from being fully expanded in memory
+     */
+    private BufferedImage readSubsampled(String fileId, ImageSource source, int size) throws IOException {
+        try (ImageInputStream input = source.open()) {
+            if (input == null) {
+                throw new IOException("Cannot open image: " + fileId);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format: " + fileId);
+            }
+            
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int longestSide = Math.max(reader.getWidth(0), reader.getHeight(0));
+                int subsampling = Math.max(1, longestSide / (size * 2));
+                
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+    
+    /**
+     * Opens the stored form of an image, which may be a file or a slice of a pack
+     */
+    @FunctionalInterface
+    public interface ImageSource {
+        ImageInputStream open() throws IOException;
+    }
+    
+    private static int snapPreviewSize(int maxDim) {
+        for (int size : PREVIEW_SIZES) {
+            if (maxDim <= size) {
+                return size;
+            }
+        }
+        return PREVIEW_SIZES[PREVIEW_SIZES.length - 1];
+    }
+    
+    private static boolean isLossyFormat(String extension) {
+        String ext = extension.toLowerCase();
+        return ext.equals("jpg") || ext.equals("jpeg") || ext.equals("bmp");
+    }
+    
+    /**
+     * Shutdown the preview pool
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+    
+    /**
+     * Get preview statistics
+     */
+    public String getStats() {
+        return String.format("PreviewGenerator Stats - Generated: %d, Disk Hits: %d, Queued: %d, Rejected: %d",
+                           generated.get(), diskHits.get(), executor.getQueue().size(), rejected.get());
+    }
+}
@@ -5,6 +5,9 @@ import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.InetAddress;
@@ -21,6 +24,12 @@ public class RMIServer {
     private WhiteboardServerImpl whiteboardServer;
     private ChatServerImpl chatServer;
     private FileServerImpl fileServer;
+    private BulkTransferServer bulkTransferServer;
+    private BinaryTransportServer binaryTransportServer;
+    private WebSocketGateway webSocketGateway;
+    private TrafficScheduler trafficScheduler;
+    private RateLimiter rateLimiter;
+    private ScheduledExecutorService statsReporter;
     
     public RMIServer() {
         loadConfiguration();
@@ -74,6 +83,9 @@ public class RMIServer {
             // Bind services to registry
             bindServices(registry);
             
+            // Periodically log service statistics
+            startStatsReporter();
+            
             System.out.println("CollabBoard RMI Server started successfully!");
             System.out.println("Server is ready and waiting for client connections...");
             
@@ -92,14 +104,53 @@ public class RMIServer {
      * Create service implementations
      */
     private void createServices() throws Exception {
+        // Shared scheduler that keeps file transfers from starving interactive traffic
+        trafficScheduler = new TrafficScheduler(config);
+        
+        // Shared limiter, so each user has one budget for calls to all services
+        rateLimiter = new RateLimiter(config);
+        
         // Create whiteboard service (already exported via UnicastRemoteObject constructor)
-        whiteboardServer = new WhiteboardServerImpl(config);
+        whiteboardServer = new WhiteboardServerImpl(config, trafficScheduler, rateLimiter);
         
         // Create chat service (already exported via UnicastRemoteObject constructor)
-        chatServer = new ChatServerImpl(config);
+        chatServer = new ChatServerImpl(config, trafficScheduler, rateLimiter);
+        
+        // Start the bulk transfer channel used for file bytes (RMI stays the control plane)
+        if (Boolean.parseBoolean(config.getProperty("file.bulk.enabled", "true"))) {
+            bulkTransferServer = new BulkTransferServer(config);
+            try {
+                bulkTransferServer.start();
+            } catch (IOException e) {
+                System.err.println("Bulk transfer channel unavailable, files will use RMI: " + e.getMessage());
+                bulkTransferServer = null;
+            }
+        }
         
         // Create file service (already exported via UnicastRemoteObject constructor)
-        fileServer = new FileServerImpl(config);
+        fileServer = new FileServerImpl(config, bulkTransferServer, trafficScheduler, rateLimiter);
+        
+        // Serve the same services over the binary transport as well, RMI clients keep working
+        if ("binary".equalsIgnoreCase(config.getProperty("transport.mode", "rmi").trim())) {
+            binaryTransportServer = new BinaryTransportServer(config, whiteboardServer, chatServer, fileServer);
+            try {
+                binaryTransportServer.start();
+            } catch (IOException e) {
+                System.err.println("Binary transport unavailable, clients must use RMI: " + e.getMessage());
+                binaryTransportServer = null;
+            }
+        }
+        
+        // WebSocket endpoint for browsers, bridged to the same services as RMI clients
+        if (Boolean.parseBoolean(config.getProperty("websocket.enabled", "true"))) {
+            webSocketGateway = new WebSocketGateway(config, whiteboardServer, chatServer, fileServer);
+            try {
+                webSocketGateway.start();
+            } catch (IOException e) {
+                System.err.println("WebSocket gateway unavailable: " + e.getMessage());
+                webSocketGateway = null;
+            }
+        }
         
         System.out.println("All services created successfully");
     }
@@ -122,11 +173,43 @@ public class RMIServer {
         System.out.println("  - " + fileName);
     }
     
+    /**
+     * Start logging server statistics at the configured interval
+     */
+    private void startStatsReporter() {
+        int interval = Integer.parseInt(config.getProperty("server.stats.interval.seconds", "60"));
+        if (interval <= 0) {
+            return;
+        }
+        
+        statsReporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "stats-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        statsReporter.scheduleAtFixedRate(() -> {
+            System.out.println(whiteboardServer.getServerStats());
+            System.out.println(chatServer.getServerStatus());
+            System.out.println(fileServer.getServerStats());
+            System.out.println(trafficScheduler.getStats());
+            System.out.println(rateLimiter.getStats());
+            if (binaryTransportServer != null) {
+                System.out.println(binaryTransportServer.getStats());
+            }
+            if (webSocketGateway != null) {
+                System.out.println(webSocketGateway.getStats());
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+    
     /**
      * Shutdown the server gracefully
      */
     public void shutdown() {
         try {
+            if (statsReporter != null) {
+                statsReporter.shutdownNow();
+            }
             if (whiteboardServer != null) {
                 whiteboardServer.shutdown();
             }
@@ -136,6 +219,15 @@ public class RMIServer {
             if (fileServer != null) {
                 fileServer.shutdown();
             }
+            if (bulkTransferServer != null) {
+                bulkTransferServer.shutdown();
+            }
+            if (binaryTransportServer != null) {
+                binaryTransportServer.shutdown();
+            }
+            if (webSocketGateway != null) {
+                webSocketGateway.shutdown();
+            }
             
             System.out.println("Server shutdown completed");
             
@@ -0,0 +1,162 @@
+package com.collabboard.server;
+
+import com.collabboard.interfaces.RetryLaterException;
+
+import java.rmi.server.RemoteServer;
+import java.rmi.server.ServerNotActiveException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-user rate limiter shared by all services
+ * Every user has one token bucket, and each operation takes its configured cost from it,
+ * so a client flooding one operation runs out of tokens for all of them. Calls without a
+ * user ID are charged to the host they come from. A call that finds too few tokens is
+ * rejected with a RetryLaterException saying when the tokens will be there.
+ */
+public class RateLimiter {
+    
+    /**
+     * Rate-limited operations, with the key of their cost in the configuration
+     */
+    public enum Operation {
+        CHAT_SEND("chat.send", 5),
+        CHAT_TYPING("chat.typing", 1),
+        CHAT_HISTORY("chat.history", 2),
+        CHAT_CHANNEL("chat.channel", 5),
+        CHAT_PRESENCE("chat.presence", 5),
+        WHITEBOARD_DRAW("whiteboard.draw", 2),
+        WHITEBOARD_EDIT("whiteboard.edit", 10),
+        WHITEBOARD_READ("whiteboard.read", 5),
+        WHITEBOARD_STORE("whiteboard.store", 25),
+        FILE_UPLOAD("file.upload", 25),
+        FILE_DOWNLOAD("file.download", 10),
+        FILE_CHUNK("file.chunk", 0),
+        FILE_LIST("file.list", 1),
+        FILE_PREVIEW("file.preview", 2),
+        FILE_MODIFY("file.modify", 10);
+        
+        private final String key;
+        private final long defaultCost;
+        
+        Operation(String key, long defaultCost) {
+            this.key = key;
+            this.defaultCost = defaultCost;
+        }
+        
+        public String getKey() {
+            return key;
+        }
+    }
+    
+    private static final int SWEEP_INTERVAL = 4096; // average calls between removals of idle buckets
+    
+    private final double rate;
+    private final double burst;
+    private final long[] costs; // tokens per call, by operation
+    private final Map<String, TokenBucket> buckets; // user or host -> bucket
+    private final LongAdder[] allowed;
+    private final LongAdder[] throttled;
+    
+    public RateLimiter(Properties config) {
+        this.rate = Double.parseDouble(config.getProperty("ratelimit.user.rate", "50"));
+        this.burst = Double.parseDouble(config.getProperty("ratelimit.user.burst", "100"));
+        Operation[] operations = Operation.values();
+        this.costs = new long[operations.length];
+        this.allowed = new LongAdder[operations.length];
+        this.throttled = new LongAdder[operations.length];
+        for (Operation operation : operations) {
+            costs[operation.ordinal()] = Math.max(0, Long.parseLong(config.getProperty(
+                "ratelimit.cost." + operation.key, String.valueOf(operation.defaultCost))));
+            allowed[operation.ordinal()] = new LongAdder();
+            throttled[operation.ordinal()] = new LongAdder();
+        }
+        this.buckets = new ConcurrentHashMap<>();
+    }
+    
+    /**
+     * Charge an operation to a user
+     * @param userId User making the call, null to charge the calling host
+     * @param operation Operation being called
+     * @throws RetryLaterException if the user is out of tokens for the operation
+     */
+    public void acquire(String userId, Operation operation) throws RetryLaterException {
+        long cost = costs[operation.ordinal()];
+        if (cost == 0 || rate <= 0) {
+            allowed[operation.ordinal()].increment();
+            return;
+        }
+        
+        TokenBucket bucket = buckets.computeIfAbsent(callerKey(userId), key -> new TokenBucket(rate, burst));
+        long waitNanos = bucket.tryAcquire(cost);
+        if (ThreadLocalRandom.current().nextInt(SWEEP_INTERVAL) == 0) { // no shared counter to contend on
+            removeIdleBuckets();
+        }
+        if (waitNanos > 0) {
+            throttled[operation.ordinal()].increment();
+            throw new RetryLaterException("Too many requests, please slow down",
+                                          Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos + 999_999)));
+        }
+        allowed[operation.ordinal()].increment();
+    }
+    
+    private static String callerKey(String userId) {
+        if (userId != null) {
+            return userId;
+        }
+        String host = BinaryTransportServer.getCallerHost();
+        if (host == null) {
+            host = WebSocketGateway.getCallerHost();
+        }
+        if (host != null) {
+            return "host:" + host;
+        }
+        try {
+            return "host:" + RemoteServer.getClientHost();
+        } catch (ServerNotActiveException e) {
+            return "host:local"; // not called remotely
+        }
+    }
+    
+    /**
+     * Drop the buckets that refilled completely, a new bucket is the same as a full one
+     */
+    private void removeIdleBuckets() {
+        for (Iterator<TokenBucket> it = buckets.values().iterator(); it.hasNext();) {
+            if (it.next().isFull()) {
+                it.remove();
+            }
+        }
+    }
+    
+    /**
+     * Get the number of calls of an operation that were rejected
+     */
+    public long getThrottledCount(Operation operation) {
+        return throttled[operation.ordinal()].sum();
+    }
+    
+    /**
+     * Get rate limiter statistics
+     */
+    public String getStats() {
+        long totalAllowed = 0;
+        long totalThrottled = 0;
+        StringBuilder perOperation = new StringBuilder();
+        for (Operation operation : Operation.values()) {
+            long count = throttled[operation.ordinal()].sum();
+            totalAllowed += allowed[operation.ordinal()].sum();
+            totalThrottled += count;
+            if (count > 0) {
+                perOperation.append(perOperation.length() == 0 ? "" : ", ").append(operation.key).append('=').append(count);
+            }
+        }
+        return String.format("RateLimiter Stats - Buckets: %d, Allowed: %d, Throttled: %d [%s]",
+                           buckets.size(), totalAllowed, totalThrottled, perOperation);
+    }
+}
@@ -0,0 +1,149 @@
+package com.collabboard.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hierarchical timer wheel for large numbers of pending deadlines
+ * Level 0 has one slot per tick, and each higher level has one slot per full turn of the
+ * level below it. Scheduling and cancelling are O(1), and each tick only visits one slot,
+ * moving entries from a higher level down once their slot comes around. Cancelled entries
+ * are dropped lazily when their slot is visited.
+ */
+public class TimerWheel<K> {
+    
+    private static final int SLOT_BITS = 8;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4; // 2^32 ticks, over 136 years at one tick per second
+    
+    private final long tickMillis;
+    private final long startMillis;
+    private final List<List<ArrayDeque<Entry<K>>>> levels;
+    private final Map<K, Entry<K>> entries;
+    private long currentTick;
+    
+    /**
+     * Create a timer wheel
+     * @param tickMillis Resolution of the wheel, deadlines fire up to one tick late
+     * @param startMillis Time of tick zero
+     */
+    public TimerWheel(long tickMillis, long startMillis) {
+        this.tickMillis = tickMillis;
+        this.startMillis = startMillis;
+        this.levels = new ArrayList<>(LEVELS);
+        for (int level = 0; level < LEVELS; level++) {
+            List<ArrayDeque<Entry<K>>> slots = new ArrayList<>(SLOTS);
+            for (int slot = 0; slot < SLOTS; slot++) {
+                slots.add(new ArrayDeque<>());
+            }
+            levels.add(slots);
+        }
+        this.entries = new HashMap<>();
+    }
+    
+    /**
+     * Schedule a key, replacing any deadline it already has
+     * @param key Key to return when the deadline passes
+     * @param deadlineMillis Deadline, a deadline in the past fires on the next tick
+     */
+    public synchronized void schedule(K key, long deadlineMillis) {
+        cancel(key);
+        long deadlineTick = Math.max(currentTick + 1,
+            (deadlineMillis - startMillis + tickMillis - 1) / tickMillis);
+        Entry<K> entry = new Entry<>(key, deadlineTick);
+        entries.put(key, entry);
+        insert(entry);
+    }
+    
+    /**
+     * Cancel the deadline of a key
+     * @return true if the key had a pending deadline
+     */
+    public synchronized boolean cancel(K key) {
+        Entry<K> entry = entries.remove(key);
+        if (entry == null) {
+            return false;
+        }
+        entry.cancelled = true;
+        return true;
+    }
+    
+    /**
+     * Advance the wheel to a time and collect the keys whose deadline passed
+     * @param nowMillis Current time
+     * @return Expired keys in deadline order
+     */
+    public synchronized List<K> advance(long nowMillis) {
+        List<K> expired = new ArrayList<>();
+        long targetTick = (nowMillis - startMillis) / tickMillis;
+        while (currentTick < targetTick) {
+            currentTick++;
+            cascade();
+            
+            ArrayDeque<Entry<K>> slot = levels.get(0).get((int) (currentTick & SLOT_MASK));
+            Entry<K> entry;
+            while ((entry = slot.poll()) != null) {
+                if (!entry.cancelled) {
+                    entries.remove(entry.key);
+                    expired.add(entry.key);
+                }
+            }
+        }
+        return expired;
+    }
+    
+    /**
+     * Get the number of pending deadlines
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+    
+    /**
+     * Move the entries of the higher level slots that come around at this tick down a level
+     */
+    private void cascade() {
+        for (int level = 1; level < LEVELS; level++) {
+            if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+                return;
+            }
+            ArrayDeque<Entry<K>> slot = levels.get(level).get(slotIndex(currentTick, level));
+            Entry<K> entry;
+            while ((entry = slot.poll()) != null) {
+                if (!entry.cancelled) {
+                    insert(entry);
+                }
+            }
+        }
+    }
+    
+    private void insert(Entry<K> entry) {
+        long delta = entry.deadlineTick - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        // Deadlines beyond the last level wait in its furthest slot
+        long tick = Math.min(entry.deadlineTick, currentTick + (1L << (SLOT_BITS * LEVELS)) - 1);
+        levels.get(level).get(slotIndex(tick, level)).add(entry);
+    }
+    
+    private static int slotIndex(long tick, int level) {
+        return (int) ((tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+    }
+    
+    private static class Entry<K> {
+        final K key;
+        final long deadlineTick;
+        boolean cancelled;
+        
+        Entry(K key, long deadlineTick) {
+            this.key = key;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.collabboard.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket
+ * Implemented as a generic cell rate algorithm: the bucket only stores the time at which
+ * it will be full again, so acquiring tokens is a single compare-and-set.
+ */
+public class TokenBucket {
+    
+    // Fractional, so rates of more than a token per nanosecond or with a fractional
+    // interval (byte rates) are not rounded to whole nanoseconds per token
+    private final double nanosPerToken;
+    private final long burstNanos;
+    private final AtomicLong theoreticalArrival = new AtomicLong(System.nanoTime());
+    
+    /**
+     * @param ratePerSecond Tokens added per second, 0 or less for unlimited
+     * @param burst Maximum tokens that can be taken at once
+     */
+    public TokenBucket(double ratePerSecond, double burst) {
+        this.nanosPerToken = ratePerSecond > 0 ? 1e9 / ratePerSecond : 0;
+        this.burstNanos = (long) Math.ceil(Math.max(1, burst) * nanosPerToken);
+    }
+    
+    /**
+     * Check if the bucket limits anything
+     */
+    public boolean isUnlimited() {
+        return nanosPerToken == 0;
+    }
+    
+    /**
+     * Check if the bucket is full, so it behaves the same as a new bucket
+     */
+    public boolean isFull() {
+        return isUnlimited() || theoreticalArrival.get() <= System.nanoTime();
+    }
+    
+    /**
+     * Take tokens if they are available
+     * @param tokens Number of tokens to take
+     * @return 0 if the tokens were taken, otherwise nanoseconds until they will be available
+     */
+    public long tryAcquire(long tokens) {
+        if (isUnlimited()) {
+            return 0;
+        }
+        
+        while (true) {
+            long now = System.nanoTime();
+            long current = theoreticalArrival.get();
+            long arrival = Math.max(current, now) + nanosFor(tokens);
+            long wait = arrival - now - burstNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (theoreticalArrival.compareAndSet(current, arrival)) {
+                return 0;
+            }
+        }
+    }
+    
+    /**
+     * Take tokens unconditionally, going into debt if necessary
+     * @param tokens Number of tokens to take
+     * @return Nanoseconds the caller must wait before using the tokens
+     */
+    public long reserve(long tokens) {
+        if (isUnlimited()) {
+            return 0;
+        }
+        
+        while (true) {
+            long now = System.nanoTime();
+            long current = theoreticalArrival.get();
+            long arrival = Math.max(current, now) + nanosFor(tokens);
+            if (theoreticalArrival.compareAndSet(current, arrival)) {
+                return Math.max(0, arrival - now - burstNanos);
+            }
+        }
+    }
+    
+    /**
+     * Time the given tokens take to refill, rounded up so the rate is never exceeded
+     */
+    private long nanosFor(long tokens) {
+        return (long) Math.ceil(tokens * nanosPerToken);
+    }
+}
@@ -0,0 +1,169 @@
+package com.collabboard.server;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.rmi.RemoteException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Server-side I/O scheduler that keeps bulk file traffic from starving interactive traffic
+ * 
+ * Interactive work (whiteboard, chat, presence fan-out) runs immediately and is only measured.
+ * Bulk work (file bytes) is limited to a number of concurrent transfers, paced by per-client
+ * and global token buckets, and backs off while interactive work is in flight.
+ */
+public class TrafficScheduler {
+    
+    public enum TrafficClass {
+        INTERACTIVE, BULK
+    }
+    
+    private final double clientRate;
+    private final double burst;
+    private final TokenBucket globalBucket;
+    private final Map<String, TokenBucket> clientBuckets;
+    private final int maxBulkTransfers;
+    private final Semaphore bulkSlots;
+    private final long interactiveTargetNanos;
+    private final long maxYieldNanos;
+    
+    private final AtomicInteger activeInteractive = new AtomicInteger();
+    private final AtomicLong bulkBytes = new AtomicLong();
+    private final Map<TrafficClass, LatencyStats> latency;
+    
+    public TrafficScheduler(Properties config) {
+        double globalRate = Double.parseDouble(config.getProperty("scheduler.bulk.global.rate", "67108864")); // 64MB/s
+        this.clientRate = Double.parseDouble(config.getProperty("scheduler.bulk.client.rate", "16777216")); // 16MB/s
+        this.burst = Double.parseDouble(config.getProperty("scheduler.bulk.burst", "1048576")); // 1MB
+        this.globalBucket = new TokenBucket(globalRate, burst);
+        this.clientBuckets = new ConcurrentHashMap<>();
+        this.maxBulkTransfers = Integer.parseInt(config.getProperty("scheduler.bulk.max.concurrent", "4"));
+        this.bulkSlots = new Semaphore(maxBulkTransfers, true);
+        this.interactiveTargetNanos = TimeUnit.MILLISECONDS.toNanos(
+            Long.parseLong(config.getProperty("scheduler.interactive.target.ms", "50")));
+        this.maxYieldNanos = TimeUnit.MILLISECONDS.toNanos(
+            Long.parseLong(config.getProperty("scheduler.bulk.max.yield.ms", "200")));
+        
+        this.latency = new EnumMap<>(TrafficClass.class);
+        for (TrafficClass trafficClass : TrafficClass.values()) {
+            latency.put(trafficClass, new LatencyStats());
+        }
+    }
+    
+    /**
+     * Run interactive work, recording its latency
+     * Bulk transfers back off while interactive work is running.
+     * @param operation The work to run
+     * @throws RemoteException if the work fails
+     */
+    public void runInteractive(InteractiveOperation operation) throws RemoteException {
+        long start = System.nanoTime();
+        activeInteractive.incrementAndGet();
+        try {
+            operation.run();
+        } finally {
+            activeInteractive.decrementAndGet();
+            latency.get(TrafficClass.INTERACTIVE).record(System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * Run a bulk transfer once a transfer slot is free, holding the slot until it ends
+     * @param operation The transfer to run
+     * @throws IOException if the transfer fails or is interrupted while waiting
+     */
+    public void runBulk(BulkOperation operation) throws IOException {
+        try {
+            bulkSlots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a transfer slot");
+        }
+        try {
+            operation.run();
+        } finally {
+            bulkSlots.release();
+        }
+    }
+    
+    /**
+     * Pace a slice of bulk bytes for a client
+     * Blocks until both the client's and the global bucket allow the bytes,
+     * then yields to any interactive work in flight.
+     * @param clientId Key of the client the bytes belong to
+     * @param bytes Number of bytes about to be sent or received
+     * @throws IOException if interrupted while waiting
+     */
+    public void pace(String clientId, long bytes) throws IOException {
+        long start = System.nanoTime();
+        
+        TokenBucket clientBucket = clientBuckets.computeIfAbsent(clientId, id -> new TokenBucket(clientRate, burst));
+        long wait = Math.max(globalBucket.reserve(bytes), clientBucket.reserve(bytes));
+        if (wait > 0) {
+            LockSupport.parkNanos(wait);
+        }
+        
+        long yieldDeadline = System.nanoTime() + maxYieldNanos;
+        while (activeInteractive.get() > 0 && System.nanoTime() < yieldDeadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        
+        if (Thread.interrupted()) {
+            throw new InterruptedIOException("Interrupted while pacing transfer");
+        }
+        
+        bulkBytes.addAndGet(bytes);
+        latency.get(TrafficClass.BULK).record(System.nanoTime() - start);
+    }
+    
+    /**
+     * Get the latency statistics of a traffic class
+     */
+    public LatencyStats getLatencyStats(TrafficClass trafficClass) {
+        return latency.get(trafficClass);
+    }
+    
+    /**
+     * Check if interactive traffic stays under its latency target
+     */
+    public boolean isInteractiveWithinTarget() {
+        return latency.get(TrafficClass.INTERACTIVE).getPercentileMillis(0.99) * 1_000_000 <= interactiveTargetNanos;
+    }
+    
+    /**
+     * Get scheduler statistics
+     */
+    public String getStats() {
+        return String.format("TrafficScheduler Stats - Interactive: %s [target p99 %d ms: %s]%n" +
+                           "  Bulk wait: %s, Bytes: %d, Active transfers: %d",
+                           latency.get(TrafficClass.INTERACTIVE), 
+                           TimeUnit.NANOSECONDS.toMillis(interactiveTargetNanos),
+                           isInteractiveWithinTarget() ? "OK" : "EXCEEDED",
+                           latency.get(TrafficClass.BULK), bulkBytes.get(), 
+                           maxBulkTransfers - bulkSlots.availablePermits());
+    }
+    
+    /**
+     * Interactive work that may fail with a RemoteException
+     */
+    @FunctionalInterface
+    public interface InteractiveOperation {
+        void run() throws RemoteException;
+    }
+    
+    /**
+     * Bulk transfer that may fail with an IOException
+     */
+    @FunctionalInterface
+    public interface BulkOperation {
+        void run() throws IOException;
+    }
+}
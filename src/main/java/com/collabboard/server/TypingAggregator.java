@@ -0,0 +1,119 @@
+package com.collabboard.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects typing notifications between digests
+ * Notifications only update the state of their user, the chat server reads a snapshot
+ * at a fixed rate and sends each client the users it sees typing. A user that stops
+ * sending notifications stops typing once its expiry passes.
+ */
+public class TypingAggregator {
+    
+    private final Map<String, TypingUser> typingUsers; // userId -> typing state
+    private final long expiryMillis;
+    private final AtomicLong version; // changes whenever the set of typing users changes
+    
+    /**
+     * Create a typing aggregator
+     * @param expiryMillis How long a typing notification lasts without being repeated
+     */
+    public TypingAggregator(long expiryMillis) {
+        this.typingUsers = new ConcurrentHashMap<>();
+        this.expiryMillis = expiryMillis;
+        this.version = new AtomicLong();
+    }
+    
+    /**
+     * Record that a user started, continued or stopped typing
+     */
+    public void update(String userId, String username, boolean isTyping) {
+        if (!isTyping) {
+            remove(userId);
+            return;
+        }
+        String name = username != null ? username : userId;
+        long expiresAt = System.currentTimeMillis() + expiryMillis;
+        TypingUser previous = typingUsers.put(userId, new TypingUser(name, expiresAt));
+        if (previous == null || !previous.username.equals(name)) {
+            version.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Forget a user, such as one that sent a message or left
+     */
+    public void remove(String userId) {
+        if (typingUsers.remove(userId) != null) {
+            version.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Drop the users whose typing notification expired
+     */
+    public void expire(long nowMillis) {
+        for (Iterator<Map.Entry<String, TypingUser>> it = typingUsers.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, TypingUser> entry = it.next();
+            if (entry.getValue().expiresAt <= nowMillis && typingUsers.remove(entry.getKey(), entry.getValue())) {
+                version.incrementAndGet();
+            }
+        }
+    }
+    
+    /**
+     * Get the version of the typing state, equal versions mean equal snapshots
+     */
+    public long getVersion() {
+        return version.get();
+    }
+    
+    /**
+     * Get the users typing right now, sorted by name
+     * @return Pairs of user ID and username
+     */
+    public List<Map.Entry<String, String>> snapshot() {
+        List<Map.Entry<String, String>> snapshot = new ArrayList<>(typingUsers.size());
+        for (Map.Entry<String, TypingUser> entry : typingUsers.entrySet()) {
+            snapshot.add(Map.entry(entry.getKey(), entry.getValue().username));
+        }
+        snapshot.sort(Map.Entry.comparingByValue());
+        return snapshot;
+    }
+    
+    /**
+     * Get the names in a snapshot that one user sees, leaving out the user itself
+     */
+    public static List<String> viewOf(List<Map.Entry<String, String>> snapshot, String userId) {
+        if (snapshot.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> usernames = new ArrayList<>(snapshot.size());
+        for (Map.Entry<String, String> entry : snapshot) {
+            if (!entry.getKey().equals(userId)) {
+                usernames.add(entry.getValue());
+            }
+        }
+        return usernames;
+    }
+    
+    public int size() {
+        return typingUsers.size();
+    }
+    
+    private static class TypingUser {
+        final String username;
+        final long expiresAt;
+        
+        TypingUser(String username, long expiresAt) {
+            this.username = username;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
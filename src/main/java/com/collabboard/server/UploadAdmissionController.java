@@ -0,0 +1,184 @@
+package com.collabboard.server;
+
+import com.collabboard.interfaces.RetryLaterException;
+import com.collabboard.utils.FileUtils;
+
+import java.io.File;
+import java.rmi.RemoteException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control for uploads
+ * Before an upload is accepted it must reserve a concurrency slot (globally and per user),
+ * its share of the heap budget and the disk space it will use. Uploads that do not fit are
+ * rejected up front with a retry-after hint instead of failing midway.
+ */
+public class UploadAdmissionController {
+    
+    private final String storageDirectory;
+    private final int maxConcurrent;
+    private final int maxPerUser;
+    private final long heapBudget;
+    private final long diskReserve;
+    private final long reservationTimeout;
+    private final long retryAfter;
+    
+    private final Map<String, Reservation> reservations; // upload ID -> reservation
+    private long reservedHeap;
+    private long reservedDisk;
+    
+    // Statistics
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejectedConcurrency = new AtomicLong();
+    private final AtomicLong rejectedUser = new AtomicLong();
+    private final AtomicLong rejectedHeap = new AtomicLong();
+    private final AtomicLong rejectedDisk = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    
+    public UploadAdmissionController(Properties config, String storageDirectory) {
+        this.storageDirectory = storageDirectory;
+        this.maxConcurrent = Integer.parseInt(config.getProperty("upload.max.concurrent", "8"));
+        this.maxPerUser = Integer.parseInt(config.getProperty("upload.max.per.user", "2"));
+        this.heapBudget = Long.parseLong(config.getProperty("upload.heap.budget", "134217728")); // 128MB
+        this.diskReserve = Long.parseLong(config.getProperty("upload.disk.reserve", "268435456")); // 256MB
+        this.reservationTimeout = Long.parseLong(config.getProperty("upload.reservation.timeout", "300000"));
+        this.retryAfter = Long.parseLong(config.getProperty("upload.retry.after", "2000"));
+        this.reservations = new ConcurrentHashMap<>();
+    }
+    
+    /**
+     * Reserve capacity for an upload
+     * @param uploadId ID of the upload (the file ID)
+     * @param userId User uploading the file
+     * @param fileSize Size of the file on disk
+     * @param heapBytes Heap the upload holds while in progress
+     * @return true if this call made the reservation, false if the user already held it
+     * @throws RetryLaterException if the upload cannot be accepted right now
+     * @throws RemoteException if another user holds a reservation for the same upload ID
+     */
+    public synchronized boolean admit(String uploadId, String userId, long fileSize, long heapBytes) 
+            throws RemoteException {
+        expireStaleReservations();
+        
+        Reservation existing = reservations.get(uploadId);
+        if (existing != null) {
+            if (!existing.userId.equals(userId)) {
+                throw new RemoteException("Upload " + uploadId + " is already in progress by another user");
+            }
+            existing.lastActivity = System.currentTimeMillis();
+            return false;
+        }
+        
+        if (reservations.size() >= maxConcurrent) {
+            rejectedConcurrency.incrementAndGet();
+            throw new RetryLaterException("Server is busy with " + reservations.size() + 
+                                        " uploads, please retry", suggestRetryDelay());
+        }
+        
+        long userUploads = reservations.values().stream().filter(r -> r.userId.equals(userId)).count();
+        if (userUploads >= maxPerUser) {
+            rejectedUser.incrementAndGet();
+            throw new RetryLaterException("You already have " + userUploads + 
+                                        " uploads in progress, please retry", suggestRetryDelay());
+        }
+        
+        if (reservedHeap + heapBytes > heapBudget) {
+            rejectedHeap.incrementAndGet();
+            throw new RetryLaterException("Server upload memory is in use, please retry", suggestRetryDelay());
+        }
+        
+        long usableSpace = new File(storageDirectory).getUsableSpace();
+        if (usableSpace - reservedDisk - fileSize < diskReserve) {
+            rejectedDisk.incrementAndGet();
+            throw new RetryLaterException("Server is low on disk space, please retry later", 
+                                        suggestRetryDelay() * 10);
+        }
+        
+        reservations.put(uploadId, new Reservation(userId, fileSize, heapBytes));
+        reservedHeap += heapBytes;
+        reservedDisk += fileSize;
+        admitted.incrementAndGet();
+        return true;
+    }
+    
+    /**
+     * Check if a user holds the reservation of an upload and keep it from expiring
+     * @param uploadId ID of the upload
+     * @param userId User uploading the file
+     * @return true if the upload was admitted for this user and has not expired
+     */
+    public boolean touch(String uploadId, String userId) {
+        Reservation reservation = reservations.get(uploadId);
+        if (reservation == null || !reservation.userId.equals(userId)) {
+            return false;
+        }
+        reservation.lastActivity = System.currentTimeMillis();
+        return true;
+    }
+    
+    /**
+     * Release the capacity reserved by an upload
+     * @param uploadId ID of the upload
+     */
+    public synchronized void release(String uploadId) {
+        Reservation reservation = reservations.remove(uploadId);
+        if (reservation != null) {
+            reservedHeap -= reservation.heapBytes;
+            reservedDisk -= reservation.fileSize;
+        }
+    }
+    
+    /**
+     * Release reservations of uploads that were abandoned
+     */
+    private void expireStaleReservations() {
+        long cutoff = System.currentTimeMillis() - reservationTimeout;
+        reservations.entrySet().removeIf(entry -> {
+            Reservation reservation = entry.getValue();
+            if (reservation.lastActivity < cutoff) {
+                reservedHeap -= reservation.heapBytes;
+                reservedDisk -= reservation.fileSize;
+                expired.incrementAndGet();
+                System.out.println("Upload reservation expired: " + entry.getKey());
+                return true;
+            }
+            return false;
+        });
+    }
+    
+    /**
+     * Suggest a retry delay that grows with the number of uploads in progress
+     */
+    private long suggestRetryDelay() {
+        return retryAfter * (1 + reservations.size() / Math.max(1, maxConcurrent));
+    }
+    
+    /**
+     * Get admission statistics
+     */
+    public synchronized String getStats() {
+        return String.format("UploadAdmission Stats - Active: %d/%d, Reserved: %s heap / %s disk, " +
+                           "Admitted: %d, Rejected: %d concurrency, %d per-user, %d heap, %d disk, Expired: %d",
+                           reservations.size(), maxConcurrent, 
+                           FileUtils.formatFileSize(reservedHeap), FileUtils.formatFileSize(reservedDisk),
+                           admitted.get(), rejectedConcurrency.get(), rejectedUser.get(), 
+                           rejectedHeap.get(), rejectedDisk.get(), expired.get());
+    }
+    
+    private static class Reservation {
+        final String userId;
+        final long fileSize;
+        final long heapBytes;
+        volatile long lastActivity;
+        
+        Reservation(String userId, long fileSize, long heapBytes) {
+            this.userId = userId;
+            this.fileSize = fileSize;
+            this.heapBytes = heapBytes;
+            this.lastActivity = System.currentTimeMillis();
+        }
+    }
+}
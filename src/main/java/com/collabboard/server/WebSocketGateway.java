@@ -0,0 +1,683 @@
+package com.collabboard.server;
+
+import com.collabboard.interfaces.ChatService;
+import com.collabboard.interfaces.FileService;
+import com.collabboard.interfaces.WhiteboardService;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * WebSocket endpoint for browser participants
+ * Speaks RFC 6455 over NIO: an accept thread hands connections to a small pool of selector
+ * threads that do the HTTP upgrade, read frames and write what could not be written right
+ * away. Each connection gets a {@link WebSocketSession}, which registers with the services
+ * like any RMI client, so browsers see the same board, chat and presence events.
+ * A connection that does not read its events is closed once too many bytes wait for it.
+ */
+public class WebSocketGateway {
+    
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int MAX_HANDSHAKE_SIZE = 8192;
+    
+    static final byte OPCODE_CONTINUATION = 0x0;
+    static final byte OPCODE_TEXT = 0x1;
+    static final byte OPCODE_BINARY = 0x2;
+    static final byte OPCODE_CLOSE = 0x8;
+    static final byte OPCODE_PING = 0x9;
+    static final byte OPCODE_PONG = 0xA;
+    
+    static final int CLOSE_NORMAL = 1000;
+    static final int CLOSE_PROTOCOL_ERROR = 1002;
+    static final int CLOSE_UNSUPPORTED = 1003;
+    static final int CLOSE_POLICY = 1008;
+    static final int CLOSE_TOO_BIG = 1009;
+    
+    private static final ThreadLocal<String> CALLER_HOST = new ThreadLocal<>();
+    
+    private final int port;
+    private final String path;
+    private final Set<String> allowedOrigins; // empty allows any origin
+    private final int maxMessageSize;
+    private final long maxPendingBytes; // unsent bytes a connection may have before it is closed
+    final WhiteboardService whiteboardService;
+    final ChatService chatService;
+    final FileService fileService;
+    final Map<String, WebSocketSession> sessionsByUser; // user ID -> its signed-in session
+    private final SelectorLoop[] selectorLoops;
+    private final ExecutorService workers;
+    private final Set<Connection> connections;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final AtomicReference<CachedFrame> lastEvent = new AtomicReference<>();
+    final LongAdder messagesIn = new LongAdder();
+    final LongAdder eventsOut = new LongAdder();
+    private final LongAdder eventsEncoded = new LongAdder();
+    private final LongAdder droppedConnections = new LongAdder();
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running;
+    
+    public WebSocketGateway(Properties config, WhiteboardService whiteboardService,
+                            ChatService chatService, FileService fileService) {
+        this.port = Integer.parseInt(config.getProperty("websocket.port", "8080"));
+        this.path = config.getProperty("websocket.path", "/ws");
+        this.allowedOrigins = new HashSet<>();
+        for (String origin : config.getProperty("websocket.allowed.origins", "").split(",")) {
+            if (!origin.trim().isEmpty()) {
+                allowedOrigins.add(origin.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        this.maxMessageSize = Integer.parseInt(config.getProperty("websocket.max.message", "1048576"));
+        this.maxPendingBytes = Long.parseLong(config.getProperty("websocket.max.pending.bytes", "4194304"));
+        this.whiteboardService = whiteboardService;
+        this.chatService = chatService;
+        this.fileService = fileService;
+        this.sessionsByUser = new ConcurrentHashMap<>();
+        this.connections = ConcurrentHashMap.newKeySet();
+        
+        int selectors = Math.max(1, Integer.parseInt(config.getProperty("websocket.selectors", "2")));
+        this.selectorLoops = new SelectorLoop[selectors];
+        
+        int threads = Math.max(1, Integer.parseInt(config.getProperty("websocket.workers", "8")));
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "websocket-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * Get the host of the browser whose request the current thread runs
+     * @return The host, or null outside a WebSocket request
+     */
+    public static String getCallerHost() {
+        return CALLER_HOST.get();
+    }
+    
+    /**
+     * Bind the server socket and start serving connections
+     * @throws IOException if the port cannot be bound
+     */
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        running = true;
+        
+        for (int i = 0; i < selectorLoops.length; i++) {
+            selectorLoops[i] = new SelectorLoop(Selector.open());
+            Thread thread = new Thread(selectorLoops[i], "websocket-selector-" + (i + 1));
+            thread.setDaemon(true);
+            thread.start();
+        }
+        
+        Thread acceptThread = new Thread(this::acceptLoop, "websocket-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        
+        System.out.println("WebSocket gateway listening on port " + getPort() + " at " + path);
+    }
+    
+    /**
+     * Get the port the gateway listens on
+     */
+    public int getPort() {
+        try {
+            if (serverChannel != null) {
+                return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+            }
+        } catch (IOException e) {
+            // Fall back to the configured port
+        }
+        return port;
+    }
+    
+    private void acceptLoop() {
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                Connection connection = new Connection(channel);
+                connections.add(connection);
+                selectorLoops[Math.floorMod(nextLoop.getAndIncrement(), selectorLoops.length)].add(connection);
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("WebSocket accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Run a task of a session on a worker, as the session's host
+     */
+    void execute(String host, Runnable task) {
+        workers.execute(() -> {
+            CALLER_HOST.set(host);
+            try {
+                task.run();
+            } finally {
+                CALLER_HOST.remove();
+            }
+        });
+    }
+    
+    /**
+     * Get the text frame of an event, encoding it only once for all the sessions it goes to
+     * The services hand the same object to every client they notify in turn, so the frame
+     * of the last event is kept and reused while the same object comes in again.
+     * @param source Object the event is about, must not change once sent
+     * @param json Builds the event's JSON text
+     */
+    ByteBuffer eventFrame(Object source, Supplier<String> json) {
+        CachedFrame cached = lastEvent.get();
+        if (cached != null && cached.source == source) {
+            return cached.frame.duplicate();
+        }
+        ByteBuffer frame = encodeFrame(OPCODE_TEXT, json.get().getBytes(StandardCharsets.UTF_8));
+        lastEvent.set(new CachedFrame(source, frame));
+        eventsEncoded.increment();
+        return frame.duplicate();
+    }
+    
+    private static class CachedFrame {
+        final Object source;
+        final ByteBuffer frame;
+        
+        CachedFrame(Object source, ByteBuffer frame) {
+            this.source = source;
+            this.frame = frame;
+        }
+    }
+    
+    /**
+     * Encode an unmasked server frame
+     */
+    static ByteBuffer encodeFrame(byte opcode, byte[] payload) {
+        int headerSize = payload.length < 126 ? 2 : payload.length <= 0xFFFF ? 4 : 10;
+        ByteBuffer frame = ByteBuffer.allocate(headerSize + payload.length);
+        frame.put((byte) (0x80 | opcode));
+        if (payload.length < 126) {
+            frame.put((byte) payload.length);
+        } else if (payload.length <= 0xFFFF) {
+            frame.put((byte) 126);
+            frame.putShort((short) payload.length);
+        } else {
+            frame.put((byte) 127);
+            frame.putLong(payload.length);
+        }
+        frame.put(payload);
+        frame.flip();
+        return frame;
+    }
+    
+    /**
+     * Stop serving and close all connections
+     */
+    public void shutdown() {
+        running = false;
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing WebSocket gateway: " + e.getMessage());
+        }
+        for (Connection connection : connections) {
+            connection.close(1001, "Server shutting down");
+        }
+        for (SelectorLoop loop : selectorLoops) {
+            if (loop != null) {
+                loop.selector.wakeup();
+            }
+        }
+        workers.shutdown();
+        System.out.println("WebSocket gateway shutdown completed");
+    }
+    
+    /**
+     * Get gateway statistics
+     */
+    public String getStats() {
+        return String.format("WebSocket Stats - Connections: %d, Sessions: %d, Messages In: %d, Events Out: %d, " +
+                           "Events Encoded: %d, Dropped: %d",
+                           connections.size(), sessionsByUser.size(), messagesIn.sum(), eventsOut.sum(),
+                           eventsEncoded.sum(), droppedConnections.sum());
+    }
+    
+    /**
+     * Selects the connections assigned to one thread
+     */
+    private class SelectorLoop implements Runnable {
+        final Selector selector;
+        private final Queue<Connection> added = new ConcurrentLinkedQueue<>();
+        
+        SelectorLoop(Selector selector) {
+            this.selector = selector;
+        }
+        
+        void add(Connection connection) {
+            added.add(connection);
+            selector.wakeup();
+        }
+        
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                    Connection connection;
+                    while ((connection = added.poll()) != null) {
+                        connection.register(selector);
+                    }
+                    
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection ready = (Connection) key.attachment();
+                        if (key.isValid() && key.isReadable()) {
+                            ready.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            ready.flush();
+                        }
+                    }
+                } catch (IOException e) {
+                    if (running) {
+                        System.err.println("WebSocket selector failed: " + e.getMessage());
+                    }
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Shutting down
+            }
+        }
+    }
+    
+    /**
+     * One browser connection, read only by its selector thread and written by any thread
+     */
+    class Connection {
+        final SocketChannel channel;
+        final String host;
+        private SelectionKey key;
+        private ByteBuffer readBuffer = ByteBuffer.allocate(8 * 1024);
+        private WebSocketSession session; // set by the handshake
+        private ByteArrayOutputStream fragments; // text message being received in several frames
+        private final Queue<ByteBuffer> writeQueue = new ArrayDeque<>(); // guarded by this
+        private long pendingBytes; // guarded by this
+        private boolean closeAfterFlush; // guarded by this
+        private volatile boolean closed;
+        
+        Connection(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            this.host = ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress();
+        }
+        
+        synchronized void register(Selector selector) throws IOException {
+            if (closed) {
+                return;
+            }
+            key = channel.register(selector, writeQueue.isEmpty()
+                ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE, this);
+        }
+        
+        /**
+         * Read what arrived and handle the handshake or every complete frame
+         */
+        void read() {
+            try {
+                if (channel.read(readBuffer) < 0) {
+                    close(null);
+                    return;
+                }
+                readBuffer.flip();
+                if (session == null && !readHandshake()) {
+                    readBuffer.compact();
+                    return;
+                }
+                while (!closed && readFrame()) {
+                    // Handle every complete frame
+                }
+                readBuffer.compact();
+            } catch (IOException e) {
+                close(e.getMessage());
+            }
+        }
+        
+        /**
+         * Answer the HTTP upgrade request
+         * @return false while the request is incomplete
+         */
+        private boolean readHandshake() throws IOException {
+            String request = StandardCharsets.ISO_8859_1.decode(readBuffer.duplicate()).toString();
+            int end = request.indexOf("\r\n\r\n");
+            if (end < 0) {
+                if (readBuffer.remaining() >= MAX_HANDSHAKE_SIZE) {
+                    reject("431 Request Header Fields Too Large");
+                }
+                return false;
+            }
+            readBuffer.position(readBuffer.position() + end + 4);
+            
+            String[] lines = request.substring(0, end).split("\r\n");
+            String[] requestLine = lines[0].split(" ");
+            Map<String, String> headers = new HashMap<>();
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon > 0) {
+                    headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                                lines[i].substring(colon + 1).trim());
+                }
+            }
+            
+            String target = requestLine.length == 3 ? requestLine[1] : "";
+            int query = target.indexOf('?');
+            if (!"GET".equals(requestLine[0]) || !path.equals(query < 0 ? target : target.substring(0, query))) {
+                reject("404 Not Found");
+                return false;
+            }
+            String key = headers.get("sec-websocket-key");
+            if (key == null || !"websocket".equalsIgnoreCase(headers.get("upgrade"))
+                || !"13".equals(headers.get("sec-websocket-version"))) {
+                reject("400 Bad Request");
+                return false;
+            }
+            String origin = headers.get("origin");
+            if (!allowedOrigins.isEmpty() && (origin == null || !allowedOrigins.contains(origin.toLowerCase(Locale.ROOT)))) {
+                reject("403 Forbidden");
+                return false;
+            }
+            
+            sendRaw(("HTTP/1.1 101 Switching Protocols\r\n" +
+                     "Upgrade: websocket\r\n" +
+                     "Connection: Upgrade\r\n" +
+                     "Sec-WebSocket-Accept: " + acceptKey(key) + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            session = new WebSocketSession(WebSocketGateway.this, this);
+            return true;
+        }
+        
+        private void reject(String status) throws IOException {
+            sendRaw(("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1));
+            closeAfterFlush();
+        }
+        
+        /**
+         * Handle the next frame in the read buffer
+         * @return false if it has not arrived completely
+         */
+        private boolean readFrame() throws IOException {
+            int start = readBuffer.position();
+            if (readBuffer.remaining() < 2) {
+                return false;
+            }
+            int first = readBuffer.get(start) & 0xFF;
+            int second = readBuffer.get(start + 1) & 0xFF;
+            boolean fin = (first & 0x80) != 0;
+            byte opcode = (byte) (first & 0x0F);
+            long length = second & 0x7F;
+            int headerSize = 2;
+            if (length == 126) {
+                headerSize = 4;
+                if (readBuffer.remaining() < headerSize) {
+                    return false;
+                }
+                length = readBuffer.getShort(start + 2) & 0xFFFF;
+            } else if (length == 127) {
+                headerSize = 10;
+                if (readBuffer.remaining() < headerSize) {
+                    return false;
+                }
+                length = readBuffer.getLong(start + 2);
+            }
+            if ((first & 0x70) != 0 || (second & 0x80) == 0) {
+                close(CLOSE_PROTOCOL_ERROR, "Frames from clients must be masked and have no extensions");
+                return false;
+            }
+            if (length < 0 || length > maxMessageSize) {
+                close(CLOSE_TOO_BIG, "Message too big");
+                return false;
+            }
+            headerSize += 4; // masking key
+            
+            int frameSize = headerSize + (int) length;
+            if (readBuffer.remaining() < frameSize) {
+                if (frameSize > readBuffer.capacity()) {
+                    ByteBuffer larger = ByteBuffer.allocate(frameSize);
+                    larger.put(readBuffer);
+                    larger.flip();
+                    readBuffer = larger;
+                }
+                return false;
+            }
+            
+            byte[] mask = new byte[4];
+            readBuffer.position(start + headerSize - 4);
+            readBuffer.get(mask);
+            byte[] payload = new byte[(int) length];
+            readBuffer.get(payload);
+            for (int i = 0; i < payload.length; i++) {
+                payload[i] ^= mask[i & 3];
+            }
+            handleFrame(fin, opcode, payload);
+            return true;
+        }
+        
+        private void handleFrame(boolean fin, byte opcode, byte[] payload) throws IOException {
+            switch (opcode) {
+                case OPCODE_TEXT:
+                case OPCODE_CONTINUATION:
+                    if ((opcode == OPCODE_TEXT) == (fragments != null)) {
+                        close(CLOSE_PROTOCOL_ERROR, "Unexpected continuation frame");
+                        return;
+                    }
+                    if (fin && fragments == null) {
+                        session.receive(new String(payload, StandardCharsets.UTF_8));
+                        return;
+                    }
+                    if (fragments == null) {
+                        fragments = new ByteArrayOutputStream();
+                    }
+                    if (fragments.size() + payload.length > maxMessageSize) {
+                        close(CLOSE_TOO_BIG, "Message too big");
+                        return;
+                    }
+                    fragments.write(payload);
+                    if (fin) {
+                        session.receive(new String(fragments.toByteArray(), StandardCharsets.UTF_8));
+                        fragments = null;
+                    }
+                    return;
+                case OPCODE_PING:
+                    send(encodeFrame(OPCODE_PONG, payload));
+                    return;
+                case OPCODE_PONG:
+                    return;
+                case OPCODE_CLOSE:
+                    close(payload.length >= 2 ? ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF) : CLOSE_NORMAL, null);
+                    return;
+                case OPCODE_BINARY:
+                    close(CLOSE_UNSUPPORTED, "Only text messages are supported");
+                    return;
+                default:
+                    close(CLOSE_PROTOCOL_ERROR, "Unknown opcode " + opcode);
+            }
+        }
+        
+        private void sendRaw(byte[] bytes) throws IOException {
+            send(ByteBuffer.wrap(bytes));
+        }
+        
+        /**
+         * Send a text message
+         * @throws IOException if the connection is closed or too far behind
+         */
+        void sendText(String text) throws IOException {
+            send(encodeFrame(OPCODE_TEXT, text.getBytes(StandardCharsets.UTF_8)));
+        }
+        
+        /**
+         * Write a frame, queueing what the socket does not take right away
+         * @throws IOException if the connection is closed or too far behind
+         */
+        void send(ByteBuffer frame) throws IOException {
+            synchronized (this) {
+                if (closed || closeAfterFlush) {
+                    throw new ClosedChannelException();
+                }
+                if (writeQueue.isEmpty()) {
+                    channel.write(frame);
+                }
+                if (!frame.hasRemaining()) {
+                    return;
+                }
+                if (pendingBytes + frame.remaining() <= maxPendingBytes) {
+                    writeQueue.add(frame);
+                    pendingBytes += frame.remaining();
+                    if (key != null && key.isValid()) {
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        key.selector().wakeup();
+                    }
+                    return;
+                }
+            }
+            droppedConnections.increment();
+            close("more than " + maxPendingBytes + " bytes waiting to be sent");
+            throw new IOException("Browser is not reading");
+        }
+        
+        /**
+         * Write the queued frames the socket takes now
+         */
+        void flush() {
+            boolean done = false;
+            synchronized (this) {
+                try {
+                    ByteBuffer frame;
+                    while ((frame = writeQueue.peek()) != null) {
+                        int before = frame.remaining();
+                        channel.write(frame);
+                        pendingBytes -= before - frame.remaining();
+                        if (frame.hasRemaining()) {
+                            return;
+                        }
+                        writeQueue.poll();
+                    }
+                    key.interestOps(SelectionKey.OP_READ);
+                    done = closeAfterFlush;
+                } catch (IOException e) {
+                    done = true;
+                }
+            }
+            if (done) {
+                close(null);
+            }
+        }
+        
+        /**
+         * Close once the frames already queued are written
+         */
+        private void closeAfterFlush() {
+            boolean flushed;
+            synchronized (this) {
+                closeAfterFlush = true;
+                flushed = writeQueue.isEmpty();
+            }
+            if (flushed) {
+                close(null);
+            }
+        }
+        
+        /**
+         * Send a close frame and close the connection after it
+         */
+        void close(int code, String reason) {
+            byte[] text = reason != null ? reason.getBytes(StandardCharsets.UTF_8) : new byte[0];
+            byte[] payload = Arrays.copyOf(new byte[] {(byte) (code >> 8), (byte) code}, 2 + Math.min(text.length, 123));
+            System.arraycopy(text, 0, payload, 2, payload.length - 2);
+            try {
+                send(encodeFrame(OPCODE_CLOSE, payload));
+                closeAfterFlush();
+            } catch (IOException e) {
+                close(null);
+            }
+        }
+        
+        void close(String reason) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                writeQueue.clear();
+            }
+            if (reason != null) {
+                System.err.println("WebSocket connection from " + host + " closed: " + reason);
+            }
+            connections.remove(this);
+            try {
+                if (key != null) {
+                    key.cancel();
+                }
+                channel.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+            if (session != null) {
+                session.closed();
+            }
+        }
+        
+        boolean isClosed() {
+            return closed;
+        }
+    }
+    
+    /**
+     * Compute the Sec-WebSocket-Accept value of a handshake key
+     */
+    static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return Base64.getEncoder().encodeToString(
+                sha1.digest((key + ACCEPT_GUID).getBytes(StandardCharsets.ISO_8859_1)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+    }
+}
@@ -0,0 +1,560 @@
+package com.collabboard.server;
+
+import com.collabboard.interfaces.ClientCallback;
+import com.collabboard.interfaces.RetryLaterException;
+import com.collabboard.models.ChatCatchUp;
+import com.collabboard.models.ChatMessage;
+import com.collabboard.models.DrawingAction;
+import com.collabboard.models.FileListPage;
+import com.collabboard.models.FileTransfer;
+import com.collabboard.models.User;
+import com.collabboard.utils.JsonCodec;
+
+import java.awt.Color;
+import java.awt.Point;
+import java.io.IOException;
+import java.rmi.ConnectException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A browser participant, bridged to the services as one more client
+ *
+ * Requests are JSON objects with an "op" and, to get a reply, a "rid" that the reply
+ * repeats: {"rid":1,"ok":true,...} or {"rid":1,"ok":false,"error":"...","retryAfter":ms}.
+ * Failed requests are answered even without a rid. Events are JSON objects with an "ev".
+ *
+ * hello {name, userId?, lastSeen?: {channel: sequence}}  -> {userId}, then catchup events
+ * chat {text, channel?, id?}                            -> {seq}
+ * typing {on}
+ * draw {type, points: [x, y, ...], color: "#rrggbb", width, text?}
+ * clear, undo
+ * board                                                  -> {actions}
+ * history {channel?, before?, limit?}                    -> {messages}
+ * users                                                  -> {users}
+ * channels                                               -> {channels, subscribed}
+ * join {channel}, leave {channel}
+ */
+class WebSocketSession implements ClientCallback {
+    
+    private static final int MAX_QUEUED_REQUESTS = 256;
+    
+    private final WebSocketGateway gateway;
+    private final WebSocketGateway.Connection connection;
+    private final Queue<String> requests = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedRequests = new AtomicInteger();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private volatile User user; // set by hello
+    
+    WebSocketSession(WebSocketGateway gateway, WebSocketGateway.Connection connection) {
+        this.gateway = gateway;
+        this.connection = connection;
+    }
+    
+    /**
+     * Queue a request, the requests of a session run one at a time in the order they came
+     */
+    void receive(String text) {
+        gateway.messagesIn.increment();
+        if (queuedRequests.incrementAndGet() > MAX_QUEUED_REQUESTS) {
+            connection.close(WebSocketGateway.CLOSE_POLICY, "Too many requests queued");
+            return;
+        }
+        requests.add(text);
+        if (draining.compareAndSet(false, true)) {
+            gateway.execute(connection.host, this::drain);
+        }
+    }
+    
+    private void drain() {
+        do {
+            String text;
+            while ((text = requests.poll()) != null) {
+                queuedRequests.decrementAndGet();
+                if (!connection.isClosed()) {
+                    handle(text);
+                }
+            }
+            draining.set(false);
+        } while (!requests.isEmpty() && draining.compareAndSet(false, true));
+    }
+    
+    private void handle(String text) {
+        Object rid = null;
+        try {
+            Object parsed = JsonCodec.parse(text);
+            if (!(parsed instanceof Map)) {
+                throw new IOException("Expected an object");
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, Object> request = (Map<String, Object>) parsed;
+            rid = request.get("rid");
+            Map<String, Object> reply = dispatch(string(request, "op", null), request);
+            if (rid != null) {
+                reply.put("rid", rid);
+                reply.put("ok", true);
+                connection.sendText(JsonCodec.write(reply));
+            }
+        } catch (RemoteException e) {
+            Map<String, Object> reply = error(rid, e.getMessage());
+            RetryLaterException retryLater = RetryLaterException.find(e);
+            if (retryLater != null) {
+                reply.put("error", retryLater.getMessage());
+                reply.put("retryAfter", retryLater.getRetryAfterMillis());
+            }
+            sendReply(reply);
+        } catch (IOException | RuntimeException e) {
+            sendReply(error(rid, "Invalid request: " + e));
+        }
+    }
+    
+    private Map<String, Object> dispatch(String op, Map<String, Object> request) throws IOException {
+        if (op == null) {
+            throw new RemoteException("Missing op");
+        }
+        if ("hello".equals(op)) {
+            return hello(request);
+        }
+        User current = user;
+        if (current == null) {
+            throw new RemoteException("Send hello first");
+        }
+        String userId = current.getUserId();
+        Map<String, Object> reply = new LinkedHashMap<>();
+        switch (op) {
+            case "chat": {
+                ChatMessage message = new ChatMessage(userId, current.getUsername(), string(request, "text", null));
+                String id = string(request, "id", null);
+                if (id != null) {
+                    message.setMessageId(id);
+                }
+                message.setChannel(string(request, "channel", ChatMessage.DEFAULT_CHANNEL));
+                reply.put("seq", gateway.chatService.sendMessage(message));
+                break;
+            }
+            case "typing":
+                gateway.chatService.notifyTyping(userId, current.getUsername(), Boolean.TRUE.equals(request.get("on")));
+                break;
+            case "draw":
+                gateway.whiteboardService.addDrawingAction(toDrawingAction(request, userId));
+                break;
+            case "clear":
+                gateway.whiteboardService.clearWhiteboard(userId);
+                break;
+            case "undo":
+                gateway.whiteboardService.undoLastAction(userId);
+                break;
+            case "board": {
+                List<Object> actions = new ArrayList<>();
+                for (DrawingAction action : gateway.whiteboardService.getAllActions()) {
+                    actions.add(toJson(action));
+                }
+                reply.put("actions", actions);
+                break;
+            }
+            case "history": {
+                List<Object> messages = new ArrayList<>();
+                for (ChatMessage message : gateway.chatService.getMessagesBefore(userId,
+                        string(request, "channel", ChatMessage.DEFAULT_CHANNEL),
+                        number(request, "before", Long.MAX_VALUE), (int) number(request, "limit", 50))) {
+                    messages.add(toJson(message));
+                }
+                reply.put("messages", messages);
+                break;
+            }
+            case "users":
+                reply.put("users", usersJson(gateway.chatService.getOnlineUsers()));
+                break;
+            case "channels":
+                reply.put("channels", gateway.chatService.getChannels());
+                reply.put("subscribed", gateway.chatService.getSubscribedChannels(userId));
+                break;
+            case "join":
+                gateway.chatService.joinChannel(userId, string(request, "channel", null));
+                break;
+            case "leave":
+                gateway.chatService.leaveChannel(userId, string(request, "channel", null));
+                break;
+            default:
+                throw new RemoteException("Unknown op " + op);
+        }
+        return reply;
+    }
+    
+    /**
+     * Sign in, or resume a session of the same user and catch up on the chat it missed
+     */
+    private Map<String, Object> hello(Map<String, Object> request) throws IOException {
+        if (user != null) {
+            throw new RemoteException("Already signed in");
+        }
+        String userId = string(request, "userId", "web_" + UUID.randomUUID().toString().substring(0, 8));
+        String name = string(request, "name", "Guest_" + userId.substring(Math.max(0, userId.length() - 4)));
+        User signedIn = new User(userId, name, connection.host);
+        
+        // A session of the same user on another connection is replaced, and its close must not sign this one out
+        WebSocketSession previous = gateway.sessionsByUser.put(userId, this);
+        if (previous != null) {
+            previous.connection.close(WebSocketGateway.CLOSE_NORMAL, "Signed in elsewhere");
+        }
+        user = signedIn;
+        
+        gateway.whiteboardService.registerClient(this, userId);
+        Object lastSeen = request.get("lastSeen");
+        List<ChatCatchUp> catchUps = null;
+        if (lastSeen instanceof Map) {
+            Map<String, Long> lastSeenSequences = new HashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) lastSeen).entrySet()) {
+                lastSeenSequences.put(String.valueOf(entry.getKey()), ((Number) entry.getValue()).longValue());
+            }
+            catchUps = gateway.chatService.resumeChatClient(this, signedIn, lastSeenSequences);
+        } else {
+            gateway.chatService.registerChatClient(this, signedIn);
+        }
+        gateway.fileService.registerFileClient(this, userId);
+        
+        if (catchUps != null) {
+            for (ChatCatchUp catchUp : catchUps) {
+                Map<String, Object> event = event("catchup");
+                event.put("channel", catchUp.getChannel());
+                event.put("replayed", catchUp.isReplayed());
+                event.put("skipped", catchUp.getSkippedCount());
+                event.put("last", catchUp.getLastSequence());
+                List<Object> messages = new ArrayList<>();
+                for (ChatMessage message : catchUp.getMessages()) {
+                    messages.add(toJson(message));
+                }
+                event.put("messages", messages);
+                send(event);
+            }
+        }
+        
+        Map<String, Object> reply = new LinkedHashMap<>();
+        reply.put("userId", userId);
+        return reply;
+    }
+    
+    /**
+     * Sign the user out of the services once the connection is gone
+     */
+    void closed() {
+        User current = user;
+        if (current == null || !gateway.sessionsByUser.remove(current.getUserId(), this)) {
+            return; // never signed in, or replaced by a newer session
+        }
+        gateway.execute(connection.host, () -> {
+            String userId = current.getUserId();
+            try {
+                gateway.whiteboardService.unregisterClient(this, userId);
+                gateway.chatService.unregisterChatClient(this, userId);
+                gateway.fileService.unregisterFileClient(this, userId);
+            } catch (RemoteException e) {
+                System.err.println("Error signing out WebSocket user " + userId + ": " + e.getMessage());
+            }
+        });
+    }
+    
+    private void sendReply(Map<String, Object> reply) {
+        try {
+            connection.sendText(JsonCodec.write(reply));
+        } catch (IOException e) {
+            // Closed, the services drop this session on their next event
+        }
+    }
+    
+    private static Map<String, Object> error(Object rid, String message) {
+        Map<String, Object> reply = new LinkedHashMap<>();
+        if (rid != null) {
+            reply.put("rid", rid);
+        }
+        reply.put("ok", false);
+        reply.put("error", message);
+        return reply;
+    }
+    
+    private static Map<String, Object> event(String name) {
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("ev", name);
+        return event;
+    }
+    
+    private void send(Map<String, Object> event) throws RemoteException {
+        try {
+            connection.sendText(JsonCodec.write(event));
+            gateway.eventsOut.increment();
+        } catch (IOException e) {
+            throw new ConnectException("Browser connection lost", e);
+        }
+    }
+    
+    private void sendShared(Object source, Supplier<Map<String, Object>> event) throws RemoteException {
+        try {
+            connection.send(gateway.eventFrame(source, () -> JsonCodec.write(event.get())));
+            gateway.eventsOut.increment();
+        } catch (IOException e) {
+            throw new ConnectException("Browser connection lost", e);
+        }
+    }
+    
+    // ClientCallback, called by the services like for any other client
+    
+    @Override
+    public void onDrawingActionReceived(DrawingAction action) throws RemoteException {
+        sendShared(action, () -> {
+            Map<String, Object> event = event("draw");
+            event.put("action", toJson(action));
+            return event;
+        });
+    }
+    
+    @Override
+    public void onWhiteboardCleared(String userId) throws RemoteException {
+        Map<String, Object> event = event("clear");
+        event.put("by", userId);
+        send(event);
+    }
+    
+    @Override
+    public void onUndoActionReceived(String userId) throws RemoteException {
+        Map<String, Object> event = event("undo");
+        event.put("by", userId);
+        send(event);
+    }
+    
+    @Override
+    public void onChatMessageReceived(ChatMessage message) throws RemoteException {
+        sendShared(message, () -> {
+            Map<String, Object> event = event("chat");
+            event.put("msg", toJson(message));
+            return event;
+        });
+    }
+    
+    @Override
+    public void onUserListUpdated(List<User> users) throws RemoteException {
+        Map<String, Object> event = event("users");
+        event.put("users", usersJson(users));
+        send(event);
+    }
+    
+    @Override
+    public void onUserJoined(User user) throws RemoteException {
+        Map<String, Object> event = event("joined");
+        event.put("user", toJson(user));
+        send(event);
+    }
+    
+    @Override
+    public void onUserLeft(User user) throws RemoteException {
+        Map<String, Object> event = event("left");
+        event.put("user", toJson(user));
+        send(event);
+    }
+    
+    @Override
+    public void onUserUpdated(User user) throws RemoteException {
+        Map<String, Object> event = event("user");
+        event.put("user", toJson(user));
+        send(event);
+    }
+    
+    @Override
+    public void onPresenceChecksum(long version, long checksum) throws RemoteException {
+        Map<String, Object> event = event("presence");
+        event.put("version", version);
+        event.put("checksum", checksum);
+        send(event);
+    }
+    
+    @Override
+    public void onTypingUsersUpdated(List<String> usernames) throws RemoteException {
+        Map<String, Object> event = event("typing");
+        event.put("users", usernames);
+        send(event);
+    }
+    
+    @Override
+    public void onFileShared(FileTransfer fileMetadata) throws RemoteException {
+        Map<String, Object> event = event("file");
+        event.put("file", toJson(fileMetadata));
+        send(event);
+    }
+    
+    @Override
+    public void onSharedFilesLoaded(FileListPage page) throws RemoteException {
+        Map<String, Object> event = event("files");
+        List<Object> files = new ArrayList<>();
+        for (FileTransfer file : page.getFiles()) {
+            files.add(toJson(file));
+        }
+        event.put("files", files);
+        event.put("total", page.getTotalFiles());
+        event.put("more", page.hasMore());
+        send(event);
+    }
+    
+    @Override
+    public void onFileDeleted(String fileId, String deletedBy) throws RemoteException {
+        onFilesDeleted(List.of(fileId), deletedBy);
+    }
+    
+    @Override
+    public void onFilesDeleted(List<String> fileIds, String deletedBy) throws RemoteException {
+        Map<String, Object> event = event("filesDeleted");
+        event.put("ids", fileIds);
+        event.put("by", deletedBy);
+        send(event);
+    }
+    
+    @Override
+    public void onAudioSessionStarted(String sessionId) throws RemoteException {
+        audioEvent("audioStarted", sessionId, null, null);
+    }
+    
+    @Override
+    public void onAudioSessionEnded(String sessionId) throws RemoteException {
+        audioEvent("audioEnded", sessionId, null, null);
+    }
+    
+    @Override
+    public void onUserJoinedAudio(String userId, String username) throws RemoteException {
+        audioEvent("audioJoined", null, userId, username);
+    }
+    
+    @Override
+    public void onUserLeftAudio(String userId, String username) throws RemoteException {
+        audioEvent("audioLeft", null, userId, username);
+    }
+    
+    private void audioEvent(String name, String sessionId, String userId, String username) throws RemoteException {
+        Map<String, Object> event = event(name);
+        event.put("session", sessionId);
+        event.put("userId", userId);
+        event.put("name", username);
+        send(event);
+    }
+    
+    @Override
+    public void onServerNotification(String message) throws RemoteException {
+        Map<String, Object> event = event("notice");
+        event.put("text", message);
+        send(event);
+    }
+    
+    @Override
+    public void onServerError(String errorMessage) throws RemoteException {
+        Map<String, Object> event = event("error");
+        event.put("text", errorMessage);
+        send(event);
+    }
+    
+    // JSON forms of the models, with short names to keep frames small
+    
+    private static Map<String, Object> toJson(ChatMessage message) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("id", message.getMessageId());
+        json.put("seq", message.getSequenceNumber());
+        json.put("ch", message.getChannel());
+        json.put("from", message.getUserId());
+        json.put("name", message.getUsername());
+        json.put("text", message.getContent());
+        json.put("type", message.getMessageType());
+        json.put("ts", message.getTimestampMillis());
+        if (message.getMessageType() == ChatMessage.MessageType.FILE) {
+            json.put("fileName", message.getFileName());
+            json.put("fileSize", message.getFileSize());
+        }
+        return json;
+    }
+    
+    private static Map<String, Object> toJson(DrawingAction action) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("type", action.getActionType());
+        List<Integer> points = new ArrayList<>();
+        if (action.getPoints() != null) {
+            for (Point point : action.getPoints()) {
+                points.add(point.x);
+                points.add(point.y);
+            }
+        }
+        json.put("points", points);
+        json.put("color", action.getColor() != null ? String.format("#%06x", action.getColor().getRGB() & 0xFFFFFF) : null);
+        json.put("width", action.getStrokeWidth());
+        if (action.getText() != null) {
+            json.put("text", action.getText());
+        }
+        json.put("by", action.getUserId());
+        json.put("ts", action.getTimestamp());
+        return json;
+    }
+    
+    private static Map<String, Object> toJson(User user) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("id", user.getUserId());
+        json.put("name", user.getUsername());
+        json.put("online", user.isOnline());
+        json.put("audio", user.isAudioEnabled());
+        json.put("muted", user.isMuted());
+        return json;
+    }
+    
+    private static Map<String, Object> toJson(FileTransfer file) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("id", file.getFileId());
+        json.put("name", file.getFileName());
+        json.put("type", file.getFileType());
+        json.put("size", file.getFileSize());
+        json.put("by", file.getUploaderName());
+        json.put("ts", file.getUploadTime());
+        json.put("version", file.getVersion());
+        return json;
+    }
+    
+    private static List<Object> usersJson(List<User> users) {
+        List<Object> json = new ArrayList<>();
+        for (User user : users) {
+            json.add(toJson(user));
+        }
+        return json;
+    }
+    
+    private static DrawingAction toDrawingAction(Map<String, Object> request, String userId) {
+        DrawingAction action = new DrawingAction();
+        action.setActionType(DrawingAction.ActionType.valueOf(string(request, "type", "DRAW_LINE")));
+        List<Point> points = new ArrayList<>();
+        Object coordinates = request.get("points");
+        if (coordinates instanceof List) {
+            List<?> values = (List<?>) coordinates;
+            for (int i = 0; i + 1 < values.size(); i += 2) {
+                points.add(new Point(((Number) values.get(i)).intValue(), ((Number) values.get(i + 1)).intValue()));
+            }
+        }
+        action.setPoints(points);
+        String color = string(request, "color", "#000000");
+        action.setColor(new Color(Integer.parseInt(color.startsWith("#") ? color.substring(1) : color, 16)));
+        action.setStrokeWidth((int) number(request, "width", 2));
+        action.setText(string(request, "text", null));
+        action.setUserId(userId);
+        return action;
+    }
+    
+    private static String string(Map<String, Object> request, String name, String defaultValue) {
+        Object value = request.get(name);
+        return value != null ? (String) value : defaultValue;
+    }
+    
+    private static long number(Map<String, Object> request, String name, long defaultValue) {
+        Object value = request.get(name);
+        return value != null ? ((Number) value).longValue() : defaultValue;
+    }
+}
@@ -22,10 +22,23 @@ public class WhiteboardServerImpl extends UnicastRemoteObject implements Whitebo
     private final Properties config;
     private final String saveDirectory;
     private final int maxActions;
+    private final TrafficScheduler trafficScheduler;
+    private final RateLimiter rateLimiter;
     
     public WhiteboardServerImpl(Properties config) throws RemoteException {
+        this(config, new TrafficScheduler(config));
+    }
+    
+    public WhiteboardServerImpl(Properties config, TrafficScheduler trafficScheduler) throws RemoteException {
+        this(config, trafficScheduler, new RateLimiter(config));
+    }
+    
+    public WhiteboardServerImpl(Properties config, TrafficScheduler trafficScheduler, 
+                                RateLimiter rateLimiter) throws RemoteException {
         super();
         this.config = config;
+        this.trafficScheduler = trafficScheduler;
+        this.rateLimiter = rateLimiter;
         this.drawingActions = new CopyOnWriteArrayList<>();
         this.clients = new ConcurrentHashMap<>();
         this.saveDirectory = config.getProperty("whiteboard.save.directory", "./whiteboards");
@@ -42,6 +55,7 @@ public class WhiteboardServerImpl extends UnicastRemoteObject implements Whitebo
         if (action == null) {
             throw new RemoteException("Drawing action cannot be null");
         }
+        rateLimiter.acquire(action.getUserId(), RateLimiter.Operation.WHITEBOARD_DRAW);
         
         // Add timestamp if not set
         if (action.getTimestamp() == 0) {
@@ -59,7 +73,7 @@ public class WhiteboardServerImpl extends UnicastRemoteObject implements Whitebo
         System.out.println("Drawing action added: " + action.getActionType() + " by " + action.getUserId());
         
         // Notify all clients about the new action
-        notifyAllClients(callback -> callback.onDrawingActionReceived(action));
+        trafficScheduler.runInteractive(() -> notifyAllClients(callback -> callback.onDrawingActionReceived(action)));
     }
     
     @Override
@@ -67,13 +81,14 @@ public class WhiteboardServerImpl extends UnicastRemoteObject implements Whitebo
         if (userId == null || userId.trim().isEmpty()) {
             throw new RemoteException("User ID cannot be null or empty");
         }
+        rateLimiter.acquire(userId, RateLimiter.Operation.WHITEBOARD_EDIT);
         
         drawingActions.clear();
         
         System.out.println("Whiteboard cleared by user: " + userId);
         
         // Notify all clients about the clear action
-        notifyAllClients(callback -> callback.onWhiteboardCleared(userId));
+        trafficScheduler.runInteractive(() -> notifyAllClients(callback -> callback.onWhiteboardCleared(userId)));
     }
     
     @Override
@@ -81,6 +96,7 @@ public class WhiteboardServerImpl extends UnicastRemoteObject implements Whitebo
         if (userId == null || userId.trim().isEmpty()) {
             throw new RemoteException("User ID cannot be null or empty");
         }
+        rateLimiter.acquire(userId, RateLimiter.Operation.WHITEBOARD_EDIT);
         
         if (!drawingActions.isEmpty()) {
             DrawingAction lastAction = drawingActions.remove(drawingActions.size() - 1);
@@ -89,11 +105,12 @@ public class WhiteboardServerImpl extends UnicastRemoteObject implements Whitebo
         }
         
         // Notify all clients about the undo action
-        notifyAllClients(callback -> callback.onUndoActionReceived(userId));
+        trafficScheduler.runInteractive(() -> notifyAllClients(callback -> callback.onUndoActionReceived(userId)));
     }
     
     @Override
     public List<DrawingAction> getAllActions() throws RemoteException {
+        rateLimiter.acquire(null, RateLimiter.Operation.WHITEBOARD_READ);
         return new ArrayList<>(drawingActions);
     }
     
@@ -143,6 +160,7 @@ public class WhiteboardServerImpl extends UnicastRemoteObject implements Whitebo
         if (userId == null || userId.trim().isEmpty()) {
             throw new RemoteException("User ID cannot be null or empty");
         }
+        rateLimiter.acquire(userId, RateLimiter.Operation.WHITEBOARD_STORE);
         
         try {
             String safeFileName = FileUtils.getSafeFileName(fileName);
@@ -181,6 +199,7 @@ public class WhiteboardServerImpl extends UnicastRemoteObject implements Whitebo
         if (userId == null || userId.trim().isEmpty()) {
             throw new RemoteException("User ID cannot be null or empty");
         }
+        rateLimiter.acquire(userId, RateLimiter.Operation.WHITEBOARD_STORE);
         
         try {
             String safeFileName = FileUtils.getSafeFileName(fileName);
@@ -0,0 +1,560 @@
+package com.collabboard.utils;
+
+import com.collabboard.interfaces.ChatService;
+import com.collabboard.interfaces.ClientCallback;
+import com.collabboard.interfaces.FileService;
+import com.collabboard.interfaces.RetryLaterException;
+import com.collabboard.interfaces.WhiteboardService;
+import com.collabboard.models.BlockSignature;
+import com.collabboard.models.ChatCatchUp;
+import com.collabboard.models.ChatMessage;
+import com.collabboard.models.DeltaInstruction;
+import com.collabboard.models.DrawingAction;
+import com.collabboard.models.FileListPage;
+import com.collabboard.models.FileTransfer;
+import com.collabboard.models.TransferTicket;
+import com.collabboard.models.User;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInput;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.rmi.RemoteException;
+import java.rmi.ServerException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Framing and encoding of the binary transport, shared by both ends
+ *
+ * Every frame is length-prefixed, the length counting the bytes after it:
+ *   4-byte length, 1-byte kind, 4-byte request ID, 2-byte opcode, payload
+ * A request carries the arguments of a service call and is answered by a response with
+ * the return value or an error with the exception, both with the request's ID. Requests
+ * are pipelined: a client sends more before earlier ones are answered, and answers may
+ * come back in any order. Callbacks go from the server to the client and are not answered.
+ *
+ * The opcode is the index of the method in a table of the service and callback interfaces
+ * sorted by signature, so both ends must run the same build. The hello frame that opens a
+ * connection carries the protocol version and a hash of the table.
+ *
+ * Values are tagged. Null, strings, numbers, booleans, byte arrays, lists and maps are
+ * written directly, Externalizable models through their own writeExternal, and any other
+ * Serializable value with Java serialization. Serialized values are only read for the exact
+ * model, collection and exception classes the services exchange, and within limits on depth,
+ * object count and array length.
+ */
+public class BinaryProtocol {
+    
+    public static final int VERSION = 1;
+    
+    // Frame kinds
+    public static final byte KIND_HELLO = 0;
+    public static final byte KIND_REQUEST = 1;
+    public static final byte KIND_RESPONSE = 2;
+    public static final byte KIND_ERROR = 3;
+    public static final byte KIND_CALLBACK = 4;
+    
+    public static final int LENGTH_SIZE = 4;
+    public static final int HEADER_SIZE = 7; // kind, request ID and opcode, after the length
+    
+    // Value tags
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_STRING = 1;
+    private static final byte TAG_INT = 2;
+    private static final byte TAG_LONG = 3;
+    private static final byte TAG_TRUE = 4;
+    private static final byte TAG_FALSE = 5;
+    private static final byte TAG_BYTES = 6;
+    private static final byte TAG_LIST = 7;
+    private static final byte TAG_MAP = 8;
+    private static final byte TAG_CALLBACK = 9; // the client's callback, bound to its connection
+    private static final byte TAG_EXTERNAL = 10;
+    private static final byte TAG_SERIALIZED = 11;
+    private static final byte TAG_DOUBLE = 12;
+    
+    private static final String MODEL_PACKAGE = "com.collabboard.models.";
+    
+    // Classes read by Java serialization, anything else is rejected
+    private static final List<Class<?>> SERIALIZED_MODELS = Arrays.asList(
+        BlockSignature.class, ChatCatchUp.class, ChatMessage.class, DeltaInstruction.class, DrawingAction.class,
+        DrawingAction.ActionType.class, FileListPage.class, FileTransfer.class, TransferTicket.class, User.class,
+        java.awt.Color.class, java.awt.Point.class,
+        ArrayList.class, Collections.emptyList().getClass(),
+        Object.class, Enum.class, StackTraceElement.class);
+    private static final Set<Class<?>> SERIALIZED_ERRORS = Stream.of(
+        Throwable.class, Exception.class, RuntimeException.class, IOException.class,
+        IllegalArgumentException.class, IllegalStateException.class, NullPointerException.class,
+        UnsupportedOperationException.class,
+        RemoteException.class, ServerException.class, RetryLaterException.class)
+        .collect(Collectors.toSet());
+    private static final int MAX_SERIALIZED_DEPTH = 20;
+    private static final int MAX_SERIALIZED_REFS = 2_000_000;
+    private static final int MAX_SERIALIZED_BYTES_ARRAY = 64 * 1024 * 1024; // file chunks, bounded by the frame
+    private static final ObjectInputFilter SERIALIZED_CLASSES = ObjectInputFilter.Config.createFilter(
+        Stream.concat(SERIALIZED_MODELS.stream(), SERIALIZED_ERRORS.stream())
+            .map(Class::getName)
+            .collect(Collectors.joining(";", "", ";maxdepth=" + MAX_SERIALIZED_DEPTH + ";maxrefs=" + MAX_SERIALIZED_REFS
+                                                  + ";maxarray=" + MAX_SERIALIZED_BYTES_ARRAY + ";!*")));
+    // Arrays of references are allocated before their elements are read, so they get the object limit
+    private static final ObjectInputFilter SERIALIZED_FILTER = info -> {
+        Class<?> type = info.serialClass();
+        if (type != null && type.isArray() && !type.getComponentType().isPrimitive()
+            && info.arrayLength() > MAX_SERIALIZED_REFS) {
+            return ObjectInputFilter.Status.REJECTED;
+        }
+        return SERIALIZED_CLASSES.checkInput(info);
+    };
+    
+    private static final Class<?>[] INTERFACES = {
+        WhiteboardService.class, ChatService.class, FileService.class, ClientCallback.class
+    };
+    private static final Method[] METHODS; // opcode -> method
+    private static final Map<Method, Integer> OPCODES;
+    private static final int TABLE_HASH;
+    
+    static {
+        List<Method> methods = new ArrayList<>();
+        StringBuilder table = new StringBuilder();
+        for (Class<?> type : INTERFACES) {
+            Method[] declared = type.getDeclaredMethods();
+            Arrays.sort(declared, Comparator.comparing(BinaryProtocol::signature));
+            for (Method method : declared) {
+                if (!method.isSynthetic() && !java.lang.reflect.Modifier.isStatic(method.getModifiers())) {
+                    methods.add(method);
+                    table.append(signature(method)).append(';');
+                }
+            }
+        }
+        METHODS = methods.toArray(new Method[0]);
+        OPCODES = new HashMap<>();
+        for (int i = 0; i < METHODS.length; i++) {
+            OPCODES.put(METHODS[i], i);
+        }
+        TABLE_HASH = table.toString().hashCode();
+    }
+    
+    private static String signature(Method method) {
+        return method.getDeclaringClass().getSimpleName() + "." + method.getName()
+            + Arrays.toString(method.getParameterTypes());
+    }
+    
+    /**
+     * Get the opcode of a service or callback method
+     * @throws IllegalArgumentException if the method is not part of the protocol
+     */
+    public static int getOpcode(Method method) {
+        Integer opcode = OPCODES.get(method);
+        if (opcode == null) {
+            throw new IllegalArgumentException("Not a remote method: " + method);
+        }
+        return opcode;
+    }
+    
+    /**
+     * Get the method of an opcode
+     * @return The method, or null if the opcode is unknown
+     */
+    public static Method getMethod(int opcode) {
+        return opcode >= 0 && opcode < METHODS.length ? METHODS[opcode] : null;
+    }
+    
+    /**
+     * Get an exception the other end can read
+     * @return The exception itself if it and its causes are of classes the other end accepts,
+     *         otherwise a RemoteException with its text and stack trace
+     */
+    public static Throwable portableError(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (!SERIALIZED_ERRORS.contains(cause.getClass()) || cause.getSuppressed().length > 0) {
+                RemoteException portable = new RemoteException(String.valueOf(error));
+                portable.setStackTrace(error.getStackTrace());
+                return portable;
+            }
+        }
+        return error;
+    }
+    
+    /**
+     * Get the hash of the method table, the same on both ends only when they agree on opcodes
+     */
+    public static int getTableHash() {
+        return TABLE_HASH;
+    }
+    
+    /**
+     * Encode the hello frame that opens a connection
+     */
+    public static ByteBuffer encodeHello() throws IOException {
+        return encodeFrame(KIND_HELLO, 0, 0, VERSION, TABLE_HASH);
+    }
+    
+    /**
+     * Check the hello frame of the other end
+     * @throws IOException if it runs another version or build
+     */
+    public static void checkHello(Frame frame) throws IOException {
+        Object[] values = frame.readValues(2, null);
+        if (frame.getKind() != KIND_HELLO || !Integer.valueOf(VERSION).equals(values[0])
+            || !Integer.valueOf(TABLE_HASH).equals(values[1])) {
+            throw new IOException("Incompatible binary transport peer (version " + values[0] + ")");
+        }
+    }
+    
+    /**
+     * Encode a frame
+     * @param values Payload values, ClientCallback instances are sent as the connection's callback
+     */
+    public static ByteBuffer encodeFrame(byte kind, int requestId, int opcode, Object... values) throws IOException {
+        FrameOutput out = new FrameOutput();
+        out.writeInt(0); // length, filled in below
+        out.writeByte(kind);
+        out.writeInt(requestId);
+        out.writeShort(opcode);
+        if (values != null) {
+            for (Object value : values) {
+                out.writeObject(value);
+            }
+        }
+        return out.toFrame();
+    }
+    
+    /**
+     * A received frame, without its length prefix
+     */
+    public static class Frame {
+        private final byte kind;
+        private final int requestId;
+        private final int opcode;
+        private final byte[] data;
+        private final int payloadOffset;
+        private final int payloadLength;
+        
+        /**
+         * Parse the header of a frame
+         * @param data Array holding the frame
+         * @param offset Start of the frame after its length prefix
+         * @param length Length of the frame
+         */
+        public Frame(byte[] data, int offset, int length) {
+            ByteBuffer header = ByteBuffer.wrap(data, offset, HEADER_SIZE);
+            this.kind = header.get();
+            this.requestId = header.getInt();
+            this.opcode = header.getShort() & 0xFFFF;
+            this.data = data;
+            this.payloadOffset = offset + HEADER_SIZE;
+            this.payloadLength = length - HEADER_SIZE;
+        }
+        
+        public byte getKind() {
+            return kind;
+        }
+        
+        public int getRequestId() {
+            return requestId;
+        }
+        
+        public int getOpcode() {
+            return opcode;
+        }
+        
+        /**
+         * Decode the payload values
+         * @param count Number of values
+         * @param callback Value of callback arguments, null on the client
+         */
+        public Object[] readValues(int count, Object callback) throws IOException {
+            FrameInput in = new FrameInput(data, payloadOffset, payloadLength, callback);
+            Object[] values = new Object[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = in.readValue();
+            }
+            return values;
+        }
+    }
+    
+    /**
+     * Writes tagged values, and is the ObjectOutput Externalizable models write themselves to
+     */
+    private static class FrameOutput extends DataOutputStream implements ObjectOutput {
+        private final List<Class<?>> classes = new ArrayList<>(); // Externalizable classes written so far
+        
+        FrameOutput() {
+            super(new ExposedByteArrayOutputStream());
+        }
+        
+        ByteBuffer toFrame() {
+            ExposedByteArrayOutputStream bytes = (ExposedByteArrayOutputStream) out;
+            ByteBuffer frame = ByteBuffer.wrap(bytes.getBuffer(), 0, bytes.size());
+            frame.putInt(0, bytes.size() - LENGTH_SIZE);
+            return frame;
+        }
+        
+        @Override
+        public void writeObject(Object value) throws IOException {
+            if (value == null) {
+                writeByte(TAG_NULL);
+            } else if (value instanceof String) {
+                writeByte(TAG_STRING);
+                writeString((String) value);
+            } else if (value instanceof Integer) {
+                writeByte(TAG_INT);
+                writeVarLong(zigzag((Integer) value));
+            } else if (value instanceof Long) {
+                writeByte(TAG_LONG);
+                writeVarLong(zigzag((Long) value));
+            } else if (value instanceof Boolean) {
+                writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+            } else if (value instanceof Double) {
+                writeByte(TAG_DOUBLE);
+                writeDouble((Double) value);
+            } else if (value instanceof byte[]) {
+                byte[] bytes = (byte[]) value;
+                writeByte(TAG_BYTES);
+                writeVarLong(bytes.length);
+                write(bytes);
+            } else if (value instanceof ClientCallback) {
+                writeByte(TAG_CALLBACK);
+            } else if (value instanceof List && isDirect((List<?>) value)) {
+                List<?> list = (List<?>) value;
+                writeByte(TAG_LIST);
+                writeVarLong(list.size());
+                for (Object element : list) {
+                    writeObject(element);
+                }
+            } else if (value instanceof Map && isDirect(((Map<?, ?>) value).keySet())
+                       && isDirect(((Map<?, ?>) value).values())) {
+                Map<?, ?> map = (Map<?, ?>) value;
+                writeByte(TAG_MAP);
+                writeVarLong(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    writeObject(entry.getKey());
+                    writeObject(entry.getValue());
+                }
+            } else if (value instanceof Externalizable && value.getClass().getName().startsWith(MODEL_PACKAGE)) {
+                writeByte(TAG_EXTERNAL);
+                // Each class is named once per frame, later values refer to it by number
+                int index = classes.indexOf(value.getClass());
+                if (index < 0) {
+                    writeVarLong(0);
+                    writeString(value.getClass().getName());
+                    classes.add(value.getClass());
+                } else {
+                    writeVarLong(index + 1);
+                }
+                ((Externalizable) value).writeExternal(this);
+            } else if (value instanceof Serializable) {
+                // A whole list of such values is one stream, so class descriptors are written once
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (ObjectOutputStream stream = new ObjectOutputStream(bytes)) {
+                    stream.writeObject(value);
+                }
+                writeByte(TAG_SERIALIZED);
+                writeVarLong(bytes.size());
+                bytes.writeTo(this);
+            } else {
+                throw new IOException("Cannot encode " + value.getClass().getName());
+            }
+        }
+        
+        /**
+         * Check that the elements of a collection are written directly or as Externalizable models
+         */
+        private static boolean isDirect(java.util.Collection<?> values) {
+            for (Object value : values) {
+                if (value != null && !(value instanceof String || value instanceof Number || value instanceof Boolean
+                    || value instanceof byte[] || value instanceof Externalizable)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        private void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            write(bytes);
+        }
+        
+        private void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+        
+        private static long zigzag(long value) {
+            return (value << 1) ^ (value >> 63);
+        }
+    }
+    
+    /**
+     * Reads tagged values, and is the ObjectInput Externalizable models read themselves from
+     */
+    private static class FrameInput extends DataInputStream implements ObjectInput {
+        private final Object callback;
+        private final List<Class<?>> classes = new ArrayList<>();
+        
+        FrameInput(byte[] data, int offset, int length, Object callback) {
+            super(new ByteArrayInputStream(data, offset, length));
+            this.callback = callback;
+        }
+        
+        @Override
+        public Object readObject() throws IOException {
+            return readValue();
+        }
+        
+        Object readValue() throws IOException {
+            byte tag = readByte();
+            switch (tag) {
+                case TAG_NULL:
+                    return null;
+                case TAG_STRING:
+                    return readString();
+                case TAG_INT:
+                    return (int) unzigzag(readVarLong());
+                case TAG_LONG:
+                    return unzigzag(readVarLong());
+                case TAG_TRUE:
+                    return Boolean.TRUE;
+                case TAG_FALSE:
+                    return Boolean.FALSE;
+                case TAG_DOUBLE:
+                    return readDouble();
+                case TAG_BYTES: {
+                    byte[] bytes = new byte[checkLength(readVarLong())];
+                    readFully(bytes);
+                    return bytes;
+                }
+                case TAG_CALLBACK:
+                    return callback;
+                case TAG_LIST: {
+                    int size = checkLength(readVarLong());
+                    List<Object> list = new ArrayList<>(Math.min(size, 1024));
+                    for (int i = 0; i < size; i++) {
+                        list.add(readValue());
+                    }
+                    return list;
+                }
+                case TAG_MAP: {
+                    int size = checkLength(readVarLong());
+                    Map<Object, Object> map = new HashMap<>();
+                    for (int i = 0; i < size; i++) {
+                        map.put(readValue(), readValue());
+                    }
+                    return map;
+                }
+                case TAG_EXTERNAL:
+                    return readExternalizable();
+                case TAG_SERIALIZED:
+                    return readSerialized();
+                default:
+                    throw new IOException("Unknown value tag " + tag);
+            }
+        }
+        
+        private Object readExternalizable() throws IOException {
+            int classRef = checkLength(readVarLong());
+            Class<?> type;
+            if (classRef == 0) {
+                String name = readString();
+                try {
+                    type = name.startsWith(MODEL_PACKAGE) ? Class.forName(name) : null;
+                } catch (ClassNotFoundException e) {
+                    type = null;
+                }
+                if (type == null || !Externalizable.class.isAssignableFrom(type)) {
+                    throw new InvalidClassException(name, "not an Externalizable model");
+                }
+                classes.add(type);
+            } else if (classRef <= classes.size()) {
+                type = classes.get(classRef - 1);
+            } else {
+                throw new IOException("Unknown class reference " + classRef);
+            }
+            
+            try {
+                Externalizable value = (Externalizable) type.getConstructor().newInstance();
+                value.readExternal(this);
+                return value;
+            } catch (ReflectiveOperationException e) {
+                throw new InvalidClassException(type.getName(), e.toString());
+            }
+        }
+        
+        private Object readSerialized() throws IOException {
+            byte[] bytes = new byte[checkLength(readVarLong())];
+            readFully(bytes);
+            try (ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                stream.setObjectInputFilter(SERIALIZED_FILTER);
+                return stream.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new InvalidClassException(e.getMessage());
+            }
+        }
+        
+        private String readString() throws IOException {
+            byte[] bytes = new byte[checkLength(readVarLong())];
+            readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        
+        private int checkLength(long length) throws IOException {
+            if (length < 0 || length > available()) {
+                throw new IOException("Invalid length " + length);
+            }
+            return (int) length;
+        }
+        
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+        
+        private static long unzigzag(long value) {
+            return (value >>> 1) ^ -(value & 1);
+        }
+    }
+    
+    /**
+     * Gives access to the written bytes without copying them
+     */
+    private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+        ExposedByteArrayOutputStream() {
+            super(256);
+        }
+        
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+}
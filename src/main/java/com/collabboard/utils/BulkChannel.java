@@ -0,0 +1,167 @@
+package com.collabboard.utils;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Socket of one bulk transfer with a deadline on every read and write
+ * The socket is switched to non-blocking mode and waits for readiness on its own selector,
+ * so a peer that stops sending or reading fails the transfer after the timeout instead of
+ * holding a thread forever. A transfer also fails when too many reads or writes in a row
+ * move no bytes.
+ */
+public class BulkChannel implements ByteChannel {
+    
+    public static final int MAX_IDLE_MOVES = 16;
+    
+    private static final int RECEIVE_BUFFER_SIZE = 64 * 1024;
+    
+    private final SocketChannel socket;
+    private final Selector selector;
+    private final SelectionKey key;
+    private long timeoutMillis;
+    private ByteBuffer receiveBuffer;
+    private int idleMoves;
+    
+    /**
+     * Wrap a connected socket
+     * @param socket Connected socket, owned by this channel from now on
+     * @param timeoutMillis Longest wait for the peer to send or accept any bytes
+     */
+    public BulkChannel(SocketChannel socket, long timeoutMillis) throws IOException {
+        this.socket = socket;
+        this.timeoutMillis = timeoutMillis;
+        this.selector = Selector.open();
+        try {
+            socket.configureBlocking(false);
+            this.key = socket.register(selector, 0);
+        } catch (IOException e) {
+            selector.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * Read into a buffer, waiting until at least one byte arrives
+     * @return The number of bytes read, or -1 at the end of the stream
+     */
+    @Override
+    public int read(ByteBuffer buffer) throws IOException {
+        while (true) {
+            int read = socket.read(buffer);
+            if (read != 0 || !buffer.hasRemaining()) {
+                idleMoves = 0;
+                return read;
+            }
+            await(SelectionKey.OP_READ);
+        }
+    }
+    
+    /**
+     * Write from a buffer, waiting until at least one byte is accepted
+     * @return The number of bytes written
+     */
+    @Override
+    public int write(ByteBuffer buffer) throws IOException {
+        while (true) {
+            int written = socket.write(buffer);
+            if (written > 0 || !buffer.hasRemaining()) {
+                idleMoves = 0;
+                return written;
+            }
+            await(SelectionKey.OP_WRITE);
+        }
+    }
+    
+    /**
+     * Send a range of a file with transferTo, so the bytes never pass through the heap
+     * @return The number of bytes sent, which is count unless the file is shorter
+     */
+    public long sendFile(FileChannel file, long position, long count) throws IOException {
+        long sent = 0;
+        while (sent < count) {
+            long moved = file.transferTo(position + sent, count - sent, socket);
+            if (moved > 0) {
+                idleMoves = 0;
+                sent += moved;
+            } else if (position + sent >= file.size()) {
+                break;
+            } else {
+                await(SelectionKey.OP_WRITE);
+            }
+        }
+        return sent;
+    }
+    
+    /**
+     * Receive bytes into a range of a file through a direct buffer
+     * @return The number of bytes received, which is less than count only at the
+     *         end of the stream, or -1 if the stream ended before any bytes
+     */
+    public long receiveFile(FileChannel file, long position, long count) throws IOException {
+        if (receiveBuffer == null) {
+            receiveBuffer = ByteBuffer.allocateDirect(RECEIVE_BUFFER_SIZE);
+        }
+        
+        long received = 0;
+        while (received < count) {
+            receiveBuffer.clear();
+            receiveBuffer.limit((int) Math.min(receiveBuffer.capacity(), count - received));
+            if (read(receiveBuffer) < 0) {
+                return received == 0 ? -1 : received;
+            }
+            receiveBuffer.flip();
+            while (receiveBuffer.hasRemaining()) {
+                received += file.write(receiveBuffer, position + received);
+            }
+        }
+        return received;
+    }
+    
+    /**
+     * Change the longest wait for the peer to send or accept any bytes
+     */
+    public void setTimeout(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+    
+    /**
+     * Get the address of the peer
+     */
+    public SocketAddress getRemoteAddress() throws IOException {
+        return socket.getRemoteAddress();
+    }
+    
+    private void await(int operation) throws IOException {
+        if (++idleMoves > MAX_IDLE_MOVES) {
+            throw new IOException("Transfer stalled: " + MAX_IDLE_MOVES + " reads or writes in a row moved no bytes");
+        }
+        
+        key.interestOps(operation);
+        if (selector.select(timeoutMillis) == 0) {
+            throw new SocketTimeoutException("Transfer timed out after " + timeoutMillis + " ms without progress");
+        }
+        selector.selectedKeys().clear();
+    }
+    
+    @Override
+    public boolean isOpen() {
+        return socket.isOpen();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        try {
+            selector.close();
+        } finally {
+            socket.close();
+        }
+    }
+}
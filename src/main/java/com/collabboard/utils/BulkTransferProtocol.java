@@ -0,0 +1,109 @@
+package com.collabboard.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Framing helpers shared by both ends of the bulk transfer channel
+ * 
+ * A transfer starts with a token frame from the client. Download bytes then flow
+ * server-to-client until the ticket's file size is reached; upload bytes flow
+ * client-to-server and are answered with a status frame.
+ * 
+ * Token frame:  2-byte unsigned length, UTF-8 token
+ * Status frame: 1-byte status, 2-byte unsigned length, UTF-8 message
+ */
+public class BulkTransferProtocol {
+    
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_ERROR = 1;
+    
+    // Bytes moved per transferTo/transferFrom call
+    public static final long TRANSFER_SLICE = 1024 * 1024;
+    
+    private static final int MAX_FRAME_STRING = 0xFFFF;
+    
+    /**
+     * Send the token that identifies a transfer
+     */
+    public static void writeToken(BulkChannel socket, String token) throws IOException {
+        writeString(socket, ByteBuffer.allocate(2 + token.length() * 3), token);
+    }
+    
+    /**
+     * Read the token that identifies a transfer
+     * @return The token, or null if it is longer than maxLength
+     */
+    public static String readToken(BulkChannel socket, int maxLength) throws IOException {
+        int length = readUnsignedShort(socket);
+        if (length == 0 || length > maxLength) {
+            return null;
+        }
+        return readString(socket, length);
+    }
+    
+    /**
+     * Send the result of an upload
+     */
+    public static void writeStatus(BulkChannel socket, boolean success, String message) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(3 + message.length() * 3);
+        buffer.put(success ? STATUS_OK : STATUS_ERROR);
+        writeString(socket, buffer, message);
+    }
+    
+    /**
+     * Read the result of an upload
+     * @return The status message
+     * @throws IOException if the server reported an error
+     */
+    public static String readStatus(BulkChannel socket) throws IOException {
+        ByteBuffer statusBuffer = ByteBuffer.allocate(1);
+        readFully(socket, statusBuffer);
+        byte status = statusBuffer.get(0);
+        String message = readString(socket, readUnsignedShort(socket));
+        
+        if (status != STATUS_OK) {
+            throw new IOException(message);
+        }
+        return message;
+    }
+    
+    /**
+     * Fill a buffer from a channel
+     * @throws IOException if the channel closes before the buffer is full
+     */
+    public static void readFully(BulkChannel socket, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (socket.read(buffer) < 0) {
+                throw new IOException("Connection closed by peer");
+            }
+        }
+    }
+    
+    private static void writeString(BulkChannel socket, ByteBuffer buffer, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_FRAME_STRING) {
+            throw new IOException("Frame string too long: " + bytes.length);
+        }
+        
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            socket.write(buffer);
+        }
+    }
+    
+    private static int readUnsignedShort(BulkChannel socket) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(2);
+        readFully(socket, buffer);
+        return buffer.getShort(0) & 0xFFFF;
+    }
+    
+    private static String readString(BulkChannel socket, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(socket, buffer);
+        return new String(buffer.array(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,128 @@
+package com.collabboard.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Utility class for compressing file chunks during transfer
+ * Compression only affects the transfer form of a chunk; files are always stored uncompressed
+ */
+public class CompressionUtils {
+    
+    public static final int DEFAULT_LEVEL = Deflater.DEFAULT_COMPRESSION;
+    public static final int DISABLED_LEVEL = -2; // compression turned off
+    
+    // Size of the prefix compressed to estimate whether a chunk is worth compressing
+    private static final int SAMPLE_SIZE = 4 * 1024;
+    
+    // Compressed/original ratio above which compression is skipped
+    private static final double MAX_USEFUL_RATIO = 0.9;
+    
+    /**
+     * Check if a file type is already compressed, so compressing it again is wasted work
+     * @param extension File extension
+     * @return true if the file type uses its own compression
+     */
+    public static boolean isAlreadyCompressed(String extension) {
+        String[] compressedTypes = {
+            "zip", "rar", "7z",
+            "jpg", "jpeg", "png", "gif",
+            "mp3", "mp4", "avi",
+            "docx", "xlsx", "pptx"
+        };
+        
+        for (String compressedType : compressedTypes) {
+            if (compressedType.equalsIgnoreCase(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Compress a chunk if it compresses well
+     * A sample of the chunk is compressed first so incompressible data is skipped cheaply
+     * @param data Chunk data
+     * @param level Deflater compression level (0-9 or -1 for default)
+     * @return Compressed data, or null if compression would not save enough bytes
+     */
+    public static byte[] compressChunk(byte[] data, int level) {
+        if (data.length == 0) {
+            return null;
+        }
+        
+        if (data.length > SAMPLE_SIZE) {
+            int sampleLength = deflate(data, SAMPLE_SIZE, level).length;
+            if (sampleLength > SAMPLE_SIZE * MAX_USEFUL_RATIO) {
+                return null;
+            }
+        }
+        
+        byte[] compressed = deflate(data, data.length, level);
+        if (compressed.length > data.length * MAX_USEFUL_RATIO) {
+            return null;
+        }
+        return compressed;
+    }
+    
+    /**
+     * Decompress a chunk
+     * @param data Compressed chunk data
+     * @param rawLength Length of the uncompressed chunk
+     * @return Uncompressed data
+     * @throws IOException if the data is corrupted or the raw length is negative
+     */
+    public static byte[] decompressChunk(byte[] data, int rawLength) throws IOException {
+        if (rawLength < 0) {
+            throw new IOException("Invalid raw chunk length: " + rawLength);
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] raw = new byte[rawLength];
+            int offset = 0;
+            while (offset < rawLength && !inflater.finished()) {
+                int read = inflater.inflate(raw, offset, rawLength - offset);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                offset += read;
+            }
+            
+            if (offset != rawLength || !inflater.finished()) {
+                throw new IOException("Compressed chunk is truncated");
+            }
+            return raw;
+            
+        } catch (DataFormatException e) {
+            throw new IOException("Compressed chunk is corrupted: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+    
+    /**
+     * Deflate the first length bytes of data
+     */
+    private static byte[] deflate(byte[] data, int length, int level) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+            
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.collabboard.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Splits data into content-defined chunks with a gear hash
+ * Chunk boundaries depend only on the bytes around them, so an insertion or deletion
+ * only changes the chunks it touches and the rest of a file still deduplicates
+ */
+public class ContentChunker {
+    
+    public static final int MIN_CHUNK_SIZE = 16 * 1024;
+    public static final int MAX_CHUNK_SIZE = 256 * 1024;
+    
+    // 16 top bits must be zero, giving about 64KB between the minimum size and a boundary
+    private static final long BOUNDARY_MASK = 0xFFFFL << 48;
+    
+    // Fixed seed so every server and client cuts the same boundaries
+    private static final long[] GEAR = new long[256];
+    static {
+        Random random = new Random(0x436F6C6C6162L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+    
+    /**
+     * Receives each chunk of the data in order
+     * The buffer is reused for the next chunk and must be copied to be kept
+     */
+    @FunctionalInterface
+    public interface ChunkHandler {
+        void onChunk(byte[] buffer, int offset, int length) throws IOException;
+    }
+    
+    /**
+     * Split everything left in a stream into chunks
+     * @param in Stream to read, not closed
+     * @param handler Receives the chunks
+     * @throws IOException if the stream cannot be read or the handler fails
+     */
+    public static void split(InputStream in, ChunkHandler handler) throws IOException {
+        byte[] buffer = new byte[MAX_CHUNK_SIZE];
+        int length = 0;
+        boolean endOfStream = false;
+        
+        while (true) {
+            while (!endOfStream && length < buffer.length) {
+                int read = in.read(buffer, length, buffer.length - length);
+                if (read < 0) {
+                    endOfStream = true;
+                } else {
+                    length += read;
+                }
+            }
+            if (length == 0) {
+                return;
+            }
+            
+            int boundary = findBoundary(buffer, length);
+            handler.onChunk(buffer, 0, boundary);
+            System.arraycopy(buffer, boundary, buffer, 0, length - boundary);
+            length -= boundary;
+        }
+    }
+    
+    /**
+     * Find the end of the first chunk in a buffer
+     * The top bits of the gear hash depend on the last 64 bytes, which act as the window
+     */
+    private static int findBoundary(byte[] buffer, int length) {
+        if (length <= MIN_CHUNK_SIZE) {
+            return length;
+        }
+        
+        long hash = 0;
+        for (int i = MIN_CHUNK_SIZE; i < length; i++) {
+            hash = (hash << 1) + GEAR[buffer[i] & 0xFF];
+            if ((hash & BOUNDARY_MASK) == 0) {
+                return i + 1;
+            }
+        }
+        return length;
+    }
+}
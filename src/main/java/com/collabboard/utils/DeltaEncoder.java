@@ -0,0 +1,181 @@
+package com.collabboard.utils;
+
+import com.collabboard.models.BlockSignature;
+import com.collabboard.models.DeltaInstruction;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * rsync-style delta encoding
+ * The server publishes block signatures of a file it already has, and the client
+ * describes its new version as copies of matching blocks plus the bytes that changed
+ */
+public class DeltaEncoder {
+    
+    public static final int MIN_BLOCK_SIZE = 1024;
+    public static final int MAX_BLOCK_SIZE = 64 * 1024;
+    
+    /**
+     * Choose a block size for a file
+     * Scales with the square root of the size, which balances signature size against match granularity
+     * @param fileSize Size of the base file
+     * @return Block size in bytes
+     */
+    public static int chooseBlockSize(long fileSize) {
+        int blockSize = (int) Math.sqrt(fileSize) & ~7;
+        return Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, blockSize));
+    }
+    
+    /**
+     * Compute the signatures of every block of a file
+     * @param filePath Path to the file
+     * @param blockSize Block size in bytes
+     * @return Signatures in block order, the last block may be shorter
+     * @throws IOException if file cannot be read
+     */
+    public static List<BlockSignature> computeSignatures(String filePath, int blockSize) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(filePath), MAX_BLOCK_SIZE)) {
+            return computeSignatures(in, blockSize);
+        }
+    }
+    
+    /**
+     * Compute the signatures of every block read from a stream
+     * @param in Stream over the file contents, not closed
+     * @param blockSize Block size in bytes
+     * @return Signatures in block order, the last block may be shorter
+     * @throws IOException if the stream cannot be read
+     */
+    public static List<BlockSignature> computeSignatures(InputStream in, int blockSize) throws IOException {
+        List<BlockSignature> signatures = new ArrayList<>();
+        MessageDigest md5 = newStrongDigest();
+        byte[] block = new byte[blockSize];
+        
+        int length;
+        while ((length = in.readNBytes(block, 0, blockSize)) > 0) {
+            md5.update(block, 0, length);
+            signatures.add(new BlockSignature(signatures.size(), length, 
+                RollingChecksum.compute(block, 0, length), md5.digest()));
+        }
+        return signatures;
+    }
+    
+    /**
+     * Encode new file contents as a delta against the blocks of a base file
+     * @param data New file contents
+     * @param blockSize Block size the signatures were computed with
+     * @param signatures Signatures of the base file
+     * @return Instructions that rebuild the data from the base file
+     */
+    public static List<DeltaInstruction> encode(byte[] data, int blockSize, List<BlockSignature> signatures) {
+        Map<Integer, List<BlockSignature>> byWeakHash = new HashMap<>();
+        for (BlockSignature signature : signatures) {
+            if (signature.getLength() == blockSize) {
+                byWeakHash.computeIfAbsent(signature.getWeakHash(), k -> new ArrayList<>(1)).add(signature);
+            }
+        }
+        
+        List<DeltaInstruction> instructions = new ArrayList<>();
+        MessageDigest md5 = newStrongDigest();
+        int literalStart = 0;
+        int position = 0;
+        
+        if (data.length >= blockSize && !byWeakHash.isEmpty()) {
+            RollingChecksum checksum = new RollingChecksum(data, 0, blockSize);
+            while (position + blockSize <= data.length) {
+                BlockSignature match = findMatch(byWeakHash.get(checksum.getValue()), md5, data, position, blockSize);
+                if (match != null) {
+                    addLiteral(instructions, data, literalStart, position);
+                    addCopy(instructions, match.getBlockIndex());
+                    position += blockSize;
+                    literalStart = position;
+                    if (position + blockSize <= data.length) {
+                        checksum = new RollingChecksum(data, position, blockSize);
+                    }
+                } else if (position + blockSize < data.length) {
+                    checksum.roll(data[position], data[position + blockSize]);
+                    position++;
+                } else {
+                    break;
+                }
+            }
+        }
+        
+        // The short last block of the base file can only match the tail of the data
+        if (!signatures.isEmpty()) {
+            BlockSignature last = signatures.get(signatures.size() - 1);
+            int tailStart = data.length - last.getLength();
+            if (last.getLength() < blockSize && tailStart >= literalStart && 
+                RollingChecksum.compute(data, tailStart, last.getLength()) == last.getWeakHash() &&
+                matchesStrongHash(last, md5, data, tailStart, last.getLength())) {
+                addLiteral(instructions, data, literalStart, tailStart);
+                addCopy(instructions, last.getBlockIndex());
+                literalStart = data.length;
+            }
+        }
+        
+        addLiteral(instructions, data, literalStart, data.length);
+        return instructions;
+    }
+    
+    /**
+     * Count the literal bytes a delta carries
+     */
+    public static long getLiteralBytes(List<DeltaInstruction> instructions) {
+        long total = 0;
+        for (DeltaInstruction instruction : instructions) {
+            if (!instruction.isCopy()) {
+                total += instruction.getData().length;
+            }
+        }
+        return total;
+    }
+    
+    private static BlockSignature findMatch(List<BlockSignature> candidates, MessageDigest md5, 
+                                           byte[] data, int offset, int length) {
+        if (candidates == null) {
+            return null;
+        }
+        for (BlockSignature candidate : candidates) {
+            if (matchesStrongHash(candidate, md5, data, offset, length)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+    
+    private static boolean matchesStrongHash(BlockSignature signature, MessageDigest md5, 
+                                             byte[] data, int offset, int length) {
+        md5.update(data, offset, length);
+        return Arrays.equals(md5.digest(), signature.getStrongHash());
+    }
+    
+    private static void addLiteral(List<DeltaInstruction> instructions, byte[] data, int from, int to) {
+        if (to > from) {
+            instructions.add(DeltaInstruction.literal(Arrays.copyOfRange(data, from, to)));
+        }
+    }
+    
+    private static void addCopy(List<DeltaInstruction> instructions, int blockIndex) {
+        // Extend the previous copy when the blocks are consecutive
+        if (!instructions.isEmpty()) {
+            DeltaInstruction previous = instructions.get(instructions.size() - 1);
+            if (previous.isCopy() && previous.getBlockIndex() + previous.getBlockCount() == blockIndex) {
+                previous.setBlockCount(previous.getBlockCount() + 1);
+                return;
+            }
+        }
+        instructions.add(DeltaInstruction.copy(blockIndex, 1));
+    }
+    
+    private static MessageDigest newStrongDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+}
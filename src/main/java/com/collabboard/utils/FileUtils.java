@@ -4,8 +4,12 @@ import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32C;
 
 /**
  * Utility class for file operations
@@ -226,6 +230,22 @@ public class FileUtils {
         return fileName.replaceAll("[^a-zA-Z0-9\\.\\-_]", "_");
     }
     
+    /**
+     * Get a safe filename that is not in a set of used names yet, numbering repeated names
+     * @param fileName Original filename
+     * @param usedNames Names already used, the returned name is added to it
+     * @return Unique safe filename
+     */
+    public static String getUniqueFileName(String fileName, Set<String> usedNames) {
+        String name = getSafeFileName(fileName);
+        String extension = getFileExtension(name);
+        String base = extension.isEmpty() ? name : name.substring(0, name.length() - extension.length() - 1);
+        for (int i = 2; !usedNames.add(name); i++) {
+            name = base + "_" + i + (extension.isEmpty() ? "" : "." + extension);
+        }
+        return name;
+    }
+    
     /**
      * Validate file size
      * @param fileSize Size of the file in bytes
@@ -234,4 +254,106 @@ public class FileUtils {
     public static boolean isFileSizeValid(long fileSize) {
         return fileSize > 0 && fileSize <= MAX_FILE_SIZE;
     }
+    
+    /**
+     * Read a range of bytes from a file
+     * @param filePath Path to the file
+     * @param offset Position of the first byte to read
+     * @param length Maximum number of bytes to read
+     * @return Byte array with the bytes read (shorter than length at end of file)
+     * @throws IOException if file cannot be read
+     */
+    public static byte[] readFileRange(String filePath, long offset, int length) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(filePath, "r")) {
+            long available = Math.max(0, file.length() - offset);
+            byte[] data = new byte[(int) Math.min(length, available)];
+            file.seek(offset);
+            file.readFully(data);
+            return data;
+        }
+    }
+    
+    /**
+     * Get the number of transfer chunks needed for a file
+     * @param fileSize Size of the file in bytes
+     * @return Number of chunks (at least 1)
+     */
+    public static int getChunkCount(long fileSize) {
+        return (int) Math.max(1, (fileSize + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    }
+    
+    /**
+     * Compute the CRC32C checksum of a chunk
+     * @param data Chunk data
+     * @return CRC32C value
+     */
+    public static long computeCrc32c(byte[] data) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+    }
+    
+    /**
+     * Create a SHA-256 digest for incremental hashing
+     * @return New message digest
+     */
+    public static MessageDigest newSha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+    
+    /**
+     * Compute the SHA-256 hash of a byte array
+     * @param data Data to hash
+     * @return Lowercase hex encoded hash
+     */
+    public static String computeSha256(byte[] data) {
+        return toHexString(newSha256Digest().digest(data));
+    }
+    
+    /**
+     * Compute the SHA-256 hash of a file without loading it into memory
+     * @param filePath Path to the file
+     * @return Lowercase hex encoded hash
+     * @throws IOException if file cannot be read
+     */
+    public static String computeSha256(String filePath) throws IOException {
+        try (InputStream in = new FileInputStream(filePath)) {
+            return computeSha256(in);
+        }
+    }
+    
+    /**
+     * Compute the SHA-256 hash of everything left in a stream
+     * @param in Stream to read, not closed
+     * @return Lowercase hex encoded hash
+     * @throws IOException if the stream cannot be read
+     */
+    public static String computeSha256(InputStream in) throws IOException {
+        MessageDigest digest = newSha256Digest();
+        byte[] buffer = new byte[CHUNK_SIZE];
+        
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return toHexString(digest.digest());
+    }
+    
+    /**
+     * Convert bytes to a lowercase hex string
+     * @param bytes Bytes to convert
+     * @return Hex string
+     */
+    public static String toHexString(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
 }
@@ -0,0 +1,323 @@
+package com.collabboard.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON reader and writer for the WebSocket gateway
+ *
+ * Objects are read as maps, arrays as lists, whole numbers as Long and other numbers as
+ * Double. Writing takes the same types, any Number, and any Iterable.
+ */
+public class JsonCodec {
+    
+    private static final int MAX_DEPTH = 32;
+    
+    /**
+     * Parse a JSON document
+     * @throws IOException if the text is not valid JSON or nests too deeply
+     */
+    public static Object parse(String text) throws IOException {
+        Parser parser = new Parser(text);
+        Object value = parser.readValue(0);
+        parser.skipWhitespace();
+        if (parser.position < text.length()) {
+            throw parser.error("Unexpected text after the value");
+        }
+        return value;
+    }
+    
+    /**
+     * Write a value as JSON
+     */
+    public static String write(Object value) {
+        StringBuilder out = new StringBuilder(128);
+        write(out, value);
+        return out.toString();
+    }
+    
+    /**
+     * Append a value as JSON
+     */
+    public static void write(StringBuilder out, Object value) {
+        if (value == null) {
+            out.append("null");
+        } else if (value instanceof String) {
+            writeString(out, (String) value);
+        } else if (value instanceof Boolean || value instanceof Long || value instanceof Integer
+                   || value instanceof Short || value instanceof Byte) {
+            out.append(value);
+        } else if (value instanceof Number) {
+            double number = ((Number) value).doubleValue();
+            out.append(Double.isFinite(number) ? String.valueOf(value) : "null");
+        } else if (value instanceof Map) {
+            out.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    out.append(',');
+                }
+                first = false;
+                writeString(out, String.valueOf(entry.getKey()));
+                out.append(':');
+                write(out, entry.getValue());
+            }
+            out.append('}');
+        } else if (value instanceof Iterable) {
+            out.append('[');
+            boolean first = true;
+            for (Object element : (Iterable<?>) value) {
+                if (!first) {
+                    out.append(',');
+                }
+                first = false;
+                write(out, element);
+            }
+            out.append(']');
+        } else {
+            writeString(out, value.toString());
+        }
+    }
+    
+    private static void writeString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') { // line separators break JavaScript string literals
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+    
+    private static class Parser {
+        final String text;
+        int position;
+        
+        Parser(String text) {
+            this.text = text;
+        }
+        
+        Object readValue(int depth) throws IOException {
+            if (depth > MAX_DEPTH) {
+                throw error("Nested too deeply");
+            }
+            skipWhitespace();
+            if (position >= text.length()) {
+                throw error("Unexpected end of text");
+            }
+            char c = text.charAt(position);
+            switch (c) {
+                case '{':
+                    return readObject(depth);
+                case '[':
+                    return readArray(depth);
+                case '"':
+                    return readString();
+                case 't':
+                    expect("true");
+                    return Boolean.TRUE;
+                case 'f':
+                    expect("false");
+                    return Boolean.FALSE;
+                case 'n':
+                    expect("null");
+                    return null;
+                default:
+                    return readNumber();
+            }
+        }
+        
+        private Map<String, Object> readObject(int depth) throws IOException {
+            Map<String, Object> object = new LinkedHashMap<>();
+            position++;
+            skipWhitespace();
+            if (peek() == '}') {
+                position++;
+                return object;
+            }
+            while (true) {
+                skipWhitespace();
+                if (peek() != '"') {
+                    throw error("Expected a member name");
+                }
+                String name = readString();
+                skipWhitespace();
+                if (peek() != ':') {
+                    throw error("Expected ':'");
+                }
+                position++;
+                object.put(name, readValue(depth + 1));
+                skipWhitespace();
+                char c = next();
+                if (c == '}') {
+                    return object;
+                }
+                if (c != ',') {
+                    throw error("Expected ',' or '}'");
+                }
+            }
+        }
+        
+        private List<Object> readArray(int depth) throws IOException {
+            List<Object> array = new ArrayList<>();
+            position++;
+            skipWhitespace();
+            if (peek() == ']') {
+                position++;
+                return array;
+            }
+            while (true) {
+                array.add(readValue(depth + 1));
+                skipWhitespace();
+                char c = next();
+                if (c == ']') {
+                    return array;
+                }
+                if (c != ',') {
+                    throw error("Expected ',' or ']'");
+                }
+            }
+        }
+        
+        private String readString() throws IOException {
+            position++; // opening quote
+            StringBuilder value = null;
+            int start = position;
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return value == null ? text.substring(start, position - 1) : value.toString();
+                }
+                if (c < 0x20) {
+                    throw error("Control character in string");
+                }
+                if (c != '\\') {
+                    if (value != null) {
+                        value.append(c);
+                    }
+                    continue;
+                }
+                if (value == null) {
+                    value = new StringBuilder(text.substring(start, position - 1));
+                }
+                char escape = next();
+                switch (escape) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        value.append(escape);
+                        break;
+                    case 'b':
+                        value.append('\b');
+                        break;
+                    case 'f':
+                        value.append('\f');
+                        break;
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 'r':
+                        value.append('\r');
+                        break;
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'u':
+                        if (position + 4 > text.length()) {
+                            throw error("Truncated escape");
+                        }
+                        try {
+                            value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("Invalid escape");
+                        }
+                        position += 4;
+                        break;
+                    default:
+                        throw error("Invalid escape");
+                }
+            }
+        }
+        
+        private Number readNumber() throws IOException {
+            int start = position;
+            boolean integer = true;
+            while (position < text.length()) {
+                char c = text.charAt(position);
+                if (c == '.' || c == 'e' || c == 'E') {
+                    integer = false;
+                } else if (!(c >= '0' && c <= '9') && c != '-' && c != '+') {
+                    break;
+                }
+                position++;
+            }
+            String number = text.substring(start, position);
+            try {
+                if (integer) {
+                    return Long.parseLong(number);
+                }
+                return Double.parseDouble(number);
+            } catch (NumberFormatException e) {
+                throw error("Invalid value");
+            }
+        }
+        
+        private void expect(String literal) throws IOException {
+            if (!text.startsWith(literal, position)) {
+                throw error("Invalid value");
+            }
+            position += literal.length();
+        }
+        
+        void skipWhitespace() {
+            while (position < text.length()) {
+                char c = text.charAt(position);
+                if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                    return;
+                }
+                position++;
+            }
+        }
+        
+        private char peek() throws IOException {
+            if (position >= text.length()) {
+                throw error("Unexpected end of text");
+            }
+            return text.charAt(position);
+        }
+        
+        private char next() throws IOException {
+            char c = peek();
+            position++;
+            return c;
+        }
+        
+        IOException error(String message) {
+            return new IOException(message + " at position " + position);
+        }
+    }
+}
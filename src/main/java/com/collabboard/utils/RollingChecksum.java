@@ -0,0 +1,52 @@
+package com.collabboard.utils;
+
+/**
+ * rsync-style weak checksum over a sliding window
+ * Sliding the window by one byte updates the checksum in constant time
+ */
+public class RollingChecksum {
+    
+    private final int windowLength;
+    private int a;
+    private int b;
+    
+    /**
+     * Compute the checksum of a window
+     * @param data Data to read
+     * @param offset Start of the window
+     * @param length Length of the window
+     */
+    public RollingChecksum(byte[] data, int offset, int length) {
+        this.windowLength = length;
+        for (int i = 0; i < length; i++) {
+            int x = data[offset + i] & 0xFF;
+            a += x;
+            b += (length - i) * x;
+        }
+    }
+    
+    /**
+     * Slide the window by one byte
+     * @param outByte Byte leaving the window
+     * @param inByte Byte entering the window
+     */
+    public void roll(byte outByte, byte inByte) {
+        int out = outByte & 0xFF;
+        a += (inByte & 0xFF) - out;
+        b += a - windowLength * out;
+    }
+    
+    /**
+     * Get the checksum of the current window
+     */
+    public int getValue() {
+        return (a & 0xFFFF) | (b << 16);
+    }
+    
+    /**
+     * Compute the checksum of a block in one pass
+     */
+    public static int compute(byte[] data, int offset, int length) {
+        return new RollingChecksum(data, offset, length).getValue();
+    }
+}